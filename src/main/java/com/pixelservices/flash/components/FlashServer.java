@@ -1,22 +1,32 @@
 package com.pixelservices.flash.components;
 
+import com.pixelservices.flash.components.fileserver.AssetCache;
 import com.pixelservices.flash.components.fileserver.DynamicFileServer;
 import com.pixelservices.flash.components.fileserver.DynamicFileServerConfiguration;
 import com.pixelservices.flash.components.fileserver.StaticFileServer;
 import com.pixelservices.flash.components.fileserver.StaticFileServerConfiguration;
 import com.pixelservices.flash.components.http.*;
+import com.pixelservices.flash.components.http.connection.RawRequest;
+import com.pixelservices.flash.components.http.connection.RequestParser;
+import com.pixelservices.flash.components.http.connection.ResponseQueue;
 import com.pixelservices.flash.components.http.routing.models.RequestInfo;
 import com.pixelservices.flash.components.http.routing.models.RouteEntry;
 import com.pixelservices.flash.components.http.routing.RouteRegistry;
+import com.pixelservices.flash.components.http.routing.RoutingInstrumentation;
 import com.pixelservices.flash.components.http.routing.Router;
 import com.pixelservices.flash.components.http.routing.models.SimpleHandler;
 import com.pixelservices.flash.components.http.routing.models.SimpleHandlerWrapper;
+import com.pixelservices.flash.components.http.pool.HandlerFactory;
+import com.pixelservices.flash.components.http.pool.HandlerPool;
 import com.pixelservices.flash.components.http.pool.HandlerPoolManager;
+import com.pixelservices.flash.components.websocket.PerMessageDeflate;
+import com.pixelservices.flash.components.websocket.WebSocketBroadcaster;
 import com.pixelservices.flash.components.websocket.WebSocketHandler;
 import com.pixelservices.flash.components.websocket.WebSocketRequestHandler;
 import com.pixelservices.flash.components.websocket.WebSocketSession;
 import com.pixelservices.flash.exceptions.RequestExceptionHandler;
 import com.pixelservices.flash.exceptions.ServerStartupException;
+import com.pixelservices.flash.components.http.lifecycle.DefaultHeaders;
 import com.pixelservices.flash.components.http.lifecycle.Request;
 import com.pixelservices.flash.components.http.lifecycle.Response;
 import com.pixelservices.flash.models.*;
@@ -29,12 +39,10 @@ import org.json.JSONObject;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
 import java.nio.channels.AsynchronousServerSocketChannel;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
-import java.nio.charset.CharacterCodingException;
-import java.nio.charset.CharsetDecoder;
+import java.nio.channels.InterruptedByTimeoutException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
@@ -62,23 +70,31 @@ public class FlashServer {
 
     private final Map<String, WebSocketHandler> webSocketHandlers = new ConcurrentHashMap<>();
     private final Map<String, WebSocketSession> activeSessions = new ConcurrentHashMap<>();
+    private final WebSocketBroadcaster webSocketBroadcaster = new WebSocketBroadcaster(activeSessions);
+    private final Map<String, PerMessageDeflate> webSocketCompression = new ConcurrentHashMap<>();
 
     // Virtual thread executor for client connections.
     private static final ExecutorService VIRTUAL_THREAD_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+    // Set on the threads of the channel group, they only run completion handlers and must never park
+    private static final ThreadLocal<Boolean> IO_THREAD = new ThreadLocal<>();
 
     // ------------------ Off-Heap Buffer Management ------------------ //
     public static final int BUFFER_POOL_SIZE = 4096;
     public static final int BUFFER_SIZE = 262144; // 256KB
     public static final OffHeapBufferPool REQUEST_BUFFER_POOL = new OffHeapBufferPool(BUFFER_POOL_SIZE, BUFFER_SIZE);
 
+    // For response heads, bodies are written from their own buffers next to them
+    public static final int RESPONSE_HEAD_SIZE = 8192;
+    public static final OffHeapBufferPool RESPONSE_HEAD_POOL = new OffHeapBufferPool(256, RESPONSE_HEAD_SIZE);
+
     // For WebSocket frames (64KB per buffer)
     public static final int WEBSOCKET_BUFFER_SIZE = 65536;
     public static final OffHeapBufferPool WEBSOCKET_BUFFER_POOL = new OffHeapBufferPool(1024, WEBSOCKET_BUFFER_SIZE);
 
-    // ------------------ Thread-Local Decoder ------------------ //
-    private static final ThreadLocal<CharsetDecoder> UTF8_DECODER = ThreadLocal.withInitial(StandardCharsets.UTF_8::newDecoder);
-
-    private final RouteRegistry routeRegistry = new RouteRegistry();
+    private final RouteRegistry routeRegistry;
+    // The batch collecting route changes of the current thread, see batchRoutes
+    private final ThreadLocal<RouteRegistry.Batch> routeBatch = new ThreadLocal<>();
+    private final DefaultHeaders defaultHeaders;
     private final HttpRequestHandler httpRequestHandler;
     private final WebSocketRequestHandler webSocketRequestHandler;
 
@@ -87,14 +103,34 @@ public class FlashServer {
     public FlashServer(int port, FlashConfiguration config) {
         this.port = port;
         this.config = config;
+        this.routeRegistry = new RouteRegistry(config.getRouteCacheSize());
+        this.defaultHeaders = new DefaultHeaders(config.getDefaultHeaders(), config.isDateHeaderEnabled());
         
         // Initialize the HandlerPoolManager with default values
-        this.handlerPoolManager = new HandlerPoolManager(this, 5, 2, 20);
+        this.handlerPoolManager = new HandlerPoolManager(this, 5, 2, 20, config.getHandlerPoolStripes(),
+                config.getHandlerAcquireTimeoutMillis());
         
         this.staticFileServer = new StaticFileServer(this);
         this.dynamicFileServer = new DynamicFileServer(this);
         this.httpRequestHandler = new HttpRequestHandler(this, routeRegistry);
-        this.webSocketRequestHandler = new WebSocketRequestHandler(this, webSocketHandlers, activeSessions, WEBSOCKET_BUFFER_POOL);
+        this.webSocketRequestHandler = new WebSocketRequestHandler(this, webSocketHandlers, activeSessions, WEBSOCKET_BUFFER_POOL,
+                webSocketBroadcaster, webSocketCompression);
+
+        if (config.isRoutingInstrumentationEnabled()) {
+            registerRoutingApiEndpoint();
+        }
+    }
+
+    /**
+     * Enables routing instrumentation and registers the devtools endpoint serving its statistics.
+     */
+    private void registerRoutingApiEndpoint() {
+        RoutingInstrumentation instrumentation = routeRegistry.enableInstrumentation();
+        registerRoute(HttpMethod.GET, "/_flash/devtools/api/routing", (req, res) -> {
+            res.type("application/json");
+            return instrumentation.toJson();
+        }, HandlerType.INTERNAL);
+        logger.info("Routing API endpoint registered at /_flash/devtools/api/routing");
     }
 
     public FlashServer(int port) {
@@ -283,14 +319,56 @@ public class FlashServer {
 
     private void registerRoute(HttpMethod method, String fullPath, RequestHandler handler, HandlerType handlerType) {
         final RouteEntry entry = new RouteEntry(method, fullPath, handler, handlerType, handlerPoolManager);
+        handler.setHandlerType(handlerType);
+        handler.setSpecification(new HandlerSpecification(handler, fullPath, method, handler.isEnforcedNonNullBody()));
+        registerEntry(entry, handler);
+    }
+
+    /**
+     * Registers a handler class whose instances are pooled, so concurrent requests to the route
+     * each get an instance of their own. A {@link StatelessRequestHandler} is instantiated once
+     * and shared by all requests instead.
+     *
+     * @param method       the HTTP method
+     * @param fullPath     the route path
+     * @param handlerClass the handler class
+     */
+    public <T extends RequestHandler> void registerRoute(HttpMethod method, String fullPath, Class<T> handlerClass) {
+        if (StatelessRequestHandler.class.isAssignableFrom(handlerClass)) {
+            registerRoute(method, fullPath, HandlerFactory.of(handlerClass).get(), HandlerType.STANDARD);
+            return;
+        }
+        final RouteEntry entry = new RouteEntry(method, fullPath, handlerClass, HandlerType.STANDARD, handlerPoolManager);
+        @SuppressWarnings("unchecked")
+        final HandlerPool<T> pool = (HandlerPool<T>) entry.getHandlerPool();
+
+        // One instance describes the route, the others share its specification
+        final T template = pool.acquire(null, null);
+        final HandlerSpecification specification = new HandlerSpecification(template, fullPath, method, template.isEnforcedNonNullBody());
+        pool.release(template);
+        pool.setInstanceInitializer(instance -> {
+            instance.setHandlerType(HandlerType.STANDARD);
+            instance.setSpecification(specification);
+        });
+        registerEntry(entry, template);
+    }
+
+    private void registerEntry(RouteEntry entry, RequestHandler handler) {
+        final HttpMethod method = entry.getMethod();
+        final String fullPath = entry.getPath();
+        final HandlerType handlerType = entry.getHandlerType();
+        final RouteRegistry.Batch enclosing = routeBatch.get();
+        final RouteRegistry.Batch batch = enclosing != null ? enclosing : routeRegistry.begin();
         if (fullPath.endsWith("/*")) {
-            routeRegistry.registerDynamicRoute(entry);
+            batch.registerDynamicRoute(entry);
         } else if (entry.isParameterized()) {
-            routeRegistry.registerParameterizedRoute(entry);
+            batch.registerParameterizedRoute(entry);
         } else {
-            routeRegistry.registerLiteralRoute(entry);
+            batch.registerLiteralRoute(entry);
+        }
+        if (enclosing == null) {
+            batch.commit();
         }
-        handler.setHandlerType(handlerType);
         final String routingType = fullPath.endsWith("/*") ? "Dynamic" : (entry.isParameterized() ? "Parameterized" : "Literal");
         if (config.shouldLog(handlerType)) {
             String poolInfo = "";
@@ -301,7 +379,6 @@ public class FlashServer {
             logger.info(handlerType.name() + " " + routingType + " Route registered: [" + method + "] " +
                                 fullPath + poolInfo);
         }
-        handler.setSpecification(new HandlerSpecification(handler, fullPath, method, handler.isEnforcedNonNullBody()));
         routeHandlers.put(method.name() + ":" + fullPath, handler);
     }
 
@@ -322,12 +399,41 @@ public class FlashServer {
     }
 
     public void unregisterRoute(HttpMethod method, String fullPath) {
+        final RouteRegistry.Batch enclosing = routeBatch.get();
+        if (enclosing != null) {
+            enclosing.unregisterRoute(method, fullPath);
+        } else {
+            routeRegistry.unregisterRoute(method, fullPath);
+        }
         final String routeKey = method.name() + ":" + fullPath;
         if (routeHandlers.remove(routeKey) != null) {
             logger.info("Route unregistered: [" + method + "] " + fullPath);
         }
     }
 
+    /**
+     * Registers and unregisters routes as one batch. Every route change the given action makes on
+     * the calling thread is held back and published at once when it returns, so requests see
+     * either none or all of the changes, and the routing tables are copied only once.
+     * Batches started inside the action join the enclosing batch.
+     *
+     * @param changes the action registering or unregistering routes
+     */
+    public void batchRoutes(Runnable changes) {
+        if (routeBatch.get() != null) {
+            changes.run();
+            return;
+        }
+        final RouteRegistry.Batch batch = routeRegistry.begin();
+        routeBatch.set(batch);
+        try {
+            changes.run();
+        } finally {
+            routeBatch.remove();
+            batch.commit();
+        }
+    }
+
     public void redirect(String fromPath, String toPath, HttpMethod method) {
         registerRoute(method, fromPath, (req, res) -> {
             res.status(302);
@@ -344,15 +450,18 @@ public class FlashServer {
 
     private void handleClient(AsynchronousSocketChannel clientChannel) {
         final ByteBuffer buffer = REQUEST_BUFFER_POOL.acquire();
-        final ClientAttachment attachment = new ClientAttachment(buffer, clientChannel);
+        final ClientAttachment attachment = new ClientAttachment(buffer, clientChannel, this::completeExchange,
+                raw -> routeRegistry.streamsBody(raw.method(), raw.path()), this::continueBody,
+                config.getMaxRequestHeadSize(), config.getMaxRequestBodySize());
         startRead(attachment);
     }
 
     private void startRead(ClientAttachment attachment) {
-        attachment.buffer.clear();
-        attachment.channel.read(attachment.buffer, attachment, new CompletionHandler<>() {
+        final ByteBuffer readBuffer = attachment.framer.readBuffer();
+        attachment.channel.read(readBuffer, config.getKeepAliveTimeoutMillis(), TimeUnit.MILLISECONDS, attachment, new CompletionHandler<>() {
             @Override
             public void completed(Integer bytesRead, ClientAttachment att) {
+                markIoThread();
                 if (bytesRead > 0) {
                     processReadData(att);
                 } else if (bytesRead == -1) {
@@ -369,96 +478,164 @@ public class FlashServer {
         });
     }
 
+    /**
+     * Frames every complete request currently buffered and dispatches them as one batch.
+     * Reading resumes once all responses of the batch have been written, see {@link #completeExchange}.
+     */
     private void processReadData(ClientAttachment att) {
-        ByteBuffer buf = att.buffer;
-
-        buf.flip();
+        if (att.framer.isStreamingBody()) {
+            continueBody(att);
+            return;
+        }
+        final List<RawRequest> batch = new ArrayList<>();
         try {
-            // Use a more efficient approach for checking if we have a complete request
-            if (isCompleteRequest(buf, att.requestData)) {
-                handleRequest(att, att.requestData.toString());
-            } else {
-                // Continue reading if we don't have a complete request yet
-                buf.clear();
-                startRead(att);
+            RawRequest rawRequest;
+            while (batch.size() < config.getMaxPipelinedRequests() && (rawRequest = att.framer.next()) != null) {
+                batch.add(rawRequest);
             }
         } catch (Exception ex) {
-            handleDecodingError(ex, att);
+            // Malformed framing, answer what came before and then the error
+            dispatchBatch(att, batch, ex);
+            return;
+        }
+
+        if (batch.isEmpty()) {
+            // Continue reading if we don't have a complete request yet
+            startRead(att);
+        } else {
+            dispatchBatch(att, batch, null);
         }
     }
 
-    private boolean isCompleteRequest(ByteBuffer buffer, StringBuilder requestData) {
-        try {
-            CharBuffer charBuffer = decodeBuffer(buffer);
-            requestData.append(charBuffer);
-            
-            // Fast check for HTTP request completion
-            String data = requestData.toString();
-            
-            // Check for end of headers
-            int headersEnd = data.indexOf("\r\n\r\n");
-            if (headersEnd == -1) {
-                return false;
+    private void dispatchBatch(ClientAttachment att, List<RawRequest> batch, Exception framingError) {
+        // Reserve every slot before dispatching so the queue cannot drain half way through the batch
+        final List<Runnable> tasks = new ArrayList<>(batch.size() + 1);
+        boolean keepAlive = true;
+        for (RawRequest rawRequest : batch) {
+            final RequestInfo reqInfo = new RequestInfo(rawRequest);
+            att.requestCount++;
+            keepAlive = shouldKeepAlive(att, reqInfo);
+            final ResponseQueue.Slot slot = att.responses.reserve(keepAlive);
+            if (isWebSocketRequest(reqInfo)) {
+                // The upgrade takes over the connection once every earlier response is out
+                tasks.add(() -> att.responses.complete(slot, onWritten -> upgradeToWebSocket(att, reqInfo)));
+                keepAlive = false;
+                break;
             }
-            
-            // For requests with a body, check Content-Length
-            String contentLengthHeader = "Content-Length: ";
-            int contentLengthPos = data.indexOf(contentLengthHeader);
-            if (contentLengthPos != -1) {
-                int valueStart = contentLengthPos + contentLengthHeader.length();
-                int valueEnd = data.indexOf("\r\n", valueStart);
-                if (valueEnd != -1) {
-                    try {
-                        int contentLength = Integer.parseInt(data.substring(valueStart, valueEnd).trim());
-                        int bodyStart = headersEnd + 4;
-                        int bodyLength = data.length() - bodyStart;
-                        return bodyLength >= contentLength;
-                    } catch (NumberFormatException e) {
-                        // If we can't parse content length, assume request is complete
-                        return true;
-                    }
-                }
+            tasks.add(() -> httpRequestHandler.handle(att, reqInfo, slot));
+            if (!keepAlive || rawRequest.isBodyStreamed()) break;
+        }
+        if (keepAlive && framingError != null) {
+            tasks.add(errorTask(att, framingError));
+        }
+
+        if (att.framer.isStreamingBody()) {
+            // The handler blocks on the body stream, so it must never run on the I/O thread feeding it
+            for (Runnable task : tasks) {
+                VIRTUAL_THREAD_EXECUTOR.submit(task);
+            }
+            continueBody(att);
+        } else if (tasks.size() == 1) {
+            tasks.getFirst().run();
+        } else {
+            for (Runnable task : tasks) {
+                VIRTUAL_THREAD_EXECUTOR.submit(task);
             }
-            
-            // If no Content-Length header, assume the request is complete after headers
-            return true;
-        } catch (CharacterCodingException e) {
-            return false;
         }
     }
 
-    private CharBuffer decodeBuffer(ByteBuffer buf) throws CharacterCodingException {
-        CharsetDecoder decoder = UTF8_DECODER.get();
-        decoder.reset();
+    /**
+     * Hands buffered body bytes of a streamed request to its handler and keeps reading the body
+     * from the socket. Reading pauses while the body stream is full and resumes once the handler
+     * drained it; after the last body byte the connection waits for the response like any other.
+     */
+    private void continueBody(ClientAttachment att) {
+        if (att.framer.feedBody()) {
+            startRead(att);
+        }
+    }
 
-        ByteBuffer duplicateBuffer = buf.duplicate();
-        return decoder.decode(duplicateBuffer);
+    /**
+     * Runs a task that may block on a virtual thread, so it never holds up an I/O thread.
+     *
+     * @param task the task to run
+     */
+    public void executeBlocking(Runnable task) {
+        VIRTUAL_THREAD_EXECUTOR.submit(task);
     }
 
-    private void handleRequest(ClientAttachment att, String fullRequestData) {
-        try {
-            RequestInfo reqInfo = parseRequest(fullRequestData);
-            if (isWebSocketRequest(reqInfo)) {
-                att.isWebSocket = true;
-                webSocketRequestHandler.handle(att.channel, reqInfo);
+    private Runnable errorTask(ClientAttachment att, Exception e) {
+        final ResponseQueue.Slot slot = att.responses.reserve(false);
+        final Response errorResponse = new RequestExceptionHandler(att.channel, e).toResponse();
+        // The stream can no longer be split into requests, nothing after the error is read
+        errorResponse.header("Connection", "close");
+        return () -> att.responses.complete(slot, onWritten -> httpRequestHandler.write(errorResponse, att, onWritten));
+    }
+
+    private void upgradeToWebSocket(ClientAttachment att, RequestInfo reqInfo) {
+        // From here on the channel belongs to the WebSocket session, the HTTP side must not close it
+        if (!att.markClosed()) {
+            return;
+        }
+        att.isWebSocket = true;
+        REQUEST_BUFFER_POOL.release(att.buffer);
+        webSocketRequestHandler.handle(att.channel, reqInfo);
+    }
+
+    /**
+     * Decides whether the connection should stay open after answering the given request.
+     * HTTP/1.1 connections persist unless the client sent {@code Connection: close}, HTTP/1.0
+     * connections only persist when the client explicitly asked for {@code Connection: keep-alive}.
+     *
+     * @param att     the connection the request arrived on
+     * @param reqInfo the parsed request
+     * @return true if the connection should be reused for another request
+     */
+    public boolean shouldKeepAlive(ClientAttachment att, RequestInfo reqInfo) {
+        if (!isRunning || att.requestCount >= config.getMaxKeepAliveRequests()) {
+            return false;
+        }
+        if ("HTTP/1.0".equals(reqInfo.getVersion())) {
+            return reqInfo.headerContainsToken("Connection", "keep-alive");
+        }
+        return !reqInfo.headerContainsToken("Connection", "close");
+    }
+
+    /**
+     * Called once every pending response of the connection has been written. Persistent
+     * connections first serve requests that are already buffered and then loop back into
+     * reading on the same attachment, everything else is closed.
+     *
+     * @param att       the connection the responses were written to
+     * @param keepAlive whether the connection should be reused
+     */
+    public void completeExchange(ClientAttachment att, boolean keepAlive) {
+        if (keepAlive && isRunning && !att.isClosed() && att.channel.isOpen() && !att.framer.isStreamingBody()) {
+            if (att.framer.hasBufferedData()) {
+                processReadData(att);
             } else {
-                httpRequestHandler.handle(att, reqInfo, fullRequestData);
-            }
-        } catch (Exception e) {
-            new RequestExceptionHandler(att.channel, e).handle();
-        } finally {
-            if (!att.isWebSocket) {
-                cleanupResources(att);
+                startRead(att);
             }
+        } else {
+            cleanupResources(att);
         }
     }
 
-    private void handleDecodingError(Exception ex, ClientAttachment att) {
-        logger.error("Decoding error", ex);
+    /**
+     * Closes the connection and returns its buffer to the pool.
+     *
+     * @param att the connection to close
+     */
+    public void closeConnection(ClientAttachment att) {
         cleanupResources(att);
     }
 
     private void handleFailure(Throwable exc, ClientAttachment att) {
+        if (exc instanceof InterruptedByTimeoutException || !att.channel.isOpen()) {
+            // Idle keep-alive connection timed out or was closed underneath us
+            cleanupResources(att);
+            return;
+        }
         logger.error("Read failed", exc);
         logger.error("Buffer state on read fail - Position: " + att.buffer.position() + ", Limit: " + att.buffer.limit() + ", Capacity: " + att.buffer.capacity());
         new RequestExceptionHandler(att.channel, new Exception(exc)).handle();
@@ -466,31 +643,22 @@ public class FlashServer {
     }
 
     private void cleanupResources(ClientAttachment att) {
-        REQUEST_BUFFER_POOL.release(att.buffer);
+        if (!att.markClosed()) {
+            return;
+        }
+        att.framer.abortBody(new IOException("Connection closed before the request body was received"));
+        if (!att.isWebSocket) {
+            REQUEST_BUFFER_POOL.release(att.buffer);
+        }
         closeSocket(att.channel);
     }
 
     public static RequestInfo parseRequest(String rawRequest) {
-        final int requestLineEnd = rawRequest.indexOf("\r\n");
-        if (requestLineEnd == -1) throw new IllegalArgumentException("Malformed request");
-        final String requestLine = rawRequest.substring(0, requestLineEnd);
-        final int firstSpace = requestLine.indexOf(' ');
-        final int secondSpace = requestLine.indexOf(' ', firstSpace + 1);
-        if (firstSpace == -1 || secondSpace == -1) throw new IllegalArgumentException("Malformed request line: " + requestLine);
-        final String methodStr = requestLine.substring(0, firstSpace);
-        final String rawPath = requestLine.substring(firstSpace + 1, secondSpace);
-        final int qIndex = rawPath.indexOf('?');
-        final String path = (qIndex != -1) ? rawPath.substring(0, qIndex) : rawPath;
-        final HttpMethod method = HttpMethod.valueOf(methodStr);
-        final int headersEnd = rawRequest.indexOf("\r\n\r\n");
-        final List<String> headers = (headersEnd != -1 && headersEnd > requestLineEnd)
-                ? Arrays.asList(rawRequest.substring(requestLineEnd + 2, headersEnd).split("\r\n"))
-                : Collections.emptyList();
-        return new RequestInfo(method, path, headers);
+        return new RequestInfo(RequestParser.parse(rawRequest.getBytes(StandardCharsets.UTF_8)));
     }
 
     private boolean isWebSocketRequest(RequestInfo reqInfo) {
-        return "Upgrade".equalsIgnoreCase(reqInfo.getHeader("Connection")) &&
+        return reqInfo.headerContainsToken("Connection", "Upgrade") &&
                 "websocket".equalsIgnoreCase(reqInfo.getHeader("Upgrade"));
     }
 
@@ -508,6 +676,24 @@ public class FlashServer {
         return true;
     }
 
+    /**
+     * Marks the calling thread as a thread of the channel group. Called by completion handlers,
+     * every thread that ever ran one belongs to the group.
+     */
+    public static void markIoThread() {
+        if (IO_THREAD.get() == null) {
+            IO_THREAD.set(Boolean.TRUE);
+        }
+    }
+
+    /**
+     * @return true if the calling thread runs completion handlers of the channel group, where
+     * waiting would stall every connection the thread serves
+     */
+    public static boolean isIoThread() {
+        return IO_THREAD.get() != null;
+    }
+
     public static void closeSocket(AsynchronousSocketChannel clientChannel) {
         try { clientChannel.close(); }
         catch (IOException e) { logger.error("Error closing socket ", e); }
@@ -530,27 +716,97 @@ public class FlashServer {
         return config;
     }
 
-    public void serveStatic(String endpoint, StaticFileServerConfiguration config) {
-        staticFileServer.serve(endpoint, config);
+    public AssetCache serveStatic(String endpoint, StaticFileServerConfiguration config) {
+        return staticFileServer.serve(endpoint, config);
     }
 
-    public void serveDynamic(String endpoint, DynamicFileServerConfiguration config) {
-        dynamicFileServer.serve(endpoint, config, getClass());
+    public AssetCache serveDynamic(String endpoint, DynamicFileServerConfiguration config) {
+        return dynamicFileServer.serve(endpoint, config, getClass());
     }
 
-    public void serveDynamic(String endpoint, DynamicFileServerConfiguration config, Class<?> contextClass) {
-        dynamicFileServer.serve(endpoint, config, contextClass);
+    public AssetCache serveDynamic(String endpoint, DynamicFileServerConfiguration config, Class<?> contextClass) {
+        return dynamicFileServer.serve(endpoint, config, contextClass);
     }
 
     public void ws(String endpoint, WebSocketHandler handler) {
-        registerWebSocketRoute(endpoint, handler);
+        registerWebSocketRoute(endpoint, handler, null);
+    }
+
+    /**
+     * Registers a WebSocket route that compresses messages for clients offering permessage-deflate.
+     *
+     * @param endpoint    the endpoint
+     * @param handler     the handler of the sessions
+     * @param compression the permessage-deflate settings of the endpoint
+     */
+    public void ws(String endpoint, WebSocketHandler handler, PerMessageDeflate compression) {
+        registerWebSocketRoute(endpoint, handler, compression);
     }
 
-    private void registerWebSocketRoute(String endpoint, WebSocketHandler handler) {
+    private void registerWebSocketRoute(String endpoint, WebSocketHandler handler, PerMessageDeflate compression) {
         webSocketHandlers.put(endpoint, handler);
+        if (compression != null) {
+            webSocketCompression.put(endpoint, compression);
+        } else {
+            webSocketCompression.remove(endpoint);
+        }
         logger.info("WebSocket Route registered: " + endpoint);
     }
 
+    /**
+     * Sends a text message to every open WebSocket session, framed once for all of them.
+     *
+     * @param message the message
+     * @return the number of sessions the message was queued for
+     */
+    public int broadcast(String message) {
+        return webSocketBroadcaster.broadcast(message);
+    }
+
+    /**
+     * Sends a binary message to every open WebSocket session, framed once for all of them.
+     *
+     * @param data the message
+     * @return the number of sessions the message was queued for
+     */
+    public int broadcast(byte[] data) {
+        return webSocketBroadcaster.broadcast(data);
+    }
+
+    /**
+     * Sends a text message to the WebSocket sessions subscribed to a topic.
+     *
+     * @param topic   the topic
+     * @param message the message
+     * @return the number of sessions the message was queued for
+     */
+    public int publish(String topic, String message) {
+        return webSocketBroadcaster.publish(topic, message);
+    }
+
+    /**
+     * Sends a binary message to the WebSocket sessions subscribed to a topic.
+     *
+     * @param topic the topic
+     * @param data  the message
+     * @return the number of sessions the message was queued for
+     */
+    public int publish(String topic, byte[] data) {
+        return webSocketBroadcaster.publish(topic, data);
+    }
+
+    public void subscribe(String topic, WebSocketSession session) {
+        webSocketBroadcaster.subscribe(topic, session);
+    }
+
+    public void unsubscribe(String topic, WebSocketSession session) {
+        webSocketBroadcaster.unsubscribe(topic, session);
+    }
+
+    public WebSocketBroadcaster getWebSocketBroadcaster() {
+        return webSocketBroadcaster;
+    }
+
     public void get(String endpoint, SimpleHandler handler) {
         registerRoute(HttpMethod.GET, endpoint, handler);
     }
@@ -598,8 +854,31 @@ public class FlashServer {
 
     private record MiddlewareEntry(Middleware middleware, String pathPrefix){}
 
+    /**
+     * @return the headers added to every response of this server
+     */
+    public DefaultHeaders getDefaultHeaders() {
+        return defaultHeaders;
+    }
+
     // Add a method to access the HandlerPoolManager
     public HandlerPoolManager getHandlerPoolManager() {
         return handlerPoolManager;
     }
+
+    public RouteRegistry getRouteRegistry() {
+        return routeRegistry;
+    }
+
+    /**
+     * @return how often a WebSocket message found the send queue of its session full, a growing
+     * count means clients read slower than the server sends to them
+     */
+    public long getWebSocketSendQueueOverflowCount() {
+        return webSocketRequestHandler.getSendQueueOverflowCount();
+    }
+
+    public FlashConfiguration getConfiguration() {
+        return config;
+    }
 }
\ No newline at end of file
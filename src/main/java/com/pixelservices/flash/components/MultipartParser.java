@@ -1,19 +1,35 @@
 package com.pixelservices.flash.components;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * MultipartParser parses HTTP multipart/form-data payloads into fields and files.
  * <p>
- * Note: This is a simplified implementation and may not handle all edge cases or binary data correctly.
+ * The body is read once through a {@link MultipartReader}, so contents are kept byte for byte.
+ * Parts are held in memory up to the spill threshold, larger parts are written to temporary
+ * files which are deleted by {@link #close()}.
  */
-public class MultipartParser {
+public class MultipartParser implements AutoCloseable {
+    /**
+     * The default size above which a part is spilled to a temporary file.
+     */
+    public static final long DEFAULT_SPILL_THRESHOLD = 1024 * 1024;
+
     private final Map<String, MultipartFile> files = new HashMap<>();
     private final Map<String, String> fields = new HashMap<>();
+    private final List<Path> spilled = new ArrayList<>();
 
     /**
      * Constructs a MultipartParser to parse the given content type and body.
@@ -23,45 +39,60 @@ public class MultipartParser {
      * @throws IllegalArgumentException if the Content-Type is invalid or boundary is missing.
      */
     public MultipartParser(String contentType, String body) {
-        if (contentType == null || !contentType.startsWith("multipart/form-data")) {
-            throw new IllegalArgumentException("Invalid Content-Type for multipart");
-        }
-        String[] boundaryParts = contentType.split("boundary=");
-        if (boundaryParts.length < 2) {
-            throw new IllegalArgumentException("No boundary found in Content-Type");
-        }
-        String boundary = "--" + boundaryParts[1];
-        String[] parts = body.split(boundary);
-        for (String part : parts) {
-            part = part.trim();
-            if (part.isEmpty() || part.equals("--")) {
-                continue;
-            }
-            // Remove trailing "--" if present (end marker)
-            if (part.endsWith("--")) {
-                part = part.substring(0, part.length() - 2);
-            }
-            String[] headersAndBody = part.split("\r\n\r\n", 2);
-            if (headersAndBody.length < 2) {
-                continue;
-            }
-            String partHeaders = headersAndBody[0];
-            String partBody = headersAndBody[1].trim();
+        this(contentType, new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), DEFAULT_SPILL_THRESHOLD);
+    }
 
-            if (partHeaders.contains("Content-Disposition: form-data")) {
-                String name = extractHeaderValue(partHeaders, "name");
+    /**
+     * Constructs a MultipartParser that reads the body from a stream.
+     *
+     * @param contentType    the Content-Type header, expected to be "multipart/form-data".
+     * @param body           the raw HTTP body.
+     * @param spillThreshold the size in bytes above which a part is written to a temporary file.
+     * @throws IllegalArgumentException if the Content-Type is invalid, the boundary is missing or the body is malformed.
+     */
+    public MultipartParser(String contentType, InputStream body, long spillThreshold) {
+        MultipartReader reader = new MultipartReader(body, MultipartReader.boundaryOf(contentType));
+        try {
+            MultipartReader.Part part;
+            while ((part = reader.nextPart()) != null) {
+                String name = part.name();
                 if (name == null || name.isEmpty()) {
                     continue;
                 }
-                if (partHeaders.contains("filename=")) {
-                    String fileName = extractHeaderValue(partHeaders, "filename");
-                    InputStream inputStream = new ByteArrayInputStream(partBody.getBytes(StandardCharsets.UTF_8));
-                    files.put(name, new MultipartFile(fileName, inputStream));
+                String fileName = part.fileName();
+                MultipartFile content = store(fileName, part, spillThreshold);
+                if (fileName != null) {
+                    files.putIfAbsent(name, content);
                 } else {
-                    fields.put(name, partBody);
+                    try (InputStream in = content.inputStream()) {
+                        fields.putIfAbsent(name, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            deleteSpilled();
+            throw new IllegalArgumentException("Malformed multipart body: " + e.getMessage(), e);
+        }
+    }
+
+    private MultipartFile store(String fileName, MultipartReader.Part part, long spillThreshold) throws IOException {
+        InputStream in = part.content();
+        ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int n;
+        while ((n = in.read(chunk)) != -1) {
+            memory.write(chunk, 0, n);
+            if (memory.size() > spillThreshold) {
+                Path file = Files.createTempFile("flash-multipart-", ".part");
+                spilled.add(file);
+                try (OutputStream out = Files.newOutputStream(file)) {
+                    memory.writeTo(out);
+                    long size = memory.size() + in.transferTo(out);
+                    return new MultipartFile(fileName, part.contentType(), size, null, file);
                 }
             }
         }
+        return new MultipartFile(fileName, part.contentType(), memory.size(), memory.toByteArray(), null);
     }
 
     /**
@@ -85,56 +116,84 @@ public class MultipartParser {
     }
 
     /**
-     * Extracts a header value from the Content-Disposition header.
-     *
-     * @param headers the headers string.
-     * @param key     the key to extract (e.g., "name" or "filename").
-     * @return the value associated with the key, or null if not found.
+     * Deletes the temporary files of spilled parts.
      */
-    private String extractHeaderValue(String headers, String key) {
-        String[] tokens = headers.split(";\\s*");
-        for (String token : tokens) {
-            if (token.startsWith(key + "=")) {
-                String[] keyValue = token.split("=", 2);
-                if (keyValue.length == 2) {
-                    return keyValue[1].replace("\"", "");
-                }
+    @Override
+    public void close() {
+        deleteSpilled();
+    }
+
+    private void deleteSpilled() {
+        for (Path file : spilled) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                // Best effort, the file lives in the temporary directory
             }
         }
-        return null;
+        spilled.clear();
     }
 
     /**
-         * Represents a file included in a multipart request.
+     * Represents a file included in a multipart request. The content is either held in memory
+     * or, above the spill threshold, in a temporary file.
+     */
+    public static final class MultipartFile {
+        private final String fileName;
+        private final String contentType;
+        private final long size;
+        private final byte[] content;
+        private final Path path;
+
+        private MultipartFile(String fileName, String contentType, long size, byte[] content, Path path) {
+            this.fileName = fileName;
+            this.contentType = contentType;
+            this.size = size;
+            this.content = content;
+            this.path = path;
+        }
+
+        /**
+         * Gets the name of the file.
+         *
+         * @return the file name.
          */
-        public record MultipartFile(String fileName, InputStream inputStream) {
+        public String fileName() {
+            return fileName;
+        }
+
         /**
-         * Constructs a MultipartFile with a file name and input stream.
+         * Gets the Content-Type of the part.
          *
-         * @param fileName    the name of the file.
-         * @param inputStream the input stream containing the file data.
+         * @return the content type, or null if the part did not declare one.
          */
-        public MultipartFile {
+        public String contentType() {
+            return contentType;
         }
 
-            /**
-             * Gets the name of the file.
-             *
-             * @return the file name.
-             */
-            @Override
-            public String fileName() {
-                return fileName;
-            }
+        /**
+         * Gets the size of the file.
+         *
+         * @return the size in bytes.
+         */
+        public long size() {
+            return size;
+        }
 
-            /**
-             * Gets the input stream of the file.
-             *
-             * @return the input stream.
-             */
-            @Override
-            public InputStream inputStream() {
-                return inputStream;
+        /**
+         * Opens a new input stream over the file contents. Every call starts from the beginning.
+         *
+         * @return the input stream.
+         */
+        public InputStream inputStream() {
+            if (path == null) {
+                return new ByteArrayInputStream(content);
+            }
+            try {
+                return Files.newInputStream(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Spilled multipart file is no longer available", e);
             }
         }
+    }
 }
@@ -0,0 +1,334 @@
+package com.pixelservices.flash.components;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * MultipartReader reads a multipart/form-data body part by part, straight from a stream.
+ * <p>
+ * Part contents are never decoded, so binary files pass through byte for byte. Delimiters are
+ * located with a Boyer-Moore-Horspool scan over a fixed-size window of the input, and each part
+ * is exposed as an {@link InputStream} that ends right before the next delimiter. Memory use is
+ * bounded by the window size, regardless of the size of the body.
+ */
+public class MultipartReader {
+    private static final int WINDOW_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_SIZE = 16 * 1024;
+
+    private final InputStream in;
+    private final byte[] delimiter;
+    private final int[] shift = new int[256];
+    private final byte[] window;
+    private int pos;
+    private int limit;
+    private boolean eof;
+    // Position of the next delimiter in the window, -1 if it is not in the window yet
+    private int delimiterAt = -1;
+    // Everything before this position is known not to start a delimiter
+    private int safeEnd;
+    private PartInputStream current;
+    private boolean finished;
+
+    /**
+     * Constructs a MultipartReader over the given body.
+     *
+     * @param in       the raw multipart body.
+     * @param boundary the boundary from the Content-Type header, without the leading dashes.
+     */
+    public MultipartReader(InputStream in, String boundary) {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.window = new byte[Math.max(WINDOW_SIZE, delimiter.length * 4)];
+        Arrays.fill(shift, delimiter.length);
+        for (int i = 0; i < delimiter.length - 1; i++) {
+            shift[delimiter[i] & 0xFF] = delimiter.length - 1 - i;
+        }
+        // The first delimiter is not preceded by a line break, pretend it is
+        window[0] = '\r';
+        window[1] = '\n';
+        limit = 2;
+    }
+
+    /**
+     * Extracts the boundary parameter from a multipart/form-data Content-Type header.
+     *
+     * @param contentType the Content-Type header.
+     * @return the boundary.
+     * @throws IllegalArgumentException if the Content-Type is not multipart/form-data or has no boundary.
+     */
+    public static String boundaryOf(String contentType) {
+        if (contentType == null || !contentType.regionMatches(true, 0, "multipart/form-data", 0, 19)) {
+            throw new IllegalArgumentException("Invalid Content-Type for multipart");
+        }
+        String boundary = headerParameters(contentType).get("boundary");
+        if (boundary == null || boundary.isEmpty()) {
+            throw new IllegalArgumentException("No boundary found in Content-Type");
+        }
+        return boundary;
+    }
+
+    /**
+     * Advances to the next part. Whatever was left unread of the previous part is skipped.
+     *
+     * @return the next part, or null after the closing delimiter.
+     * @throws IOException if the body cannot be read or is malformed.
+     */
+    public Part nextPart() throws IOException {
+        if (current != null) {
+            current.skipRemaining();
+        } else if (!finished) {
+            // Skip the preamble up to the first delimiter
+            new PartInputStream().skipRemaining();
+        }
+        if (finished) {
+            return null;
+        }
+        if (!ensure(2)) {
+            throw new IOException("Unexpected end of multipart body");
+        }
+        if (window[pos] == '-' && window[pos + 1] == '-') {
+            finished = true;
+            return null;
+        }
+        skipLineEnd();
+        Map<String, String> headers = readHeaders();
+        current = new PartInputStream();
+        return new Part(headers, current);
+    }
+
+    private void skipLineEnd() throws IOException {
+        // Transport padding may precede the line break after a delimiter
+        while (ensure(1) && (window[pos] == ' ' || window[pos] == '\t')) {
+            pos++;
+        }
+        if (!ensure(2) || window[pos] != '\r' || window[pos + 1] != '\n') {
+            throw new IOException("Malformed multipart delimiter");
+        }
+        pos += 2;
+    }
+
+    private Map<String, String> readHeaders() throws IOException {
+        Map<String, String> headers = new LinkedHashMap<>();
+        int consumed = 0;
+        while (true) {
+            int lineEnd = -1;
+            while (lineEnd < 0) {
+                for (int i = pos; i + 1 < limit; i++) {
+                    if (window[i] == '\r' && window[i + 1] == '\n') {
+                        lineEnd = i;
+                        break;
+                    }
+                }
+                if (lineEnd < 0 && !ensure(limit - pos + 1)) {
+                    throw new IOException("Unexpected end of multipart headers");
+                }
+            }
+            consumed += lineEnd + 2 - pos;
+            if (consumed > MAX_HEADER_SIZE) {
+                throw new IOException("Multipart headers too large");
+            }
+            if (lineEnd == pos) {
+                pos += 2;
+                return headers;
+            }
+            String line = new String(window, pos, lineEnd - pos, StandardCharsets.UTF_8);
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+            }
+            pos = lineEnd + 2;
+        }
+    }
+
+    /**
+     * Makes sure at least {@code n} bytes are available in the window.
+     *
+     * @return false if the input ended first.
+     */
+    private boolean ensure(int n) throws IOException {
+        while (limit - pos < n) {
+            if (eof) {
+                return false;
+            }
+            fill();
+        }
+        return true;
+    }
+
+    private void fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(window, pos, window, 0, limit - pos);
+            limit -= pos;
+            safeEnd = Math.max(0, safeEnd - pos);
+            if (delimiterAt >= 0) delimiterAt -= pos;
+            pos = 0;
+        }
+        if (limit == window.length) {
+            throw new IOException("Multipart line exceeds " + window.length + " bytes");
+        }
+        int n = in.read(window, limit, window.length - limit);
+        if (n < 0) {
+            eof = true;
+        } else {
+            limit += n;
+        }
+    }
+
+    /**
+     * Boyer-Moore-Horspool search for the delimiter in {@code [from, limit)}.
+     */
+    private int search(int from) {
+        final int last = delimiter.length - 1;
+        int i = from;
+        while (i + last < limit) {
+            int j = last;
+            while (window[i + j] == delimiter[j]) {
+                if (j == 0) return i;
+                j--;
+            }
+            i += shift[window[i + last] & 0xFF];
+        }
+        return -1;
+    }
+
+    /**
+     * A single part of the multipart body.
+     *
+     * @param headers the part headers, names in lower case.
+     * @param content the part content, valid until the next call to {@link #nextPart()}.
+     */
+    public record Part(Map<String, String> headers, InputStream content) {
+
+        /**
+         * @return the name parameter of the Content-Disposition header, or null if absent.
+         */
+        public String name() {
+            return dispositionParameter("name");
+        }
+
+        /**
+         * @return the filename parameter of the Content-Disposition header, or null if the part is not a file.
+         */
+        public String fileName() {
+            return dispositionParameter("filename");
+        }
+
+        /**
+         * @return the Content-Type header of the part, or null if absent.
+         */
+        public String contentType() {
+            return headers.get("content-type");
+        }
+
+        private String dispositionParameter(String key) {
+            String disposition = headers.get("content-disposition");
+            return disposition == null ? null : headerParameters(disposition).get(key);
+        }
+    }
+
+    /**
+     * Parses the {@code key=value} parameters of a header such as Content-Disposition, values may be quoted.
+     */
+    static Map<String, String> headerParameters(String header) {
+        Map<String, String> params = new LinkedHashMap<>();
+        int i = header.indexOf(';');
+        while (i >= 0 && i < header.length()) {
+            int eq = header.indexOf('=', i);
+            if (eq < 0) break;
+            String key = header.substring(i + 1, eq).trim().toLowerCase();
+            int valueStart = eq + 1;
+            String value;
+            if (valueStart < header.length() && header.charAt(valueStart) == '"') {
+                StringBuilder sb = new StringBuilder();
+                int j = valueStart + 1;
+                while (j < header.length() && header.charAt(j) != '"') {
+                    if (header.charAt(j) == '\\' && j + 1 < header.length()) j++;
+                    sb.append(header.charAt(j++));
+                }
+                value = sb.toString();
+                i = header.indexOf(';', j);
+            } else {
+                int end = header.indexOf(';', valueStart);
+                value = header.substring(valueStart, end < 0 ? header.length() : end).trim();
+                i = end;
+            }
+            params.putIfAbsent(key, value);
+        }
+        return params;
+    }
+
+    /**
+     * Streams the bytes of the current part up to the next delimiter.
+     */
+    private class PartInputStream extends InputStream {
+        private boolean ended;
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int n = read(single, 0, 1);
+            return n == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (ended) return -1;
+            if (len == 0) return 0;
+            while (true) {
+                if (delimiterAt < 0 && safeEnd <= pos) {
+                    locate();
+                }
+                int available = (delimiterAt >= 0 ? delimiterAt : safeEnd) - pos;
+                if (available > 0) {
+                    int n = Math.min(len, available);
+                    System.arraycopy(window, pos, b, off, n);
+                    pos += n;
+                    return n;
+                }
+                if (delimiterAt >= 0) {
+                    // Reached the delimiter, consume it and end the part
+                    pos = delimiterAt + delimiter.length;
+                    delimiterAt = -1;
+                    safeEnd = pos;
+                    ended = true;
+                    return -1;
+                }
+                if (eof) {
+                    throw new IOException("Unexpected end of multipart body");
+                }
+                fill();
+            }
+        }
+
+        /**
+         * Looks for the delimiter in the window. If it is not there, every byte that cannot be
+         * the start of a delimiter cut off by the end of the window is safe to hand out.
+         */
+        private void locate() {
+            int found = search(pos);
+            if (found >= 0) {
+                delimiterAt = found;
+                safeEnd = found;
+            } else {
+                safeEnd = eof ? limit : Math.max(pos, limit - delimiter.length + 1);
+            }
+        }
+
+        void skipRemaining() throws IOException {
+            byte[] scratch = new byte[8192];
+            while (read(scratch, 0, scratch.length) != -1) {
+                // Discard
+            }
+        }
+
+        @Override
+        public int available() {
+            if (ended) return 0;
+            return Math.max(0, (delimiterAt >= 0 ? delimiterAt : safeEnd) - pos);
+        }
+    }
+}
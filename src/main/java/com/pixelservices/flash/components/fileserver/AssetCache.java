@@ -1,17 +1,146 @@
 package com.pixelservices.flash.components.fileserver;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * AssetCache provides a thread-safe cache for storing file bytes.
  * It is independent of any file system or resource stream details.
+ * <p>
+ * The cache holds at most a budget of bytes. Lookups are lock-free, the recency order is updated
+ * from a lossy buffer of recent reads that is drained by whichever thread fills it. When a new
+ * asset does not fit, it only replaces the least recently used assets if it was requested more
+ * often than each of them, as estimated by a small frequency sketch (TinyLFU admission). A scan
+ * over rarely used files therefore cannot flush the hot ones.
+ * <p>
+ * An off-heap cache keeps the assets in direct buffers, outside of what the garbage collector
+ * marks and copies. {@link #getBuffer(String)} hands out read-only views that the server writes
+ * to the socket as they are. The memory of an evicted asset is released once no view of it is
+ * reachable anymore, so a response still being written never reads freed memory.
+ * <p>
+ * Every asset carries a strong ETag, a hash of its content computed once when it is stored.
+ * <p>
+ * Assets loaded on a miss but not admitted are kept in a small holder of recent rejections, so a
+ * file that loses admission is not loaded, hashed and encoded again on every request. Requests
+ * served from the holder retry admission, and the asset moves into the cache once it wins.
  */
 public class AssetCache {
+    /**
+     * The default byte budget of a cache.
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final int READ_BUFFER_SIZE = 64;
+    // Rejected assets are held in this many slots, each asset taking at most its share of the budget
+    private static final int REJECTED_SLOTS = 16;
+
+    /**
+     * A cached asset and its validator.
+     */
+    public static final class Asset {
+        private final ByteBuffer content;
+        private final String etag;
+
+        private Asset(ByteBuffer content, String etag) {
+            this.content = content;
+            this.etag = etag;
+        }
+
+        /**
+         * @return a read-only view of the content, not copied
+         */
+        public ByteBuffer content() {
+            return content.asReadOnlyBuffer();
+        }
 
-    private final ConcurrentHashMap<String, byte[]> cache = new ConcurrentHashMap<>();
+        /**
+         * @return the strong ETag of the content, quoted
+         */
+        public String etag() {
+            return etag;
+        }
+
+        public int length() {
+            return content.capacity();
+        }
+    }
 
     /**
-     * Stores the asset bytes associated with the given key.
+     * Loads the bytes of an asset on a cache miss.
+     */
+    @FunctionalInterface
+    public interface Loader {
+        byte[] load() throws IOException;
+    }
+
+    private final long maxBytes;
+    private final boolean offHeap;
+    private final ConcurrentHashMap<String, Asset> cache = new ConcurrentHashMap<>();
+
+    // Eviction policy, guarded by policyLock
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final LinkedHashMap<String, Asset> order = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    private volatile long weightedBytes;
+
+    private final AtomicReferenceArray<String> readBuffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+    private final AtomicLong readCount = new AtomicLong();
+
+    private final AtomicReferenceArray<Rejected> rejected = new AtomicReferenceArray<>(REJECTED_SLOTS);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * Creates a cache with the {@link #DEFAULT_MAX_BYTES default budget}.
+     */
+    public AssetCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates a cache on the heap.
+     *
+     * @param maxBytes the number of asset bytes the cache holds at most
+     * @throws IllegalArgumentException if maxBytes is not positive
+     */
+    public AssetCache(long maxBytes) {
+        this(maxBytes, false);
+    }
+
+    /**
+     * @param maxBytes the number of asset bytes the cache holds at most
+     * @param offHeap  whether to keep the assets in direct buffers
+     * @throws IllegalArgumentException if maxBytes is not positive
+     */
+    public AssetCache(long maxBytes, boolean offHeap) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache budget must be positive");
+        }
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+        this.sketch = new FrequencySketch(Math.clamp(maxBytes / 2048, 256, 1 << 22));
+    }
+
+    /**
+     * Stores the asset bytes associated with the given key. A new asset is not cached if it is
+     * larger than the budget, or if making room would evict assets used at least as often. An
+     * asset that replaces a cached one is always admitted as long as it fits the budget.
      *
      * @param key        the key (e.g., a route path)
      * @param assetBytes the bytes to cache
@@ -21,17 +150,128 @@ public class AssetCache {
         if (key == null || assetBytes == null) {
             throw new IllegalArgumentException("Key and assetBytes cannot be null");
         }
-        cache.put(key, assetBytes);
+        store(key, toAsset(assetBytes));
     }
 
     /**
-     * Retrieves the cached asset bytes for the given key.
+     * @return true if the asset was admitted
+     */
+    private boolean store(String key, Asset asset) {
+        policyLock.lock();
+        try {
+            drainReads();
+            sketch.increment(key);
+            return admit(key, asset);
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the cached asset bytes for the given key. An off-heap cache copies them onto the
+     * heap, prefer {@link #getBuffer(String)}.
      *
      * @param key the key to look up
      * @return the asset bytes, or null if not found
      */
     public byte[] get(String key) {
-        return cache.get(key);
+        Asset asset = getAsset(key);
+        return asset != null ? toArray(asset.content) : null;
+    }
+
+    /**
+     * Retrieves a read-only view of the cached asset for the given key. The view is not copied.
+     *
+     * @param key the key to look up
+     * @return the asset, or null if not found
+     */
+    public ByteBuffer getBuffer(String key) {
+        Asset asset = getAsset(key);
+        return asset != null ? asset.content() : null;
+    }
+
+    /**
+     * Retrieves the cached asset for the given key.
+     *
+     * @param key the key to look up
+     * @return the asset, or null if not found
+     */
+    public Asset getAsset(String key) {
+        Asset asset = lookup(key);
+        if (asset == null) {
+            // Misses count towards the frequency as well, so a popular asset gets admitted
+            recordRead(key);
+        }
+        return asset;
+    }
+
+    /**
+     * Retrieves the cached asset bytes for the given key, loading and caching them on a miss.
+     * Concurrent misses on the same key may each load the asset.
+     *
+     * @param key    the key to look up
+     * @param loader loads the asset if it is not cached
+     * @return the asset bytes, whether or not they were admitted to the cache
+     * @throws IOException if the loader fails
+     */
+    public byte[] get(String key, Loader loader) throws IOException {
+        Asset asset = lookup(key);
+        if (asset != null) {
+            return toArray(asset.content);
+        }
+        // Recorded by put
+        byte[] bytes = loader.load();
+        put(key, bytes);
+        return bytes;
+    }
+
+    /**
+     * Retrieves a read-only view of the cached asset for the given key, loading and caching it on
+     * a miss. Concurrent misses on the same key may each load the asset.
+     *
+     * @param key    the key to look up
+     * @param loader loads the asset if it is not cached
+     * @return the asset, whether or not it was admitted to the cache
+     * @throws IOException if the loader fails
+     */
+    public ByteBuffer getBuffer(String key, Loader loader) throws IOException {
+        return getAsset(key, loader).content();
+    }
+
+    /**
+     * Retrieves the cached asset for the given key, loading and caching it on a miss.
+     * Concurrent misses on the same key may each load the asset. An asset that was recently
+     * loaded but not admitted is taken from the holder of rejections instead of loading it again.
+     *
+     * @param key    the key to look up
+     * @param loader loads the asset if it is not cached
+     * @return the asset, whether or not it was admitted to the cache
+     * @throws IOException if the loader fails
+     */
+    public Asset getAsset(String key, Loader loader) throws IOException {
+        Asset asset = lookup(key);
+        if (asset != null) {
+            return asset;
+        }
+        final int slot = rejectedSlot(key);
+        final Rejected held = rejected.get(slot);
+        if (held != null && held.key().equals(key)) {
+            // Recorded by store, which admits it once it is used more often than what it would evict
+            if (store(key, held.asset())) {
+                rejected.compareAndSet(slot, held, null);
+            }
+            return held.asset();
+        }
+        // Recorded by store
+        byte[] bytes = loader.load();
+        if (bytes == null) {
+            throw new IOException("Loader returned no bytes for " + key);
+        }
+        asset = toAsset(bytes);
+        if (!store(key, asset) && asset.length() <= maxBytes / REJECTED_SLOTS) {
+            rejected.set(slot, new Rejected(key, asset));
+        }
+        return asset;
     }
 
     /**
@@ -51,13 +291,261 @@ public class AssetCache {
      * @return the removed asset bytes, or null if there was no mapping
      */
     public byte[] remove(String key) {
-        return cache.remove(key);
+        final int slot = rejectedSlot(key);
+        final Rejected held = rejected.get(slot);
+        if (held != null && held.key().equals(key)) {
+            rejected.compareAndSet(slot, held, null);
+        }
+        policyLock.lock();
+        try {
+            Asset removed = order.remove(key);
+            if (removed == null) {
+                return null;
+            }
+            cache.remove(key);
+            weightedBytes -= removed.length();
+            return toArray(removed.content);
+        } finally {
+            policyLock.unlock();
+        }
     }
 
     /**
      * Clears the entire cache.
      */
     public void clear() {
-        cache.clear();
+        for (int i = 0; i < REJECTED_SLOTS; i++) {
+            rejected.set(i, null);
+        }
+        policyLock.lock();
+        try {
+            order.clear();
+            cache.clear();
+            weightedBytes = 0;
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * @return the number of asset bytes currently cached
+     */
+    public long getSize() {
+        return weightedBytes;
+    }
+
+    public int getEntryCount() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the number of assets that were not admitted to the cache
+     */
+    public long getRejectionCount() {
+        return rejections.sum();
+    }
+
+    private Asset lookup(String key) {
+        Asset asset = cache.get(key);
+        if (asset == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        recordRead(key);
+        return asset;
+    }
+
+    private Asset toAsset(byte[] bytes) {
+        ByteBuffer content = offHeap
+                ? ByteBuffer.allocateDirect(bytes.length).put(bytes).flip()
+                : ByteBuffer.wrap(bytes);
+        return new Asset(content, etag(bytes));
+    }
+
+    /**
+     * Computes a strong ETag from the first 128 bits of the SHA-256 of the content.
+     */
+    private static String etag(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            return '"' + Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 16)) + '"';
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Returns the bytes of an asset, the backing array of a heap asset is returned as is.
+     */
+    private static byte[] toArray(ByteBuffer asset) {
+        if (asset.hasArray() && asset.arrayOffset() == 0 && asset.array().length == asset.capacity()) {
+            return asset.array();
+        }
+        byte[] bytes = new byte[asset.capacity()];
+        asset.get(0, bytes);
+        return bytes;
+    }
+
+    private static int rejectedSlot(String key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (REJECTED_SLOTS - 1);
+    }
+
+    /**
+     * Caches an asset if it fits or wins against the assets it would evict. Requires the policy lock.
+     *
+     * @return true if the asset was admitted
+     */
+    private boolean admit(String key, Asset asset) {
+        final int length = asset.length();
+        Asset previous = order.remove(key);
+        if (previous != null) {
+            cache.remove(key);
+            weightedBytes -= previous.length();
+        }
+        if (length > maxBytes) {
+            rejections.increment();
+            return false;
+        }
+
+        long needed = weightedBytes + length - maxBytes;
+        if (needed > 0) {
+            // Collect victims from the least recently used end, a new asset must beat all of them
+            final int candidateFrequency = sketch.frequency(key);
+            final List<Map.Entry<String, Asset>> victims = new ArrayList<>();
+            long freed = 0;
+            for (Map.Entry<String, Asset> entry : order.entrySet()) {
+                if (freed >= needed) {
+                    break;
+                }
+                if (previous == null && sketch.frequency(entry.getKey()) >= candidateFrequency) {
+                    rejections.increment();
+                    return false;
+                }
+                victims.add(entry);
+                freed += entry.getValue().length();
+            }
+            for (Map.Entry<String, Asset> victim : victims) {
+                order.remove(victim.getKey());
+                cache.remove(victim.getKey());
+                weightedBytes -= victim.getValue().length();
+                evictions.increment();
+            }
+        }
+
+        order.put(key, asset);
+        cache.put(key, asset);
+        weightedBytes += length;
+        return true;
+    }
+
+    /**
+     * Records a hit in the read buffer. Reads beyond what the buffer holds are lost, which only
+     * makes the recency order and frequencies less precise.
+     */
+    private void recordRead(String key) {
+        final int index = (int) (readCount.getAndIncrement() & (READ_BUFFER_SIZE - 1));
+        readBuffer.lazySet(index, key);
+        if (index == READ_BUFFER_SIZE - 1 && policyLock.tryLock()) {
+            try {
+                drainReads();
+            } finally {
+                policyLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Applies the buffered reads to the recency order and the sketch. Requires the policy lock.
+     */
+    private void drainReads() {
+        for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+            String key = readBuffer.getAndSet(i, null);
+            if (key != null) {
+                sketch.increment(key);
+                order.get(key); // Moves the key to the most recently used end
+            }
+        }
+    }
+
+    /**
+     * An asset that was loaded but not admitted, with the key it was loaded for.
+     */
+    private record Rejected(String key, Asset asset) {
+    }
+
+    /**
+     * A count-min sketch of 4-bit counters estimating how often keys were requested. All counters
+     * are halved periodically, so the estimates favour recent popularity.
+     */
+    private static final class FrequencySketch {
+        private static final int[] SEEDS = {0x97cb3127, 0xb8a5d9c1, 0x2c8f7e4b, 0x5f3a91d3};
+        private static final int MAX_COUNT = 15;
+
+        private final byte[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int width) {
+            int size = Integer.highestOneBit(width - 1) << 1;
+            this.table = new byte[size];
+            this.mask = size - 1;
+            this.sampleSize = 10 * size;
+        }
+
+        int frequency(String key) {
+            final int hash = key.hashCode();
+            int frequency = MAX_COUNT;
+            for (int seed : SEEDS) {
+                frequency = Math.min(frequency, table[index(hash, seed)]);
+            }
+            return frequency;
+        }
+
+        void increment(String key) {
+            final int hash = key.hashCode();
+            boolean added = false;
+            for (int seed : SEEDS) {
+                int index = index(hash, seed);
+                if (table[index] < MAX_COUNT) {
+                    table[index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] >>= 1;
+                }
+                additions /= 2;
+            }
+        }
+
+        private int index(int hash, int seed) {
+            int h = hash * seed;
+            h ^= h >>> 16;
+            return h & mask;
+        }
     }
 }
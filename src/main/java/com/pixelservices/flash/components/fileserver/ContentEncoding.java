@@ -0,0 +1,153 @@
+package com.pixelservices.flash.components.fileserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.pixelservices.flash.utils.Constant.MIME_TYPES;
+
+/**
+ * The content encodings the file servers precompute for compressible files. Encoded variants are
+ * cached next to the identity content, so every file is compressed once and not per request.
+ */
+public enum ContentEncoding {
+    GZIP("gzip"),
+    DEFLATE("deflate");
+
+    /**
+     * Files smaller than this are always sent as they are, the encoding overhead would not pay off.
+     */
+    public static final int MIN_COMPRESSED_SIZE = 256;
+
+    private static final Set<String> COMPRESSIBLE_TYPES = Set.of(
+            "application/javascript", "application/typescript", "application/json", "application/xml",
+            "application/wasm", "application/vnd.ms-fontobject", "font/ttf", "font/otf");
+
+    private final String token;
+
+    ContentEncoding(String token) {
+        this.token = token;
+    }
+
+    /**
+     * @return the name of the encoding in {@code Content-Encoding} and {@code Accept-Encoding}
+     */
+    public String token() {
+        return token;
+    }
+
+    /**
+     * Returns the cache key of this encoding's variant of an asset.
+     *
+     * @param key the cache key of the identity content
+     * @return the cache key of the encoded content
+     */
+    public String variantKey(String key) {
+        return key + "#" + token;
+    }
+
+    /**
+     * Compresses content at the best compression level, it is only done once per file.
+     *
+     * @param content the identity content
+     * @return the encoded content
+     * @throws IOException if compression fails
+     */
+    public byte[] encode(byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 3 + 64);
+        if (this == GZIP) {
+            try (OutputStream stream = new BestGzipOutputStream(out)) {
+                stream.write(content);
+            }
+        } else {
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            try (OutputStream stream = new DeflaterOutputStream(out, deflater)) {
+                stream.write(content);
+            } finally {
+                deflater.end();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Picks the encoding to respond with. Gzip wins over deflate at equal quality, codings with a
+     * quality of 0 are never picked, and {@code *} stands for every coding not listed.
+     *
+     * @param acceptEncoding the Accept-Encoding header of the request, may be null
+     * @return the encoding, or null to send the content as it is
+     */
+    public static ContentEncoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return null;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double wildcard = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            switch (coding) {
+                case "gzip", "x-gzip" -> gzip = quality;
+                case "deflate" -> deflate = quality;
+                case "*" -> wildcard = quality;
+                default -> {
+                }
+            }
+        }
+        if (gzip < 0) gzip = wildcard;
+        if (deflate < 0) deflate = wildcard;
+        if (gzip <= 0 && deflate <= 0) {
+            return null;
+        }
+        return gzip >= deflate ? GZIP : DEFLATE;
+    }
+
+    /**
+     * Checks whether a file is worth compressing, judged by the MIME type of its extension.
+     *
+     * @param fileName the file name or path
+     * @return true for text, scripts, markup and uncompressed fonts
+     */
+    public static boolean isCompressible(String fileName) {
+        String lower = fileName.toLowerCase(Locale.ROOT);
+        int dot = lower.lastIndexOf('.');
+        if (dot < 0) {
+            return false;
+        }
+        String mime = MIME_TYPES.get(lower.substring(dot));
+        return mime != null && isCompressibleType(mime);
+    }
+
+    private static boolean isCompressibleType(String mime) {
+        return mime.startsWith("text/")
+                || mime.endsWith("+xml")
+                || COMPRESSIBLE_TYPES.contains(mime);
+    }
+
+    /**
+     * A gzip stream at the best compression level, the JDK stream only offers the default level.
+     */
+    private static final class BestGzipOutputStream extends GZIPOutputStream {
+        BestGzipOutputStream(OutputStream out) throws IOException {
+            super(out);
+            def.setLevel(Deflater.BEST_COMPRESSION);
+        }
+    }
+}
@@ -10,9 +10,11 @@ import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.stream.Collectors;
@@ -24,11 +26,14 @@ import static com.pixelservices.flash.utils.Constant.MIME_TYPES;
 /**
  * Serves dynamic files from either the filesystem or a resource stream.
  * Supports single-page applications with an entrypoint fallback.
+ * Files are loaded on their first request and kept in a bounded {@link AssetCache}, along with
+ * gzip and deflate variants of compressible files for clients that accept them. Every cached
+ * file carries an ETag, so revalidating clients get a bodiless 304 while it still matches.
+ * Files on the filesystem are validated by their modification time as well.
  */
 public class DynamicFileServer {
 
     private final FlashServer server;
-    private final AssetCache assetCache = new AssetCache();
 
     /**
      * Constructs the dynamic file server.
@@ -45,8 +50,9 @@ public class DynamicFileServer {
      * @param endpoint      the base URL endpoint
      * @param config        the configuration object
      * @param contextClass  optional class used for loading resources (for RESOURCESTREAM)
+     * @return the cache holding the files of this endpoint
      */
-    public void serve(String endpoint, DynamicFileServerConfiguration config, Class<?> contextClass) {
+    public AssetCache serve(String endpoint, DynamicFileServerConfiguration config, Class<?> contextClass) {
         endpoint = endpoint.replaceAll("/+$", "");
         SourceType sourceType = config.getSourceType();
         String destString = config.getDestinationPath();
@@ -55,8 +61,14 @@ public class DynamicFileServer {
 
         byte[] indexHtmlContent = loadEntrypoint(config.getDynamicEntrypoint(), destString, rootPath, contextClass, isResourceStream);
 
-        registerStaticRoutes(endpoint, destString, rootPath, contextClass, isResourceStream);
-        registerFallback(endpoint, indexHtmlContent);
+        String base = endpoint;
+        AssetCache assetCache = new AssetCache(config.getCacheMaxBytes(), config.isCacheOffHeap());
+        Map<String, Long> lastModified = new ConcurrentHashMap<>();
+        server.batchRoutes(() -> {
+            registerStaticRoutes(assetCache, lastModified, base, destString, rootPath, contextClass, isResourceStream);
+            registerFallback(base, indexHtmlContent);
+        });
+        return assetCache;
     }
 
     /**
@@ -80,18 +92,20 @@ public class DynamicFileServer {
 
     /**
      * Registers static file routes by scanning directory or resources.
+     *
+     * @param lastModified filled with the modification times of the cached files, by route
      */
-    private void registerStaticRoutes(String endpoint, String basePath, Path rootPath, Class<?> contextClass, boolean isResource) {
+    private void registerStaticRoutes(AssetCache assetCache, Map<String, Long> lastModified, String endpoint, String basePath, Path rootPath, Class<?> contextClass, boolean isResource) {
         if (isResource) {
             listResourceFiles(basePath, contextClass).forEach(resourcePath -> {
                 String relative = resourcePath.substring(basePath.length()).replaceFirst("^/", "");
-                registerFile(endpoint + "/" + relative, () -> contextClass.getClassLoader().getResourceAsStream(resourcePath), resourcePath, true);
+                registerFile(assetCache, lastModified, endpoint + "/" + relative, () -> contextClass.getClassLoader().getResourceAsStream(resourcePath), resourcePath, true);
             });
         } else {
             try (Stream<Path> paths = Files.walk(rootPath)) {
                 paths.filter(Files::isRegularFile).forEach(path -> {
                     String relative = rootPath.relativize(path).toString().replace("\\", "/");
-                    registerFile(endpoint + "/" + relative, () -> {
+                    registerFile(assetCache, lastModified, endpoint + "/" + relative, () -> {
                         try {
                             return Files.newInputStream(path);
                         } catch (IOException e) {
@@ -105,8 +119,16 @@ public class DynamicFileServer {
         }
     }
 
-    private void registerFile(String routePath, Supplier<InputStream> streamSupplier, String sourcePath, boolean isResource) {
-        cacheAndRegisterFile(routePath, streamSupplier, sourcePath, isResource);
+    private void registerFile(AssetCache assetCache, Map<String, Long> lastModified, String routePath,
+                              Supplier<InputStream> streamSupplier, String sourcePath, boolean isResource) {
+        AssetCache.Loader loader = () -> {
+            if (!isResource) {
+                // The modification time of the content as it is cached
+                lastModified.put(routePath, Files.getLastModifiedTime(Paths.get(sourcePath)).toMillis());
+            }
+            return loadFile(routePath, streamSupplier, sourcePath);
+        };
+        registerStaticFileRoute(assetCache, lastModified, routePath, loader, sourcePath, isResource);
     }
 
     /**
@@ -121,34 +143,25 @@ public class DynamicFileServer {
     }
 
     /**
-     * Caches and registers a static file route.
+     * Loads a file for the cache, rewriting absolute links in HTML and JavaScript.
      */
-    private void cacheAndRegisterFile(String routePath, Supplier<InputStream> streamSupplier, String sourcePath, boolean isResource) {
-        if (assetCache.contains(routePath)) return;
-
-        try (InputStream is = streamSupplier.get()) {
-            if (is == null) throw new IllegalArgumentException("Not found: " + sourcePath);
+    private byte[] loadFile(String routePath, Supplier<InputStream> streamSupplier, String sourcePath) throws IOException {
+        final InputStream stream;
+        try {
+            stream = streamSupplier.get();
+        } catch (RuntimeException e) {
+            throw new IOException("Cannot open " + sourcePath, e);
+        }
+        try (InputStream is = stream) {
+            if (is == null) throw new IOException("Not found: " + sourcePath);
 
-            byte[] content;
             String lower = sourcePath.toLowerCase();
-
             if (lower.endsWith(".html") || lower.endsWith(".js")) {
                 String text = new String(is.readAllBytes(), StandardCharsets.UTF_8);
                 text = text.replaceAll("(href|src)=([\"'])/", "$1=$2" + routePath + "/");
-                content = text.getBytes(StandardCharsets.UTF_8);
-            } else {
-                content = is.readAllBytes();
+                return text.getBytes(StandardCharsets.UTF_8);
             }
-
-            assetCache.put(routePath, content);
-            String type = getContentType(sourcePath, isResource);
-
-            //PrettyLogger.withEmoji("📦 Cached: " + routePath + " (" + content.length + " bytes, type=" + type + ")", "📁");
-
-            registerStaticFileRoute(routePath, sourcePath, isResource);
-
-        } catch (IOException e) {
-            FlashLogger.getLogger().info("⚠️ Error caching file: " + e.getMessage());
+            return is.readAllBytes();
         }
     }
 
@@ -156,29 +169,92 @@ public class DynamicFileServer {
     /**
      * Registers a static file route.
      */
-    private void registerStaticFileRoute(String routePath, String sourcePath, boolean isResource) {
+    private void registerStaticFileRoute(AssetCache assetCache, Map<String, Long> lastModified, String routePath,
+                                         AssetCache.Loader loader, String sourcePath, boolean isResource) {
+        final boolean compressible = ContentEncoding.isCompressible(sourcePath);
         server.registerRoute(HttpMethod.GET, routePath, (req, res) -> {
-            byte[] content = assetCache.get(routePath);
-            if (content == null) return res.status(404).body("File not found").getBody();
+            AssetCache.Asset asset;
+            try {
+                asset = assetCache.getAsset(routePath, loader);
+            } catch (IOException e) {
+                FlashLogger.getLogger().info("⚠️ Error loading file: " + e.getMessage());
+                return res.status(404).body("File not found").getBody();
+            }
 
             String rangeHeader = req.header("Range");
+            ByteBuffer content = asset.content();
             String contentType = getContentType(sourcePath, isResource);
+            // Resources have no reliable modification time, the ETag alone validates them
+            long modified = lastModified.getOrDefault(routePath, -1L);
+
+            if (compressible) {
+                // Caches must keep the encodings apart, whichever one this response uses
+                res.header("Vary", "Accept-Encoding");
+                ContentEncoding encoding = rangeHeader == null ? ContentEncoding.negotiate(req.header("Accept-Encoding")) : null;
+                AssetCache.Asset encoded = encoding != null ? encodedContent(assetCache, routePath, content, encoding) : null;
+                if (encoded != null) {
+                    res.header("Content-Encoding", encoding.token());
+                    if (FileServerUtility.applyValidators(req, res, encoded.etag(), modified)) {
+                        return res.getBody();
+                    }
+                    return res.status(200).type(contentType).body(encoded.content()).getBody();
+                }
+            }
 
-            Optional<Range> rangeOpt = parseRange(rangeHeader, content.length);
-            if (rangeOpt.isPresent()) {
-                Range r = rangeOpt.get();
-                byte[] rangedContent = Arrays.copyOfRange(content, r.start, r.end + 1);
-                return res.status(206)
-                        .header("Content-Range", "bytes " + r.start + "-" + r.end + "/" + content.length)
-                        .type(contentType)
-                        .body(rangedContent)
-                        .getBody();
+            if (FileServerUtility.applyValidators(req, res, asset.etag(), modified)) {
+                return res.getBody();
+            }
+
+            if (rangeHeader != null) {
+                int length = content.remaining();
+                try {
+                    String[] ranges = rangeHeader.replace("bytes=", "").split("-");
+                    long start = Long.parseLong(ranges[0]);
+                    long end = ranges.length > 1 ? Math.min(Long.parseLong(ranges[1]), length - 1) : length - 1;
+
+                    if (start >= length || end < start) {
+                        return res.status(416)
+                                .header("Content-Range", "bytes */" + length)
+                                .body("Requested Range Not Satisfiable")
+                                .getBody();
+                    }
+
+                    return res.status(206)
+                            .header("Content-Range", "bytes " + start + "-" + end + "/" + length)
+                            .type(contentType)
+                            .body(content.slice((int) start, (int) (end + 1 - start)))
+                            .getBody();
+                } catch (Exception e) {
+                    return res.status(400).body("Invalid Range Request").getBody();
+                }
             }
 
             return res.status(200).type(contentType).body(content).getBody();
         }, HandlerType.STATIC);
     }
 
+    /**
+     * Returns the encoded variant of a file, compressed once from the cached content. Served files
+     * may be rewritten, so {@code .gz} siblings would not match and are not used.
+     *
+     * @return the cached encoded asset, or null to send the identity content
+     */
+    private AssetCache.Asset encodedContent(AssetCache assetCache, String routePath, ByteBuffer content, ContentEncoding encoding) {
+        if (content.remaining() < ContentEncoding.MIN_COMPRESSED_SIZE) {
+            return null;
+        }
+        try {
+            return assetCache.getAsset(encoding.variantKey(routePath), () -> {
+                byte[] identity = new byte[content.remaining()];
+                content.get(content.position(), identity);
+                return encoding.encode(identity);
+            });
+        } catch (IOException e) {
+            FlashLogger.getLogger().info("⚠️ Error encoding file: " + e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Lists all resource files from the given path.
      */
@@ -245,26 +321,4 @@ public class DynamicFileServer {
             return "application/octet-stream";
         }
     }
-
-    private Optional<Range> parseRange(String rangeHeader, int contentLength) {
-        try {
-            if (rangeHeader == null || !rangeHeader.startsWith("bytes=")) return Optional.empty();
-
-            String[] parts = rangeHeader.replace("bytes=", "").split("-");
-            int start = Integer.parseInt(parts[0].trim());
-            int end = parts.length > 1 && !parts[1].isEmpty() ? Integer.parseInt(parts[1].trim()) : contentLength - 1;
-
-            if (start > end || start >= contentLength) return Optional.empty();
-            return Optional.of(new Range(start, end));
-        } catch (Exception e) {
-            return Optional.empty();
-        }
-    }
-
-    private static class Range {
-        int start, end;
-        Range(int start, int end) { this.start = start; this.end = end; }
-    }
-
-
 }
@@ -5,6 +5,8 @@ public class DynamicFileServerConfiguration {
     private final String destinationPath;
     private final String dynamicEntrypoint;
     private final SourceType sourceType;
+    private long cacheMaxBytes = AssetCache.DEFAULT_MAX_BYTES;
+    private boolean cacheOffHeap;
 
     public DynamicFileServerConfiguration(boolean enableFileWatcher, String destinationPath, String dynamicEntrypoint, SourceType sourceType) {
         this.enableFileWatcher = enableFileWatcher;
@@ -28,4 +30,39 @@ public class DynamicFileServerConfiguration {
     public SourceType getSourceType() {
         return sourceType;
     }
+
+    /**
+     * Sets the number of file bytes kept in memory at most. Files are loaded on their first
+     * request, and the least used ones are evicted once the budget is reached.
+     *
+     * @param cacheMaxBytes the byte budget of the asset cache
+     * @return the updated configuration
+     */
+    public DynamicFileServerConfiguration setCacheMaxBytes(long cacheMaxBytes) {
+        if (cacheMaxBytes <= 0) {
+            throw new IllegalArgumentException("Cache budget must be positive");
+        }
+        this.cacheMaxBytes = cacheMaxBytes;
+        return this;
+    }
+
+    public long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    /**
+     * Sets whether cached files are kept off-heap in direct memory, where they add nothing to
+     * garbage collection work and are sent without copying. Disabled by default.
+     *
+     * @param cacheOffHeap whether to cache files off-heap
+     * @return the updated configuration
+     */
+    public DynamicFileServerConfiguration setCacheOffHeap(boolean cacheOffHeap) {
+        this.cacheOffHeap = cacheOffHeap;
+        return this;
+    }
+
+    public boolean isCacheOffHeap() {
+        return cacheOffHeap;
+    }
 }
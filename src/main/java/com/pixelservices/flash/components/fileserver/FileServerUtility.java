@@ -1,6 +1,9 @@
 package com.pixelservices.flash.components.fileserver;
 
 
+import com.pixelservices.flash.components.http.lifecycle.HttpDate;
+import com.pixelservices.flash.components.http.lifecycle.Request;
+import com.pixelservices.flash.components.http.lifecycle.Response;
 import com.pixelservices.flash.utils.FlashLogger;
 
 import java.io.IOException;
@@ -100,6 +103,65 @@ public class FileServerUtility {
         return endpoint + route;
     }
 
+    /**
+     * Checks whether a conditional request can be answered with 304 Not Modified. If-None-Match
+     * takes precedence over If-Modified-Since, as the ETag is the stronger validator.
+     *
+     * @param req          the request
+     * @param etag         the ETag of the representation, or null if there is none
+     * @param lastModified the modification time in milliseconds since the epoch, or -1 if unknown
+     * @return true if the client's copy is still current
+     */
+    public static boolean isNotModified(Request req, String etag, long lastModified) {
+        String ifNoneMatch = req.header("If-None-Match");
+        if (ifNoneMatch != null) {
+            if (etag == null) {
+                return false;
+            }
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                // Weak comparison, as for every GET
+                if (candidate.startsWith("W/")) {
+                    candidate = candidate.substring(2);
+                }
+                if (candidate.equals("*") || candidate.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (lastModified < 0) {
+            return false;
+        }
+        long since = HttpDate.parse(req.header("If-Modified-Since"));
+        // HTTP dates have a resolution of seconds
+        return since >= 0 && lastModified / 1000 <= since / 1000;
+    }
+
+    /**
+     * Sets the validators of a representation and turns the response into a bodiless 304 if the
+     * request is conditional and the client's copy is still current.
+     *
+     * @param req          the request
+     * @param res          the response
+     * @param etag         the ETag of the representation, or null if there is none
+     * @param lastModified the modification time in milliseconds since the epoch, or -1 if unknown
+     * @return true if the response is a 304 and must be sent without body
+     */
+    public static boolean applyValidators(Request req, Response res, String etag, long lastModified) {
+        if (etag != null) {
+            res.header("ETag", etag);
+        }
+        if (lastModified >= 0) {
+            res.header("Last-Modified", HttpDate.format(lastModified));
+        }
+        if (isNotModified(req, etag, lastModified)) {
+            res.status(304).body("");
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Callback interface for file watcher events.
      */
@@ -3,24 +3,42 @@ package com.pixelservices.flash.components.fileserver;
 import com.pixelservices.flash.components.FlashServer;
 import com.pixelservices.flash.components.http.HandlerType;
 import com.pixelservices.flash.components.http.HttpMethod;
+import com.pixelservices.flash.components.http.lifecycle.FileBody;
 import com.pixelservices.flash.utils.FlashLogger;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.file.*;
-import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.stream.Stream;
 
 /**
  * StaticFileServer serves static files efficiently using an asset cache.
+ * Files are read on their first request and kept in a bounded {@link AssetCache}, cached content
+ * and ranges of it are sent as views of the cached buffer. Files larger than
+ * {@link #MAX_CACHED_FILE_SIZE} are never cached, they are sent straight from disk as a
+ * {@link FileBody}.
+ * <p>
+ * Compressible files are also sent gzip or deflate encoded if the client accepts it. The encoded
+ * variant is compressed once and cached, unless a {@code .gz} sibling of the file already holds
+ * it, which is the only variant offered for files too large to cache.
+ * <p>
+ * Responses carry an ETag hashed from the cached content and the modification time of the file,
+ * and conditional requests that still match are answered with a bodiless 304.
  */
 public class StaticFileServer {
+    /**
+     * The size up to which files are kept in the asset cache.
+     */
+    public static final long MAX_CACHED_FILE_SIZE = 1024 * 1024;
 
     private final FlashServer server;
     private final ThreadPoolExecutor executor;
-    private final AssetCache assetCache = new AssetCache(); // Unified asset cache
-    private Path rootPath;
 
     /**
      * Constructs a StaticFileServer instance with the specified FlashServer.
@@ -39,36 +57,54 @@ public class StaticFileServer {
      *
      * @param endpoint the base endpoint for serving static files
      * @param config   the configuration for the static file server
+     * @return the cache holding the files of this endpoint
      */
-    public void serve(String endpoint, StaticFileServerConfiguration config) {
-        this.rootPath = Paths.get(config.getDestinationPath());
+    public AssetCache serve(String endpoint, StaticFileServerConfiguration config) {
+        Path rootPath = Paths.get(config.getDestinationPath());
         if (!Files.isDirectory(rootPath)) {
             throw new IllegalArgumentException("Provided path is not a directory: " + rootPath);
         }
+        Directory directory = new Directory(endpoint, rootPath, new AssetCache(config.getCacheMaxBytes(), config.isCacheOffHeap()));
 
-        // Register all static file routes.
-        registerStaticRoutes(endpoint);
+        // Register all static file routes, published to the router in one step.
+        server.batchRoutes(() -> registerStaticRoutes(directory));
 
         // Start file watcher if enabled.
         if (config.isEnableFileWatcher()) {
-            startDirectoryWatcher(endpoint);
+            startDirectoryWatcher(directory);
+        }
+        return directory.assetCache;
+    }
+
+    /**
+     * A served directory and the state of its routes.
+     *
+     * @param fileRoutes   the registered routes served from disk instead of the cache
+     * @param lastModified the modification times of the cached files, by route
+     */
+    private record Directory(String endpoint, Path rootPath, AssetCache assetCache,
+                             Set<String> routes, Set<String> fileRoutes, Map<String, Long> lastModified) {
+        Directory(String endpoint, Path rootPath, AssetCache assetCache) {
+            this(endpoint, rootPath, assetCache, ConcurrentHashMap.newKeySet(), ConcurrentHashMap.newKeySet(),
+                    new ConcurrentHashMap<>());
         }
     }
 
     /**
      * Scans the root directory for regular files and registers a route for each.
      *
-     * @param endpoint the base endpoint for file routes
+     * @param directory the served directory
      */
-    private void registerStaticRoutes(String endpoint) {
+    private void registerStaticRoutes(Directory directory) {
+        Path rootPath = directory.rootPath();
         try (Stream<Path> paths = Files.walk(rootPath)) {
             paths.filter(Files::isRegularFile)
                     .forEach(filePath -> {
                         String relativePath = rootPath.relativize(filePath)
                                 .toString()
                                 .replace("\\", "/");
-                        String routePath = endpoint + "/" + relativePath;
-                        cacheAndRegisterFile(routePath, filePath);
+                        String routePath = directory.endpoint() + "/" + relativePath;
+                        registerFile(directory, routePath, filePath);
                     });
         } catch (IOException e) {
             throw new RuntimeException("Error listing directory: " + rootPath, e);
@@ -78,67 +114,112 @@ public class StaticFileServer {
     /**
      * Starts a directory watcher to monitor file system changes and update routes dynamically.
      *
-     * @param endpoint the base endpoint for file routes
+     * @param directory the served directory
      */
-    private void startDirectoryWatcher(String endpoint) {
+    private void startDirectoryWatcher(Directory directory) {
         executor.submit(() -> {
-            FileServerUtility.startDirectoryWatcher(rootPath, (event, rootDir) -> processWatchEvent(event, endpoint));
+            FileServerUtility.startDirectoryWatcher(directory.rootPath(), (event, rootDir) -> processWatchEvent(event, directory));
         });
     }
 
     /**
      * Processes a file system watch event by updating routes accordingly.
      *
-     * @param event    the watch event
-     * @param endpoint the base endpoint for file routes
+     * @param event     the watch event
+     * @param directory the served directory
      */
     @SuppressWarnings("unchecked")
-    private void processWatchEvent(WatchEvent<?> event, String endpoint) {
+    private void processWatchEvent(WatchEvent<?> event, Directory directory) {
+        Path rootPath = directory.rootPath();
         Path eventPath = ((WatchEvent<Path>) event).context();
         Path fullPath = Path.of(rootPath.resolve(eventPath).toString().replace("~", ""));
         String relativePath = rootPath.relativize(fullPath).toString().replace("\\", "/");
-        String routePath = endpoint + "/" + relativePath;
+        String routePath = directory.endpoint() + "/" + relativePath;
         WatchEvent.Kind<?> kind = event.kind();
 
         if (kind == StandardWatchEventKinds.ENTRY_CREATE || kind == StandardWatchEventKinds.ENTRY_MODIFY) {
             if (Files.isRegularFile(fullPath)) {
-                cacheAndRegisterFile(routePath, fullPath);
+                // A changed file is reloaded on its next request
+                invalidate(directory, routePath);
+                registerFile(directory, routePath, fullPath);
             }
         } else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
-            assetCache.remove(routePath);
+            invalidate(directory, routePath);
+            directory.routes().remove(routePath);
+            directory.fileRoutes().remove(routePath);
             server.unregisterRoute(HttpMethod.GET, routePath);
         }
     }
 
     /**
-     * Caches the content of a file and registers a static file route.
+     * Drops a file and its encoded variants from the cache. A changed {@code .gz} file also drops
+     * the gzip variant of the file it belongs to.
+     */
+    private void invalidate(Directory directory, String routePath) {
+        AssetCache assetCache = directory.assetCache();
+        assetCache.remove(routePath);
+        for (ContentEncoding encoding : ContentEncoding.values()) {
+            assetCache.remove(encoding.variantKey(routePath));
+        }
+        if (routePath.endsWith(".gz")) {
+            assetCache.remove(ContentEncoding.GZIP.variantKey(routePath.substring(0, routePath.length() - 3)));
+        }
+    }
+
+    /**
+     * Registers a static file route unless it is registered already. The content is not read
+     * here, only the size decides whether the file goes through the cache.
      *
+     * @param directory the served directory
      * @param routePath the route path to register
      * @param filePath  the file system path for the content
      */
-    private void cacheAndRegisterFile(String routePath, Path filePath) {
-        if (!assetCache.contains(routePath)) {
-            try {
-                byte[] fileContent = Files.readAllBytes(filePath);
-                assetCache.put(routePath, fileContent);
-                registerStaticFileRoute(routePath, filePath);
-            } catch (IOException e) {
-                FlashLogger.getLogger().info("Error caching file: " + e.getMessage());
+    private void registerFile(Directory directory, String routePath, Path filePath) {
+        try {
+            if (Files.size(filePath) > MAX_CACHED_FILE_SIZE) {
+                directory.fileRoutes().add(routePath);
+            } else {
+                directory.fileRoutes().remove(routePath);
+            }
+            if (directory.routes().add(routePath)) {
+                registerStaticFileRoute(directory, routePath, filePath);
             }
+        } catch (IOException e) {
+            FlashLogger.getLogger().info("Error registering file: " + e.getMessage());
         }
     }
 
     /**
-     * Registers a static file route that returns the cached file content.
+     * Registers a static file route that returns the file content, from the cache where possible.
      *
+     * @param directory the served directory
      * @param routePath the route path to register
      * @param filePath  the file system path associated with the route
      */
-    private void registerStaticFileRoute(String routePath, Path filePath) {
+    private void registerStaticFileRoute(Directory directory, String routePath, Path filePath) {
+        final AssetCache assetCache = directory.assetCache();
+        final boolean compressible = ContentEncoding.isCompressible(filePath.toString());
+        final AssetCache.Loader loader = () -> {
+            // The modification time of the content as it is cached
+            directory.lastModified().put(routePath, Files.getLastModifiedTime(filePath).toMillis());
+            return Files.readAllBytes(filePath);
+        };
         server.registerRoute(HttpMethod.GET, routePath, (req, res) -> {
-            byte[] fileContent = assetCache.get(routePath);
-
-            if (fileContent == null) {
+            AssetCache.Asset asset = null;
+            ByteBuffer fileContent = null;
+            long length;
+            long lastModified;
+            try {
+                if (directory.fileRoutes().contains(routePath)) {
+                    length = Files.size(filePath);
+                    lastModified = Files.getLastModifiedTime(filePath).toMillis();
+                } else {
+                    asset = assetCache.getAsset(routePath, loader);
+                    fileContent = asset.content();
+                    length = fileContent.remaining();
+                    lastModified = directory.lastModified().getOrDefault(routePath, -1L);
+                }
+            } catch (IOException e) {
                 res.status(404).body("File not found");
                 return res.getBody();
             }
@@ -147,21 +228,45 @@ public class StaticFileServer {
 
             // this enables partial content requests (range requests) for stuff like in-browser video/content streaming
             String rangeHeader = req.header("Range");
+            if (compressible) {
+                // Caches must keep the encodings apart, whichever one this response uses
+                res.header("Vary", "Accept-Encoding");
+                ContentEncoding encoding = rangeHeader == null ? ContentEncoding.negotiate(req.header("Accept-Encoding")) : null;
+                Object encoded = encoding != null ? encodedContent(directory, routePath, filePath, fileContent, encoding) : null;
+                if (encoded != null) {
+                    // Every encoding is a representation of its own with its own ETag
+                    String etag = encoded instanceof AssetCache.Asset encodedAsset ? encodedAsset.etag() : null;
+                    res.header("Content-Encoding", encoding.token());
+                    if (FileServerUtility.applyValidators(req, res, etag, lastModified)) {
+                        return res.getBody();
+                    }
+                    Object body = encoded instanceof AssetCache.Asset encodedAsset ? encodedAsset.content() : encoded;
+                    res.status(200).type(contentType).body(body);
+                    return res.getBody();
+                }
+            }
+            if (FileServerUtility.applyValidators(req, res, asset != null ? asset.etag() : null, lastModified)) {
+                return res.getBody();
+            }
             if (rangeHeader != null) {
                 try {
                     String[] ranges = rangeHeader.replace("bytes=", "").split("-");
                     long start = Long.parseLong(ranges[0]);
-                    long end = (ranges.length > 1) ? Long.parseLong(ranges[1]) : fileContent.length - 1;
+                    long end = (ranges.length > 1) ? Math.min(Long.parseLong(ranges[1]), length - 1) : length - 1;
 
-                    if (start > fileContent.length) {
-                        res.status(416).body("Requested Range Not Satisfiable");
+                    if (start >= length || end < start) {
+                        res.status(416)
+                                .header("Content-Range", "bytes */" + length)
+                                .body("Requested Range Not Satisfiable");
                         return res.getBody();
                     }
 
-                    byte[] rangeContent = Arrays.copyOfRange(fileContent, (int) start, (int) (end + 1));
+                    Object rangeContent = fileContent != null
+                            ? fileContent.slice((int) start, (int) (end + 1 - start))
+                            : FileBody.of(filePath, start, end + 1 - start);
 
                     res.status(206)
-                            .header("Content-Range", "bytes " + start + "-" + end + "/" + fileContent.length)
+                            .header("Content-Range", "bytes " + start + "-" + end + "/" + length)
                             .type(contentType)
                             .body(rangeContent);
                     return res.getBody();
@@ -171,9 +276,39 @@ public class StaticFileServer {
                 }
             }
 
-            res.status(200).type(contentType).body(fileContent);
+            res.status(200).type(contentType).body(fileContent != null ? fileContent : FileBody.of(filePath, 0, length));
             return res.getBody();
         }, HandlerType.STATIC);
     }
 
-}
\ No newline at end of file
+    /**
+     * Returns the encoded variant of a file, from its {@code .gz} sibling for gzip if there is one.
+     *
+     * @param fileContent the cached identity content, null for a file served from disk
+     * @return the cached asset or a file body with the encoded content, or null to send the identity content
+     */
+    private Object encodedContent(Directory directory, String routePath, Path filePath, ByteBuffer fileContent,
+                                  ContentEncoding encoding) {
+        Path sibling = encoding == ContentEncoding.GZIP ? filePath.resolveSibling(filePath.getFileName() + ".gz") : null;
+        try {
+            if (fileContent == null) {
+                return sibling != null && Files.isRegularFile(sibling) ? FileBody.of(sibling) : null;
+            }
+            if (fileContent.remaining() < ContentEncoding.MIN_COMPRESSED_SIZE) {
+                return null;
+            }
+            return directory.assetCache().getAsset(encoding.variantKey(routePath), () -> {
+                if (sibling != null && Files.isRegularFile(sibling)) {
+                    return Files.readAllBytes(sibling);
+                }
+                byte[] identity = new byte[fileContent.remaining()];
+                fileContent.get(fileContent.position(), identity);
+                return encoding.encode(identity);
+            });
+        } catch (IOException | UncheckedIOException e) {
+            FlashLogger.getLogger().info("Error encoding file: " + e.getMessage());
+            return null;
+        }
+    }
+
+}
@@ -1,30 +1,46 @@
 package com.pixelservices.flash.components.http;
 
 import com.pixelservices.flash.components.*;
+import com.pixelservices.flash.components.http.connection.ResponseQueue;
 import com.pixelservices.flash.components.http.expected.ExpectedBodyField;
 import com.pixelservices.flash.components.http.expected.ExpectedBodyFile;
 import com.pixelservices.flash.components.http.expected.ExpectedRequestParameter;
+import com.pixelservices.flash.components.http.lifecycle.FileBody;
 import com.pixelservices.flash.components.http.lifecycle.Request;
 import com.pixelservices.flash.components.http.lifecycle.Response;
+import com.pixelservices.flash.components.http.lifecycle.ResponseSerializer;
 import com.pixelservices.flash.components.http.pool.HandlerPool;
 import com.pixelservices.flash.components.http.routing.RouteRegistry;
 import com.pixelservices.flash.components.http.routing.models.RequestInfo;
+import com.pixelservices.flash.components.http.routing.models.RouteEntry;
 import com.pixelservices.flash.components.http.routing.models.RouteMatch;
+import com.pixelservices.flash.components.http.routing.models.SimpleHandler;
 import com.pixelservices.flash.exceptions.RequestExceptionHandler;
 import com.pixelservices.flash.exceptions.UnmatchedHandlerException;
 import com.pixelservices.flash.models.ClientAttachment;
 import com.pixelservices.flash.utils.FlashLogger;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 public class HttpRequestHandler {
+    private static final int CHUNK_SIZE = 65536;
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+    // File bodies are mapped and written in windows of this size
+    private static final long FILE_REGION_SIZE = 8 * 1024 * 1024;
 
     private final FlashServer server;
     private final RouteRegistry routeRegistry;
@@ -34,22 +50,32 @@ public class HttpRequestHandler {
         this.routeRegistry = routeRegistry;
     }
 
-    public void handle(ClientAttachment att, RequestInfo reqInfo, String fullRequestData) {
+    /**
+     * Handles a single request and queues its response behind the responses of earlier
+     * requests on the same connection.
+     *
+     * @param att     the connection the request arrived on
+     * @param reqInfo the parsed request
+     * @param slot    the position of this request's response in the connection's response order
+     */
+    public void handle(ClientAttachment att, RequestInfo reqInfo, ResponseQueue.Slot slot) {
         AsynchronousSocketChannel clientChannel = att.channel;
         RequestHandler handler = null;
         RouteMatch match = null;
+        Request request = null;
 
         try {
             final InetSocketAddress remoteAddress = (InetSocketAddress) att.channel.getRemoteAddress();
             match = routeRegistry.resolveRoute(reqInfo.getMethod(), reqInfo.getPath());
 
             final Map<String, String> params = match != null ? match.params() : Collections.emptyMap();
-            final Request request = new Request(fullRequestData, remoteAddress, params);
+            request = new Request(reqInfo.getRawRequest(), remoteAddress, params,
+                    server.getConfiguration().getMultipartSpillThreshold());
             final Response response = new Response();
 
             if (!server.processMiddleware(reqInfo.getPath(), request, response)) {
                 //response.finalizeResponse(); // finalizziamo sempre la risposta
-                sendResponse(response, clientChannel);
+                enqueueResponse(response, att, reqInfo, slot);
                 return;
             }
 
@@ -57,175 +83,312 @@ public class HttpRequestHandler {
                 throw new UnmatchedHandlerException("No handler found for " + reqInfo.getMethod() + " " + reqInfo.getPath());
             }
 
-            // Acquire a handler from the pool
-            handler = match.entry().getHandlerPool().acquire(request, response);
-
-            validateHandlerResources(handler);
-
-            final Object responseBody = handler.handle();
-            response.body(convertToResponseBody(responseBody));
-
-            if (isLargeFile(response)) {
-                response.header("Transfer-Encoding", "chunked");
-                response.header("Content-Length", null);
+            final RouteEntry entry = match.entry();
+            if (entry.isEnforcedNonNullBody() && !RequestHandler.assertNonNullReqBody(request, response)) {
+                enqueueResponse(response, att, reqInfo, slot);
+                return;
             }
 
-            //response.finalizeResponse();
-
-            if (isLargeFile(response)) {
-                sendLargeFileResponse(response, clientChannel);
+            final Object responseBody;
+            final SimpleHandler statelessHandler = entry.getStatelessHandler();
+            if (statelessHandler != null) {
+                // One shared instance that gets its context as arguments, no pool involved
+                responseBody = statelessHandler.handle(request, response);
             } else {
-                sendResponse(response, clientChannel);
+                // Acquire a handler from the pool
+                final HandlerPool<? extends RequestHandler> pool = entry.getHandlerPool();
+                if (Thread.currentThread().isVirtual()) {
+                    handler = pool.acquire(request, response);
+                } else {
+                    // An I/O thread must never park on an exhausted pool, waiting is left to a virtual thread
+                    handler = pool.tryAcquire(request, response);
+                    if (handler == null) {
+                        final Request deferred = request;
+                        request = null;
+                        server.executeBlocking(() -> handleDeferred(att, reqInfo, slot, pool, deferred, response));
+                        return;
+                    }
+                }
+                validateHandlerResources(handler);
+                responseBody = handler.handle();
             }
+            respond(response, responseBody, att, reqInfo, slot);
 
         } catch (Exception e) {
-            new RequestExceptionHandler(clientChannel, e).handle();
+            // The request was framed completely, an error answer alone is no reason to drop the connection
+            enqueueResponse(new RequestExceptionHandler(clientChannel, e).toResponse(), att, reqInfo, slot);
         } finally {
             if (handler != null) {
-                try {
-                    releaseHandlerToPool(match.entry().getHandlerPool(), handler);
-                } catch (Exception e) {
-                    FlashLogger.getLogger().error("Error returning handler to pool", e);
-                }
+                releaseHandlerToPool(match.entry().getHandlerPool(), handler);
             }
+            if (request != null) {
+                request.release();
+            }
+        }
+    }
 
-            if (!att.isWebSocket) {
-                FlashServer.REQUEST_BUFFER_POOL.release(att.buffer);
+    /**
+     * Finishes a request whose handler pool was exhausted when an I/O thread got to it, on a
+     * thread that may wait for a handler to be released.
+     */
+    private void handleDeferred(ClientAttachment att, RequestInfo reqInfo, ResponseQueue.Slot slot,
+                                HandlerPool<? extends RequestHandler> pool, Request request, Response response) {
+        RequestHandler handler = null;
+        try {
+            handler = pool.acquire(request, response);
+            validateHandlerResources(handler);
+            respond(response, handler.handle(), att, reqInfo, slot);
+        } catch (Exception e) {
+            enqueueResponse(new RequestExceptionHandler(att.channel, e).toResponse(), att, reqInfo, slot);
+        } finally {
+            if (handler != null) {
+                releaseHandlerToPool(pool, handler);
             }
+            request.release();
+        }
+    }
+
+    private void respond(Response response, Object responseBody, ClientAttachment att, RequestInfo reqInfo, ResponseQueue.Slot slot) {
+        response.body(convertToResponseBody(responseBody));
+
+        if (isLargeFile(response)) {
+            response.header("Transfer-Encoding", "chunked");
+            response.header("Content-Length", null);
+        }
+
+        //response.finalizeResponse();
+
+        enqueueResponse(response, att, reqInfo, slot);
+    }
+
+    /**
+     * Writes the Connection header matching the keep-alive decision. A handler or middleware that
+     * already set {@code Connection: close} wins over the negotiated value.
+     *
+     * @return whether the connection will be kept alive
+     */
+    private boolean applyConnectionHeader(Response response, RequestInfo reqInfo, boolean keepAlive) {
+        if (keepAlive && "close".equalsIgnoreCase(response.getHeader("Connection"))) {
+            keepAlive = false;
+        }
+        if (!keepAlive) {
+            response.header("Connection", "close");
+        } else if ("HTTP/1.0".equals(reqInfo.getVersion())) {
+            response.header("Connection", "keep-alive");
+        }
+        return keepAlive;
+    }
+
+    private void enqueueResponse(Response response, ClientAttachment att, RequestInfo reqInfo, ResponseQueue.Slot slot) {
+        if (!reqInfo.getRawRequest().isBodyComplete()) {
+            // The handler answered before the streamed body was fully received, the rest cannot be skipped reliably
+            slot.setKeepAlive(false);
+        }
+        slot.setKeepAlive(applyConnectionHeader(response, reqInfo, slot.isKeepAlive()));
+        att.responses.complete(slot, onWritten -> write(response, att, onWritten));
+    }
+
+    /**
+     * Writes a response to the connection, chunking large bodies and mapping file bodies.
+     * Buffer bodies are written without being copied.
+     *
+     * @param response  the response to write
+     * @param att       the connection to write to
+     * @param onWritten run once the response has been fully written
+     */
+    public void write(Response response, ClientAttachment att, Runnable onWritten) {
+        FileBody file = response.getFileBody();
+        ByteBuffer buffer = response.getBufferBody();
+        if (file != null) {
+            sendFileResponse(response, file, att, onWritten);
+        } else if (buffer != null) {
+            sendBufferResponse(response, buffer, att, onWritten);
+        } else if (isLargeFile(response)) {
+            sendLargeFileResponse(response, att, onWritten);
+        } else {
+            sendResponse(response, att, onWritten);
         }
     }
 
     @SuppressWarnings("unchecked")
     private <T extends RequestHandler> void releaseHandlerToPool(HandlerPool<T> pool, RequestHandler handler) {
-        pool.release((T) handler);
+        try {
+            pool.release((T) handler);
+        } catch (Exception e) {
+            FlashLogger.getLogger().error("Error returning handler to pool", e);
+        }
     }
 
-    private void sendResponse(Response response, AsynchronousSocketChannel clientChannel) {
-        final ByteBuffer responseBuffer = response.getSerialized();
-        clientChannel.write(responseBuffer, responseBuffer, new CompletionHandler<>() {
+    private void sendResponse(Response response, ClientAttachment att, Runnable onWritten) {
+        final byte[] body = response.getSerializedBody();
+        final ByteBuffer pooled = FlashServer.RESPONSE_HEAD_POOL.acquire();
+        final ByteBuffer head = ResponseSerializer.writeHead(response, pooled, body.length, server.getDefaultHeaders());
+        final ByteBuffer[] buffers = body.length == 0
+                ? new ByteBuffer[]{head}
+                : new ByteBuffer[]{head, ByteBuffer.wrap(body)};
+        writeFully(att, buffers, pooled, onWritten, "Error sending response");
+    }
+
+    private void sendBufferResponse(Response response, ByteBuffer body, ClientAttachment att, Runnable onWritten) {
+        // A view of its own, so the position of the handler's buffer is left alone
+        final ByteBuffer view = body.duplicate();
+        final ByteBuffer pooled = FlashServer.RESPONSE_HEAD_POOL.acquire();
+        final ByteBuffer head = ResponseSerializer.writeHead(response, pooled, view.remaining(), server.getDefaultHeaders());
+        final ByteBuffer[] buffers = view.hasRemaining()
+                ? new ByteBuffer[]{head, view}
+                : new ByteBuffer[]{head};
+        writeFully(att, buffers, pooled, onWritten, "Error sending response");
+    }
+
+    /**
+     * Writes the buffers with gathering writes until all of them are drained.
+     *
+     * @param pooled    a buffer of the response head pool to release afterwards, or null
+     * @param onWritten run once every buffer has been written
+     */
+    private void writeFully(ClientAttachment att, ByteBuffer[] buffers, ByteBuffer pooled, Runnable onWritten, String errorMessage) {
+        writeFully(att, buffers, pooled, onWritten, errorMessage, null);
+    }
+
+    /**
+     * Writes the buffers with gathering writes until all of them are drained.
+     *
+     * @param source closed if the write fails, or null
+     */
+    private void writeFully(ClientAttachment att, ByteBuffer[] buffers, ByteBuffer pooled, Runnable onWritten,
+                            String errorMessage, Closeable source) {
+        att.channel.write(buffers, 0, buffers.length, 0L, TimeUnit.MILLISECONDS, att, new CompletionHandler<>() {
+            private int offset;
+
             @Override
-            public void completed(Integer bytesWritten, ByteBuffer buf) {
-                if (buf.hasRemaining()) {
-                    clientChannel.write(buf, buf, this);
+            public void completed(Long bytesWritten, ClientAttachment att) {
+                while (offset < buffers.length && !buffers[offset].hasRemaining()) {
+                    offset++;
+                }
+                if (offset < buffers.length) {
+                    att.channel.write(buffers, offset, buffers.length - offset, 0L, TimeUnit.MILLISECONDS, att, this);
+                    return;
                 }
+                FlashServer.RESPONSE_HEAD_POOL.release(pooled);
+                onWritten.run();
             }
 
             @Override
-            public void failed(Throwable exc, ByteBuffer buf) {
-                FlashLogger.getLogger().error("Error sending response", exc);
-                FlashServer.closeSocket(clientChannel);
+            public void failed(Throwable exc, ClientAttachment att) {
+                FlashServer.RESPONSE_HEAD_POOL.release(pooled);
+                closeQuietly(source);
+                FlashLogger.getLogger().error(errorMessage, exc);
+                server.closeConnection(att);
             }
         });
     }
 
     private boolean isLargeFile(Response response) {
+        if (response.getFileBody() != null || response.getBufferBody() != null) {
+            return false;
+        }
         byte[] body = response.getSerializedBody();
         return body.length > 1024 * 1024;
     }
 
-    private void sendLargeFileResponse(Response response, AsynchronousSocketChannel clientChannel) {
-        byte[] headerBytes = response.getHeaderBytes();
-        byte[] bodyBytes = response.getSerializedBody();
+    private void sendLargeFileResponse(Response response, ClientAttachment att, Runnable onWritten) {
+        final byte[] body = response.getSerializedBody();
+        final ByteBuffer pooled = FlashServer.RESPONSE_HEAD_POOL.acquire();
+        final ByteBuffer head = ResponseSerializer.writeHead(response, pooled, body.length, server.getDefaultHeaders());
+        sendNextChunk(att, body, 0, head, pooled, onWritten);
+    }
 
-        ByteBuffer headerBuffer = ByteBuffer.wrap(headerBytes);
+    /**
+     * Sends the next chunk of a chunked body straight from the body array. The head goes out with
+     * the first chunk and the terminating chunk with the last one.
+     */
+    private void sendNextChunk(ClientAttachment att, byte[] body, int position, ByteBuffer head, ByteBuffer pooled, Runnable onWritten) {
+        final int chunkSize = Math.min(CHUNK_SIZE, body.length - position);
+        final int next = position + chunkSize;
+        final boolean last = next >= body.length;
 
-        clientChannel.write(headerBuffer, new ChunkedContext(bodyBytes, clientChannel, 0),
-                new CompletionHandler<Integer, ChunkedContext>() {
-                    @Override
-                    public void completed(Integer bytesWritten, ChunkedContext context) {
-                        if (headerBuffer.hasRemaining()) {
-                            clientChannel.write(headerBuffer, context, this);
-                        } else {
-                            sendNextChunk(context);
-                        }
-                    }
+        // Format: <chunk-size>\r\n<chunk-data>\r\n
+        final ByteBuffer[] buffers = new ByteBuffer[(head != null ? 4 : 3) + (last ? 1 : 0)];
+        int i = 0;
+        if (head != null) {
+            buffers[i++] = head;
+        }
+        buffers[i++] = ByteBuffer.wrap((Integer.toHexString(chunkSize) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        buffers[i++] = ByteBuffer.wrap(body, position, chunkSize);
+        buffers[i++] = ByteBuffer.wrap(CRLF);
+        if (last) {
+            buffers[i] = ByteBuffer.wrap(LAST_CHUNK);
+        }
 
-                    @Override
-                    public void failed(Throwable exc, ChunkedContext context) {
-                        FlashLogger.getLogger().error("Error sending large file headers", exc);
-                        FlashServer.closeSocket(clientChannel);
-                    }
-                });
-    }
-
-    private void sendNextChunk(ChunkedContext context) {
-        if (context.position >= context.bodyBytes.length) {
-            // Send the final chunk (0\r\n\r\n)
-            ByteBuffer finalChunk = ByteBuffer.wrap("0\r\n\r\n".getBytes(StandardCharsets.UTF_8));
-            context.channel.write(finalChunk, null, new CompletionHandler<Integer, Void>() {
-                @Override
-                public void completed(Integer bytesWritten, Void attachment) {
-                    if (finalChunk.hasRemaining()) {
-                        context.channel.write(finalChunk, null, this);
-                    } else {
-                        FlashServer.closeSocket(context.channel);
-                    }
-                }
+        writeFully(att, buffers, pooled, last ? onWritten : () -> sendNextChunk(att, body, next, null, null, onWritten),
+                "Error sending chunk");
+    }
 
-                @Override
-                public void failed(Throwable exc, Void attachment) {
-                    FlashLogger.getLogger().error("Error sending final chunk", exc);
-                    FlashServer.closeSocket(context.channel);
-                }
-            });
+    /**
+     * Writes a file body with a Content-Length head. The file is never read onto the heap, its
+     * region is mapped window by window and the mapped buffers are written to the socket as they
+     * are; the head goes out with the first window in one gathering write.
+     */
+    private void sendFileResponse(Response response, FileBody file, ClientAttachment att, Runnable onWritten) {
+        final FileChannel channel;
+        try {
+            channel = FileChannel.open(file.getPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            // The head is not written yet, so the slot is answered with an error in place of the file
+            FlashLogger.getLogger().error("Error opening file " + file.getPath(), e);
+            boolean missing = e instanceof NoSuchFileException;
+            Response error = new Response()
+                    .status(missing ? 404 : 500)
+                    .type("text/plain")
+                    .body(missing ? "File not found" : "Internal server error")
+                    .header("Connection", "close");
+            sendResponse(error, att, () -> server.closeConnection(att));
             return;
         }
+        final ByteBuffer pooled = FlashServer.RESPONSE_HEAD_POOL.acquire();
+        final ByteBuffer head = ResponseSerializer.writeHead(response, pooled, file.getLength(), server.getDefaultHeaders());
+        sendNextRegion(att, channel, file.getPosition(), file.getPosition() + file.getLength(), head, pooled, onWritten);
+    }
 
-        // Use a smaller chunk size for better memory management
-        int chunkSize = Math.min(4096, context.bodyBytes.length - context.position);
+    private void sendNextRegion(ClientAttachment att, FileChannel channel, long position, long end,
+                                ByteBuffer head, ByteBuffer pooled, Runnable onWritten) {
+        final long size = Math.min(FILE_REGION_SIZE, end - position);
+        final ByteBuffer region;
+        try {
+            region = size > 0 ? channel.map(FileChannel.MapMode.READ_ONLY, position, size) : null;
+        } catch (IOException e) {
+            // Usually a file that shrank after the head promised its length, the connection cannot recover
+            FlashServer.RESPONSE_HEAD_POOL.release(pooled);
+            closeQuietly(channel);
+            FlashLogger.getLogger().error("Error mapping file region", e);
+            server.closeConnection(att);
+            return;
+        }
 
-        // Format: <chunk-size>\r\n<chunk-data>\r\n
-        String chunkHeader = Integer.toHexString(chunkSize) + "\r\n";
-        byte[] chunkHeaderBytes = chunkHeader.getBytes(StandardCharsets.UTF_8);
-        byte[] chunkFooter = "\r\n".getBytes(StandardCharsets.UTF_8);
-
-        // Use direct buffer for better performance with large files
-        ByteBuffer chunk = ByteBuffer.allocateDirect(chunkHeaderBytes.length + chunkSize + chunkFooter.length);
-        chunk.put(chunkHeaderBytes);
-        
-        // Copy data in smaller segments to avoid memory issues
-        int remaining = chunkSize;
-        int offset = context.position;
-        while (remaining > 0) {
-            int segmentSize = Math.min(1024, remaining);
-            chunk.put(context.bodyBytes, offset, segmentSize);
-            remaining -= segmentSize;
-            offset += segmentSize;
-        }
-        
-        chunk.put(chunkFooter);
-        chunk.flip();
-
-        int newPosition = context.position + chunkSize;
-        ChunkedContext newContext = new ChunkedContext(context.bodyBytes, context.channel, newPosition);
-
-        context.channel.write(chunk, newContext, new CompletionHandler<Integer, ChunkedContext>() {
-            @Override
-            public void completed(Integer bytesWritten, ChunkedContext updatedContext) {
-                if (chunk.hasRemaining()) {
-                    context.channel.write(chunk, updatedContext, this);
-                } else {
-                    sendNextChunk(updatedContext);
+        final ByteBuffer[] buffers;
+        if (head == null) {
+            buffers = new ByteBuffer[]{region};
+        } else {
+            buffers = region == null ? new ByteBuffer[]{head} : new ByteBuffer[]{head, region};
+        }
+        final long next = position + size;
+        final Runnable then = next >= end
+                ? () -> {
+                    closeQuietly(channel);
+                    onWritten.run();
                 }
-            }
-
-            @Override
-            public void failed(Throwable exc, ChunkedContext updatedContext) {
-                FlashLogger.getLogger().error("Error sending chunk", exc);
-                FlashServer.closeSocket(context.channel);
-            }
-        });
+                : () -> sendNextRegion(att, channel, next, end, null, null, onWritten);
+        writeFully(att, buffers, pooled, then, "Error sending file", channel);
     }
 
-    private static class ChunkedContext {
-        final byte[] bodyBytes;
-        final AsynchronousSocketChannel channel;
-        final int position;
-
-        ChunkedContext(byte[] bodyBytes, AsynchronousSocketChannel channel, int position) {
-            this.bodyBytes = bodyBytes;
-            this.channel = channel;
-            this.position = position;
+    private static void closeQuietly(Closeable source) {
+        if (source == null) {
+            return;
+        }
+        try {
+            source.close();
+        } catch (IOException e) {
+            FlashLogger.getLogger().error("Error closing file", e);
         }
     }
 
@@ -237,13 +400,14 @@ public class HttpRequestHandler {
             field.getFieldValue();
         }
         for (ExpectedBodyFile file : handler.getExpectedBodyFiles().values()) {
-            file.getInputStream();
+            file.getFileName();
         }
     }
 
     public Object convertToResponseBody(Object responseBody) {
         if (responseBody == null) return "";
-        if (responseBody instanceof byte[] || responseBody instanceof String) return responseBody;
+        if (responseBody instanceof byte[] || responseBody instanceof String || responseBody instanceof FileBody
+                || responseBody instanceof ByteBuffer) return responseBody;
         return responseBody.toString();
     }
 }
@@ -33,7 +33,8 @@ public abstract class RequestHandler {
     public RequestHandler(Request req, Response res) {
         this.req = req;
         this.res = res;
-        if (isEnforcedNonNullBody() && !assertNonNullReqBody()) {
+        // Pooled handlers are created without a request, the body is then checked per request
+        if (req != null && isEnforcedNonNullBody() && !assertNonNullReqBody()) {
             throw new IllegalArgumentException("Invalid request body");
         }
     }
@@ -56,7 +57,17 @@ public abstract class RequestHandler {
      * @return True if the request body is not null, false otherwise
      */
     private boolean assertNonNullReqBody() {
-        JSONObject reqBody = getRequestBody();
+        return assertNonNullReqBody(req, res);
+    }
+
+    /**
+     * Assert that the request body is not null, answering 400 otherwise
+     * @param req The request
+     * @param res The response
+     * @return True if the request body is not null, false otherwise
+     */
+    static boolean assertNonNullReqBody(Request req, Response res) {
+        JSONObject reqBody = getRequestBody(req);
         if (reqBody == null || reqBody.isEmpty()) {
             res.status(400);
             res.body("Error: Invalid request body");
@@ -79,15 +90,12 @@ public abstract class RequestHandler {
     }
 
     /**
-     * Get the request object
-     * @return The request object
+     * Get the request body as a JSONObject, parsed once per request and shared by all callers
+     * @param req The request
+     * @return The request body as a JSONObject
      */
     public static JSONObject getRequestBody(Request req) {
-        String rawBody = req.body();
-        if (rawBody == null || rawBody.isEmpty()) {
-            return new JSONObject();
-        }
-        return new JSONObject(rawBody);
+        return req.jsonBody();
     }
 
     /**
@@ -0,0 +1,34 @@
+package com.pixelservices.flash.components.http;
+
+import com.pixelservices.flash.components.http.lifecycle.Request;
+import com.pixelservices.flash.components.http.lifecycle.Response;
+import com.pixelservices.flash.components.http.routing.models.SimpleHandler;
+
+/**
+ * Base class for request handlers that keep no per-request state.
+ * <p>
+ * A stateless handler receives the request and response as arguments instead of through the
+ * {@code req} and {@code res} fields, so its route keeps a single shared instance and calls it
+ * directly, without taking an instance from a handler pool. Expected parameters, body fields and
+ * files read through the fields and are therefore not available to stateless handlers.
+ */
+public abstract class StatelessRequestHandler extends RequestHandler implements SimpleHandler {
+
+    public StatelessRequestHandler() {
+        super(null, null);
+    }
+
+    /**
+     * Handle the request
+     * @param req The request
+     * @param res The response
+     * @return The response body
+     */
+    @Override
+    public abstract Object handle(Request req, Response res);
+
+    @Override
+    public final Object handle() {
+        return handle(req, res);
+    }
+}
@@ -0,0 +1,251 @@
+package com.pixelservices.flash.components.http.connection;
+
+import com.pixelservices.flash.components.http.HttpMethod;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The head bytes of a single framed request together with the offsets recorded by
+ * {@link RequestParser}, and its body, either buffered or streamed from the socket.
+ * <p>
+ * Strings are only decoded when asked for, and the path and version are decoded at most once.
+ * Header lookups compare bytes in place, so checking a header that is absent or matching a
+ * header against a token allocates nothing.
+ */
+public final class RawRequest {
+    private static final String HTTP_1_1 = "HTTP/1.1";
+    private static final String HTTP_1_0 = "HTTP/1.0";
+
+    private final byte[] data;
+    private final HttpMethod method;
+    private final int targetStart;
+    private final int targetEnd;
+    private final int versionStart;
+    private final int versionEnd;
+    private final int[] headers;
+    private final int headerCount;
+    private byte[] body;
+    private RequestBodyStream bodyStream;
+
+    private String target;
+    private String path;
+    private String version;
+
+    RawRequest(byte[] data, HttpMethod method, int targetStart, int targetEnd, int versionStart, int versionEnd,
+               int[] headers, int headerCount) {
+        this.data = data;
+        this.method = method;
+        this.targetStart = targetStart;
+        this.targetEnd = targetEnd;
+        this.versionStart = versionStart;
+        this.versionEnd = versionEnd;
+        this.headers = headers;
+        this.headerCount = headerCount;
+    }
+
+    void attachBody(byte[] body) {
+        this.body = body;
+    }
+
+    void attachBodyStream(RequestBodyStream bodyStream) {
+        this.bodyStream = bodyStream;
+    }
+
+    public HttpMethod method() {
+        return method;
+    }
+
+    /**
+     * @return the request target as sent, including the query string
+     */
+    public String target() {
+        if (target == null) {
+            target = decode(targetStart, targetEnd);
+        }
+        return target;
+    }
+
+    /**
+     * @return the request target without the query string
+     */
+    public String path() {
+        if (path == null) {
+            int queryStart = queryStart();
+            path = queryStart < 0 ? target() : decode(targetStart, queryStart);
+        }
+        return path;
+    }
+
+    /**
+     * @return the query string without the leading '?', or null if the target has none
+     */
+    public String query() {
+        int queryStart = queryStart();
+        return queryStart < 0 ? null : decode(queryStart + 1, targetEnd);
+    }
+
+    public String version() {
+        if (version == null) {
+            if (regionEquals(versionStart, versionEnd, HTTP_1_1)) {
+                version = HTTP_1_1;
+            } else if (regionEquals(versionStart, versionEnd, HTTP_1_0)) {
+                version = HTTP_1_0;
+            } else {
+                version = decode(versionStart, versionEnd);
+            }
+        }
+        return version;
+    }
+
+    public int headerCount() {
+        return headerCount;
+    }
+
+    public String headerName(int index) {
+        return decode(headers[index * 4], headers[index * 4 + 1]);
+    }
+
+    public String headerValue(int index) {
+        return decode(headers[index * 4 + 2], headers[index * 4 + 3]);
+    }
+
+    /**
+     * Looks up a header by name, ignoring case.
+     *
+     * @param name the header name
+     * @return the value of the first header with that name, or null if there is none
+     */
+    public String header(String name) {
+        int index = indexOfHeader(name, 0);
+        return index < 0 ? null : headerValue(index);
+    }
+
+    /**
+     * Checks whether a comma-separated header such as {@code Connection} lists the given token.
+     * Every header with that name is checked, tokens are compared ignoring case.
+     *
+     * @param name  the header name
+     * @param token the token to look for
+     * @return true if the token is present
+     */
+    public boolean headerContainsToken(String name, String token) {
+        for (int index = indexOfHeader(name, 0); index >= 0; index = indexOfHeader(name, index + 1)) {
+            final int end = headers[index * 4 + 3];
+            int partStart = headers[index * 4 + 2];
+            while (partStart <= end) {
+                int partEnd = partStart;
+                while (partEnd < end && data[partEnd] != ',') partEnd++;
+                int s = partStart, e = partEnd;
+                while (s < e && isWhitespace(data[s])) s++;
+                while (e > s && isWhitespace(data[e - 1])) e--;
+                if (regionEqualsIgnoreCase(s, e, token)) return true;
+                partStart = partEnd + 1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the body decoded as UTF-8, or null if the request has no body. A streamed body is read to its end first.
+     */
+    public String body() {
+        byte[] bytes = bodyBytes();
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the declared length of the body
+     */
+    public long bodyLength() {
+        if (bodyStream != null) return bodyStream.length();
+        return body == null ? 0 : body.length;
+    }
+
+    /**
+     * @return a read-only view of the body bytes, no copy is made. A streamed body is read to its end first.
+     */
+    public ByteBuffer bodyBuffer() {
+        byte[] bytes = bodyBytes();
+        return ByteBuffer.wrap(bytes == null ? new byte[0] : bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return true if the body is streamed from the socket instead of buffered
+     */
+    public boolean isBodyStreamed() {
+        return bodyStream != null;
+    }
+
+    /**
+     * @return true unless the body is streamed and has not been fully received from the socket yet
+     */
+    public boolean isBodyComplete() {
+        return bodyStream == null || bodyStream.isFullyReceived();
+    }
+
+    /**
+     * @return the body stream of a streamed request, or a stream over the buffered body otherwise
+     */
+    public InputStream bodyStream() {
+        if (bodyStream != null) return bodyStream;
+        return new ByteArrayInputStream(body == null ? new byte[0] : body);
+    }
+
+    private byte[] bodyBytes() {
+        if (bodyStream != null && body == null) {
+            try {
+                body = bodyStream.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read request body", e);
+            }
+        }
+        return body == null || body.length == 0 ? null : body;
+    }
+
+    private int indexOfHeader(String name, int from) {
+        for (int i = from; i < headerCount; i++) {
+            if (regionEqualsIgnoreCase(headers[i * 4], headers[i * 4 + 1], name)) return i;
+        }
+        return -1;
+    }
+
+    private int queryStart() {
+        for (int i = targetStart; i < targetEnd; i++) {
+            if (data[i] == '?') return i;
+        }
+        return -1;
+    }
+
+    private boolean regionEquals(int start, int end, String value) {
+        if (end - start != value.length()) return false;
+        for (int i = 0; i < value.length(); i++) {
+            if (data[start + i] != value.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private boolean regionEqualsIgnoreCase(int start, int end, String value) {
+        if (end - start != value.length()) return false;
+        for (int i = 0; i < value.length(); i++) {
+            int b = data[start + i];
+            int c = value.charAt(i);
+            if (b >= 'A' && b <= 'Z') b += 32;
+            if (c >= 'A' && c <= 'Z') c += 32;
+            if (b != c) return false;
+        }
+        return true;
+    }
+
+    private String decode(int start, int end) {
+        return new String(data, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
@@ -0,0 +1,186 @@
+package com.pixelservices.flash.components.http.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The body of a streamed request, fed from the socket while the handler reads it.
+ * <p>
+ * At most {@link #MAX_BUFFERED} bytes are held at a time. Once that is reached the connection
+ * stops reading from the socket, and the next read is only issued after the handler has consumed
+ * half of the buffered bytes, so the body is proxied with constant memory regardless of its size.
+ */
+public class RequestBodyStream extends InputStream {
+    static final int MAX_BUFFERED = 1024 * 1024;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition readable = lock.newCondition();
+    private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+    private final long length;
+    private final Runnable onDemand;
+    private int chunkOffset;
+    private int buffered;
+    private long received;
+    private boolean paused;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * @param length   the declared length of the body
+     * @param onDemand resumes reading from the socket after the stream paused it
+     */
+    RequestBodyStream(long length, Runnable onDemand) {
+        this.length = length;
+        this.onDemand = onDemand;
+    }
+
+    /**
+     * @return the declared length of the body
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @return true once every byte of the body has been received from the socket
+     */
+    public boolean isFullyReceived() {
+        lock.lock();
+        try {
+            return received == length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how many more bytes the body expects from the socket
+     */
+    long remaining() {
+        lock.lock();
+        try {
+            return length - received;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends bytes received from the socket.
+     *
+     * @param chunk the received bytes
+     * @return true if more bytes may be read right away, false if reading has to pause until the handler catches up
+     */
+    boolean offer(byte[] chunk) {
+        lock.lock();
+        try {
+            received += chunk.length;
+            if (!closed) {
+                chunks.addLast(chunk);
+                buffered += chunk.length;
+            }
+            readable.signalAll();
+            paused = buffered >= MAX_BUFFERED;
+            return !paused;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Aborts the stream, pending and future reads fail with the given cause.
+     */
+    void fail(IOException cause) {
+        lock.lock();
+        try {
+            if (received < length && failure == null) {
+                failure = cause;
+                readable.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int n = read(single, 0, 1);
+        return n == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        final Runnable resume;
+        final int n;
+        lock.lock();
+        try {
+            while (chunks.isEmpty()) {
+                if (closed) throw new IOException("Stream closed");
+                if (received == length) return -1;
+                if (failure != null) throw failure;
+                try {
+                    readable.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for request body", e);
+                }
+            }
+            byte[] chunk = chunks.peekFirst();
+            n = Math.min(len, chunk.length - chunkOffset);
+            System.arraycopy(chunk, chunkOffset, b, off, n);
+            chunkOffset += n;
+            if (chunkOffset == chunk.length) {
+                chunks.pollFirst();
+                chunkOffset = 0;
+            }
+            buffered -= n;
+            resume = takeDemand();
+        } finally {
+            lock.unlock();
+        }
+        if (resume != null) resume.run();
+        return n;
+    }
+
+    @Override
+    public int available() {
+        lock.lock();
+        try {
+            return buffered;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discards buffered bytes. Bytes still arriving from the socket are dropped as they come in.
+     */
+    @Override
+    public void close() {
+        final Runnable resume;
+        lock.lock();
+        try {
+            closed = true;
+            chunks.clear();
+            buffered = 0;
+            readable.signalAll();
+            resume = takeDemand();
+        } finally {
+            lock.unlock();
+        }
+        if (resume != null) resume.run();
+    }
+
+    private Runnable takeDemand() {
+        if (paused && buffered < MAX_BUFFERED / 2) {
+            paused = false;
+            return onDemand;
+        }
+        return null;
+    }
+}
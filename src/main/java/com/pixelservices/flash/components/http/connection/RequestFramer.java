@@ -0,0 +1,233 @@
+package com.pixelservices.flash.components.http.connection;
+
+import com.pixelservices.flash.exceptions.RequestFramingException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Predicate;
+
+/**
+ * Splits the byte stream of a connection into individual HTTP requests.
+ * <p>
+ * Reads are appended to a single accumulation buffer that {@link RequestParser} walks as the
+ * bytes arrive. Complete requests (head plus {@code Content-Length} bytes of body) are cut off
+ * the front, and whatever follows them stays buffered for the next request, so pipelined
+ * requests arriving in one read are neither merged nor lost. The pooled buffer is swapped for a larger heap buffer only while a
+ * single request does not fit into it, which the head and body size limits keep bounded.
+ */
+public class RequestFramer {
+    /**
+     * The default limit of a request head in bytes, including the request line.
+     */
+    public static final int DEFAULT_MAX_HEAD_SIZE = 64 * 1024;
+    /**
+     * The default limit of a buffered request body in bytes.
+     */
+    public static final int DEFAULT_MAX_BODY_SIZE = 16 * 1024 * 1024;
+
+    private final ByteBuffer pooled;
+    private final RequestParser parser = new RequestParser();
+    private final Predicate<RawRequest> streamsBody;
+    private final Runnable onBodyDemand;
+    private final int maxHeadSize;
+    private final int maxBodySize;
+    private ByteBuffer buffer;
+    private int start;
+    private int scanFrom;
+    private RawRequest pending;
+    private long pendingBodyLength;
+    private volatile RequestBodyStream bodyStream;
+
+    /**
+     * @param pooled      the pooled buffer the connection reads into
+     * @param streamsBody  decides, once the head of a request with a body is parsed, whether its
+     *                     body is streamed to the handler instead of buffered
+     * @param onBodyDemand resumes reading a streamed body after its stream paused the connection
+     * @param maxHeadSize  the limit of a request head in bytes
+     * @param maxBodySize  the limit of a buffered request body in bytes, streamed bodies are not held
+     *                     in memory and not limited
+     */
+    public RequestFramer(ByteBuffer pooled, Predicate<RawRequest> streamsBody, Runnable onBodyDemand,
+                         int maxHeadSize, int maxBodySize) {
+        this.pooled = pooled;
+        this.streamsBody = streamsBody;
+        this.onBodyDemand = onBodyDemand;
+        this.maxHeadSize = maxHeadSize;
+        this.maxBodySize = maxBodySize;
+        this.buffer = pooled;
+        pooled.clear();
+    }
+
+    /**
+     * Prepares the accumulation buffer for the next read. Already consumed bytes are dropped and
+     * the buffer grows when a pending request fills it completely.
+     *
+     * @return the buffer to read into, positioned after the buffered bytes
+     */
+    public ByteBuffer readBuffer() {
+        if (start > 0) {
+            compact();
+        }
+        if (!buffer.hasRemaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        } else if (buffer != pooled && buffer.position() < pooled.capacity() / 2) {
+            buffer.flip();
+            pooled.clear();
+            pooled.put(buffer);
+            buffer = pooled;
+        }
+        return buffer;
+    }
+
+    /**
+     * Cuts the next complete request off the buffered bytes. The head is parsed incrementally,
+     * so bytes that were already looked at are never scanned again on the next read.
+     * <p>
+     * Requests to routes that stream their body are returned as soon as the head is complete,
+     * their body is then handed over through {@link #feedBody()}.
+     *
+     * @return the parsed request, or null if more data is needed
+     * @throws IllegalArgumentException if the request head is malformed, a {@link RequestFramingException}
+     *                                  if the request exceeds a size limit or its body cannot be framed
+     */
+    public RawRequest next() {
+        if (bodyStream != null) {
+            return null;
+        }
+        final int end = buffer.position();
+        if (pending == null) {
+            // Tolerate stray CRLFs between pipelined requests
+            while (start < end && scanFrom == start && isLineBreak(buffer.get(start))) {
+                start++;
+                scanFrom++;
+            }
+            scanFrom = parser.parse(buffer, start, scanFrom, end);
+            if (!parser.isHeadComplete()) {
+                if (scanFrom - start > maxHeadSize) {
+                    throw new RequestFramingException(431, "Request head exceeds " + maxHeadSize + " bytes");
+                }
+                return null;
+            }
+            if (parser.getHeadLength() > maxHeadSize) {
+                throw new RequestFramingException(431, "Request head exceeds " + maxHeadSize + " bytes");
+            }
+
+            // Copy the head and body out separately so the request outlives the next compaction of the buffer
+            byte[] head = new byte[parser.getHeadLength()];
+            buffer.get(start, head);
+            pendingBodyLength = parser.getContentLength();
+            pending = parser.finish(head);
+            start += head.length;
+            scanFrom = start;
+
+            if (pendingBodyLength > 0 && streamsBody.test(pending)) {
+                RawRequest request = pending;
+                pending = null;
+                bodyStream = new RequestBodyStream(pendingBodyLength, onBodyDemand);
+                request.attachBodyStream(bodyStream);
+                return request;
+            }
+            if (pendingBodyLength > maxBodySize) {
+                pending = null;
+                throw new RequestFramingException(413, "Request body exceeds " + maxBodySize + " bytes");
+            }
+        }
+
+        if (end - start < pendingBodyLength) {
+            return null;
+        }
+        RawRequest request = pending;
+        pending = null;
+        if (pendingBodyLength > 0) {
+            byte[] body = new byte[(int) pendingBodyLength];
+            buffer.get(start, body);
+            start += body.length;
+            scanFrom = start;
+            request.attachBody(body);
+        }
+        return request;
+    }
+
+    /**
+     * @return true while the body of a streamed request is still being received
+     */
+    public boolean isStreamingBody() {
+        return bodyStream != null;
+    }
+
+    /**
+     * Moves the buffered bytes of a streamed body into its stream.
+     *
+     * @return true if the connection should keep reading body bytes from the socket, false if the
+     * body is complete or the stream asked to pause until the handler has caught up
+     */
+    public boolean feedBody() {
+        final RequestBodyStream stream = bodyStream;
+        if (stream == null) {
+            // A late resume after the last body bytes were handed over, reading goes on once the exchange completes
+            return false;
+        }
+        final long remaining = stream.remaining();
+        final int n = (int) Math.min(buffer.position() - start, remaining);
+        if (n == 0) {
+            return true;
+        }
+        byte[] chunk = new byte[n];
+        buffer.get(start, chunk);
+        start += n;
+        scanFrom = start;
+        if (n == remaining) {
+            // Clear before offering the last bytes, the handler may finish the exchange right after
+            bodyStream = null;
+        }
+        boolean more = stream.offer(chunk);
+        return bodyStream != null && more;
+    }
+
+    /**
+     * Fails the body stream of a streamed request that is still being received.
+     *
+     * @param cause the reason the body can no longer be received
+     */
+    public void abortBody(IOException cause) {
+        final RequestBodyStream stream = bodyStream;
+        if (stream != null) {
+            bodyStream = null;
+            stream.fail(cause);
+        }
+    }
+
+    /**
+     * @return true if bytes beyond the last returned request are buffered
+     */
+    public boolean hasBufferedData() {
+        return buffer.position() > start;
+    }
+
+    /**
+     * Drops all buffered bytes.
+     */
+    public void reset() {
+        buffer = pooled;
+        pooled.clear();
+        start = 0;
+        scanFrom = 0;
+        pending = null;
+        parser.reset();
+    }
+
+    private void compact() {
+        buffer.limit(buffer.position());
+        buffer.position(start);
+        buffer.compact();
+        scanFrom -= start;
+        start = 0;
+    }
+
+    private static boolean isLineBreak(byte b) {
+        return b == '\r' || b == '\n';
+    }
+}
@@ -0,0 +1,291 @@
+package com.pixelservices.flash.components.http.connection;
+
+import com.pixelservices.flash.components.http.HttpMethod;
+import com.pixelservices.flash.exceptions.RequestFramingException;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Incremental HTTP/1.x request head parser.
+ * <p>
+ * The parser walks the bytes of the connection buffer exactly once, across as many reads as it
+ * takes for the head to arrive, and only records where the method, target, version and every
+ * header name and value start and end. No strings are created while parsing; {@link RawRequest}
+ * decodes them on demand. All offsets are relative to the first byte of the request so they stay
+ * valid when the buffer is compacted between reads.
+ */
+public class RequestParser {
+    private static final byte[] CONTENT_LENGTH = "content-length".getBytes();
+    private static final byte[] TRANSFER_ENCODING = "transfer-encoding".getBytes();
+    private static final int INITIAL_HEADER_CAPACITY = 16;
+
+    private enum State {
+        METHOD, TARGET, VERSION, REQUEST_LINE_END,
+        HEADER_START, HEADER_NAME, HEADER_VALUE_START, HEADER_VALUE, HEADER_LINE_END,
+        HEAD_END, DONE
+    }
+
+    private State state = State.METHOD;
+    private int methodEnd;
+    private int targetStart;
+    private int targetEnd;
+    private int versionStart;
+    private int versionEnd;
+    // Four entries per header: name start, name end, value start, value end
+    private int[] headers = new int[INITIAL_HEADER_CAPACITY * 4];
+    private int headerCount;
+    private int tokenStart;
+    private int valueEnd;
+    private int headEnd;
+    private long contentLength;
+    private boolean hasContentLength;
+    private boolean hasTransferEncoding;
+
+    /**
+     * Parses as much of the request head as is available.
+     *
+     * @param buffer the buffer holding the request
+     * @param base   the position of the first byte of the request in the buffer
+     * @param from   the position to resume parsing at, as returned by the previous call
+     * @param end    the position after the last readable byte
+     * @return the position to resume at once more bytes are available
+     * @throws IllegalArgumentException if the request head is malformed, a {@link RequestFramingException}
+     *                                  if the length of its body is ambiguous or unknown
+     */
+    public int parse(ByteBuffer buffer, int base, int from, int end) {
+        int i = from;
+        while (i < end && state != State.DONE) {
+            final byte b = buffer.get(i);
+            final int offset = i - base;
+            switch (state) {
+                case METHOD -> {
+                    if (b == ' ') {
+                        if (offset == 0) throw new IllegalArgumentException("Malformed request line");
+                        methodEnd = offset;
+                        targetStart = offset + 1;
+                        state = State.TARGET;
+                    } else if (b < 'A' || b > 'Z') {
+                        throw new IllegalArgumentException("Malformed request line");
+                    }
+                }
+                case TARGET -> {
+                    if (b == ' ') {
+                        if (offset == targetStart) throw new IllegalArgumentException("Malformed request line");
+                        targetEnd = offset;
+                        versionStart = offset + 1;
+                        state = State.VERSION;
+                    } else if (isLineBreak(b)) {
+                        throw new IllegalArgumentException("Malformed request line");
+                    }
+                }
+                case VERSION -> {
+                    if (isLineBreak(b)) {
+                        versionEnd = offset;
+                        if (versionEnd == versionStart) throw new IllegalArgumentException("Malformed request line");
+                        state = b == '\r' ? State.REQUEST_LINE_END : State.HEADER_START;
+                    }
+                }
+                case REQUEST_LINE_END, HEADER_LINE_END, HEAD_END -> {
+                    if (b != '\n') throw new IllegalArgumentException("Malformed line ending");
+                    if (state == State.HEAD_END) {
+                        completeHead(offset + 1);
+                    } else {
+                        state = State.HEADER_START;
+                    }
+                }
+                case HEADER_START -> {
+                    if (b == '\r') {
+                        state = State.HEAD_END;
+                    } else if (b == '\n') {
+                        completeHead(offset + 1);
+                    } else if (b == ' ' || b == '\t' || b == ':') {
+                        throw new IllegalArgumentException("Malformed header line");
+                    } else {
+                        tokenStart = offset;
+                        state = State.HEADER_NAME;
+                    }
+                }
+                case HEADER_NAME -> {
+                    if (b == ':') {
+                        addHeader(tokenStart, offset);
+                        state = State.HEADER_VALUE_START;
+                    } else if (b == ' ' || b == '\t' || isLineBreak(b)) {
+                        throw new IllegalArgumentException("Malformed header line");
+                    }
+                }
+                case HEADER_VALUE_START -> {
+                    if (isLineBreak(b)) {
+                        endHeader(buffer, base, offset, offset, b);
+                    } else if (b != ' ' && b != '\t') {
+                        tokenStart = offset;
+                        valueEnd = offset + 1;
+                        state = State.HEADER_VALUE;
+                    }
+                }
+                case HEADER_VALUE -> {
+                    if (isLineBreak(b)) {
+                        endHeader(buffer, base, tokenStart, valueEnd, b);
+                    } else if (b != ' ' && b != '\t') {
+                        valueEnd = offset + 1;
+                    }
+                }
+                default -> throw new IllegalStateException("Unexpected parser state " + state);
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return true once the blank line terminating the head has been parsed
+     */
+    public boolean isHeadComplete() {
+        return state == State.DONE;
+    }
+
+    /**
+     * @return the length of the request head including the terminating blank line
+     */
+    public int getHeadLength() {
+        return headEnd;
+    }
+
+    /**
+     * @return the declared body length, 0 if the request has no Content-Length header
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Creates the request view over the copied head bytes and resets the parser for the next request.
+     *
+     * @param head the bytes of the request head, starting at offset 0
+     * @return the parsed request, without body
+     */
+    public RawRequest finish(byte[] head) {
+        RawRequest request = new RawRequest(head, resolveMethod(head), targetStart, targetEnd, versionStart, versionEnd,
+                Arrays.copyOf(headers, headerCount * 4), headerCount);
+        reset();
+        return request;
+    }
+
+    /**
+     * Drops any partially parsed request.
+     */
+    public void reset() {
+        state = State.METHOD;
+        methodEnd = 0;
+        headerCount = 0;
+        headEnd = 0;
+        contentLength = 0;
+        hasContentLength = false;
+        hasTransferEncoding = false;
+    }
+
+    /**
+     * Parses a complete request held in a byte array.
+     *
+     * @param data the request bytes
+     * @return the parsed request
+     * @throws IllegalArgumentException if the request is malformed or incomplete
+     */
+    public static RawRequest parse(byte[] data) {
+        RequestParser parser = new RequestParser();
+        parser.parse(ByteBuffer.wrap(data), 0, 0, data.length);
+        if (!parser.isHeadComplete()) {
+            throw new IllegalArgumentException("Malformed request");
+        }
+        int headLength = parser.getHeadLength();
+        int bodyLength = (int) Math.min(parser.getContentLength(), data.length - headLength);
+        RawRequest request = parser.finish(Arrays.copyOf(data, headLength));
+        if (bodyLength > 0) {
+            request.attachBody(Arrays.copyOfRange(data, headLength, headLength + bodyLength));
+        }
+        return request;
+    }
+
+    private void addHeader(int nameStart, int nameEnd) {
+        if (headerCount * 4 == headers.length) {
+            headers = Arrays.copyOf(headers, headers.length * 2);
+        }
+        headers[headerCount * 4] = nameStart;
+        headers[headerCount * 4 + 1] = nameEnd;
+        headerCount++;
+    }
+
+    private void endHeader(ByteBuffer buffer, int base, int valueStart, int valueEnd, byte lineBreak) {
+        final int idx = (headerCount - 1) * 4;
+        headers[idx + 2] = valueStart;
+        headers[idx + 3] = valueEnd;
+        if (nameEquals(buffer, base, headers[idx], headers[idx + 1], CONTENT_LENGTH)) {
+            if (hasContentLength) {
+                // Two lengths leave it to chance which one an intermediary used, the request is not framed at all
+                throw new RequestFramingException(400, "Duplicate Content-Length header");
+            }
+            hasContentLength = true;
+            contentLength = parseContentLength(buffer, base, valueStart, valueEnd);
+        } else if (nameEquals(buffer, base, headers[idx], headers[idx + 1], TRANSFER_ENCODING)) {
+            hasTransferEncoding = true;
+        }
+        state = lineBreak == '\r' ? State.HEADER_LINE_END : State.HEADER_START;
+    }
+
+    /**
+     * Ends the head after checking that the length of the body is unambiguous. Bodies of unknown
+     * length are refused instead of guessed, the bytes following the head would otherwise be taken
+     * for the next request.
+     */
+    private void completeHead(int end) {
+        if (hasTransferEncoding) {
+            if (hasContentLength) {
+                throw new RequestFramingException(400, "Transfer-Encoding and Content-Length must not be combined");
+            }
+            throw new RequestFramingException(501, "Transfer-Encoding is not supported");
+        }
+        headEnd = end;
+        state = State.DONE;
+    }
+
+    private static boolean nameEquals(ByteBuffer buffer, int base, int start, int end, byte[] lowerCaseName) {
+        if (end - start != lowerCaseName.length) return false;
+        for (int i = 0; i < lowerCaseName.length; i++) {
+            int b = buffer.get(base + start + i);
+            if (b >= 'A' && b <= 'Z') b += 32;
+            if (b != lowerCaseName[i]) return false;
+        }
+        return true;
+    }
+
+    private static long parseContentLength(ByteBuffer buffer, int base, int start, int end) {
+        if (start == end) throw new IllegalArgumentException("Invalid Content-Length header");
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(base + i);
+            if (b < '0' || b > '9' || value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid Content-Length header");
+            }
+            value = value * 10 + (b - '0');
+        }
+        if (value > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("Invalid Content-Length header");
+        return value;
+    }
+
+    private HttpMethod resolveMethod(byte[] data) {
+        for (HttpMethod method : HttpMethod.values()) {
+            String name = method.name();
+            if (name.length() != methodEnd) continue;
+            boolean matches = true;
+            for (int i = 0; i < methodEnd && matches; i++) {
+                matches = data[i] == name.charAt(i);
+            }
+            if (matches) return method;
+        }
+        throw new IllegalArgumentException("Unsupported HTTP method: " + new String(data, 0, methodEnd));
+    }
+
+    private static boolean isLineBreak(byte b) {
+        return b == '\r' || b == '\n';
+    }
+}
@@ -0,0 +1,120 @@
+package com.pixelservices.flash.components.http.connection;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * Keeps responses of a pipelined connection in request order.
+ * <p>
+ * Every request reserves a slot when it is framed. Handlers may finish in any order, but a
+ * slot is only written once all slots before it have been written, and at most one write is
+ * in flight on the channel at any time.
+ */
+public class ResponseQueue {
+
+    /**
+     * Writes the response of a slot to the channel.
+     */
+    @FunctionalInterface
+    public interface ResponseWriter {
+        /**
+         * Starts writing the response.
+         *
+         * @param onWritten must be run exactly once after the response has been fully written
+         */
+        void write(Runnable onWritten);
+    }
+
+    /**
+     * A reserved position in the response order.
+     */
+    public static final class Slot {
+        private volatile boolean keepAlive;
+        private ResponseWriter writer;
+
+        private Slot(boolean keepAlive) {
+            this.keepAlive = keepAlive;
+        }
+
+        public boolean isKeepAlive() {
+            return keepAlive;
+        }
+
+        public void setKeepAlive(boolean keepAlive) {
+            this.keepAlive = keepAlive;
+        }
+    }
+
+    private final ArrayDeque<Slot> slots = new ArrayDeque<>();
+    private final Consumer<Boolean> onDrained;
+    private boolean writing;
+
+    /**
+     * @param onDrained invoked with the keep-alive decision of the last written slot once the
+     *                  queue is empty, or as soon as a slot that closes the connection is written
+     */
+    public ResponseQueue(Consumer<Boolean> onDrained) {
+        this.onDrained = onDrained;
+    }
+
+    /**
+     * Reserves the next slot in response order.
+     *
+     * @param keepAlive whether the connection should stay open after this response
+     * @return the reserved slot
+     */
+    public synchronized Slot reserve(boolean keepAlive) {
+        Slot slot = new Slot(keepAlive);
+        slots.addLast(slot);
+        return slot;
+    }
+
+    /**
+     * Marks a slot as ready. The writer runs as soon as every earlier slot has been written.
+     *
+     * @param slot   the slot to complete
+     * @param writer writes the response for the slot
+     */
+    public void complete(Slot slot, ResponseWriter writer) {
+        synchronized (this) {
+            slot.writer = writer;
+        }
+        drain();
+    }
+
+    /**
+     * @return the number of reserved slots that have not been written yet
+     */
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    private void drain() {
+        final Slot head;
+        synchronized (this) {
+            head = slots.peekFirst();
+            if (writing || head == null || head.writer == null) {
+                return;
+            }
+            writing = true;
+        }
+        head.writer.write(() -> onWritten(head));
+    }
+
+    private void onWritten(Slot slot) {
+        final boolean drained;
+        synchronized (this) {
+            slots.pollFirst();
+            writing = false;
+            if (!slot.keepAlive) {
+                slots.clear();
+            }
+            drained = slots.isEmpty();
+        }
+        if (drained) {
+            onDrained.accept(slot.keepAlive);
+        } else {
+            drain();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.pixelservices.flash.components.http.expected;
 
 import com.pixelservices.flash.components.http.RequestHandler;
+import com.pixelservices.flash.components.http.lifecycle.Request;
 import com.pixelservices.flash.utils.Parser;
 import org.json.JSONObject;
 
@@ -40,6 +41,16 @@ public class ExpectedBodyField {
      * @return The field value
      */
     public Object getFieldValue() {
+        Request request = requestHandler.getRequest();
+        if (request.isMultipart()) {
+            String value = request.multipart().getField(fieldName);
+            if (value == null) {
+                sendErrorResponse("Missing expected field: " + fieldName);
+                throw new IllegalArgumentException("Missing expected field: " + fieldName);
+            }
+            return value;
+        }
+
         // Ensure the request and response objects are initialized
         JSONObject reqBody = RequestHandler.getRequestBody(requestHandler.getRequest());
 
@@ -1,6 +1,7 @@
 package com.pixelservices.flash.components.http.expected;
 
 import com.pixelservices.flash.components.MultipartParser;
+import com.pixelservices.flash.components.http.lifecycle.Request;
 import com.pixelservices.flash.components.http.RequestHandler;
 import org.json.JSONObject;
 
@@ -16,7 +17,7 @@ import java.util.function.BiConsumer;
  * The ExpectedBodyFile lets you assume the existence of a file in the request body and work with it.
  * <p>
  * Changes made:
- * - Removed caching of the parsed file.
+ * - The multipart body is parsed once per request and shared through {@link Request#multipart()}.
  * - Fixed file creation by resolving the destination path using Path.resolve().
  * - Added sanitization of the file name to remove illegal characters.
  */
@@ -186,14 +187,11 @@ public class ExpectedBodyFile {
     }
 
     /**
-     * Parse the MultipartFile from the request body.
+     * Look up the MultipartFile in the request's parsed multipart body.
      *
      * @return the MultipartFile.
      */
     private MultipartParser.MultipartFile parseMultipartFile() {
-        String contentType = requestHandler.getRequest().header("Content-Type");
-        String body = requestHandler.getRequest().body();
-        MultipartParser parser = new MultipartParser(contentType, body);
-        return parser.getFile(fieldName);
+        return requestHandler.getRequest().multipart().getFile(fieldName);
     }
 }
@@ -0,0 +1,53 @@
+package com.pixelservices.flash.components.http.lifecycle;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Headers added to every response of a server, encoded once when the server is created.
+ * A response that sets a header of the same name itself keeps its own value.
+ */
+public final class DefaultHeaders {
+    /**
+     * No default headers at all, not even {@code Date}.
+     */
+    public static final DefaultHeaders NONE = new DefaultHeaders(Map.of(), false);
+
+    private final String[] names;
+    private final byte[][] lines;
+    private final boolean date;
+
+    /**
+     * @param headers the default headers by name
+     * @param date    whether to add a {@code Date} header, see {@link HttpDate}
+     */
+    public DefaultHeaders(Map<String, String> headers, boolean date) {
+        this.names = new String[headers.size()];
+        this.lines = new byte[headers.size()][];
+        this.date = date;
+        int i = 0;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            names[i] = header.getKey();
+            lines[i] = (header.getKey() + ": " + header.getValue() + "\r\n").getBytes(StandardCharsets.UTF_8);
+            i++;
+        }
+    }
+
+    /**
+     * Writes the default headers the response does not set itself.
+     *
+     * @param target          the buffer receiving the head
+     * @param responseHeaders the headers of the response, locked by the caller
+     */
+    void put(ByteBuffer target, Map<String, String> responseHeaders) {
+        if (date && responseHeaders.get("Date") == null) {
+            target.put(HttpDate.currentDateHeader());
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (responseHeaders.get(names[i]) == null) {
+                target.put(lines[i]);
+            }
+        }
+    }
+}
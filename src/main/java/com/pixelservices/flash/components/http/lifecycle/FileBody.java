@@ -0,0 +1,101 @@
+package com.pixelservices.flash.components.http.lifecycle;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A response body backed by a region of a file.
+ * <p>
+ * The file is not read onto the heap. The server maps the region window by window and hands the
+ * mapped buffers straight to the socket, so serving a file of any size costs no heap beyond the
+ * response head. The file is opened when the response is written, not when the body is created.
+ */
+public final class FileBody {
+    private final Path path;
+    private final long position;
+    private final long length;
+
+    private FileBody(Path path, long position, long length) {
+        this.path = path;
+        this.position = position;
+        this.length = length;
+    }
+
+    /**
+     * Creates a body holding a whole file.
+     *
+     * @param path the file
+     * @return the body
+     * @throws UncheckedIOException if the size of the file cannot be read
+     */
+    public static FileBody of(Path path) {
+        try {
+            return new FileBody(path, 0, Files.size(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read file: " + path, e);
+        }
+    }
+
+    /**
+     * Creates a body holding a region of a file, e.g. for a range request.
+     *
+     * @param path     the file
+     * @param position the offset of the first byte
+     * @param length   the number of bytes
+     * @return the body
+     * @throws IllegalArgumentException if position or length is negative
+     */
+    public static FileBody of(Path path, long position, long length) {
+        if (position < 0 || length < 0) {
+            throw new IllegalArgumentException("Position and length must not be negative");
+        }
+        return new FileBody(path, position, length);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Reads the region onto the heap. Only used where a response has to be serialized as a whole,
+     * the server itself never calls this.
+     *
+     * @return the bytes of the region
+     * @throws UncheckedIOException if the file cannot be read
+     * @throws UnsupportedOperationException if the region does not fit an array
+     */
+    byte[] readAllBytes() {
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new UnsupportedOperationException("File region too large to serialize: " + length + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("File ended before the region did: " + path);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read file: " + path, e);
+        }
+        return buffer.array();
+    }
+
+    @Override
+    public String toString() {
+        return "FileBody{" + path + ", position=" + position + ", length=" + length + '}';
+    }
+}
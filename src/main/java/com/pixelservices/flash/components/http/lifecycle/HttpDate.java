@@ -0,0 +1,78 @@
+package com.pixelservices.flash.components.http.lifecycle;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP dates in the IMF-fixdate format, e.g. {@code Sun, 06 Nov 1994 08:49:37 GMT}.
+ * <p>
+ * The {@code Date} header of the current second is encoded once and kept in a shared slot that a
+ * single background tick refreshes every second, so responses pick it up without formatting.
+ */
+public final class HttpDate {
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+
+    private static volatile byte[] dateHeader = encodeHeader(System.currentTimeMillis());
+
+    static {
+        ScheduledExecutorService tick = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "FlashDateTick");
+            t.setDaemon(true);
+            return t;
+        });
+        long now = System.currentTimeMillis();
+        // Align the tick with the start of each second
+        tick.scheduleAtFixedRate(() -> dateHeader = encodeHeader(System.currentTimeMillis()),
+                1000 - now % 1000, 1000, TimeUnit.MILLISECONDS);
+    }
+
+    private HttpDate() {
+    }
+
+    /**
+     * Formats a point in time as an HTTP date.
+     *
+     * @param epochMillis milliseconds since the epoch
+     * @return the formatted date
+     */
+    public static String format(long epochMillis) {
+        return FORMAT.format(Instant.ofEpochMilli(epochMillis));
+    }
+
+    /**
+     * Parses an HTTP date, e.g. of an {@code If-Modified-Since} header.
+     *
+     * @param value the date, may be null
+     * @return milliseconds since the epoch, or -1 if the value is not a valid date
+     */
+    public static long parse(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Instant.from(DateTimeFormatter.RFC_1123_DATE_TIME.parse(value.trim())).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the encoded {@code Date} header line of the current second, must not be modified
+     */
+    static byte[] currentDateHeader() {
+        return dateHeader;
+    }
+
+    private static byte[] encodeHeader(long epochMillis) {
+        return ("Date: " + format(epochMillis) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+}
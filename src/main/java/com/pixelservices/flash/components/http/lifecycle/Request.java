@@ -1,122 +1,66 @@
 package com.pixelservices.flash.components.http.lifecycle;
 
+import com.pixelservices.flash.components.MultipartParser;
 import com.pixelservices.flash.components.http.HttpMethod;
+import com.pixelservices.flash.components.http.connection.RawRequest;
+import com.pixelservices.flash.components.http.connection.RequestParser;
+import com.pixelservices.flash.components.http.routing.models.RouteParameters;
+import org.json.JSONObject;
 
+import java.io.InputStream;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
- * Represents an HTTP request, parsed from a raw buffer.
+ * Represents an HTTP request as a lazy view over the parsed request bytes.
+ * Query parameters and the body are only decoded when first asked for.
  */
 public class Request {
-    private HttpMethod method;
-    private String path;
-    private final Map<String, String> headers;
-    private final Map<String, List<String>> queryParams;
+    private final RawRequest raw;
+    private Map<String, List<String>> queryParams;
     private final Map<String, String> routeParams;
     private String body;
+    private boolean bodyDecoded;
+    private JSONObject jsonBody;
+    private MultipartParser multipart;
+    private final long multipartSpillThreshold;
     private final InetSocketAddress clientAddress;
 
-    public Request(String rawRequest, InetSocketAddress clientAddress, Map<String, String> routeParams) {
-        this.headers = new HashMap<>();
-        this.queryParams = new HashMap<>();
-        this.clientAddress = clientAddress;
-        this.routeParams = Map.copyOf(routeParams);
-
-        String[] requestLines = rawRequest.split("\r\n");
-        if (requestLines.length == 0 || requestLines[0].isEmpty()) {
-            throw new IllegalArgumentException("Invalid or empty request line");
-        }
-
-        parseRequestLine(requestLines[0]);
-        parseHeaders(requestLines);
-        parseQueryParams();
-        parseBody(requestLines);
+    public Request(RawRequest raw, InetSocketAddress clientAddress, Map<String, String> routeParams) {
+        this(raw, clientAddress, routeParams, MultipartParser.DEFAULT_SPILL_THRESHOLD);
     }
 
     /**
-     * Parses the request line (method, path, and version).
-     *
-     * @param requestLine the first line of the HTTP request
-     * @throws IllegalArgumentException if the request line format is invalid
+     * @param multipartSpillThreshold the size in bytes above which multipart parts are written to temporary files
      */
-    private void parseRequestLine(String requestLine) {
-        String[] parts = requestLine.split(" ");
-        if (parts.length < 3) {
-            throw new IllegalArgumentException("Invalid request line format");
-        }
-        this.method = parseHttpMethod(parts[0]);
-        this.path = parts[1];
+    public Request(RawRequest raw, InetSocketAddress clientAddress, Map<String, String> routeParams, long multipartSpillThreshold) {
+        this.raw = raw;
+        this.clientAddress = clientAddress;
+        // Resolved parameters are already immutable and only materialize their values on demand
+        this.routeParams = routeParams instanceof RouteParameters ? routeParams : Map.copyOf(routeParams);
+        this.multipartSpillThreshold = multipartSpillThreshold;
     }
 
-    /**
-     * Parses HTTP headers from the raw request lines.
-     *
-     * @param requestLines the lines of the HTTP request
-     */
-    private void parseHeaders(String[] requestLines) {
-        int index = 1;
-        while (index < requestLines.length && !requestLines[index].isEmpty()) {
-            String[] header = requestLines[index].split(": ", 2);
-            if (header.length == 2) {
-                headers.put(header[0], header[1]);
-            }
-            index++;
-        }
+    public Request(String rawRequest, InetSocketAddress clientAddress, Map<String, String> routeParams) {
+        this(RequestParser.parse(rawRequest.getBytes(StandardCharsets.UTF_8)), clientAddress, routeParams);
     }
 
     /**
-     * Parses query parameters from the request path.
+     * Parses query parameters from the request target.
      */
-    private void parseQueryParams() {
-        if (path.contains("?")) {
-            String[] parts = path.split("\\?", 2);
-            String queryString = parts[1];
+    private Map<String, List<String>> parseQueryParams() {
+        Map<String, List<String>> params = new HashMap<>();
+        String queryString = raw.query();
+        if (queryString != null) {
             for (String param : queryString.split("&")) {
                 String[] keyValue = param.split("=", 2);
                 if (keyValue.length == 2) {
-                    queryParams.computeIfAbsent(keyValue[0], k -> new ArrayList<>()).add(keyValue[1]);
+                    params.computeIfAbsent(keyValue[0], k -> new ArrayList<>()).add(keyValue[1]);
                 }
             }
         }
-    }
-
-    /**
-     * Parses the request body.
-     *
-     * @param requestLines the lines of the HTTP request
-     */
-    private void parseBody(String[] requestLines) {
-        int bodyStartIndex = -1;
-        for (int i = 0; i < requestLines.length; i++) {
-            if (requestLines[i].isEmpty()) {
-                bodyStartIndex = i + 1;
-                break;
-            }
-        }
-
-        if (bodyStartIndex != -1) {
-            StringBuilder bodyBuilder = new StringBuilder();
-            for (int i = bodyStartIndex; i < requestLines.length; i++) {
-                bodyBuilder.append(requestLines[i]).append("\r\n");
-            }
-            this.body = bodyBuilder.toString().trim();
-        }
-    }
-
-    /**
-     * Parses the HTTP method from the request.
-     *
-     * @param method the HTTP method as a string
-     * @return the HttpMethod enum corresponding to the method
-     * @throws IllegalArgumentException if the method is unsupported
-     */
-    private HttpMethod parseHttpMethod(String method) {
-        try {
-            return HttpMethod.valueOf(method);
-        } catch (IllegalArgumentException e) {
-            throw new IllegalArgumentException("Unsupported HTTP method: " + method, e);
-        }
+        return params;
     }
 
     /**
@@ -125,7 +69,7 @@ public class Request {
      * @return the HttpMethod
      */
     public HttpMethod method() {
-        return method;
+        return raw.method();
     }
 
     /**
@@ -134,17 +78,17 @@ public class Request {
      * @return the path as a string
      */
     public String path() {
-        return path;
+        return raw.target();
     }
 
     /**
      * Retrieves the value of a specific header.
      *
-     * @param name the header name
+     * @param name the header name, matched case-insensitively
      * @return the header value, or null if not present
      */
     public String header(String name) {
-        return headers.get(name);
+        return raw.header(name);
     }
 
     /**
@@ -153,15 +97,22 @@ public class Request {
      * @return a map of query parameters
      */
     public Map<String, List<String>> queryParams() {
+        if (queryParams == null) {
+            queryParams = parseQueryParams();
+        }
         return queryParams;
     }
 
     /**
-     * Retrieves the request body.
+     * Retrieves the request body. A streamed body is read to its end first.
      *
-     * @return the body as a string
+     * @return the body as a string, or null if the request has no body
      */
     public String body() {
+        if (!bodyDecoded) {
+            body = raw.body();
+            bodyDecoded = true;
+        }
         return body;
     }
 
@@ -173,6 +124,68 @@ public class Request {
         return routeParams;
     }
 
+    /**
+     * Retrieves the request body as a stream. For routes declared with
+     * {@link com.pixelservices.flash.components.http.routing.models.RouteInfo#streamBody()} the stream
+     * reads directly from the connection while the body is still arriving.
+     *
+     * @return the body stream, empty if the request has no body
+     */
+    public InputStream bodyStream() {
+        return raw.bodyStream();
+    }
+
+    /**
+     * Retrieves the body parsed as JSON. The body is parsed on first access and the same object
+     * is returned for the rest of the request, so callers should treat it as read-only.
+     *
+     * @return the parsed body, empty if the request has no body
+     * @throws org.json.JSONException if the body is not a JSON object
+     */
+    public JSONObject jsonBody() {
+        if (jsonBody == null) {
+            String rawBody = body();
+            jsonBody = rawBody == null || rawBody.isEmpty() ? new JSONObject() : new JSONObject(rawBody);
+        }
+        return jsonBody;
+    }
+
+    /**
+     * Checks whether the request carries a multipart/form-data body.
+     *
+     * @return true if the Content-Type is multipart/form-data
+     */
+    public boolean isMultipart() {
+        String contentType = header("Content-Type");
+        return contentType != null && contentType.regionMatches(true, 0, "multipart/form-data", 0, 19);
+    }
+
+    /**
+     * Retrieves the parsed multipart/form-data body. The body is parsed on first access and the
+     * result is shared by every caller for the rest of the request.
+     *
+     * @return the parsed multipart body
+     * @throws IllegalArgumentException if the request is not multipart/form-data or the body is malformed
+     */
+    public MultipartParser multipart() {
+        if (multipart == null) {
+            multipart = new MultipartParser(header("Content-Type"), bodyStream(), multipartSpillThreshold);
+        }
+        return multipart;
+    }
+
+    /**
+     * Releases resources held for the request, such as the parsed JSON body and temporary files
+     * of multipart parts. Called by the server once the handler went back to its pool.
+     */
+    public void release() {
+        jsonBody = null;
+        if (multipart != null) {
+            multipart.close();
+            multipart = null;
+        }
+    }
+
     /**
      * Retrieves the client's remote address.
      *
@@ -182,6 +195,15 @@ public class Request {
         return clientAddress;
     }
 
+    /**
+     * Retrieves the parsed request the view is backed by.
+     *
+     * @return the raw request
+     */
+    public RawRequest raw() {
+        return raw;
+    }
+
     /**
      * Creates a unique route key combining method and path.
      *
@@ -196,13 +218,21 @@ public class Request {
     @Override
     public String toString() {
         return "Request{" +
-                "method=" + method +
-                ", path='" + path + '\'' +
-                ", headers=" + headers +
-                ", queryParams=" + queryParams +
+                "method=" + method() +
+                ", path='" + path() + '\'' +
+                ", headers=" + headersToString() +
+                ", queryParams=" + queryParams() +
                 ", routeParams=" + routeParams +
-                ", body='" + body + '\'' +
+                ", body='" + (bodyDecoded || !raw.isBodyStreamed() ? body() : "<streamed>") + '\'' +
                 ", clientAddress=" + clientAddress +
                 '}';
     }
+
+    private String headersToString() {
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (int i = 0; i < raw.headerCount(); i++) {
+            headers.put(raw.headerName(i), raw.headerValue(i));
+        }
+        return headers.toString();
+    }
 }
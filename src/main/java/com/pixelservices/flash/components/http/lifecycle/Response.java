@@ -16,6 +16,7 @@ public class Response {
     private int statusCode;
     private String contentType;
     private Object body;
+    private byte[] serializedBody;
     private boolean finalized;
 
     /**
@@ -41,6 +42,15 @@ public class Response {
         return this;
     }
 
+    /**
+     * Retrieves the HTTP status code of the response.
+     *
+     * @return the status code
+     */
+    public int getStatus() {
+        return statusCode;
+    }
+
     /**
      * Sets the content type of the response.
      *
@@ -51,6 +61,7 @@ public class Response {
     public Response type(String contentType) {
         ensureNotFinalized();
         this.contentType = contentType;
+        this.serializedBody = null;
         return this;
     }
 
@@ -68,6 +79,16 @@ public class Response {
         return this;
     }
 
+    /**
+     * Retrieves the value of a response header.
+     *
+     * @param key the header name
+     * @return the header value, or null if not set
+     */
+    public String getHeader(String key) {
+        return headers.get(key);
+    }
+
     /**
      * Sets the body of the response.
      * Warning: Overrides existing body content.
@@ -79,6 +100,7 @@ public class Response {
     public Response body(Object body) {
         ensureNotFinalized();
         this.body = body;
+        this.serializedBody = null;
         return this;
     }
 
@@ -97,32 +119,29 @@ public class Response {
     public void finalizeResponse() {
         if (!this.finalized) { // Only finalize once
             this.finalized = true;
-            byte[] bodyBytes = getSerializedBody();
-            headers.put("Content-Length", String.valueOf(bodyBytes.length));
+            headers.put("Content-Length", String.valueOf(getBodyLength()));
         }
     }
 
     /**
-     * Serializes the response into a ByteBuffer.
+     * Gets the length of the body without reading file or buffer bodies onto the heap.
+     */
+    private long getBodyLength() {
+        FileBody file = getFileBody();
+        ByteBuffer buffer = getBufferBody();
+        return file != null ? file.getLength()
+                : buffer != null ? buffer.remaining() : getSerializedBody().length;
+    }
+
+    /**
+     * Serializes the response into a single ByteBuffer. The server itself writes the head and
+     * body as separate buffers, see {@link ResponseSerializer}.
      *
      * @return the serialized response as a ByteBuffer
      */
     public ByteBuffer getSerialized() {
-        // Build headers
-        StringBuilder headerBuilder = new StringBuilder();
-        headerBuilder.append("HTTP/1.1 ")
-                .append(statusCode)
-                .append(" ")
-                .append(getStatusMessage(statusCode))
-                .append("\r\n");
-
-        headers.putIfAbsent("Content-Type", contentType); // Ensure Content-Type is set if not already
-
-        headers.forEach((key, value) -> headerBuilder.append(key).append(": ").append(value).append("\r\n"));
-        headerBuilder.append("\r\n"); // End of headers
-
-        byte[] headerBytes = headerBuilder.toString().getBytes(StandardCharsets.UTF_8);
-        byte[] bodyBytes = getSerializedBody(); // Get body bytes here
+        byte[] bodyBytes = getSerializedBody();
+        byte[] headerBytes = ResponseSerializer.headBytes(this, bodyBytes.length);
 
         // Combine headers and body without string conversion for body
         ByteBuffer buffer = ByteBuffer.allocate(headerBytes.length + bodyBytes.length);
@@ -135,21 +154,28 @@ public class Response {
 
 
     /**
-     * Serializes the response body based on its content type.
+     * Serializes the response body based on its content type. The body is serialized once and
+     * the bytes are reused until the body or content type changes.
      *
      * @return the serialized body as a byte array
      * @throws UnsupportedOperationException if the content type is unsupported or the body type is invalid
      */
     public byte[] getSerializedBody() {
-        if (body == null) {
-            return new byte[0];
+        byte[] bytes = serializedBody;
+        if (bytes != null) {
+            return bytes;
         }
-
-        try {
-            return serializeBody(body, contentType);
-        } catch (ClassCastException e) {
-            throw new UnsupportedOperationException("Invalid body type for content type: " + contentType, e);
+        if (body == null) {
+            bytes = new byte[0];
+        } else {
+            try {
+                bytes = serializeBody(body, contentType);
+            } catch (ClassCastException e) {
+                throw new UnsupportedOperationException("Invalid body type for content type: " + contentType, e);
+            }
         }
+        serializedBody = bytes;
+        return bytes;
     }
 
     /**
@@ -165,25 +191,17 @@ public class Response {
             case String s -> s.getBytes(StandardCharsets.UTF_8);
             case JSONObject jsonObject -> body.toString().getBytes(StandardCharsets.UTF_8);
             case byte[] bytes -> bytes;
+            case FileBody file -> file.readAllBytes();
+            case ByteBuffer buffer -> {
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(buffer.position(), bytes);
+                yield bytes;
+            }
             case null, default ->
                     throw new UnsupportedOperationException("Unsupported body type for content type: " + contentType + ", received " + body.getClass().getSimpleName() + " instead");
         };
     }
 
-    private String getStatusMessage(int statusCode) {
-        return switch (statusCode) {
-            case 200 -> "OK";
-            case 201 -> "Created";
-            case 204 -> "No Content";
-            case 400 -> "Bad Request";
-            case 401 -> "Unauthorized";
-            case 403 -> "Forbidden";
-            case 404 -> "Not Found";
-            case 500 -> "Internal Server Error";
-            default -> "Unknown Status";
-        };
-    }
-
     private void ensureNotFinalized() {
         if (finalized) {
             StackTraceElement[] stack = Thread.currentThread().getStackTrace();
@@ -223,47 +241,33 @@ public class Response {
                 '}';
     }
 
-    /**
-     * Gets just the header portion of the response as a ByteBuffer.
-     *
-     * @return the headers as a ByteBuffer
-     */
-    /*
-    public ByteBuffer getHeaderBuffer() {
-        StringBuilder headerBuilder = new StringBuilder();
-        headerBuilder.append("HTTP/1.1 ")
-                .append(statusCode)
-                .append(" ")
-                .append(getStatusMessage(statusCode))
-                .append("\r\n");
-
-        headers.putIfAbsent("Content-Type", contentType);
-
-        headers.forEach((key, value) -> headerBuilder.append(key).append(": ").append(value).append("\r\n"));
-        headerBuilder.append("\r\n"); // End of headers
-
-        byte[] headerBytes = headerBuilder.toString().getBytes(StandardCharsets.UTF_8);
-        ByteBuffer buffer = ByteBuffer.allocate(headerBytes.length);
-        buffer.put(headerBytes);
-        buffer.flip();
-        return buffer;
-    }*/
-
     /**
      * Gets the body as a byte array.
      * 
      * @return the body as a byte array
      */
     public byte[] getBodyBytes() {
-        if (body == null) {
-            return new byte[0];
-        }
-        
-        try {
-            return serializeBody(body, contentType);
-        } catch (ClassCastException e) {
-            throw new UnsupportedOperationException("Invalid body type for content type: " + contentType, e);
-        }
+        return getSerializedBody();
+    }
+
+    /**
+     * Gets the body as a file region, see {@link FileBody}.
+     *
+     * @return the file body, or null if the body is not a file
+     */
+    public FileBody getFileBody() {
+        return body instanceof FileBody file ? file : null;
+    }
+
+    /**
+     * Gets the body as a buffer. The remaining bytes of a buffer body are written to the socket
+     * as they are, e.g. a read-only view of an off-heap asset, and must not change until the
+     * response has been sent.
+     *
+     * @return the buffer body, or null if the body is not a buffer
+     */
+    public ByteBuffer getBufferBody() {
+        return body instanceof ByteBuffer buffer ? buffer : null;
     }
 
     /**
@@ -275,6 +279,13 @@ public class Response {
         return contentType;
     }
 
+    /**
+     * Gets the header map, synchronize on it to iterate.
+     */
+    Map<String, String> getHeaders() {
+        return headers;
+    }
+
     /**
      * Gets just the header portion of the response as a byte array.
      * This is useful for chunked sending of large responses.
@@ -282,29 +293,7 @@ public class Response {
      * @return the headers as a byte array
      */
     public byte[] getHeaderBytes() {
-        StringBuilder headerBuilder = new StringBuilder();
-        headerBuilder.append("HTTP/1.1 ")
-                .append(statusCode)
-                .append(" ")
-                .append(getStatusMessage(statusCode))
-                .append("\r\n");
-
-        // Don't add Content-Type if it's null
-        if (contentType != null) {
-            headers.putIfAbsent("Content-Type", contentType);
-        }
-
-        // Add all headers except those that are null
-        headers.entrySet().stream()
-               .filter(entry -> entry.getValue() != null)
-               .forEach(entry -> 
-                   headerBuilder.append(entry.getKey())
-                               .append(": ")
-                               .append(entry.getValue())
-                               .append("\r\n"));
-        
-        headerBuilder.append("\r\n"); // End of headers
-        return headerBuilder.toString().getBytes(StandardCharsets.UTF_8);
+        return ResponseSerializer.headBytes(this, getBodyLength());
     }
     
     /**
@@ -0,0 +1,219 @@
+package com.pixelservices.flash.components.http.lifecycle;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the head of a {@link Response}, status line and headers, straight into a byte buffer.
+ * <p>
+ * Status lines and the names of common headers are encoded once up front, header values are
+ * written character by character and numbers digit by digit, so serializing a head allocates
+ * nothing as long as it fits the target buffer. The body is never copied into the head, it is
+ * sent as a buffer of its own next to it.
+ */
+public final class ResponseSerializer {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] SEPARATOR = {':', ' '};
+    private static final byte[] CONTENT_TYPE = header("Content-Type");
+    private static final byte[] CONTENT_LENGTH = header("Content-Length");
+
+    private static final int MIN_STATUS = 100;
+    private static final byte[][] STATUS_LINES = new byte[600 - MIN_STATUS][];
+    private static final Map<String, byte[]> HEADER_NAMES = new HashMap<>();
+
+    static {
+        for (int code = MIN_STATUS; code < 600; code++) {
+            STATUS_LINES[code - MIN_STATUS] = ("HTTP/1.1 " + code + " " + reasonPhrase(code) + "\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+        }
+        for (String name : new String[]{"Content-Type", "Content-Length", "Connection", "Transfer-Encoding",
+                "Date", "Server", "Cache-Control", "Content-Encoding", "Vary", "ETag", "Last-Modified",
+                "Location", "Upgrade", "Access-Control-Allow-Origin", "Access-Control-Allow-Methods",
+                "Access-Control-Allow-Headers"}) {
+            HEADER_NAMES.put(name, header(name));
+        }
+    }
+
+    private ResponseSerializer() {
+    }
+
+    /**
+     * Returns the reason phrase sent with a status code.
+     *
+     * @param statusCode the status code
+     * @return the reason phrase, "Unknown Status" for codes without one
+     */
+    public static String reasonPhrase(int statusCode) {
+        return switch (statusCode) {
+            case 100 -> "Continue";
+            case 101 -> "Switching Protocols";
+            case 200 -> "OK";
+            case 201 -> "Created";
+            case 202 -> "Accepted";
+            case 204 -> "No Content";
+            case 206 -> "Partial Content";
+            case 301 -> "Moved Permanently";
+            case 302 -> "Found";
+            case 303 -> "See Other";
+            case 304 -> "Not Modified";
+            case 307 -> "Temporary Redirect";
+            case 308 -> "Permanent Redirect";
+            case 400 -> "Bad Request";
+            case 401 -> "Unauthorized";
+            case 403 -> "Forbidden";
+            case 404 -> "Not Found";
+            case 405 -> "Method Not Allowed";
+            case 408 -> "Request Timeout";
+            case 409 -> "Conflict";
+            case 413 -> "Content Too Large";
+            case 415 -> "Unsupported Media Type";
+            case 416 -> "Range Not Satisfiable";
+            case 429 -> "Too Many Requests";
+            case 431 -> "Request Header Fields Too Large";
+            case 500 -> "Internal Server Error";
+            case 501 -> "Not Implemented";
+            case 503 -> "Service Unavailable";
+            default -> "Unknown Status";
+        };
+    }
+
+    /**
+     * Writes the head of a response into the given buffer, without default headers.
+     *
+     * @see #writeHead(Response, ByteBuffer, long, DefaultHeaders)
+     */
+    public static ByteBuffer writeHead(Response response, ByteBuffer target, long bodyLength) {
+        return writeHead(response, target, bodyLength, DefaultHeaders.NONE);
+    }
+
+    /**
+     * Writes the head of a response into the given buffer. {@code Content-Length} is derived from
+     * the body length unless the response is sent with {@code Transfer-Encoding}, or its status
+     * never has a body (1xx, 204 and 304).
+     *
+     * @param response   the response
+     * @param target     the buffer to write into, usually a pooled direct buffer
+     * @param bodyLength the length of the serialized body
+     * @param defaults   the server's default headers
+     * @return the buffer holding the head, flipped for writing; a new heap buffer if the head did not fit the target
+     */
+    public static ByteBuffer writeHead(Response response, ByteBuffer target, long bodyLength, DefaultHeaders defaults) {
+        final int start = target.position();
+        try {
+            putHead(response, target, bodyLength, defaults);
+            return target.flip();
+        } catch (BufferOverflowException e) {
+            target.position(start);
+        }
+        // A head this large is rare, grow a heap buffer until it fits
+        int capacity = target.capacity() * 2;
+        while (true) {
+            ByteBuffer grown = ByteBuffer.allocate(capacity);
+            try {
+                putHead(response, grown, bodyLength, defaults);
+                return grown.flip();
+            } catch (BufferOverflowException e) {
+                capacity *= 2;
+            }
+        }
+    }
+
+    /**
+     * Serializes the head of a response into a new array.
+     *
+     * @param response   the response
+     * @param bodyLength the length of the serialized body
+     * @return the head bytes
+     */
+    public static byte[] headBytes(Response response, long bodyLength) {
+        ByteBuffer head = writeHead(response, ByteBuffer.allocate(1024), bodyLength);
+        byte[] bytes = new byte[head.remaining()];
+        head.get(bytes);
+        return bytes;
+    }
+
+    private static void putHead(Response response, ByteBuffer target, long bodyLength, DefaultHeaders defaults) {
+        target.put(statusLine(response.getStatus()));
+
+        final Map<String, String> headers = response.getHeaders();
+        final String contentType = response.getContentType();
+        final boolean lengthDelimited;
+        synchronized (headers) {
+            if (contentType != null && !headers.containsKey("Content-Type")) {
+                target.put(CONTENT_TYPE);
+                putString(target, contentType);
+                target.put(CRLF);
+            }
+            defaults.put(target, headers);
+            lengthDelimited = headers.get("Transfer-Encoding") == null && hasBody(response.getStatus());
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                final String name = header.getKey();
+                final String value = header.getValue();
+                if (value == null || name.equals("Content-Length")) {
+                    continue;
+                }
+                final byte[] encodedName = HEADER_NAMES.get(name);
+                if (encodedName != null) {
+                    target.put(encodedName);
+                } else {
+                    putString(target, name);
+                    target.put(SEPARATOR);
+                }
+                putString(target, value);
+                target.put(CRLF);
+            }
+        }
+        if (lengthDelimited) {
+            // Required to delimit the body on persistent connections
+            target.put(CONTENT_LENGTH);
+            putDecimal(target, bodyLength);
+            target.put(CRLF);
+        }
+        target.put(CRLF);
+    }
+
+    private static boolean hasBody(int statusCode) {
+        return statusCode >= 200 && statusCode != 204 && statusCode != 304;
+    }
+
+    private static byte[] statusLine(int statusCode) {
+        if (statusCode >= MIN_STATUS && statusCode < MIN_STATUS + STATUS_LINES.length) {
+            return STATUS_LINES[statusCode - MIN_STATUS];
+        }
+        return ("HTTP/1.1 " + statusCode + " " + reasonPhrase(statusCode) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] header(String name) {
+        return (name + ": ").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void putString(ByteBuffer target, String value) {
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c >= 0x80) {
+                // Header values should be ASCII, anything else goes out as UTF-8
+                target.put(value.substring(i).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            target.put((byte) c);
+        }
+    }
+
+    private static void putDecimal(ByteBuffer target, long value) {
+        if (value == 0) {
+            target.put((byte) '0');
+            return;
+        }
+        long divisor = 1;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            target.put((byte) ('0' + (value / divisor) % 10));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.pixelservices.flash.components.http.pool;
+
+import com.pixelservices.flash.components.http.RequestHandler;
+import com.pixelservices.flash.components.http.lifecycle.Request;
+import com.pixelservices.flash.components.http.lifecycle.Response;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Creates handler instances without reflection on the hot path.
+ * <p>
+ * The constructor of a handler class is looked up once and bound to a {@link Supplier} through
+ * {@link LambdaMetafactory}, so creating an instance is a plain constructor call the JIT can
+ * inline. Where no lambda can be spun for the constructor, a cached {@link MethodHandle} is
+ * used instead. Factories are cached per class.
+ */
+public final class HandlerFactory {
+    private static final ClassValue<Supplier<?>> FACTORIES = new ClassValue<>() {
+        @Override
+        protected Supplier<?> computeValue(Class<?> type) {
+            return resolve(type);
+        }
+    };
+
+    private HandlerFactory() {
+    }
+
+    /**
+     * Returns the factory of a handler class. The no-args constructor is preferred, otherwise the
+     * (Request, Response) constructor is called without a request.
+     *
+     * @param handlerClass the handler class
+     * @return the factory creating instances of the class
+     * @throws IllegalArgumentException if the class has neither constructor or it cannot be accessed
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends RequestHandler> Supplier<T> of(Class<T> handlerClass) {
+        return (Supplier<T>) FACTORIES.get(handlerClass);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Supplier<?> resolve(Class<?> handlerClass) {
+        final MethodHandles.Lookup lookup;
+        try {
+            lookup = MethodHandles.privateLookupIn(handlerClass, MethodHandles.lookup());
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot access constructors of " + handlerClass.getName(), e);
+        }
+
+        try {
+            MethodHandle constructor = lookup.findConstructor(handlerClass, MethodType.methodType(void.class));
+            try {
+                CallSite site = LambdaMetafactory.metafactory(lookup, "get", MethodType.methodType(Supplier.class),
+                        MethodType.methodType(Object.class), constructor, MethodType.methodType(handlerClass));
+                return (Supplier<?>) site.getTarget().invoke();
+            } catch (Throwable e) {
+                MethodHandle generic = constructor.asType(MethodType.methodType(Object.class));
+                return () -> invoke(generic);
+            }
+        } catch (NoSuchMethodException | IllegalAccessException ignored) {
+            // Fall through to the (Request, Response) constructor
+        }
+
+        try {
+            MethodHandle constructor = lookup.findConstructor(handlerClass,
+                    MethodType.methodType(void.class, Request.class, Response.class));
+            try {
+                CallSite site = LambdaMetafactory.metafactory(lookup, "apply", MethodType.methodType(BiFunction.class),
+                        MethodType.methodType(Object.class, Object.class, Object.class), constructor,
+                        MethodType.methodType(handlerClass, Request.class, Response.class));
+                BiFunction<Request, Response, ?> function = (BiFunction<Request, Response, ?>) site.getTarget().invoke();
+                return () -> function.apply(null, null);
+            } catch (Throwable e) {
+                MethodHandle generic = MethodHandles.insertArguments(constructor, 0, null, null)
+                        .asType(MethodType.methodType(Object.class));
+                return () -> invoke(generic);
+            }
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalArgumentException(handlerClass.getName() +
+                    " needs a no-args or a (Request, Response) constructor", e);
+        }
+    }
+
+    private static Object invoke(MethodHandle constructor) {
+        try {
+            return constructor.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to create handler instance: " + e.getMessage(), e);
+        }
+    }
+}
@@ -3,94 +3,206 @@ package com.pixelservices.flash.components.http.pool;
 import com.pixelservices.flash.components.http.RequestHandler;
 import com.pixelservices.flash.components.http.lifecycle.Request;
 import com.pixelservices.flash.components.http.lifecycle.Response;
+import com.pixelservices.flash.exceptions.HandlerUnavailableException;
 import com.pixelservices.flash.utils.FlashLogger;
 
-import java.lang.reflect.Constructor;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+/**
+ * Pool of handler instances of one class.
+ * <p>
+ * Idle handlers are kept in stripes, small lock-free slot arrays. A thread always starts at the
+ * stripe its id maps to and only steals from the other stripes when its own is empty, so threads
+ * acquiring and releasing concurrently mostly touch different cache lines. The statistics are
+ * {@link LongAdder}s for the same reason. With a single stripe every thread shares one slot
+ * array, like a plain queue.
+ * <p>
+ * The home stripe follows the thread, not the carrier or the core it runs on; Java offers no
+ * way to ask for either. Platform threads, such as the I/O threads running handlers inline, keep
+ * their stripe. A request handled on a virtual thread gets a new thread and so a random stripe,
+ * which still spreads contention over the stripes but gives no locality.
+ * <p>
+ * Once the pool is at its maximum size, acquiring threads park in FIFO order and released
+ * handlers are handed to the longest waiting thread directly. A thread that waited longer than
+ * the acquire timeout gives up with a {@link HandlerUnavailableException}, answered with 503.
+ */
 public class HandlerPool<T extends RequestHandler> {
     private static final FlashLogger logger = FlashLogger.getLogger(HandlerPool.class);
+    /**
+     * The default number of stripes, the number of available processors rounded up to a power of two.
+     */
+    public static final int DEFAULT_STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+    /**
+     * How long a request waits for a handler by default before it is turned away, in milliseconds.
+     */
+    public static final long DEFAULT_ACQUIRE_TIMEOUT_MS = 10000;
+
     private final Class<T> handlerClass;
-    private final ConcurrentLinkedQueue<T> availableHandlers = new ConcurrentLinkedQueue<>();
+    private final Supplier<T> factory;
+    private volatile String handlerName;
+    private final Stripe<T>[] stripes;
+    private final int stripeMask;
     private final AtomicInteger totalSize = new AtomicInteger(0);
-    private final AtomicInteger activeHandlers = new AtomicInteger(0);
+    private final LongAdder activeHandlers = new LongAdder();
     private final StampedLock resizeLock = new StampedLock();
+    private final ConcurrentLinkedQueue<Waiter<T>> waiters = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger waiting = new AtomicInteger(0);
+    private final AtomicInteger peakWaiting = new AtomicInteger(0);
+    private final LongAdder timeouts = new LongAdder();
+    private volatile long acquireTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_ACQUIRE_TIMEOUT_MS);
 
     private volatile int minSize;
     private volatile int maxSize;
     private volatile int initialSize;
-    private final AtomicInteger missCount = new AtomicInteger(0);
-    private final AtomicInteger hitCount = new AtomicInteger(0);
+    private volatile Consumer<? super T> instanceInitializer;
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder hitCount = new LongAdder();
     private volatile long lastResizeTime = System.currentTimeMillis();
     private static final long RESIZE_INTERVAL_MS = 10000; // 10 seconds
 
     public HandlerPool(Class<T> handlerClass, int initialSize, int minSize, int maxSize) {
+        this(handlerClass, initialSize, minSize, maxSize, DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes the number of stripes idle handlers are spread over, rounded up to a power of two
+     */
+    public HandlerPool(Class<T> handlerClass, int initialSize, int minSize, int maxSize, int stripes) {
+        this(handlerClass, HandlerFactory.of(handlerClass), initialSize, minSize, maxSize, stripes);
+    }
+
+    /**
+     * @param factory creates the handler instances of the pool
+     * @param stripes the number of stripes idle handlers are spread over, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    protected HandlerPool(Class<T> handlerClass, Supplier<T> factory, int initialSize, int minSize, int maxSize, int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("A handler pool needs at least one stripe");
+        }
         this.handlerClass = handlerClass;
+        this.factory = factory;
         this.initialSize = initialSize;
         this.minSize = minSize;
         this.maxSize = maxSize;
 
+        int stripeCount = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        if (stripes == 1) stripeCount = 1;
+        this.stripes = (Stripe<T>[]) new Stripe<?>[stripeCount];
+        this.stripeMask = stripeCount - 1;
+        int slotsPerStripe = slotsPerStripe(Math.max(maxSize, initialSize));
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new Stripe<>(slotsPerStripe);
+        }
+
         for (int i = 0; i < initialSize; i++) {
             try {
                 T handler = createHandlerInstance();
-                availableHandlers.offer(handler);
-                totalSize.incrementAndGet();
+                if (offer(handler, i & stripeMask)) {
+                    totalSize.incrementAndGet();
+                }
             } catch (Exception e) {
                 logger.info("Failed to create initial handler instance: " + e.getMessage());
             }
         }
     }
 
+    /**
+     * Takes a handler from the pool, creating one while the pool is below its maximum size and
+     * waiting for a release otherwise.
+     *
+     * @throws HandlerUnavailableException if no handler was released within the acquire timeout
+     */
     public T acquire(Request request, Response response) {
-        T handler = availableHandlers.poll();
+        return acquire(request, response, true);
+    }
+
+    /**
+     * Takes a handler from the pool without waiting, for threads that must never park.
+     *
+     * @return the handler, or null if none is idle and the pool is at its maximum size
+     */
+    public T tryAcquire(Request request, Response response) {
+        return acquire(request, response, false);
+    }
+
+    private T acquire(Request request, Response response, boolean wait) {
+        final int home = homeStripe();
+        T handler = poll(home);
 
         if (handler == null) {
-            missCount.incrementAndGet();
-            if (totalSize.get() < maxSize) {
-                try {
-                    handler = createHandlerInstance();
-                    totalSize.incrementAndGet();
-                } catch (Exception e) {
-                    throw new RuntimeException("Failed to create handler instance: " + e.getMessage(), e);
+            handler = tryCreate();
+            if (handler == null) {
+                if (!wait) {
+                    // Counted as a miss once the caller acquires again and waits
+                    return null;
                 }
-            } else {
-                handler = waitForAvailableHandler();
+                handler = awaitHandler(home);
             }
+            missCount.increment();
         } else {
-            hitCount.incrementAndGet();
+            hitCount.increment();
         }
 
-        activeHandlers.incrementAndGet();
+        activeHandlers.increment();
         handler.setRequestResponse(request, response);
-        
+
         // Check if we should adapt pool size based on hit/miss ratio
         maybeAdaptPoolSize();
-        
+
         return handler;
     }
-    
+
+    /**
+     * Creates a new handler if the pool has not reached its maximum size yet.
+     *
+     * @return the new handler, or null if the pool is full
+     */
+    private T tryCreate() {
+        int current;
+        do {
+            current = totalSize.get();
+            if (current >= maxSize) {
+                return null;
+            }
+        } while (!totalSize.compareAndSet(current, current + 1));
+        try {
+            return createHandlerInstance();
+        } catch (Exception e) {
+            totalSize.decrementAndGet();
+            throw new RuntimeException("Failed to create handler instance: " + e.getMessage(), e);
+        }
+    }
+
     private void maybeAdaptPoolSize() {
         long now = System.currentTimeMillis();
         if (now - lastResizeTime > RESIZE_INTERVAL_MS) {
             long stamp = resizeLock.tryWriteLock();
             if (stamp != 0) {
                 try {
-                    int hits = hitCount.get();
-                    int misses = missCount.get();
-                    int total = hits + misses;
-                    
+                    long hits = hitCount.sum();
+                    long misses = missCount.sum();
+                    long total = hits + misses;
+
                     if (total > 100) {
                         double missRatio = (double) misses / total;
-                        
+
                         if (missRatio > 0.2 && totalSize.get() < maxSize) {
                             int toAdd = Math.min(5, maxSize - totalSize.get());
                             for (int i = 0; i < toAdd; i++) {
                                 try {
                                     T handler = createHandlerInstance();
-                                    availableHandlers.offer(handler);
                                     totalSize.incrementAndGet();
+                                    handOff(handler);
                                 } catch (Exception e) {
                                     logger.info("Failed to create handler for pool expansion: " + e.getMessage());
                                 }
@@ -99,12 +211,13 @@ public class HandlerPool<T extends RequestHandler> {
                                     String.format("%.1f%%", missRatio * 100) + ")");
 
                         }
-                        
+
                         // Reset counters
-                        hitCount.set(0);
-                        missCount.set(0);
+                        hitCount.reset();
+                        missCount.reset();
                     }
-                    
+
+                    shrinkIfIdle();
                     lastResizeTime = now;
                 } finally {
                     resizeLock.unlockWrite(stamp);
@@ -117,68 +230,167 @@ public class HandlerPool<T extends RequestHandler> {
         if (handler == null) return;
 
         handler.setRequestResponse(null, null);
-        availableHandlers.offer(handler);
-        activeHandlers.decrementAndGet();
-
-        checkPoolSize();
+        activeHandlers.decrement();
+        handOff(handler);
     }
 
-    private T waitForAvailableHandler() {
-        T handler = null;
-        int spinCount = 0;
+    /**
+     * Gives an idle handler to the longest waiting thread, or puts it back into the stripes.
+     */
+    private void handOff(T handler) {
+        T idle = handler;
+        while (true) {
+            Waiter<T> waiter;
+            while ((waiter = waiters.poll()) != null) {
+                if (waiter.offer(idle)) {
+                    return;
+                }
+            }
+            if (!offer(idle, homeStripe())) {
+                // Every stripe is full, let the handler go
+                totalSize.decrementAndGet();
+                return;
+            }
+            // A thread that queued up after the check above may already have missed the handler in the stripes
+            if (waiters.isEmpty() || (idle = poll(homeStripe())) == null) {
+                return;
+            }
+        }
+    }
 
-        while (handler == null) {
-            handler = availableHandlers.poll();
+    /**
+     * Parks the calling thread until a handler is handed to it. The thread queues up before it
+     * looks at the stripes one last time, and a releasing thread looks for waiters after it filled
+     * a stripe, so a handler can never sit idle while a thread parks.
+     */
+    private T awaitHandler(int home) {
+        final Waiter<T> waiter = new Waiter<>();
+        waiters.add(waiter);
+        peakWaiting.accumulateAndGet(waiting.incrementAndGet(), Math::max);
+        try {
+            final long timeout = acquireTimeoutNanos;
+            final long deadline = System.nanoTime() + timeout;
+            while (true) {
+                T handler = waiter.handler();
+                if (handler != null) {
+                    return handler;
+                }
+                handler = poll(home);
+                if (handler != null) {
+                    if (waiter.cancel()) {
+                        waiters.remove(waiter);
+                        return handler;
+                    }
+                    // Handed one in the meantime, the spare goes to the next in line
+                    handOff(handler);
+                    return waiter.handler();
+                }
 
-            if (handler == null) {
-                if (spinCount < 1000) {
-                    Thread.onSpinWait();
-                    spinCount++;
+                final long remaining = deadline - System.nanoTime();
+                final boolean timedOut = timeout > 0 && remaining <= 0;
+                if (timedOut || Thread.currentThread().isInterrupted()) {
+                    if (!waiter.cancel()) {
+                        return waiter.handler();
+                    }
+                    waiters.remove(waiter);
+                    if (!timedOut) {
+                        throw new HandlerUnavailableException("Interrupted while waiting for " + handlerClass.getSimpleName());
+                    }
+                    timeouts.increment();
+                    throw new HandlerUnavailableException("No " + handlerClass.getSimpleName() +
+                            " available after " + TimeUnit.NANOSECONDS.toMillis(timeout) + "ms");
+                }
+                if (timeout > 0) {
+                    LockSupport.parkNanos(this, remaining);
                 } else {
-                    Thread.yield();
+                    LockSupport.park(this);
                 }
             }
+        } finally {
+            waiting.decrementAndGet();
         }
-
-        return handler;
     }
 
-    private void checkPoolSize() {
-        long stamp = resizeLock.tryOptimisticRead();
+    /**
+     * Drops idle handlers down to the minimum size once far more are idle than needed.
+     * Runs with the resize lock held, as part of the periodic adaptation.
+     */
+    private void shrinkIfIdle() {
         int currentTotal = totalSize.get();
-        int currentActive = activeHandlers.get();
+        int idleHandlers = currentTotal - getActiveHandlers();
+        if (idleHandlers > minSize * 2 && currentTotal > minSize) {
+            int toRemove = Math.min(getAvailableHandlers(), currentTotal - minSize);
+            int removed = 0;
+            for (int i = 0; i < toRemove && poll(i & stripeMask) != null; i++) {
+                totalSize.decrementAndGet();
+                removed++;
+            }
+            logger.info("Pool shrunk: removed " + removed + " handlers");
+        }
+    }
 
-        if (!resizeLock.validate(stamp)) {
-            return;
+    /**
+     * Room for twice the maximum size, so releases rarely have to look beyond their own stripe.
+     */
+    private int slotsPerStripe(int maxSize) {
+        return Math.max(4, (maxSize * 2 + stripes.length - 1) / stripes.length);
+    }
+
+    private int homeStripe() {
+        long id = Thread.currentThread().threadId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & stripeMask;
+    }
+
+    /**
+     * Takes an idle handler, starting at the given stripe and stealing from the others.
+     */
+    private T poll(int home) {
+        for (int i = 0; i < stripes.length; i++) {
+            T handler = stripes[(home + i) & stripeMask].poll();
+            if (handler != null) {
+                return handler;
+            }
         }
+        return null;
+    }
 
-        int idleHandlers = currentTotal - currentActive;
-        if (idleHandlers > minSize * 2 && currentTotal > minSize) {
-            stamp = resizeLock.writeLock();
-            try {
-                if (totalSize.get() > minSize && (totalSize.get() - activeHandlers.get()) > minSize * 2) {
-                    int toRemove = Math.min(availableHandlers.size(), totalSize.get() - minSize);
-                    for (int i = 0; i < toRemove; i++) {
-                        availableHandlers.poll();
-                        totalSize.decrementAndGet();
-                    }
-                    logger.info("Pool shrunk: removed " + toRemove + " handlers");
-                }
-            } finally {
-                resizeLock.unlockWrite(stamp);
+    /**
+     * Stores an idle handler, starting at the given stripe.
+     *
+     * @return false if every stripe is full
+     */
+    private boolean offer(T handler, int home) {
+        for (int i = 0; i < stripes.length; i++) {
+            if (stripes[(home + i) & stripeMask].offer(handler)) {
+                return true;
             }
         }
+        return false;
     }
 
-    private T createHandlerInstance() throws Exception {
-        try {
-            // First try to find a no-args constructor
-            Constructor<T> noArgsConstructor = handlerClass.getDeclaredConstructor();
-            return noArgsConstructor.newInstance();
-        } catch (NoSuchMethodException e) {
-            // If no-args constructor not found, try Request, Response constructor
-            Constructor<T> reqResConstructor = handlerClass.getConstructor(Request.class, Response.class);
-            return reqResConstructor.newInstance(null, null);
+    private T createHandlerInstance() {
+        T handler = factory.get();
+        Consumer<? super T> initializer = instanceInitializer;
+        if (initializer != null) {
+            initializer.accept(handler);
+        }
+        if (handlerName == null) {
+            handlerName = handler.getHandlerName();
+        }
+        return handler;
+    }
+
+    /**
+     * Sets up every handler of the pool, the idle ones right away and new ones as they are created.
+     * Used to hand the route's specification to each instance.
+     *
+     * @param initializer applied to each handler instance
+     */
+    public void setInstanceInitializer(Consumer<? super T> initializer) {
+        this.instanceInitializer = initializer;
+        for (Stripe<T> stripe : stripes) {
+            stripe.forEach(initializer);
         }
     }
 
@@ -191,11 +403,56 @@ public class HandlerPool<T extends RequestHandler> {
     }
 
     public int getActiveHandlers() {
-        return activeHandlers.get();
+        return (int) activeHandlers.sum();
     }
 
     public int getAvailableHandlers() {
-        return availableHandlers.size();
+        int available = 0;
+        for (Stripe<T> stripe : stripes) {
+            available += stripe.size();
+        }
+        return available;
+    }
+
+    /**
+     * @return the number of stripes idle handlers are spread over
+     */
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * @return the number of threads currently waiting for a handler
+     */
+    public int getWaitingCount() {
+        return waiting.get();
+    }
+
+    /**
+     * @return the largest number of threads that waited for a handler at the same time
+     */
+    public int getPeakWaitingCount() {
+        return peakWaiting.get();
+    }
+
+    /**
+     * @return the number of acquisitions that gave up after the acquire timeout
+     */
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Sets how long {@link #acquire} waits for a handler once the pool is at its maximum size.
+     *
+     * @param timeout the timeout, 0 to wait indefinitely
+     * @param unit    the unit of the timeout
+     */
+    public void setAcquireTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Acquire timeout must not be negative");
+        }
+        this.acquireTimeoutNanos = unit.toNanos(timeout);
     }
 
     public void updatePoolSizeConstraints(int minSize, int maxSize) {
@@ -203,23 +460,128 @@ public class HandlerPool<T extends RequestHandler> {
         try {
             this.minSize = minSize;
             this.maxSize = maxSize;
+            // Grow the stripes with the pool, otherwise handlers beyond the initial maximum are dropped on release
+            int slotsPerStripe = slotsPerStripe(maxSize);
+            for (Stripe<T> stripe : stripes) {
+                stripe.ensureCapacity(slotsPerStripe);
+            }
         } finally {
             resizeLock.unlockWrite(stamp);
         }
     }
 
     public double getHitRatio() {
-        int hits = hitCount.get();
-        int total = hits + missCount.get();
+        long hits = hitCount.sum();
+        long total = hits + missCount.sum();
         return total > 0 ? (double) hits / total : 1.0;
     }
 
+    /**
+     * @return the name of the pooled handlers, taken from the first instance the pool created
+     */
     public String getHandlerName() {
-        try {
-            T handler = createHandlerInstance();
-            return handler.getHandlerName();
-        } catch (Exception e) {
-            return handlerClass.getName();
+        String name = handlerName;
+        return name != null ? name : handlerClass.getSimpleName();
+    }
+
+    /**
+     * A parked thread waiting for a handler. The handler is handed over, or the wait cancelled,
+     * with a single compare-and-set, so a handler is never given to a thread that already left.
+     */
+    private static final class Waiter<T> extends AtomicReference<Object> {
+        private static final long serialVersionUID = 1L;
+        private static final Object CANCELLED = new Object();
+        private final transient Thread thread = Thread.currentThread();
+
+        boolean offer(T handler) {
+            if (compareAndSet(null, handler)) {
+                LockSupport.unpark(thread);
+                return true;
+            }
+            return false;
+        }
+
+        boolean cancel() {
+            return compareAndSet(null, CANCELLED);
+        }
+
+        @SuppressWarnings("unchecked")
+        T handler() {
+            Object handler = get();
+            return handler == CANCELLED ? null : (T) handler;
+        }
+    }
+
+    /**
+     * Slots holding idle handlers, claimed and filled with compare-and-set. A stripe grows by
+     * chaining further slot arrays, slots are never moved, so a concurrent release is never lost.
+     */
+    private static final class Stripe<T> {
+        private final AtomicReferenceArray<T> slots;
+        private volatile Stripe<T> next;
+
+        Stripe(int capacity) {
+            this.slots = new AtomicReferenceArray<>(capacity);
+        }
+
+        T poll() {
+            for (Stripe<T> segment = this; segment != null; segment = segment.next) {
+                AtomicReferenceArray<T> slots = segment.slots;
+                for (int i = 0; i < slots.length(); i++) {
+                    T handler = slots.getPlain(i);
+                    if (handler != null && slots.compareAndSet(i, handler, null)) {
+                        return handler;
+                    }
+                }
+            }
+            return null;
+        }
+
+        boolean offer(T handler) {
+            for (Stripe<T> segment = this; segment != null; segment = segment.next) {
+                AtomicReferenceArray<T> slots = segment.slots;
+                for (int i = 0; i < slots.length(); i++) {
+                    if (slots.getPlain(i) == null && slots.compareAndSet(i, null, handler)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Chains another slot array if the stripe holds fewer slots than given. Never shrinks,
+         * called with the resize lock held.
+         */
+        void ensureCapacity(int capacity) {
+            Stripe<T> last = this;
+            int length = slots.length();
+            while (last.next != null) {
+                last = last.next;
+                length += last.slots.length();
+            }
+            if (length < capacity) {
+                last.next = new Stripe<>(capacity - length);
+            }
+        }
+
+        int size() {
+            int size = 0;
+            for (Stripe<T> segment = this; segment != null; segment = segment.next) {
+                for (int i = 0; i < segment.slots.length(); i++) {
+                    if (segment.slots.get(i) != null) size++;
+                }
+            }
+            return size;
+        }
+
+        void forEach(Consumer<? super T> action) {
+            for (Stripe<T> segment = this; segment != null; segment = segment.next) {
+                for (int i = 0; i < segment.slots.length(); i++) {
+                    T handler = segment.slots.get(i);
+                    if (handler != null) action.accept(handler);
+                }
+            }
         }
     }
-}
\ No newline at end of file
+}
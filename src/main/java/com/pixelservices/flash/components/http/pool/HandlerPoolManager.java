@@ -4,7 +4,6 @@ import com.pixelservices.flash.components.FlashServer;
 import com.pixelservices.flash.components.http.RequestHandler;
 import com.pixelservices.flash.components.http.HandlerType;
 import com.pixelservices.flash.components.http.HttpMethod;
-import com.pixelservices.flash.components.http.routing.models.SimpleHandlerWrapper;
 import com.pixelservices.flash.utils.FlashLogger;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -29,12 +28,27 @@ public class HandlerPoolManager {
     private final int defaultInitialSize;
     private final int defaultMinSize;
     private final int defaultMaxSize;
+    private final int stripes;
+    private final long acquireTimeoutMillis;
     
     /**
      * Creates a new HandlerPoolManager with default pool sizes.
      */
     public HandlerPoolManager(FlashServer server, int defaultInitialSize, int defaultMinSize, int defaultMaxSize) {
+        this(server, defaultInitialSize, defaultMinSize, defaultMaxSize, HandlerPool.DEFAULT_STRIPES,
+                HandlerPool.DEFAULT_ACQUIRE_TIMEOUT_MS);
+    }
+
+    /**
+     * Creates a new HandlerPoolManager with default pool sizes, whose pools spread their idle
+     * handlers over the given number of stripes and turn requests away after waiting for a
+     * handler for the given time.
+     */
+    public HandlerPoolManager(FlashServer server, int defaultInitialSize, int defaultMinSize, int defaultMaxSize,
+                              int stripes, long acquireTimeoutMillis) {
         this.server = server;
+        this.stripes = stripes;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
         this.defaultInitialSize = defaultInitialSize;
         this.defaultMinSize = defaultMinSize;
         this.defaultMaxSize = defaultMaxSize;
@@ -63,29 +77,20 @@ public class HandlerPoolManager {
     
     /**
      * Gets or creates a handler pool for the specified handler class.
-     * For SimpleHandlerWrapper, uses the handler ID to create separate pools.
+     * Lambda-based handlers are stateless and never pooled, so the class name identifies the pool.
      */
     @SuppressWarnings("unchecked")
     public <T extends RequestHandler> HandlerPool<T> getOrCreatePool(Class<T> handlerClass) {
-        // For SimpleHandlerWrapper, we need to get the handler ID from the instance
-        if (SimpleHandlerWrapper.class.isAssignableFrom(handlerClass)) {
-            try {
-                // Create a temporary instance to get its ID
-                T instance = handlerClass.getDeclaredConstructor().newInstance();
-                String handlerId = ((SimpleHandlerWrapper) instance).getHandlerId();
-                return (HandlerPool<T>) pools.computeIfAbsent(handlerId, k -> new HandlerPool<T>(handlerClass, defaultInitialSize, defaultMinSize, defaultMaxSize));
-            } catch (Exception e) {
-                // Fallback to class name if we can't get the handler ID
-                String handlerName = handlerClass.getSimpleName();
-                return (HandlerPool<T>) pools.computeIfAbsent(handlerName, k -> new HandlerPool<T>(handlerClass, defaultInitialSize, defaultMinSize, defaultMaxSize));
-            }
-        }
-        
-        // For other handlers, use the class name as the key
         String handlerName = handlerClass.getSimpleName();
-        return (HandlerPool<T>) pools.computeIfAbsent(handlerName, k -> new HandlerPool<T>(handlerClass, defaultInitialSize, defaultMinSize, defaultMaxSize));
+        return (HandlerPool<T>) pools.computeIfAbsent(handlerName, k -> createPool(handlerClass));
     }
     
+    private <T extends RequestHandler> HandlerPool<T> createPool(Class<T> handlerClass) {
+        HandlerPool<T> pool = new HandlerPool<>(handlerClass, defaultInitialSize, defaultMinSize, defaultMaxSize, stripes);
+        pool.setAcquireTimeout(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        return pool;
+    }
+
     // Update getPoolsInfoAsJson to work with the new map structure
     private String getPoolsInfoAsJson() {
         JSONObject result = new JSONObject();
@@ -99,6 +104,10 @@ public class HandlerPoolManager {
             poolInfo.put("activeHandlers", pool.getActiveHandlers());
             poolInfo.put("availableHandlers", pool.getAvailableHandlers());
             poolInfo.put("hitRatio", String.format("%.2f", pool.getHitRatio()));
+            poolInfo.put("stripes", pool.getStripeCount());
+            poolInfo.put("waiting", pool.getWaitingCount());
+            poolInfo.put("peakWaiting", pool.getPeakWaitingCount());
+            poolInfo.put("timeouts", pool.getTimeoutCount());
             
             // Add special handling for SimpleHandlerWrapper classes
             if (handlerName.contains("SimpleHandlerWrapper")) {
@@ -112,6 +121,7 @@ public class HandlerPoolManager {
         result.put("defaultInitialSize", defaultInitialSize);
         result.put("defaultMinSize", defaultMinSize);
         result.put("defaultMaxSize", defaultMaxSize);
+        result.put("acquireTimeoutMillis", acquireTimeoutMillis);
         result.put("totalPools", pools.size());
         
         return result.toString(2);
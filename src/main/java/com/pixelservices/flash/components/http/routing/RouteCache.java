@@ -0,0 +1,57 @@
+package com.pixelservices.flash.components.http.routing;
+
+import com.pixelservices.flash.components.http.HttpMethod;
+import com.pixelservices.flash.components.http.routing.models.RouteMatch;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free cache of route resolutions keyed on method and path.
+ * <p>
+ * The cache is direct-mapped: every key hashes to exactly one slot and a new resolution simply
+ * replaces whatever the slot held, so reads and writes are a single array access each and the
+ * cache never grows past its capacity. Under skewed traffic the hot paths keep winning their
+ * slots back. Misses are cached too, so repeated 404s do not walk the tries again.
+ * <p>
+ * A cache is never invalidated in place. {@link RouteRegistry} replaces it as a whole whenever
+ * the routes change.
+ */
+final class RouteCache {
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+
+    /**
+     * @param capacity the number of slots, rounded up to a power of two
+     */
+    RouteCache(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Looks up a cached resolution.
+     *
+     * @return the cached entry, whose match is null for a cached miss, or null if nothing is cached
+     */
+    Entry get(HttpMethod method, String path) {
+        Entry entry = slots.getAcquire(slot(method, path));
+        return entry != null && entry.method == method && entry.path.equals(path) ? entry : null;
+    }
+
+    /**
+     * Caches a resolution, replacing whatever shared its slot.
+     *
+     * @param match the resolved route, or null to cache a miss
+     */
+    void put(HttpMethod method, String path, RouteMatch match) {
+        slots.setRelease(slot(method, path), new Entry(method, path, match));
+    }
+
+    private int slot(HttpMethod method, String path) {
+        int hash = path.hashCode() * 31 + method.ordinal();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    record Entry(HttpMethod method, String path, RouteMatch match) {}
+}
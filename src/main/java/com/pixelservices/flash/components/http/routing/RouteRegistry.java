@@ -2,54 +2,292 @@ package com.pixelservices.flash.components.http.routing;
 
 import com.pixelservices.flash.components.http.routing.models.RouteEntry;
 import com.pixelservices.flash.components.http.routing.models.RouteMatch;
+import com.pixelservices.flash.components.http.routing.trie.AbstractRadixRouteTrie;
 import com.pixelservices.flash.components.http.routing.trie.DynamicRoutePrefixTrie;
 import com.pixelservices.flash.components.http.routing.trie.ParameterizedRouteTrie;
 import com.pixelservices.flash.components.http.routing.trie.LiteralRouteTrie;
 import com.pixelservices.flash.components.http.HttpMethod;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Manages route registration and lookup using different Trie structures.
+ * <p>
+ * The registered routes form an immutable {@link RouteTable}. Every change, or batch of changes,
+ * builds a new table from forks of the current tries and publishes it with a single volatile
+ * write, so a lookup always sees either all or none of a batch.
  */
 public class RouteRegistry {
-    private final LiteralRouteTrie literalTrie = new LiteralRouteTrie();
-    private final ParameterizedRouteTrie parameterizedRouteTrie = new ParameterizedRouteTrie();
-    private final DynamicRoutePrefixTrie dynamicRoutePrefixTrie = new DynamicRoutePrefixTrie();
+    /**
+     * The default number of slots of the route cache.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 4096;
+
+    private final int cacheSize;
+    private volatile RouteTable table;
+    private volatile RoutingInstrumentation instrumentation;
+
+    /**
+     * The routes at one point in time. The tries are never modified once the table is
+     * published, and the cache only ever holds resolutions against these tries.
+     *
+     * @param cache null if caching is disabled
+     */
+    private record RouteTable(LiteralRouteTrie literalTrie,
+                              ParameterizedRouteTrie parameterizedRouteTrie,
+                              DynamicRoutePrefixTrie dynamicRoutePrefixTrie,
+                              boolean hasStreamingRoutes,
+                              RouteCache cache) {}
+
+    public RouteRegistry() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize the number of slots of the cache in front of parameterized and dynamic
+     *                  lookups, 0 disables the cache
+     */
+    public RouteRegistry(int cacheSize) {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("Route cache size must not be negative");
+        }
+        this.cacheSize = cacheSize;
+        this.table = new RouteTable(new LiteralRouteTrie(), new ParameterizedRouteTrie(), new DynamicRoutePrefixTrie(),
+                false, cacheSize > 0 ? new RouteCache(cacheSize) : null);
+    }
 
     public void registerLiteralRoute(RouteEntry entry) {
-        literalTrie.insert(entry.getLiteralKey(), entry);
+        begin().registerLiteralRoute(entry).commit();
     }
 
     public void registerParameterizedRoute(RouteEntry entry) {
-        parameterizedRouteTrie.insert(entry);
+        begin().registerParameterizedRoute(entry).commit();
     }
 
     public void registerDynamicRoute(RouteEntry entry) {
-        dynamicRoutePrefixTrie.insert(entry, entry);
+        begin().registerDynamicRoute(entry).commit();
+    }
+
+    /**
+     * Removes a route, so it no longer resolves.
+     *
+     * @param method the method of the route
+     * @param path   the path the route was registered with
+     * @return true if the route was registered
+     */
+    public boolean unregisterRoute(HttpMethod method, String path) {
+        return mutate(builder -> builder.remove(method, path));
+    }
+
+    /**
+     * Starts a batch of route changes. Nothing is visible to lookups until the batch is committed.
+     *
+     * @return the batch
+     */
+    public Batch begin() {
+        return new Batch();
+    }
+
+    /**
+     * Applies changes to forks of the current tries and publishes the result as the new table.
+     */
+    private synchronized <R> R mutate(Function<TableBuilder, R> changes) {
+        TableBuilder builder = new TableBuilder(table);
+        R result = changes.apply(builder);
+        if (builder.changed) {
+            // A new table comes with an empty cache, so no resolution against the old tries survives
+            table = new RouteTable(builder.literalTrie, builder.parameterizedRouteTrie, builder.dynamicRoutePrefixTrie,
+                    builder.hasStreamingRoutes, cacheSize > 0 ? new RouteCache(cacheSize) : null);
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether the body of a request should be streamed to its handler.
+     * Costs a single volatile read as long as no streaming route is registered.
+     *
+     * @param method the request method
+     * @param path   the request path
+     * @return true if the matching route streams its body
+     */
+    public boolean streamsBody(HttpMethod method, String path) {
+        RouteTable table = this.table;
+        if (!table.hasStreamingRoutes()) {
+            return false;
+        }
+        RouteMatch match = lookup(table, method, path);
+        return match != null && match.entry().streamsBody();
     }
 
+    /**
+     * Resolves the route for a request. Literal routes win over parameterized routes, which win
+     * over dynamic routes. A literal hit allocates nothing. Other resolutions, including misses,
+     * go through the route cache and only walk the parameterized and dynamic tries when the
+     * method and path are not cached yet.
+     *
+     * @param method the request method
+     * @param path   the request path, without query string
+     * @return the match, or null if no route matches
+     */
     public RouteMatch resolveRoute(HttpMethod method, String path) {
-        String literalKey = method.name() + ":" + path;
-        RouteMatch match = literalTrie.search(literalKey) != null ? new RouteMatch(literalTrie.search(literalKey), Collections.emptyMap()) : null;
-        if (match == null) {
-            match = parameterizedRouteTrie.search(method, path);
+        RoutingInstrumentation instrumentation = this.instrumentation;
+        if (instrumentation == null) {
+            return lookup(table, method, path);
         }
+        long start = System.nanoTime();
+        RouteMatch match = lookup(table, method, path);
+        instrumentation.record(match, System.nanoTime() - start);
+        return match;
+    }
+
+    private RouteMatch lookup(RouteTable table, HttpMethod method, String path) {
+        RouteEntry literal = table.literalTrie().search(method, path);
+        if (literal != null) {
+            return literal.getLiteralMatch();
+        }
+        RouteCache cache = table.cache();
+        if (cache != null) {
+            RouteCache.Entry cached = cache.get(method, path);
+            if (cached != null) {
+                RoutingInstrumentation instrumentation = this.instrumentation;
+                if (instrumentation != null) instrumentation.recordCacheHit();
+                return cached.match();
+            }
+        }
+        RouteMatch match = table.parameterizedRouteTrie().search(method, path);
         if (match == null) {
-            match = dynamicRoutePrefixTrie.search(method, path);
+            match = table.dynamicRoutePrefixTrie().search(method, path);
+        }
+        if (cache != null) {
+            cache.put(method, path, match);
         }
         return match;
     }
 
+    /**
+     * Starts recording lookup statistics. Until this is called, resolving a route costs a single
+     * volatile read on top of the lookup itself.
+     *
+     * @return the instrumentation receiving the statistics
+     */
+    public synchronized RoutingInstrumentation enableInstrumentation() {
+        if (instrumentation == null) {
+            instrumentation = new RoutingInstrumentation();
+        }
+        return instrumentation;
+    }
+
+    /**
+     * @return the lookup statistics, or null if instrumentation is not enabled
+     */
+    public RoutingInstrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
     public int getLiteralRouteCount() {
-        return literalTrie.size();
+        return table.literalTrie().size();
     }
 
     public int getParameterizedRouteCount() {
-        return parameterizedRouteTrie.size();
+        return table.parameterizedRouteTrie().size();
     }
 
     public int getDynamicRouteCount() {
-        return dynamicRoutePrefixTrie.size();
+        return table.dynamicRoutePrefixTrie().size();
+    }
+
+    /**
+     * A set of route changes that becomes visible all at once on {@link #commit()}.
+     * <p>
+     * Changes are recorded and only applied when the batch is committed, against whatever table
+     * is current at that point, so concurrent batches never undo each other. However many routes
+     * a batch touches, every shared trie node is copied at most once.
+     */
+    public final class Batch {
+        private final List<Consumer<TableBuilder>> changes = new ArrayList<>();
+
+        private Batch() {
+        }
+
+        public Batch registerLiteralRoute(RouteEntry entry) {
+            changes.add(builder -> builder.insert(builder.literalTrie, entry));
+            return this;
+        }
+
+        public Batch registerParameterizedRoute(RouteEntry entry) {
+            changes.add(builder -> builder.insert(builder.parameterizedRouteTrie, entry));
+            return this;
+        }
+
+        public Batch registerDynamicRoute(RouteEntry entry) {
+            changes.add(builder -> builder.insert(builder.dynamicRoutePrefixTrie, entry));
+            return this;
+        }
+
+        /**
+         * Removes a route, see {@link RouteRegistry#unregisterRoute(HttpMethod, String)}.
+         */
+        public Batch unregisterRoute(HttpMethod method, String path) {
+            changes.add(builder -> builder.remove(method, path));
+            return this;
+        }
+
+        /**
+         * Applies the recorded changes and publishes the resulting routes in one step.
+         * The batch is empty afterwards.
+         */
+        public void commit() {
+            if (changes.isEmpty()) {
+                return;
+            }
+            List<Consumer<TableBuilder>> pending = new ArrayList<>(changes);
+            changes.clear();
+            mutate(builder -> {
+                pending.forEach(change -> change.accept(builder));
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Forks of the tries of a table, modified in place until they are published.
+     */
+    private static final class TableBuilder {
+        final LiteralRouteTrie literalTrie;
+        final ParameterizedRouteTrie parameterizedRouteTrie;
+        final DynamicRoutePrefixTrie dynamicRoutePrefixTrie;
+        // Stays set once a streaming route was registered, a stale flag only costs a lookup
+        boolean hasStreamingRoutes;
+        boolean changed;
+
+        TableBuilder(RouteTable base) {
+            this.literalTrie = base.literalTrie().fork();
+            this.parameterizedRouteTrie = base.parameterizedRouteTrie().fork();
+            this.dynamicRoutePrefixTrie = base.dynamicRoutePrefixTrie().fork();
+            this.hasStreamingRoutes = base.hasStreamingRoutes();
+        }
+
+        void insert(AbstractRadixRouteTrie<RouteEntry> trie, RouteEntry entry) {
+            trie.insert(entry, entry);
+            hasStreamingRoutes |= entry.streamsBody();
+            changed = true;
+        }
+
+        boolean remove(HttpMethod method, String path) {
+            String[] segments = RouteEntry.parsePathSegments(path);
+            boolean removed;
+            if (path.endsWith("/*")) {
+                removed = dynamicRoutePrefixTrie.remove(method, segments);
+            } else if (path.contains(":")) {
+                removed = parameterizedRouteTrie.remove(method, segments);
+            } else {
+                removed = literalTrie.remove(method, segments);
+            }
+            changed |= removed;
+            return removed;
+        }
     }
 }
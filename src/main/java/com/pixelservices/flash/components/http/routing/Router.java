@@ -6,7 +6,6 @@ import com.pixelservices.flash.components.http.HttpMethod;
 import com.pixelservices.flash.components.http.RequestHandler;
 import com.pixelservices.flash.components.http.lifecycle.Request;
 import com.pixelservices.flash.components.http.lifecycle.Response;
-import com.pixelservices.flash.components.http.pool.HandlerPool;
 import com.pixelservices.flash.components.http.pool.HandlerPoolManager;
 import com.pixelservices.flash.components.http.routing.models.RouteInfo;
 
@@ -45,14 +44,9 @@ public class Router {
         String endpoint = getEndpoint(handlerClass);
         HttpMethod method = getMethod(handlerClass);
         String fullPath = basePath + endpoint;
-    
-        HandlerPool<T> handlerPool = poolManager.getOrCreatePool(handlerClass);
-        T handlerInstance = handlerPool.acquire(null, null);
-        
-        server.registerRoute(method, fullPath, handlerInstance);
-        
-        handlerPool.release(handlerInstance);
-        
+
+        server.registerRoute(method, fullPath, handlerClass);
+
         return this;
     }
 
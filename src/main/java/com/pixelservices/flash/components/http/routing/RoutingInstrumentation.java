@@ -0,0 +1,133 @@
+package com.pixelservices.flash.components.http.routing;
+
+import com.pixelservices.flash.components.http.routing.models.RouteEntry;
+import com.pixelservices.flash.components.http.routing.models.RouteMatch;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in lookup statistics of a {@link RouteRegistry}: per route lookup counters and latency
+ * histograms, plus the same for lookups that matched no route.
+ * <p>
+ * Only created when enabled through
+ * {@link com.pixelservices.flash.models.FlashConfiguration#setRoutingInstrumentation(boolean)},
+ * otherwise route resolution does not read the clock or touch any counter.
+ */
+public class RoutingInstrumentation {
+    // Bucket i counts lookups that took less than 2^(i + 6) ns, the last bucket everything above
+    private static final int BUCKETS = 16;
+    private static final int FIRST_BUCKET_SHIFT = 6;
+
+    private final Map<RouteEntry, Stats> routes = new ConcurrentHashMap<>();
+    private final Stats misses = new Stats();
+    private final LongAdder cacheHits = new LongAdder();
+
+    /**
+     * Records a single lookup.
+     *
+     * @param match the resolved route, or null if no route matched
+     * @param nanos how long the lookup took
+     */
+    void record(RouteMatch match, long nanos) {
+        Stats stats = match == null ? misses : routes.computeIfAbsent(match.entry(), entry -> new Stats());
+        stats.record(nanos);
+    }
+
+    /**
+     * Records a lookup answered by the route cache.
+     */
+    void recordCacheHit() {
+        cacheHits.increment();
+    }
+
+    /**
+     * @return the total number of recorded lookups, including misses
+     */
+    public long getLookupCount() {
+        long total = misses.count.sum();
+        for (Stats stats : routes.values()) {
+            total += stats.count.sum();
+        }
+        return total;
+    }
+
+    /**
+     * @return the number of recorded lookups that matched no route
+     */
+    public long getMissCount() {
+        return misses.count.sum();
+    }
+
+    /**
+     * @return the number of lookups answered by the route cache
+     */
+    public long getCacheHitCount() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * @param entry a registered route
+     * @return the number of recorded lookups that resolved to the route
+     */
+    public long getLookupCount(RouteEntry entry) {
+        Stats stats = routes.get(entry);
+        return stats == null ? 0 : stats.count.sum();
+    }
+
+    /**
+     * Returns the statistics as JSON, in the format served by the devtools API.
+     */
+    public String toJson() {
+        JSONArray routesArray = new JSONArray();
+        routes.forEach((entry, stats) -> {
+            JSONObject routeInfo = stats.toJson();
+            routeInfo.put("method", entry.getMethod().name());
+            routeInfo.put("path", entry.getPath());
+            routesArray.put(routeInfo);
+        });
+
+        JSONObject result = new JSONObject();
+        result.put("lookups", getLookupCount());
+        result.put("cacheHits", cacheHits.sum());
+        result.put("misses", misses.toJson());
+        result.put("routes", routesArray);
+        return result.toString(2);
+    }
+
+    private static final class Stats {
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            int bucket = Math.max(0, 64 - Long.numberOfLeadingZeros(nanos) - FIRST_BUCKET_SHIFT);
+            histogram.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+        }
+
+        JSONObject toJson() {
+            long lookups = count.sum();
+            JSONObject info = new JSONObject();
+            info.put("lookups", lookups);
+            info.put("averageNanos", lookups == 0 ? 0 : totalNanos.sum() / lookups);
+
+            JSONObject buckets = new JSONObject();
+            for (int i = 0; i < BUCKETS; i++) {
+                long bucketCount = histogram.get(i);
+                if (bucketCount == 0) continue;
+                String label = i == BUCKETS - 1
+                        ? ">=" + (1L << (i + FIRST_BUCKET_SHIFT - 1)) + "ns"
+                        : "<" + (1L << (i + FIRST_BUCKET_SHIFT)) + "ns";
+                buckets.put(label, bucketCount);
+            }
+            info.put("histogram", buckets);
+            return info;
+        }
+    }
+}
@@ -1,30 +1,49 @@
 package com.pixelservices.flash.components.http.routing.models;
 
 import com.pixelservices.flash.components.http.HttpMethod;
+import com.pixelservices.flash.components.http.connection.RawRequest;
 
 import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Represents an HTTP request, parsed from a raw buffer.
+ * Represents the request line and headers of an HTTP request, as a view over the parsed request bytes.
  */
 public class RequestInfo {
-    private final HttpMethod method;
-    private final String path;
-    private final List<String> headers = new ArrayList<>();
-    public RequestInfo(HttpMethod method, String path, List<String> headers) {
-        this.method = method;
-        this.path = path;
-        this.headers.addAll(headers);
+    private final RawRequest raw;
+    private List<String> headers;
+
+    public RequestInfo(RawRequest raw) {
+        this.raw = raw;
+    }
+    public HttpMethod getMethod() { return raw.method(); }
+    public String getPath() { return raw.path(); }
+    public String getVersion() { return raw.version(); }
+    public String getHeader(String name) { return raw.header(name); }
+    public RawRequest getRawRequest() { return raw; }
+
+    /**
+     * @return every header as a {@code Name: value} line, built on first access
+     */
+    public List<String> getHeaders() {
+        if (headers == null) {
+            List<String> lines = new ArrayList<>(raw.headerCount());
+            for (int i = 0; i < raw.headerCount(); i++) {
+                lines.add(raw.headerName(i) + ": " + raw.headerValue(i));
+            }
+            headers = lines;
+        }
+        return headers;
     }
-    public HttpMethod getMethod() { return method; }
-    public String getPath() { return path; }
-    public String getHeader(String name) {
-        return headers.stream()
-                .filter(h -> h.startsWith(name + ":"))
-                .findFirst()
-                .map(h -> h.substring(name.length() + 2))
-                .orElse(null);
+
+    /**
+     * Checks whether a comma-separated header such as {@code Connection} contains the given token.
+     *
+     * @param name  the header name
+     * @param token the token to look for, compared case-insensitively
+     * @return true if the header is present and lists the token
+     */
+    public boolean headerContainsToken(String name, String token) {
+        return raw.headerContainsToken(name, token);
     }
-    public List<String> getHeaders() { return headers; }
 }
@@ -3,6 +3,7 @@ package com.pixelservices.flash.components.http.routing.models;
 import com.pixelservices.flash.components.http.HandlerType;
 import com.pixelservices.flash.components.http.HttpMethod;
 import com.pixelservices.flash.components.http.RequestHandler;
+import com.pixelservices.flash.components.http.StatelessRequestHandler;
 import com.pixelservices.flash.components.http.lifecycle.Request;
 import com.pixelservices.flash.components.http.lifecycle.Response;
 import com.pixelservices.flash.components.http.pool.HandlerPool;
@@ -13,16 +14,20 @@ import java.util.Collections;
 import java.util.Map;
 import java.util.regex.Pattern;
 
-public class RouteEntry {
+public final class RouteEntry {
     private final HttpMethod method;
     private final String path;
     private final HandlerPool<? extends RequestHandler> handlerPool; // Changed from RequestHandler to HandlerPool
+    private final SimpleHandler statelessHandler;
     private final boolean isParameterized;
     private final boolean isDynamic;
     private final RoutePattern routePattern;
     private final String[] pathSegments;
     private final HandlerType handlerType;
     private final Class<? extends RequestHandler> handlerClass;
+    private final boolean streamsBody;
+    private final boolean enforcedNonNullBody;
+    private final RouteMatch literalMatch;
 
     /**
      * Constructor for class-based handlers that will use pooling
@@ -33,6 +38,9 @@ public class RouteEntry {
         this.path = path;
         this.handlerType = handlerType;
         this.handlerClass = handlerClass;
+        this.streamsBody = isStreamingHandler(handlerClass);
+        this.enforcedNonNullBody = isEnforcingNonNullBody(handlerClass);
+        this.statelessHandler = null;
         
         // Get or create a handler pool for this handler class
         this.handlerPool = poolManager.getOrCreatePool(handlerClass);
@@ -48,10 +56,12 @@ public class RouteEntry {
         }
         // Populate pathSegments in the constructor
         this.pathSegments = parsePathSegments(path);
+        this.literalMatch = new RouteMatch(this, Collections.emptyMap());
     }
     
     /**
-     * Constructor for lambda-based handlers (using a special pool)
+     * Constructor for handler instances. Lambda-based and stateless handlers are called directly,
+     * other instances go through a special single-instance pool.
      */
     public RouteEntry(HttpMethod method, String path, RequestHandler handler, 
                       HandlerType handlerType, HandlerPoolManager poolManager) {
@@ -59,9 +69,20 @@ public class RouteEntry {
         this.path = path;
         this.handlerType = handlerType;
         this.handlerClass = handler.getClass();
-        
-        // Create a special single-instance pool for lambda handlers
-        this.handlerPool = new SingleInstanceHandlerPool<>(handler);
+        this.streamsBody = isStreamingHandler(handlerClass);
+        this.enforcedNonNullBody = handler.isEnforcedNonNullBody();
+
+        if (handler instanceof SimpleHandlerWrapper wrapper) {
+            this.statelessHandler = wrapper.getSimpleHandler();
+            this.handlerPool = null;
+        } else if (handler instanceof StatelessRequestHandler stateless) {
+            this.statelessHandler = stateless;
+            this.handlerPool = null;
+        } else {
+            // Create a special single-instance pool for other handler instances
+            this.statelessHandler = null;
+            this.handlerPool = new SingleInstanceHandlerPool<>(handler);
+        }
         
         if (path.endsWith("/*")) {
             this.isDynamic = true;
@@ -74,6 +95,7 @@ public class RouteEntry {
         }
         // Populate pathSegments in the constructor
         this.pathSegments = parsePathSegments(path);
+        this.literalMatch = new RouteMatch(this, Collections.emptyMap());
     }
 
     public HttpMethod getMethod() {
@@ -84,9 +106,29 @@ public class RouteEntry {
         return path;
     }
 
+    /**
+     * @return the pool handler instances are taken from, or null for stateless routes
+     */
     public HandlerPool<? extends RequestHandler> getHandlerPool() {
         return handlerPool;
     }
+
+    /**
+     * Returns the shared handler of a stateless route, called with the request and response as
+     * arguments instead of being taken from a pool.
+     *
+     * @return the stateless handler, or null if the route pools its handlers
+     */
+    public SimpleHandler getStatelessHandler() {
+        return statelessHandler;
+    }
+
+    /**
+     * Returns whether requests must carry a non-empty body, see {@link RouteInfo#enforceNonNullBody()}.
+     */
+    public boolean isEnforcedNonNullBody() {
+        return enforcedNonNullBody;
+    }
     
     public HandlerType getHandlerType() {
         return handlerType;
@@ -96,6 +138,13 @@ public class RouteEntry {
         return handlerClass;
     }
 
+    /**
+     * Returns whether the request body is streamed to the handler, see {@link RouteInfo#streamBody()}.
+     */
+    public boolean streamsBody() {
+        return streamsBody;
+    }
+
     public boolean isParameterized() {
         return isParameterized;
     }
@@ -118,6 +167,13 @@ public class RouteEntry {
         return method.name() + ":" + path;
     }
 
+    /**
+     * Returns the match for this route without parameters, shared by every request of a literal route.
+     */
+    public RouteMatch getLiteralMatch() {
+        return literalMatch;
+    }
+
     /**
      * Attempts to match the given requestPath.
      * - For literal routes, only an exact match returns an empty map.
@@ -131,6 +187,16 @@ public class RouteEntry {
         return routePattern.extractParameters(requestPath);
     }
 
+    private static boolean isStreamingHandler(Class<? extends RequestHandler> handlerClass) {
+        RouteInfo routeInfo = handlerClass.getAnnotation(RouteInfo.class);
+        return routeInfo != null && routeInfo.streamBody();
+    }
+
+    private static boolean isEnforcingNonNullBody(Class<? extends RequestHandler> handlerClass) {
+        RouteInfo routeInfo = handlerClass.getAnnotation(RouteInfo.class);
+        return routeInfo != null && routeInfo.enforceNonNullBody();
+    }
+
     /**
      * Converts a dynamic route (ending in "/*") to a regex.
      * For example, "/myendpoint/*" becomes "^/myendpoint(/.*)?$".
@@ -142,10 +208,10 @@ public class RouteEntry {
 
     /**
      * Parses the path into segments, splitting by '/'.
-     * Removes leading/trailing slashes and empty segments.
+     * Removes leading/trailing slashes and empty segments, and the trailing "/*" of dynamic routes.
      * Returns String array.
      */
-    private String[] parsePathSegments(String routePath) {
+    public static String[] parsePathSegments(String routePath) {
         String path = routePath;
         if (path.startsWith("/")) {
             path = path.substring(1);
@@ -171,8 +237,10 @@ public class RouteEntry {
     private static class SingleInstanceHandlerPool<T extends RequestHandler> extends HandlerPool<T> {
         private final T singleHandler;
         
+        @SuppressWarnings("unchecked")
         public SingleInstanceHandlerPool(T handler) {
-            super((Class<T>)handler.getClass(), 1, 1, 1);
+            // Never creates instances, the factory only stands in for the registered one
+            super((Class<T>) handler.getClass(), () -> handler, 0, 1, 1, 1);
             this.singleHandler = handler;
         }
         
@@ -181,6 +249,11 @@ public class RouteEntry {
             singleHandler.setRequestResponse(request, response);
             return singleHandler;
         }
+
+        @Override
+        public T tryAcquire(Request request, Response response) {
+            return acquire(request, response);
+        }
         
         @Override
         public void release(T handler) {
@@ -37,5 +37,16 @@ public @interface RouteInfo {
      * @return {@code true} if a non-null body is required, otherwise {@code false}
      */
     boolean enforceNonNullBody() default false;
+
+    /**
+     * Indicates whether the request body is streamed to the handler instead of buffered.
+     * A streaming handler is invoked as soon as the request headers are parsed and reads the
+     * body from {@link com.pixelservices.flash.components.http.lifecycle.Request#bodyStream()}
+     * while it is still arriving, so uploads of any size are handled with constant memory.
+     * By default, this is set to {@code false}.
+     *
+     * @return {@code true} if the body is streamed, otherwise {@code false}
+     */
+    boolean streamBody() default false;
 }
 
@@ -0,0 +1,84 @@
+package com.pixelservices.flash.components.http.routing.models;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Route parameters of a resolved request, kept as offsets into the request path.
+ * <p>
+ * Resolving a route only records where each parameter starts and ends; a value is cut out of
+ * the path the first time it is asked for, and the entry set backing the {@link Map} views is
+ * only built when the parameters are iterated.
+ */
+public final class RouteParameters extends AbstractMap<String, String> {
+    private final String[] names;
+    private final int[] offsets;
+    private final String path;
+    private String[] values;
+    private Set<Map.Entry<String, String>> entrySet;
+
+    /**
+     * @param names   the parameter names, in path order
+     * @param offsets start and end of every parameter in the path, two entries per name
+     * @param path    the request path the offsets refer to
+     */
+    public RouteParameters(String[] names, int[] offsets, String path) {
+        this.names = names;
+        this.offsets = offsets;
+        this.path = path;
+    }
+
+    @Override
+    public String get(Object key) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(key)) {
+                return value(i);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        for (String name : names) {
+            if (name.equals(key)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return names.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return names.length == 0;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        if (entrySet == null) {
+            @SuppressWarnings("unchecked")
+            Map.Entry<String, String>[] entries = (Map.Entry<String, String>[]) new Map.Entry<?, ?>[names.length];
+            for (int i = 0; i < names.length; i++) {
+                entries[i] = Map.entry(names[i], value(i));
+            }
+            entrySet = Set.of(entries);
+        }
+        return entrySet;
+    }
+
+    private String value(int index) {
+        if (values == null) {
+            values = new String[names.length];
+        }
+        String value = values[index];
+        if (value == null) {
+            value = path.substring(offsets[index * 2], offsets[index * 2 + 1]);
+            values[index] = value;
+        }
+        return value;
+    }
+}
@@ -1,90 +1,424 @@
 package com.pixelservices.flash.components.http.routing.trie;
 
+import com.pixelservices.flash.components.http.HttpMethod;
 import com.pixelservices.flash.components.http.routing.models.RouteEntry;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.logging.Logger;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Segment trie shared by the route tries, with a separate root for every {@link HttpMethod}.
+ * <p>
+ * Lookups walk the request path in place: segments are found by index and compared against the
+ * children of a node with {@link String#regionMatches}, so resolving a route never splits or
+ * copies the path. Literal children live in a small open-addressed table keyed by the hash of
+ * the segment, which is computed while scanning for the next slash. Parameter values are recorded
+ * as start and end offsets into the path.
+ * <p>
+ * The trie is copy-on-write: a {@link #fork()} shares every node with the original, and changes
+ * copy the nodes along the changed path the first time they touch them. A batch of changes to a
+ * fork therefore copies each shared node at most once, and readers of the original never see a
+ * partially applied change. Publishing the fork is up to the caller, see
+ * {@link com.pixelservices.flash.components.http.routing.RouteRegistry}.
+ */
 public abstract class AbstractRadixRouteTrie<T> {
-    private static final Logger logger = Logger.getLogger(AbstractRadixRouteTrie.class.getName());
+    private static final HttpMethod[] METHODS = HttpMethod.values();
+    private static final ThreadLocal<int[]> OFFSETS = ThreadLocal.withInitial(() -> new int[16]);
 
     protected static class Node<T> {
+        private static final String[] NO_KEYS = new String[0];
+
+        Object owner;
         String segment;
         String paramName;
         T value;
-        Map<String, Node<T>> children = new ConcurrentHashMap<>();
+        // Names of the parameters on the path to this node, set along with value
+        String[] paramNames;
+        Node<T> paramChild;
+        // Open-addressed table of literal children, capacity is zero or a power of two
+        String[] keys = NO_KEYS;
+        int[] hashes = new int[0];
+        Node<T>[] nodes = newNodes(0);
+        int childCount;
 
         boolean isParameter() {
             return paramName != null;
         }
 
-        Node<T> shallowCopy() {
+        /**
+         * Looks up the literal child for {@code path[start, end)}, whose hash is {@code hash}.
+         */
+        Node<T> child(String path, int start, int end, int hash) {
+            if (childCount == 0) {
+                return null;
+            }
+            final int mask = keys.length - 1;
+            final int length = end - start;
+            for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+                String key = keys[i];
+                if (key == null) {
+                    return null;
+                }
+                if (hashes[i] == hash && key.length() == length && path.regionMatches(start, key, 0, length)) {
+                    return nodes[i];
+                }
+            }
+        }
+
+        Node<T> child(String key) {
+            return child(key, 0, key.length(), key.hashCode());
+        }
+
+        /**
+         * Adds or replaces a literal child. Only called on nodes that are not published yet.
+         */
+        void putChild(String key, Node<T> node) {
+            if ((childCount + 1) * 2 > keys.length) {
+                resize(Math.max(4, keys.length * 2));
+            }
+            final int hash = key.hashCode();
+            final int mask = keys.length - 1;
+            for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == null) {
+                    keys[i] = key;
+                    hashes[i] = hash;
+                    nodes[i] = node;
+                    childCount++;
+                    return;
+                }
+                if (hashes[i] == hash && keys[i].equals(key)) {
+                    nodes[i] = node;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Removes a literal child, shifting back the entries probed after it. Only called on
+         * nodes that are not published yet.
+         */
+        void removeChild(String key) {
+            if (childCount == 0) {
+                return;
+            }
+            final int hash = key.hashCode();
+            final int mask = keys.length - 1;
+            int i = spread(hash) & mask;
+            while (keys[i] != null && !(hashes[i] == hash && keys[i].equals(key))) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == null) {
+                return;
+            }
+            keys[i] = null;
+            nodes[i] = null;
+            childCount--;
+            for (int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+                int home = spread(hashes[j]) & mask;
+                // Move the entry into the gap unless its home slot lies cyclically in (i, j]
+                boolean reachable = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+                if (!reachable) {
+                    keys[i] = keys[j];
+                    hashes[i] = hashes[j];
+                    nodes[i] = nodes[j];
+                    keys[j] = null;
+                    nodes[j] = null;
+                    i = j;
+                }
+            }
+        }
+
+        private void resize(int capacity) {
+            String[] oldKeys = keys;
+            Node<T>[] oldNodes = nodes;
+            keys = new String[capacity];
+            hashes = new int[capacity];
+            nodes = newNodes(capacity);
+            childCount = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    putChild(oldKeys[i], oldNodes[i]);
+                }
+            }
+        }
+
+        List<Node<T>> children() {
+            List<Node<T>> children = new ArrayList<>(childCount + 1);
+            for (Node<T> node : nodes) {
+                if (node != null) children.add(node);
+            }
+            if (paramChild != null) children.add(paramChild);
+            return children;
+        }
+
+        Node<T> copy(Object owner) {
             Node<T> copy = new Node<>();
+            copy.owner = owner;
             copy.segment = this.segment;
             copy.paramName = this.paramName;
             copy.value = this.value;
-            copy.children = new ConcurrentHashMap<>(this.children);
+            copy.paramNames = this.paramNames;
+            copy.paramChild = this.paramChild;
+            copy.keys = this.keys.clone();
+            copy.hashes = this.hashes.clone();
+            copy.nodes = this.nodes.clone();
+            copy.childCount = this.childCount;
             return copy;
         }
-    }
 
-    protected volatile Node<T> root = new Node<>();
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
 
-    public void insert(String path, T value) {
-        //logger.warning("Using deprecated insert(String path). Prefer insert(RouteEntry, T) for performance.");
-        String[] segments = path.split("/");
-        segments = java.util.Arrays.stream(segments)
-                .filter(s -> !s.isEmpty())
-                .toArray(String[]::new);
+        @SuppressWarnings("unchecked")
+        private static <T> Node<T>[] newNodes(int capacity) {
+            return (Node<T>[]) new Node<?>[capacity];
+        }
+    }
 
-        Node<T> oldRoot = this.root;
-        this.root = insertCopyOnWrite(oldRoot, segments, value);
+    @SuppressWarnings("unchecked")
+    protected Node<T>[] roots = (Node<T>[]) new Node<?>[METHODS.length];
+    private int maxParameters;
+    // Nodes carrying this token were created by this trie since it was last forked and are
+    // edited in place, all other nodes may be shared and are copied before they change
+    private Object editToken = new Object();
+    private boolean rootsOwned = true;
+
+    /**
+     * Copies this trie for modification. Both tries share every node; whichever of them changes
+     * first copies the nodes on the changed path, so neither sees the other's changes.
+     *
+     * @param copy a new, empty trie of the same type
+     * @return the copy
+     */
+    protected final synchronized <S extends AbstractRadixRouteTrie<T>> S forkInto(S copy) {
+        AbstractRadixRouteTrie<T> target = copy;
+        target.roots = roots;
+        target.maxParameters = maxParameters;
+        target.rootsOwned = false;
+        editToken = new Object();
+        rootsOwned = false;
+        return copy;
     }
 
+    /**
+     * Returns a copy of this trie that can be modified without affecting this one.
+     */
+    public abstract AbstractRadixRouteTrie<T> fork();
+
+    /**
+     * Inserts a value under the method and path segments of the given route.
+     */
     public void insert(RouteEntry entry, T value) {
-        long startTime = System.nanoTime();
-        Node<T> oldRoot = this.root;
-        this.root = insertCopyOnWrite(oldRoot, entry.getPathSegments(), value);
-        long endTime = System.nanoTime();
-        //logger.info("Insert (RouteEntry) took " + (endTime - startTime) + " ns");
+        insert(entry.getMethod(), entry.getPathSegments(), value);
     }
 
-    private Node<T> insertCopyOnWrite(Node<T> originalRoot, String[] segments, T value) {
-        Node<T> newRoot = originalRoot.shallowCopy();
-        Node<T> currentSrc = originalRoot;
-        Node<T> currentDst = newRoot;
+    /**
+     * Inserts a value under the given method and path segments.
+     * <p>
+     * A trie has a single writer and no memory barrier of its own: tries that are read
+     * concurrently are modified through a {@link #fork()} that is then published as a whole.
+     */
+    public synchronized void insert(HttpMethod method, String[] segments, T value) {
+        insertCopyOnWrite(editableRoot(method), segments, value);
+    }
+
+    private void insertCopyOnWrite(Node<T> root, String[] segments, T value) {
+        Node<T> current = root;
+        List<String> paramNames = new ArrayList<>();
 
         for (String seg : segments) {
             boolean isParam = isParameterSegment(seg);
-            String key = isParam ? "*" : seg;
+            Node<T> child = isParam ? current.paramChild : current.child(seg);
+
+            if (child != null) {
+                child = editable(child);
+            } else {
+                child = new Node<>();
+                child.owner = editToken;
+                child.segment = seg;
+                if (isParam) child.paramName = extractParameterName(seg);
+            }
+
+            if (isParam) {
+                current.paramChild = child;
+                paramNames.add(extractParameterName(seg));
+            } else {
+                current.putChild(seg, child);
+            }
+            current = child;
+        }
 
-            Node<T> srcChild = currentSrc.children.get(key);
-            Node<T> dstChild;
+        current.value = value;
+        current.paramNames = parameterNames(paramNames.toArray(new String[0]));
+        if (current.paramNames.length > maxParameters) {
+            maxParameters = current.paramNames.length;
+        }
+    }
+
+    /**
+     * Removes the value under the method and path segments of the given route.
+     *
+     * @return true if a value was removed
+     */
+    public boolean remove(RouteEntry entry) {
+        return remove(entry.getMethod(), entry.getPathSegments());
+    }
+
+    /**
+     * Removes the value under the given method and path segments, along with the nodes that no
+     * longer lead to any value. Nodes are copied on write like {@link #insert(HttpMethod, String[], Object)} does.
+     *
+     * @return true if a value was removed
+     */
+    public synchronized boolean remove(HttpMethod method, String[] segments) {
+        // Look the value up first, so removing an unknown route copies nothing
+        Node<T> node = roots[method.ordinal()];
+        for (int i = 0; node != null && i < segments.length; i++) {
+            node = isParameterSegment(segments[i]) ? node.paramChild : node.child(segments[i]);
+        }
+        if (node == null || node.value == null) {
+            return false;
+        }
+        removeCopyOnWrite(editableRoot(method), segments);
+        return true;
+    }
 
-            if (srcChild != null) {
-                dstChild = srcChild.shallowCopy();
+    private void removeCopyOnWrite(Node<T> root, String[] segments) {
+        @SuppressWarnings("unchecked")
+        Node<T>[] path = (Node<T>[]) new Node<?>[segments.length + 1];
+        path[0] = root;
+        for (int i = 0; i < segments.length; i++) {
+            Node<T> parent = path[i];
+            boolean isParam = isParameterSegment(segments[i]);
+            Node<T> child = editable(isParam ? parent.paramChild : parent.child(segments[i]));
+            if (isParam) {
+                parent.paramChild = child;
             } else {
-                dstChild = new Node<>();
-                dstChild.segment = seg;
-                if (isParam) dstChild.paramName = extractParameterName(seg);
+                parent.putChild(segments[i], child);
             }
+            path[i + 1] = child;
+        }
+
+        Node<T> target = path[segments.length];
+        target.value = null;
+        target.paramNames = null;
+
+        // Prune the nodes that became dead ends, bottom up
+        for (int i = segments.length; i > 0; i--) {
+            Node<T> child = path[i];
+            if (child.value != null || child.childCount > 0 || child.paramChild != null) {
+                break;
+            }
+            if (isParameterSegment(segments[i - 1])) {
+                path[i - 1].paramChild = null;
+            } else {
+                path[i - 1].removeChild(segments[i - 1]);
+            }
+        }
+    }
+
+    private Node<T> editableRoot(HttpMethod method) {
+        if (!rootsOwned) {
+            roots = roots.clone();
+            rootsOwned = true;
+        }
+        Node<T> root = roots[method.ordinal()];
+        if (root == null) {
+            root = new Node<>();
+            root.owner = editToken;
+        } else {
+            root = editable(root);
+        }
+        roots[method.ordinal()] = root;
+        return root;
+    }
+
+    private Node<T> editable(Node<T> node) {
+        return node.owner == editToken ? node : node.copy(editToken);
+    }
+
+    /**
+     * Returns the parameter names stored for a value, given the names of the parameter segments
+     * on its path. Subclasses may append names for parameters they fill in themselves.
+     */
+    protected String[] parameterNames(String[] segmentNames) {
+        return segmentNames;
+    }
+
+    /**
+     * Resolves the node holding the value for a request path.
+     * <p>
+     * Literal children are preferred over parameters, a parameter is only tried when the literal
+     * branch does not lead to a value. The offsets of the parameters on the path to the returned
+     * node are written to {@code offsets}, two entries for each of {@link Node#paramNames}.
+     *
+     * @param method  the request method
+     * @param path    the request path, without query string
+     * @param offsets receives the parameter offsets, see {@link #offsets()}
+     * @param prefix  whether a value also matches every path below its node, the deepest such value wins
+     * @return the matched node, or null if no value matches
+     */
+    protected final Node<T> find(HttpMethod method, String path, int[] offsets, boolean prefix) {
+        Node<T> root = roots[method.ordinal()];
+        return root == null ? null : match(root, path, 0, offsets, 0, prefix);
+    }
 
-            currentDst.children.put(key, dstChild);
-            currentSrc = srcChild != null ? srcChild : new Node<>();
-            currentDst = dstChild;
+    private Node<T> match(Node<T> node, String path, int pos, int[] offsets, int depth, boolean prefix) {
+        final int length = path.length();
+        int start = pos;
+        while (start < length && path.charAt(start) == '/') {
+            start++;
+        }
+        if (start == length) {
+            return node.value != null ? node : null;
+        }
+        int end = start;
+        int hash = 0;
+        char c;
+        while (end < length && (c = path.charAt(end)) != '/') {
+            hash = 31 * hash + c;
+            end++;
         }
 
-        currentDst.value = value;
-        return newRoot;
+        Node<T> found = null;
+        Node<T> child = node.child(path, start, end, hash);
+        if (child != null) {
+            found = match(child, path, end, offsets, depth, prefix);
+        }
+        if (found == null && node.paramChild != null && depth * 2 + 1 < offsets.length) {
+            offsets[depth * 2] = start;
+            offsets[depth * 2 + 1] = end;
+            found = match(node.paramChild, path, end, offsets, depth + 1, prefix);
+        }
+        if (found == null && prefix && node.value != null) {
+            found = node;
+        }
+        return found;
+    }
+
+    /**
+     * Returns the calling thread's scratch array for parameter offsets, large enough for every
+     * route in the trie. The contents are only valid until the next lookup on the same thread.
+     */
+    protected final int[] offsets() {
+        int[] offsets = OFFSETS.get();
+        int required = maxParameters * 2;
+        if (offsets.length < required) {
+            offsets = new int[Math.max(required, offsets.length * 2)];
+            OFFSETS.set(offsets);
+        }
+        return offsets;
     }
 
     /**
      * Search for a route match using a raw path string.
      * @param path The path to search for
      * @return The matched value, or null if no match is found
-     * @deprecated Use {@link #searchWithParams(String[])} for better performance
+     * @deprecated Use the method aware lookups of the subclasses
      */
     @Deprecated
     public T search(String path) {
@@ -93,6 +427,7 @@ public abstract class AbstractRadixRouteTrie<T> {
     }
 
     // LEGACY fallback
+    @Deprecated
     public MatchResult<T> searchWithParams(String path) {
         String[] segments = path.split("/");
         segments = java.util.Arrays.stream(segments)
@@ -101,33 +436,23 @@ public abstract class AbstractRadixRouteTrie<T> {
         return searchWithParams(segments);
     }
 
-    // lookup with precomputed segments
+    // LEGACY lookup with precomputed segments, tries the methods in declaration order
+    @Deprecated
     public MatchResult<T> searchWithParams(String[] segments) {
-        long startTime = System.nanoTime();
-        Map<String, String> params = new HashMap<>();
-        Node<T> current = root;
-
-        for (String seg : segments) {
-            Node<T> next = current.children.get(seg);
-            if (next != null) {
-                current = next;
-                continue;
-            }
-
-            next = current.children.get("*");
-            if (next != null && next.paramName != null) {
-                params.put(next.paramName, seg);
-                current = next;
-            } else {
-                logger.info("Search with params failed. Time: " + (System.nanoTime() - startTime) + " ns");
-                return null;
+        String path = "/" + String.join("/", segments);
+        int[] offsets = new int[Math.max(2, maxParameters * 2)];
+        for (HttpMethod method : METHODS) {
+            Node<T> node = find(method, path, offsets, false);
+            if (node != null) {
+                Map<String, String> params = new HashMap<>();
+                // Names filled in by a subclass have no offsets here, their end stays zero
+                for (int i = 0; i < node.paramNames.length && offsets[i * 2 + 1] != 0; i++) {
+                    params.put(node.paramNames[i], path.substring(offsets[i * 2], offsets[i * 2 + 1]));
+                }
+                return new MatchResult<>(node.value, params);
             }
         }
-
-        logger.info("Search with params success. Time: " + (System.nanoTime() - startTime) + " ns");
-        return current.value != null
-                ? new MatchResult<>(current.value, params)
-                : null;
+        return null;
     }
 
     public static class MatchResult<T> {
@@ -141,12 +466,12 @@ public abstract class AbstractRadixRouteTrie<T> {
     }
 
     public int size() {
-        return countNodes(root);
+        return Arrays.stream(roots).mapToInt(root -> root == null ? 0 : countNodes(root)).sum();
     }
 
     private int countNodes(Node<T> node) {
         int count = 1;
-        for (Node<T> child : node.children.values()) {
+        for (Node<T> child : node.children()) {
             count += countNodes(child);
         }
         return count;
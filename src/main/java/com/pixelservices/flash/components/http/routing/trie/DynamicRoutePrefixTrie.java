@@ -2,11 +2,23 @@ package com.pixelservices.flash.components.http.routing.trie;
 
 import com.pixelservices.flash.components.http.routing.models.RouteEntry;
 import com.pixelservices.flash.components.http.routing.models.RouteMatch;
+import com.pixelservices.flash.components.http.routing.models.RouteParameters;
 import com.pixelservices.flash.components.http.HttpMethod;
 
-import java.util.*;
+import java.util.Arrays;
 
+/**
+ * Trie of routes ending in "/*". A route matches its prefix and every path below it, the
+ * longest matching prefix wins. Besides the parameters of the prefix, the match carries the
+ * full request path as the "path" parameter.
+ */
 public class DynamicRoutePrefixTrie extends AbstractRadixRouteTrie<RouteEntry> {
+    private static final String PATH_PARAMETER = "path";
+
+    @Override
+    public DynamicRoutePrefixTrie fork() {
+        return forkInto(new DynamicRoutePrefixTrie());
+    }
 
     @Override
     protected RouteEntry matchResult(RouteEntry candidate, String fullPath) {
@@ -23,30 +35,23 @@ public class DynamicRoutePrefixTrie extends AbstractRadixRouteTrie<RouteEntry> {
         return segment.substring(1);
     }
 
-    public RouteMatch search(HttpMethod method, String path) {
-        RouteMatch match = searchInternal(method, path);
-        if (match != null) {
-            return match;
-        }
-        return searchWithWildcard(method, path);
-    }
-
-    private RouteMatch searchInternal(HttpMethod method, String path) {
-        MatchResult<RouteEntry> result = super.searchWithParams(path);
-        if (result != null && result.value != null && result.value.getMethod() == method) {
-            return new RouteMatch(result.value, result.params);
-        }
-        return null;
+    @Override
+    protected String[] parameterNames(String[] segmentNames) {
+        String[] names = new String[segmentNames.length + 1];
+        System.arraycopy(segmentNames, 0, names, 0, segmentNames.length);
+        names[segmentNames.length] = PATH_PARAMETER;
+        return names;
     }
 
-    private RouteMatch searchWithWildcard(HttpMethod method, String path) {
-        MatchResult<RouteEntry> result = super.searchWithParams("/*");
-        if (result != null && result.value != null && result.value.getMethod() == method) {
-            Map<String, String> params = new HashMap<>();
-            params.put("path", path);
-            return new RouteMatch(result.value, params);
-        }
-        return null;
+    public RouteMatch search(HttpMethod method, String path) {
+        int[] offsets = offsets();
+        Node<RouteEntry> node = find(method, path, offsets, true);
+        if (node == null) return null;
+        int count = node.paramNames.length;
+        int[] matched = Arrays.copyOf(offsets, count * 2);
+        matched[count * 2 - 2] = 0;
+        matched[count * 2 - 1] = path.length();
+        return new RouteMatch(node.value, new RouteParameters(node.paramNames, matched, path));
     }
 
     public int size() {
@@ -1,10 +1,29 @@
 package com.pixelservices.flash.components.http.routing.trie;
 
+import com.pixelservices.flash.components.http.HttpMethod;
 import com.pixelservices.flash.components.http.routing.models.RouteEntry;
-import com.pixelservices.logger.Logger;
 
 public class LiteralRouteTrie extends AbstractRadixRouteTrie<RouteEntry> {
-    Logger logger = Logger.getLogger(LiteralRouteTrie.class);
+    public void insert(RouteEntry routeEntry) {
+        super.insert(routeEntry, routeEntry);
+    }
+
+    /**
+     * Looks up the literal route for a request without allocating.
+     *
+     * @param method the request method
+     * @param path   the request path, without query string
+     * @return the route, or null if there is none
+     */
+    public RouteEntry search(HttpMethod method, String path) {
+        Node<RouteEntry> node = find(method, path, offsets(), false);
+        return node != null ? node.value : null;
+    }
+
+    @Override
+    public LiteralRouteTrie fork() {
+        return forkInto(new LiteralRouteTrie());
+    }
 
     @Override
     protected RouteEntry matchResult(RouteEntry candidate, String fullPath) {
@@ -21,26 +40,14 @@ public class LiteralRouteTrie extends AbstractRadixRouteTrie<RouteEntry> {
         return null;
     }
 
+    /**
+     * @deprecated Use {@link #search(HttpMethod, String)}
+     */
+    @Deprecated
     @Override
-    public RouteEntry search(String path) {
-        long startTime = System.nanoTime();
-        Node<RouteEntry> current = root;
-        String[] segments = path.split("/");
-
-        for (String segment : segments) {
-            Node<RouteEntry> next = current.children.get(segment);
-            if (next == null) {
-                long endTime = System.nanoTime();
-                logger.info("Literal search operation took " + (endTime - startTime) + " ns");
-                return null;
-            }
-            current = next;
-        }
-
-        long endTime = System.nanoTime();
-        logger.info("Literal search operation took " + (endTime - startTime) + " ns");
-        return current.value;
+    public RouteEntry search(String literalKey) {
+        int colon = literalKey.indexOf(':');
+        return search(HttpMethod.valueOf(literalKey.substring(0, colon)), literalKey.substring(colon + 1));
     }
 }
 
-
@@ -3,22 +3,27 @@ package com.pixelservices.flash.components.http.routing.trie;
 import com.pixelservices.flash.components.http.HttpMethod;
 import com.pixelservices.flash.components.http.routing.models.RouteEntry;
 import com.pixelservices.flash.components.http.routing.models.RouteMatch;
+import com.pixelservices.flash.components.http.routing.models.RouteParameters;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.regex.MatchResult;
+import java.util.Arrays;
 
 public class ParameterizedRouteTrie extends AbstractRadixRouteTrie<RouteEntry> {
 
     public void insert(RouteEntry routeEntry) {
-        super.insert(routeEntry.getPath(), routeEntry);
+        super.insert(routeEntry, routeEntry);
     }
 
     public RouteMatch search(HttpMethod method, String path) {
-        MatchResult<RouteEntry> result = super.searchWithParams(path);
-        if (result == null || result.value == null) return null;
-        if (result.value.getMethod() != method) return null;
-        return new RouteMatch(result.value, result.params != null ? result.params : Map.of());
+        int[] offsets = offsets();
+        Node<RouteEntry> node = find(method, path, offsets, false);
+        if (node == null) return null;
+        String[] names = node.paramNames;
+        return new RouteMatch(node.value, new RouteParameters(names, Arrays.copyOf(offsets, names.length * 2), path));
+    }
+
+    @Override
+    public ParameterizedRouteTrie fork() {
+        return forkInto(new ParameterizedRouteTrie());
     }
 
     @Override
@@ -0,0 +1,201 @@
+package com.pixelservices.flash.components.websocket;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.Deflater;
+
+/**
+ * The permessage-deflate extension (RFC 7692) of a WebSocket endpoint, enabled by passing it to
+ * {@link com.pixelservices.flash.components.FlashServer#ws(String, WebSocketHandler, PerMessageDeflate)}.
+ * Clients that offer the extension get their messages compressed, others are served as before.
+ * <p>
+ * With context takeover, the server keeps one compressor per session and messages refer back to
+ * earlier ones, which compresses small, similar messages best. Without it, every message is
+ * compressed on its own with a compressor borrowed from a pool, which keeps the memory per
+ * session low and lets broadcasts compress a message once for all sessions.
+ */
+public final class PerMessageDeflate {
+    /**
+     * The default size below which messages are sent uncompressed.
+     */
+    public static final int DEFAULT_MIN_MESSAGE_SIZE = 64;
+
+    // Idle compressors kept for reuse, the pool never grows beyond this
+    private static final int MAX_POOLED = 256;
+    // The tail every message compressed with a sync flush ends with, it is not sent (RFC 7692 7.2.1)
+    static final byte[] TAIL = {0x00, 0x00, (byte) 0xFF, (byte) 0xFF};
+
+    private boolean serverContextTakeover = true;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int minMessageSize = DEFAULT_MIN_MESSAGE_SIZE;
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Sets whether the server keeps its compression context between the messages of a session.
+     * Enabled by default, the server still drops it if the client asks for that.
+     *
+     * @param enabled whether to use server context takeover
+     * @return the updated PerMessageDeflate object
+     */
+    public PerMessageDeflate setServerContextTakeover(boolean enabled) {
+        this.serverContextTakeover = enabled;
+        return this;
+    }
+
+    /**
+     * Sets the deflate compression level.
+     *
+     * @param level the level from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+     * @return the updated PerMessageDeflate object
+     */
+    public PerMessageDeflate setCompressionLevel(int level) {
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        this.compressionLevel = level;
+        return this;
+    }
+
+    /**
+     * Sets the size below which messages are sent uncompressed, as compressing them does not pay off.
+     *
+     * @param bytes the minimum message size in bytes
+     * @return the updated PerMessageDeflate object
+     */
+    public PerMessageDeflate setMinMessageSize(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Min message size must not be negative");
+        }
+        this.minMessageSize = bytes;
+        return this;
+    }
+
+    public boolean isServerContextTakeover() {
+        return serverContextTakeover;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public int getMinMessageSize() {
+        return minMessageSize;
+    }
+
+    /**
+     * Picks the first permessage-deflate offer of the client the server can accept.
+     *
+     * @param extensions             the Sec-WebSocket-Extensions header of the handshake, may be null
+     * @param allowContextTakeover   false if sent messages may be dropped, which a shared context would not survive
+     * @return the codec of the session, or null if the extension is not used
+     */
+    PerMessageDeflateCodec negotiate(String extensions, boolean allowContextTakeover) {
+        if (extensions == null) {
+            return null;
+        }
+        for (String offer : extensions.split(",")) {
+            String[] params = offer.split(";");
+            if (!params[0].trim().equalsIgnoreCase("permessage-deflate")) {
+                continue;
+            }
+            boolean serverNoContextTakeover = !serverContextTakeover || !allowContextTakeover;
+            boolean clientNoContextTakeover = false;
+            boolean serverMaxWindowBits = false;
+            boolean acceptable = true;
+            Set<String> seen = new HashSet<>();
+            for (int i = 1; i < params.length && acceptable; i++) {
+                String[] param = params[i].split("=", 2);
+                String name = param[0].trim().toLowerCase(Locale.ROOT);
+                String value = param.length > 1 ? param[1].trim().replace("\"", "") : null;
+                if (!seen.add(name)) {
+                    acceptable = false;
+                    continue;
+                }
+                switch (name) {
+                    case "server_no_context_takeover" -> {
+                        acceptable = value == null;
+                        serverNoContextTakeover = true;
+                    }
+                    case "client_no_context_takeover" -> {
+                        acceptable = value == null;
+                        clientNoContextTakeover = true;
+                    }
+                    // The JDK compresses with a 15 bit window only, a smaller one cannot be promised
+                    case "server_max_window_bits" -> {
+                        acceptable = parseWindowBits(value) == 15;
+                        serverMaxWindowBits = true;
+                    }
+                    // Decompression copes with every window size, the client may use any
+                    case "client_max_window_bits" -> acceptable = value == null || parseWindowBits(value) > 0;
+                    default -> acceptable = false;
+                }
+            }
+            if (acceptable) {
+                return new PerMessageDeflateCodec(this, serverNoContextTakeover, clientNoContextTakeover, serverMaxWindowBits);
+            }
+        }
+        return null;
+    }
+
+    private static int parseWindowBits(String value) {
+        try {
+            int bits = Integer.parseInt(value);
+            return bits >= 8 && bits <= 15 ? bits : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Compresses a message on its own, with a compressor from the pool.
+     *
+     * @param payload the message
+     * @return the compressed message without the sync flush tail
+     */
+    byte[] compress(byte[] payload) {
+        Deflater deflater = acquireDeflater();
+        try {
+            return compress(deflater, payload);
+        } finally {
+            releaseDeflater(deflater);
+        }
+    }
+
+    /**
+     * Compresses a message, the compressor keeps its context for the next message.
+     */
+    static byte[] compress(Deflater deflater, byte[] payload) {
+        deflater.setInput(payload);
+        byte[] out = new byte[Math.max(64, payload.length / 2 + 16)];
+        int length = 0;
+        while (true) {
+            length += deflater.deflate(out, length, out.length - length, Deflater.SYNC_FLUSH);
+            // A sync flush is complete once it did not fill the space it was given
+            if (length < out.length) {
+                break;
+            }
+            out = Arrays.copyOf(out, out.length * 2);
+        }
+        if (length >= TAIL.length && Arrays.equals(out, length - TAIL.length, length, TAIL, 0, TAIL.length)) {
+            length -= TAIL.length;
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    Deflater acquireDeflater() {
+        Deflater deflater = deflaters.poll();
+        return deflater != null ? deflater : new Deflater(compressionLevel, true);
+    }
+
+    void releaseDeflater(Deflater deflater) {
+        deflater.reset();
+        if (deflaters.size() < MAX_POOLED) {
+            deflaters.offer(deflater);
+        } else {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.pixelservices.flash.components.websocket;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The permessage-deflate state of one session, as negotiated in its handshake. A session that
+ * keeps a compression context holds its own compressor or decompressor, taken from the pool when
+ * first needed and returned when the session ends. Otherwise one is borrowed per message.
+ */
+final class PerMessageDeflateCodec {
+    // Idle decompressors kept for reuse, shared by all endpoints
+    private static final int MAX_POOLED = 256;
+    private static final ConcurrentLinkedQueue<Inflater> INFLATERS = new ConcurrentLinkedQueue<>();
+
+    private final PerMessageDeflate options;
+    private final boolean serverNoContextTakeover;
+    private final boolean clientNoContextTakeover;
+    // Whether the client limited the window of the server, the limit is then echoed (RFC 7692 7.1.2.1)
+    private final boolean serverMaxWindowBits;
+    // Only set while the session keeps a context, guarded by this
+    private Deflater deflater;
+    private boolean released;
+    // Only used by the reading thread of the session
+    private Inflater inflater;
+
+    PerMessageDeflateCodec(PerMessageDeflate options, boolean serverNoContextTakeover, boolean clientNoContextTakeover,
+                           boolean serverMaxWindowBits) {
+        this.options = options;
+        this.serverNoContextTakeover = serverNoContextTakeover;
+        this.clientNoContextTakeover = clientNoContextTakeover;
+        this.serverMaxWindowBits = serverMaxWindowBits;
+    }
+
+    PerMessageDeflate getOptions() {
+        return options;
+    }
+
+    /**
+     * @return the value of the Sec-WebSocket-Extensions header accepting the offer
+     */
+    String responseHeader() {
+        return "permessage-deflate"
+                + (serverNoContextTakeover ? "; server_no_context_takeover" : "")
+                + (clientNoContextTakeover ? "; client_no_context_takeover" : "")
+                + (serverMaxWindowBits ? "; server_max_window_bits=15" : "");
+    }
+
+    /**
+     * @return true if messages compressed on their own may be sent to this session, which is
+     * only the case if the session does not keep a compression context
+     */
+    boolean acceptsSharedMessages() {
+        return serverNoContextTakeover;
+    }
+
+    /**
+     * Compresses a message with the compression context of the session. The client decompresses
+     * messages in the order they were compressed, so this is only called by the send queue of the
+     * session as it queues the message.
+     *
+     * @param payload the message
+     * @return the compressed message, null once the session ended
+     */
+    byte[] compressWithContext(byte[] payload) {
+        synchronized (this) {
+            if (released) {
+                return null;
+            }
+            if (deflater == null) {
+                deflater = options.acquireDeflater();
+            }
+            return PerMessageDeflate.compress(deflater, payload);
+        }
+    }
+
+    /**
+     * Decompresses a received message.
+     *
+     * @param payload        the compressed message
+     * @param maxMessageSize the limit of the decompressed message
+     * @return the decompressed message
+     * @throws WebSocketFrameDecoder.ProtocolException if the message is corrupt or too big
+     */
+    byte[] decompress(byte[] payload, int maxMessageSize) throws WebSocketFrameDecoder.ProtocolException {
+        Inflater current = inflater != null ? inflater : acquireInflater();
+        try {
+            byte[] input = Arrays.copyOf(payload, payload.length + PerMessageDeflate.TAIL.length);
+            System.arraycopy(PerMessageDeflate.TAIL, 0, input, payload.length, PerMessageDeflate.TAIL.length);
+            current.setInput(input);
+            byte[] out = new byte[Math.min(Math.max(64, payload.length * 4), maxMessageSize)];
+            int length = 0;
+            while (true) {
+                if (length == out.length) {
+                    if (length == maxMessageSize) {
+                        // Only a message of exactly the limit has nothing left to inflate
+                        if (current.inflate(new byte[1]) > 0) {
+                            throw new WebSocketFrameDecoder.ProtocolException(1009, "Message too big");
+                        }
+                        break;
+                    }
+                    out = Arrays.copyOf(out, (int) Math.min((long) out.length * 2, maxMessageSize));
+                }
+                int inflated = current.inflate(out, length, out.length - length);
+                length += inflated;
+                if (inflated == 0) {
+                    if (current.needsInput() || current.finished()) {
+                        break;
+                    }
+                    throw new WebSocketFrameDecoder.ProtocolException(1007, "Invalid compressed message");
+                }
+            }
+            return length == out.length ? out : Arrays.copyOf(out, length);
+        } catch (DataFormatException e) {
+            throw new WebSocketFrameDecoder.ProtocolException(1007, "Invalid compressed message");
+        } finally {
+            if (clientNoContextTakeover) {
+                releaseInflater(current);
+            } else {
+                inflater = current;
+            }
+        }
+    }
+
+    /**
+     * Returns the compressor and decompressor of the session to their pools.
+     */
+    void release() {
+        synchronized (this) {
+            released = true;
+            if (deflater != null) {
+                options.releaseDeflater(deflater);
+                deflater = null;
+            }
+        }
+        if (inflater != null) {
+            releaseInflater(inflater);
+            inflater = null;
+        }
+    }
+
+    private static Inflater acquireInflater() {
+        Inflater pooled = INFLATERS.poll();
+        return pooled != null ? pooled : new Inflater(true);
+    }
+
+    private static void releaseInflater(Inflater released) {
+        released.reset();
+        if (INFLATERS.size() < MAX_POOLED) {
+            INFLATERS.offer(released);
+        } else {
+            released.end();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.pixelservices.flash.components.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends the same message to many WebSocket sessions, either to every open session or to the
+ * subscribers of a topic. A message is encoded and framed once into a read-only direct buffer,
+ * every session queues its own {@link ByteBuffer#duplicate() duplicate} of it, so fanning out
+ * costs neither encoding nor copying per session. Sessions using permessage-deflate without a
+ * compression context share a message compressed once as well, sessions with a context have it
+ * compressed for them alone.
+ * <p>
+ * Fanning out never waits for a slow client, or every session after it would wait as well. A
+ * session whose send queue is full is treated according to its overflow policy, except that
+ * {@link WebSocketOverflowPolicy#BLOCK} closes it with 1008 Policy Violation right away.
+ */
+public final class WebSocketBroadcaster {
+    private final Map<String, WebSocketSession> activeSessions;
+    private final Map<String, Set<WebSocketSession>> topics = new ConcurrentHashMap<>();
+
+    /**
+     * @param activeSessions the open sessions of the server, by id
+     */
+    public WebSocketBroadcaster(Map<String, WebSocketSession> activeSessions) {
+        this.activeSessions = activeSessions;
+    }
+
+    /**
+     * Sends a text message to every open session.
+     *
+     * @param message the message
+     * @return the number of sessions the message was queued for
+     */
+    public int broadcast(String message) {
+        return send(activeSessions.values(), 0x1, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sends a binary message to every open session.
+     *
+     * @param data the message
+     * @return the number of sessions the message was queued for
+     */
+    public int broadcast(byte[] data) {
+        return send(activeSessions.values(), 0x2, data);
+    }
+
+    /**
+     * Sends a text message to the subscribers of a topic.
+     *
+     * @param topic   the topic
+     * @param message the message
+     * @return the number of sessions the message was queued for
+     */
+    public int publish(String topic, String message) {
+        Set<WebSocketSession> subscribers = topics.get(topic);
+        if (subscribers == null || subscribers.isEmpty()) {
+            return 0;
+        }
+        return send(subscribers, 0x1, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sends a binary message to the subscribers of a topic.
+     *
+     * @param topic the topic
+     * @param data  the message
+     * @return the number of sessions the message was queued for
+     */
+    public int publish(String topic, byte[] data) {
+        Set<WebSocketSession> subscribers = topics.get(topic);
+        if (subscribers == null || subscribers.isEmpty()) {
+            return 0;
+        }
+        return send(subscribers, 0x2, data);
+    }
+
+    /**
+     * Subscribes a session to a topic. Sessions are unsubscribed from all topics when they close.
+     *
+     * @param topic   the topic
+     * @param session the session
+     */
+    public void subscribe(String topic, WebSocketSession session) {
+        if (!session.getChannel().isOpen()) {
+            return;
+        }
+        session.getTopics().add(topic);
+        topics.computeIfAbsent(topic, t -> ConcurrentHashMap.newKeySet()).add(session);
+    }
+
+    /**
+     * Unsubscribes a session from a topic.
+     *
+     * @param topic   the topic
+     * @param session the session
+     */
+    public void unsubscribe(String topic, WebSocketSession session) {
+        session.getTopics().remove(topic);
+        topics.computeIfPresent(topic, (t, subscribers) -> {
+            subscribers.remove(session);
+            // Topics nobody listens to are not kept around
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+
+    /**
+     * Unsubscribes a session from every topic it subscribed to.
+     *
+     * @param session the session
+     */
+    public void unsubscribeAll(WebSocketSession session) {
+        for (String topic : session.getTopics()) {
+            unsubscribe(topic, session);
+        }
+    }
+
+    /**
+     * @param topic the topic
+     * @return the number of sessions subscribed to the topic
+     */
+    public int getSubscriberCount(String topic) {
+        Set<WebSocketSession> subscribers = topics.get(topic);
+        return subscribers == null ? 0 : subscribers.size();
+    }
+
+    private static int send(Collection<WebSocketSession> sessions, int opcode, byte[] payload) {
+        ByteBuffer plain = null;
+        Map<PerMessageDeflate, ByteBuffer> compressed = null;
+        int queued = 0;
+        for (WebSocketSession session : sessions) {
+            PerMessageDeflateCodec deflate = session.getDeflate();
+            boolean sent;
+            if (deflate == null || payload.length < deflate.getOptions().getMinMessageSize()) {
+                if (plain == null) {
+                    plain = shareFrame(0x80 | opcode, payload);
+                }
+                sent = session.sendFrame(plain.duplicate());
+            } else if (deflate.acceptsSharedMessages()) {
+                // Compressed once per endpoint configuration, for every session without a context
+                if (compressed == null) {
+                    compressed = new HashMap<>();
+                }
+                ByteBuffer frame = compressed.computeIfAbsent(deflate.getOptions(),
+                        options -> shareFrame(0xC0 | opcode, options.compress(payload)));
+                sent = session.sendFrame(frame.duplicate());
+            } else {
+                // A compression context is the session's own, the message is compressed for it alone
+                sent = session.sendData(opcode, payload, false);
+            }
+            if (sent) {
+                queued++;
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Frames a message once into a buffer all sessions write from.
+     */
+    private static ByteBuffer shareFrame(int firstByte, byte[] payload) {
+        ByteBuffer frame = WebSocketSession.encodeFrame(firstByte, payload);
+        ByteBuffer shared = ByteBuffer.allocateDirect(frame.remaining());
+        shared.put(frame).flip();
+        return shared.asReadOnlyBuffer();
+    }
+}
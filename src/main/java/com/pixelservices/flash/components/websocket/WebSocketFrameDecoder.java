@@ -0,0 +1,335 @@
+package com.pixelservices.flash.components.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Decodes the frames a client sends over one WebSocket connection. The decoder keeps its state
+ * between reads, so a read may end anywhere in a frame and may hold any number of frames.
+ * Payloads are unmasked as they arrive and never need to fit into the read buffer, fragmented
+ * messages are reassembled up to the maximum message size. Control frames may arrive between
+ * the fragments of a message. Sessions that negotiated permessage-deflate get compressed messages
+ * decompressed once they are complete.
+ */
+public final class WebSocketFrameDecoder {
+    /**
+     * The default limit of a reassembled message in bytes.
+     */
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 1024 * 1024;
+
+    private static final int OPCODE_CONTINUATION = 0x0;
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+    private static final int MAX_CONTROL_PAYLOAD = 125;
+    private static final int MAX_HEADER_LENGTH = 14;
+
+    /**
+     * Receives the decoded messages and control frames.
+     */
+    public interface Listener {
+        void onText(String message);
+
+        void onBinary(byte[] message);
+
+        void onPing(byte[] payload);
+
+        void onPong(byte[] payload);
+
+        void onClose(int statusCode, String reason);
+    }
+
+    /**
+     * A violation of the protocol, the connection must be closed with the given status code.
+     */
+    public static final class ProtocolException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int statusCode;
+
+        ProtocolException(int statusCode, String message) {
+            super(message);
+            this.statusCode = statusCode;
+        }
+
+        /**
+         * @return the close status code to send to the client
+         */
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+
+    private final int maxMessageSize;
+    private final PerMessageDeflateCodec deflate;
+    private final Listener listener;
+
+    // The header of the current frame, collected until it is complete
+    private final byte[] header = new byte[MAX_HEADER_LENGTH];
+    private int headerLength;
+    private boolean inPayload;
+
+    // The current frame
+    private int opcode;
+    private boolean fin;
+    private final byte[] mask = new byte[4];
+    private long payloadRemaining;
+    private int payloadOffset;
+
+    // The payload of the current control frame
+    private final byte[] control = new byte[MAX_CONTROL_PAYLOAD];
+    private int controlLength;
+
+    // The message being reassembled, its opcode is 0 while there is none
+    private int messageOpcode;
+    private boolean messageCompressed;
+    private byte[] message;
+    private int messageLength;
+
+    private boolean closed;
+
+    /**
+     * Creates a decoder for one connection.
+     *
+     * @param maxMessageSize the limit of a reassembled message in bytes
+     * @param listener       the listener receiving the messages
+     */
+    public WebSocketFrameDecoder(int maxMessageSize, Listener listener) {
+        this(maxMessageSize, null, listener);
+    }
+
+    /**
+     * @param deflate the permessage-deflate state of the session, null if it was not negotiated
+     */
+    WebSocketFrameDecoder(int maxMessageSize, PerMessageDeflateCodec deflate, Listener listener) {
+        if (maxMessageSize < 1) {
+            throw new IllegalArgumentException("Max message size must be positive");
+        }
+        this.maxMessageSize = maxMessageSize;
+        this.deflate = deflate;
+        this.listener = listener;
+    }
+
+    /**
+     * Decodes all bytes of a read. Bytes of an incomplete frame are kept until the next read.
+     * Once a close frame was decoded, the remaining bytes are ignored.
+     *
+     * @param in the bytes read from the connection
+     * @throws ProtocolException if the client violated the protocol
+     */
+    public void decode(ByteBuffer in) throws ProtocolException {
+        while (in.hasRemaining() && !closed) {
+            if (inPayload) {
+                readPayload(in);
+            } else if (readHeader(in) && payloadRemaining == 0) {
+                completeFrame();
+            }
+        }
+    }
+
+    /**
+     * @return true once the client sent a close frame
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Collects header bytes until the header of the frame is complete.
+     *
+     * @return true if the header is complete
+     */
+    private boolean readHeader(ByteBuffer in) throws ProtocolException {
+        while (headerLength < 2 && in.hasRemaining()) {
+            header[headerLength++] = in.get();
+        }
+        if (headerLength < 2) {
+            return false;
+        }
+        int lengthField = header[1] & 0x7F;
+        int extendedLength = lengthField == 126 ? 2 : lengthField == 127 ? 8 : 0;
+        int masked = (header[1] & 0x80) != 0 ? 4 : 0;
+        int required = 2 + extendedLength + masked;
+        int available = Math.min(required - headerLength, in.remaining());
+        in.get(header, headerLength, available);
+        headerLength += available;
+        if (headerLength < required) {
+            return false;
+        }
+
+        if (masked == 0) {
+            throw new ProtocolException(1002, "Client frames must be masked");
+        }
+        fin = (header[0] & 0x80) != 0;
+        opcode = header[0] & 0x0F;
+        int rsv = header[0] & 0x70;
+        // RSV1 marks a compressed message, only allowed on the first frame of a data message
+        boolean compressed = rsv == 0x40 && deflate != null && (opcode == OPCODE_TEXT || opcode == OPCODE_BINARY);
+        if (rsv != 0 && !compressed) {
+            throw new ProtocolException(1002, "RSV1, RSV2 and RSV3 must be clear");
+        }
+        long length = lengthField;
+        if (extendedLength == 2) {
+            length = ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+        } else if (extendedLength == 8) {
+            length = ByteBuffer.wrap(header, 2, 8).getLong();
+            if (length < 0) {
+                throw new ProtocolException(1002, "Invalid payload length");
+            }
+        }
+        System.arraycopy(header, 2 + extendedLength, mask, 0, 4);
+        headerLength = 0;
+        startFrame(length);
+        payloadRemaining = length;
+        payloadOffset = 0;
+        inPayload = true;
+        return true;
+    }
+
+    /**
+     * Checks the frame against the state of the connection and makes room for its payload.
+     */
+    private void startFrame(long length) throws ProtocolException {
+        switch (opcode) {
+            case OPCODE_CLOSE, OPCODE_PING, OPCODE_PONG -> {
+                if (!fin) {
+                    throw new ProtocolException(1002, "Control frames must not be fragmented");
+                }
+                if (length > MAX_CONTROL_PAYLOAD) {
+                    throw new ProtocolException(1002, "Control frame too large");
+                }
+                controlLength = 0;
+            }
+            case OPCODE_TEXT, OPCODE_BINARY -> {
+                if (messageOpcode != 0) {
+                    throw new ProtocolException(1002, "Expected a continuation frame");
+                }
+                messageOpcode = opcode;
+                messageCompressed = (header[0] & 0x40) != 0;
+                messageLength = 0;
+                reserve(length);
+            }
+            case OPCODE_CONTINUATION -> {
+                if (messageOpcode == 0) {
+                    throw new ProtocolException(1002, "Continuation frame without a message");
+                }
+                reserve(length);
+            }
+            default -> throw new ProtocolException(1003, "Unsupported opcode: " + opcode);
+        }
+    }
+
+    /**
+     * Grows the message buffer for another frame of the message, within the size limit.
+     */
+    private void reserve(long length) throws ProtocolException {
+        long required = messageLength + length;
+        if (required > maxMessageSize) {
+            throw new ProtocolException(1009, "Message too big");
+        }
+        if (message == null) {
+            // Unfragmented messages get a buffer of the exact size, handed on without a copy
+            message = new byte[(int) required];
+        } else if (required > message.length) {
+            long grown = Math.max(required, Math.min((long) message.length * 2, maxMessageSize));
+            message = Arrays.copyOf(message, (int) grown);
+        }
+    }
+
+    /**
+     * Unmasks as much of the payload as this read holds.
+     */
+    private void readPayload(ByteBuffer in) throws ProtocolException {
+        int count = (int) Math.min(payloadRemaining, in.remaining());
+        byte[] target;
+        int offset;
+        if (isControl()) {
+            target = control;
+            offset = controlLength;
+            controlLength += count;
+        } else {
+            target = message;
+            offset = messageLength;
+            messageLength += count;
+        }
+        in.get(target, offset, count);
+        for (int i = 0; i < count; i++) {
+            target[offset + i] ^= mask[(payloadOffset + i) & 3];
+        }
+        payloadOffset += count;
+        payloadRemaining -= count;
+        if (payloadRemaining == 0) {
+            completeFrame();
+        }
+    }
+
+    /**
+     * Delivers a control frame, or the message once its final frame is complete.
+     */
+    private void completeFrame() throws ProtocolException {
+        inPayload = false;
+        switch (opcode) {
+            case OPCODE_PING -> listener.onPing(Arrays.copyOf(control, controlLength));
+            case OPCODE_PONG -> listener.onPong(Arrays.copyOf(control, controlLength));
+            case OPCODE_CLOSE -> completeClose();
+            default -> {
+                if (fin) {
+                    completeMessage();
+                }
+            }
+        }
+    }
+
+    private void completeClose() throws ProtocolException {
+        closed = true;
+        int statusCode = 1000;
+        String reason = "";
+        if (controlLength == 1) {
+            throw new ProtocolException(1002, "Invalid close frame");
+        }
+        if (controlLength >= 2) {
+            statusCode = ((control[0] & 0xFF) << 8) | (control[1] & 0xFF);
+            reason = decodeText(control, 2, controlLength - 2);
+        }
+        listener.onClose(statusCode, reason);
+    }
+
+    private void completeMessage() throws ProtocolException {
+        byte[] payload = message.length == messageLength ? message : Arrays.copyOf(message, messageLength);
+        if (messageCompressed) {
+            payload = deflate.decompress(payload, maxMessageSize);
+        }
+        int type = messageOpcode;
+        // A reassembled message is not kept around until the next one
+        message = null;
+        messageLength = 0;
+        messageOpcode = 0;
+        if (type == OPCODE_TEXT) {
+            listener.onText(decodeText(payload, 0, payload.length));
+        } else {
+            listener.onBinary(payload);
+        }
+    }
+
+    private boolean isControl() {
+        return (opcode & 0x8) != 0;
+    }
+
+    private static String decodeText(byte[] bytes, int offset, int length) throws ProtocolException {
+        try {
+            CharBuffer text = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes, offset, length));
+            return text.toString();
+        } catch (CharacterCodingException e) {
+            throw new ProtocolException(1007, "Invalid UTF-8 in text message");
+        }
+    }
+}
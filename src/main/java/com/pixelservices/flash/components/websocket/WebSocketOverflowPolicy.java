@@ -0,0 +1,23 @@
+package com.pixelservices.flash.components.websocket;
+
+/**
+ * What a WebSocket session does with a message when its send queue is full, which happens when
+ * the client reads slower than the server sends. Control frames are always queued.
+ */
+public enum WebSocketOverflowPolicy {
+    /**
+     * Drops the oldest queued messages that have not started sending, to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Makes the sending thread wait until the queue has room. A client that does not catch up
+     * within the send timeout is closed with 1008 Policy Violation. Threads of the server's
+     * channel group never wait, messages sent from handler callbacks close the session as with
+     * {@link #CLOSE}, so only senders on threads of their own are slowed down.
+     */
+    BLOCK,
+    /**
+     * Discards the queued messages and closes the session with 1008 Policy Violation. The default.
+     */
+    CLOSE
+}
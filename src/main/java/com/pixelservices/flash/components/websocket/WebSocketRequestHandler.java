@@ -3,6 +3,7 @@ package com.pixelservices.flash.components.websocket;
 import com.pixelservices.flash.components.FlashServer;
 import com.pixelservices.flash.components.OffHeapBufferPool;
 import com.pixelservices.flash.components.http.routing.models.RequestInfo;
+import com.pixelservices.flash.models.FlashConfiguration;
 import com.pixelservices.flash.utils.FlashLogger;
 
 import java.nio.ByteBuffer;
@@ -14,6 +15,7 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
 
 public class WebSocketRequestHandler {
 
@@ -22,12 +24,28 @@ public class WebSocketRequestHandler {
     private final Map<String, WebSocketHandler> webSocketHandlers;
     private final Map<String, WebSocketSession> activeSessions;
     private final OffHeapBufferPool websocketBufferPool;
+    private final WebSocketBroadcaster broadcaster;
+    private final Map<String, PerMessageDeflate> webSocketCompression;
+    // Counts the messages that found a send queue full, across all sessions
+    private final LongAdder sendQueueOverflows = new LongAdder();
 
-    public WebSocketRequestHandler(FlashServer server, Map<String, WebSocketHandler> webSocketHandlers, Map<String, WebSocketSession> activeSessions, OffHeapBufferPool websocketBufferPool) {
+    public WebSocketRequestHandler(FlashServer server, Map<String, WebSocketHandler> webSocketHandlers, Map<String, WebSocketSession> activeSessions, OffHeapBufferPool websocketBufferPool, WebSocketBroadcaster broadcaster, Map<String, PerMessageDeflate> webSocketCompression) {
         this.server = server;
         this.webSocketHandlers = webSocketHandlers;
         this.activeSessions = activeSessions;
         this.websocketBufferPool = websocketBufferPool;
+        this.broadcaster = broadcaster;
+        this.webSocketCompression = webSocketCompression;
+    }
+
+    /**
+     * Get how often a message found the send queue of its session full. A growing count means
+     * clients read slower than the server sends to them.
+     *
+     * @return the overflow count since the server started
+     */
+    public long getSendQueueOverflowCount() {
+        return sendQueueOverflows.sum();
     }
 
     public void handle(AsynchronousSocketChannel clientChannel, RequestInfo reqInfo) {
@@ -53,12 +71,19 @@ public class WebSocketRequestHandler {
             }
 
             String acceptKey = generateWebSocketAcceptKey(webSocketKey);
+            FlashConfiguration config = server.getConfiguration();
+            PerMessageDeflate compression = webSocketCompression.get(path);
+            // Dropped messages would leave the client without part of a shared compression context
+            PerMessageDeflateCodec deflate = compression == null ? null : compression.negotiate(
+                    reqInfo.getHeader("Sec-WebSocket-Extensions"),
+                    config.getWebSocketOverflowPolicy() != WebSocketOverflowPolicy.DROP_OLDEST);
 
             // handshake response
             String response = "HTTP/1.1 101 Switching Protocols\r\n" +
                     "Upgrade: websocket\r\n" +
                     "Connection: Upgrade\r\n" +
                     "Sec-WebSocket-Accept: " + acceptKey + "\r\n" +
+                    (deflate != null ? "Sec-WebSocket-Extensions: " + deflate.responseHeader() + "\r\n" : "") +
                     "\r\n";
 
             ByteBuffer responseBuffer = ByteBuffer.wrap(response.getBytes(StandardCharsets.UTF_8));
@@ -70,7 +95,9 @@ public class WebSocketRequestHandler {
                         clientChannel.write(buffer, buffer, this);
                     } else {
                         // handshake completed can now handle the frames
-                        WebSocketSession session = new WebSocketSession(clientChannel, reqInfo, path);
+                        WebSocketSession session = new WebSocketSession(clientChannel, reqInfo, path,
+                                config.getWebSocketSendQueueLimit(), config.getWebSocketOverflowPolicy(),
+                                config.getWebSocketSendTimeoutMillis(), sendQueueOverflows, deflate);
                         String sessionId = UUID.randomUUID().toString();
                         activeSessions.put(sessionId, session);
                         session.setId(sessionId);
@@ -113,6 +140,34 @@ public class WebSocketRequestHandler {
     private void startWebSocketFrameReader(WebSocketSession session, WebSocketHandler handler, OffHeapBufferPool websocketBufferPool) {
         ByteBuffer buffer = websocketBufferPool.acquire();
         session.setBuffer(buffer);
+        int maxMessageSize = server.getConfiguration().getWebSocketMaxMessageSize();
+        session.setDecoder(new WebSocketFrameDecoder(maxMessageSize, session.getDeflate(), new WebSocketFrameDecoder.Listener() {
+            @Override
+            public void onText(String message) {
+                handler.onMessage(session, message);
+            }
+
+            @Override
+            public void onBinary(byte[] message) {
+                handler.onMessage(session, message);
+            }
+
+            @Override
+            public void onPing(byte[] payload) {
+                session.sendPong(payload);
+            }
+
+            @Override
+            public void onPong(byte[] payload) {
+                // Ignore
+            }
+
+            @Override
+            public void onClose(int statusCode, String reason) {
+                handler.onClose(session, statusCode, reason);
+                removeSession(session);
+            }
+        }));
         readWebSocketFrame(session, handler);
     }
 
@@ -123,12 +178,22 @@ public class WebSocketRequestHandler {
         session.getChannel().read(buffer, session, new CompletionHandler<>() {
             @Override
             public void completed(Integer bytesRead, WebSocketSession session) {
+                FlashServer.markIoThread();
                 if (bytesRead > 0) {
                     buffer.flip();
 
                     try {
-                        processWebSocketFrame(buffer, session, handler);
-                        readWebSocketFrame(session, handler);
+                        // The decoder keeps incomplete frames, every read may hold any part of the stream
+                        session.getDecoder().decode(buffer);
+                        if (!session.getDecoder().isClosed()) {
+                            readWebSocketFrame(session, handler);
+                        }
+                    } catch (WebSocketFrameDecoder.ProtocolException e) {
+                        FlashLogger.getLogger().info("Invalid WebSocket frame: " + e.getMessage());
+                        handler.onClose(session, e.getStatusCode(), e.getMessage());
+                        // The close frame closes the channel once it is written
+                        releaseSession(session);
+                        session.close(e.getStatusCode(), e.getMessage());
                     } catch (Exception e) {
                         FlashLogger.getLogger().info("Error processing WebSocket frame: " + e.getMessage());
                         handler.onError(session, e);
@@ -152,128 +217,30 @@ public class WebSocketRequestHandler {
         });
     }
 
-    private void processWebSocketFrame(ByteBuffer buffer, WebSocketSession session, WebSocketHandler handler) {
-        if (buffer.remaining() < 2) {
-            return;
-        }
-
-        byte byte1 = buffer.get();
-        byte byte2 = buffer.get();
-
-        int rsv1 = (byte1 & 0x40) != 0 ? 1 : 0;
-        int rsv2 = (byte1 & 0x20) != 0 ? 1 : 0;
-        int rsv3 = (byte1 & 0x10) != 0 ? 1 : 0;
-        int opcode = byte1 & 0x0F;
-        boolean masked = (byte2 & 0x80) != 0;
-        int payloadLength = byte2 & 0x7F;
-
-        if (rsv1 != 0 || rsv2 != 0 || rsv3 != 0) {
-            FlashLogger.getLogger().info("Invalid WebSocket frame: RSV1, RSV2, and RSV3 must be clear");
-            session.close(1002, "Protocol error");
-            return;
-        }
-
-        long actualPayloadLength;
-        if (payloadLength < 126) {
-            actualPayloadLength = payloadLength;
-        } else if (payloadLength == 126) {
-            if (buffer.remaining() < 2) {
-                return;
-            }
-            actualPayloadLength = ((buffer.get() & 0xFF) << 8) | (buffer.get() & 0xFF);
-        } else {
-            if (buffer.remaining() < 8) {
-                return;
-            }
-            actualPayloadLength = buffer.getLong();
-        }
-
-        if (actualPayloadLength > FlashServer.WEBSOCKET_BUFFER_SIZE - 14) { // Use static constant from FlashServer
-            FlashLogger.getLogger().info("WebSocket frame too large: " + actualPayloadLength + " bytes");
-            session.close(1009, "Message too big");
-            return;
-        }
-
-        byte[] maskingKey = new byte[4];
-        if (masked) {
-            if (buffer.remaining() < 4) {
-                return;
-            }
-            buffer.get(maskingKey);
-        }
-
-        if (buffer.remaining() < actualPayloadLength) {
-            return;
-        }
-
-        byte[] payload = new byte[(int) actualPayloadLength];
-        buffer.get(payload);
-        if (masked) {
-            for (int i = 0; i < payload.length; i++) {
-                payload[i] ^= maskingKey[i % 4];
-            }
-        }
-
-        switch (opcode) {
-            case 0x1: // Text frame
-                String message = new String(payload, StandardCharsets.UTF_8);
-                handler.onMessage(session, message);
-                break;
-            case 0x2: // Binary frame
-                handler.onMessage(session, payload);
-                break;
-            case 0x8: // Close frame
-                int code = 1000;
-                String reason = "";
-                if (payload.length >= 2) {
-                    code = ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF);
-                    if (payload.length > 2) {
-                        reason = new String(payload, 2, payload.length - 2, StandardCharsets.UTF_8);
-                    }
-                }
-                handler.onClose(session, code, reason);
-                removeSession(session);
-                break;
-            case 0x9: // Ping
-                // Respond with Pong
-                sendPong(session, payload);
-                break;
-            case 0xA: // Pong
-                // Ignore
-                break;
-            default:
-                FlashLogger.getLogger().info("Unsupported WebSocket opcode: " + opcode);
-                session.close(1003, "Unsupported data");
-        }
-    }
-
-    private void sendPong(WebSocketSession session, byte[] payload) {
-        ByteBuffer pongBuffer = ByteBuffer.allocate(2 + payload.length);
-        pongBuffer.put((byte) 0x8A);
-        pongBuffer.put((byte) payload.length); // payload length (as long as its not humongous lol)
-        pongBuffer.put(payload);
-        pongBuffer.flip();
-
-        session.getChannel().write(pongBuffer, null, new CompletionHandler<Integer, Void>() {
-            @Override
-            public void completed(Integer result, Void attachment) {
-                // sent pong
-            }
-
-            @Override
-            public void failed(Throwable exc, Void attachment) {
-                FlashLogger.getLogger().info("Error sending WebSocket pong: " + exc.getMessage());
-            }
-        });
-    }
-
     private void removeSession(WebSocketSession session) {
         try {
-            activeSessions.remove(session.getId());
-            FlashServer.WEBSOCKET_BUFFER_POOL.release(session.getBuffer());
-            server.closeSocket(session.getChannel());
+            if (releaseSession(session)) {
+                FlashServer.closeSocket(session.getChannel());
+            }
         } catch (Exception e) {
             FlashLogger.getLogger().info("Error removing WebSocket session: " + e.getMessage());
         }
     }
+
+    /**
+     * Forgets a session and returns its read buffer to the pool, only the first call for a session does.
+     *
+     * @return true if the session was still active
+     */
+    private boolean releaseSession(WebSocketSession session) {
+        if (activeSessions.remove(session.getId()) == null) {
+            return false;
+        }
+        websocketBufferPool.release(session.getBuffer());
+        broadcaster.unsubscribeAll(session);
+        if (session.getDeflate() != null) {
+            session.getDeflate().release();
+        }
+        return true;
+    }
 }
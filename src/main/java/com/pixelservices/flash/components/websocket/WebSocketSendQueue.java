@@ -0,0 +1,329 @@
+package com.pixelservices.flash.components.websocket;
+
+import com.pixelservices.flash.components.FlashServer;
+import com.pixelservices.flash.utils.FlashLogger;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * The outbound frames of one WebSocket session. Any thread may queue frames, a single write at a
+ * time drains them, so concurrent senders never collide on the channel. All frames queued while
+ * a write is in flight go out together in the next gathering write.
+ * <p>
+ * The queue is bounded by the bytes not yet written. A full queue means the client reads slower
+ * than the server sends, what happens then is decided by the {@link WebSocketOverflowPolicy}.
+ */
+final class WebSocketSendQueue {
+    // The most frames handed to a single gathering write
+    private static final int MAX_GATHERED_FRAMES = 64;
+
+    private final AsynchronousSocketChannel channel;
+    private final int limit;
+    private final WebSocketOverflowPolicy policy;
+    private final long sendTimeoutNanos;
+    private final LongAdder overflowCounter;
+    private final Runnable onOverflowClose;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final ArrayDeque<ByteBuffer> frames = new ArrayDeque<>();
+    // Bytes queued or in flight, not yet written
+    private long queuedBytes;
+    private boolean writing;
+    private boolean closed;
+    private Runnable onFlushed;
+    private long overflowCount;
+    private long droppedCount;
+
+    /**
+     * @param overflowCounter counts the overflows of all sessions of the server
+     * @param onOverflowClose closes the session once the policy gives up on the client
+     */
+    WebSocketSendQueue(AsynchronousSocketChannel channel, int limit, WebSocketOverflowPolicy policy,
+                       long sendTimeoutMillis, LongAdder overflowCounter, Runnable onOverflowClose) {
+        this.channel = channel;
+        this.limit = limit;
+        this.policy = policy;
+        this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis);
+        this.overflowCounter = overflowCounter;
+        this.onOverflowClose = onOverflowClose;
+    }
+
+    /**
+     * Queues an encoded frame. Control frames are queued even if the queue is full.
+     *
+     * @param frame the encoded frame, not modified by anyone else until it is written
+     * @return true if the frame was queued, false if it was dropped or the session is closing
+     */
+    boolean offer(ByteBuffer frame) {
+        return offer(frame, true);
+    }
+
+    /**
+     * Queues an encoded frame, optionally without ever waiting for room.
+     *
+     * @param mayWait false to close the session instead of waiting under {@link WebSocketOverflowPolicy#BLOCK}
+     * @return true if the frame was queued, false if it was dropped or the session is closing
+     */
+    boolean offer(ByteBuffer frame, boolean mayWait) {
+        return offer(frame.remaining(), isControl(frame), () -> frame, mayWait);
+    }
+
+    /**
+     * Queues a data frame that is encoded only once there is room for it, under the lock of the
+     * queue. Frames encoded with state they share, such as a compression context, are thereby
+     * queued in the order they were encoded, and nothing is encoded for a message that is dropped.
+     *
+     * @param size    the size the frame is expected to have, checked against the limit
+     * @param encoder encodes the frame, returns null if it can no longer be sent
+     * @param mayWait false to close the session instead of waiting under {@link WebSocketOverflowPolicy#BLOCK}
+     * @return true if the frame was queued, false if it was dropped or the session is closing
+     */
+    boolean offerEncoded(int size, Supplier<ByteBuffer> encoder, boolean mayWait) {
+        return offer(size, false, encoder, mayWait);
+    }
+
+    private boolean offer(int size, boolean control, Supplier<ByteBuffer> encoder, boolean mayWait) {
+        boolean closeSession = false;
+        boolean startWriting = false;
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            if (!control && !fits(size)) {
+                overflowCount++;
+                overflowCounter.increment();
+                switch (policy) {
+                    case DROP_OLDEST -> {
+                        Iterator<ByteBuffer> queued = frames.iterator();
+                        while (!fits(size) && queued.hasNext()) {
+                            ByteBuffer oldest = queued.next();
+                            if (!isControl(oldest)) {
+                                queued.remove();
+                                queuedBytes -= oldest.remaining();
+                                droppedCount++;
+                            }
+                        }
+                        if (!fits(size)) {
+                            // Only frames already being written are left, the new one has to go
+                            droppedCount++;
+                            return false;
+                        }
+                    }
+                    case BLOCK -> {
+                        // A handler called from a read completion runs on an I/O thread, which must not wait
+                        long remaining = mayWait && !FlashServer.isIoThread() ? sendTimeoutNanos : 0;
+                        while (!closed && !fits(size) && remaining > 0) {
+                            remaining = notFull.awaitNanos(remaining);
+                        }
+                        if (closed) {
+                            return false;
+                        }
+                        if (!fits(size)) {
+                            closeSession = true;
+                        }
+                    }
+                    case CLOSE -> closeSession = true;
+                }
+                if (closeSession) {
+                    discardQueued();
+                    return false;
+                }
+            }
+            ByteBuffer frame = encoder.get();
+            if (frame == null) {
+                return false;
+            }
+            frames.add(frame);
+            queuedBytes += frame.remaining();
+            if (!writing) {
+                writing = true;
+                startWriting = true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+            // Outside of the lock, the close frame is queued again
+            if (closeSession) {
+                onOverflowClose.run();
+            }
+        }
+        if (startWriting) {
+            writeNext();
+        }
+        return true;
+    }
+
+    /**
+     * Queues the close frame as the last frame of the session. Frames queued later are dropped.
+     *
+     * @param frame     the encoded close frame
+     * @param onFlushed runs once every queued frame has been written
+     */
+    void close(ByteBuffer frame, Runnable onFlushed) {
+        boolean startWriting = false;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            this.onFlushed = onFlushed;
+            frames.add(frame);
+            queuedBytes += frame.remaining();
+            notFull.signalAll();
+            if (!writing) {
+                writing = true;
+                startWriting = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (startWriting) {
+            writeNext();
+        }
+    }
+
+    /**
+     * @return the bytes queued but not yet written
+     */
+    long getQueuedBytes() {
+        lock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how often a message found the queue full
+     */
+    long getOverflowCount() {
+        lock.lock();
+        try {
+            return overflowCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how many messages were dropped to keep the queue within its limit
+     */
+    long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean fits(int size) {
+        // A frame larger than the limit still goes out once the queue is empty
+        return queuedBytes == 0 || queuedBytes + size <= limit;
+    }
+
+    private void discardQueued() {
+        for (Iterator<ByteBuffer> queued = frames.iterator(); queued.hasNext(); ) {
+            ByteBuffer frame = queued.next();
+            if (!isControl(frame)) {
+                queued.remove();
+                queuedBytes -= frame.remaining();
+                droppedCount++;
+            }
+        }
+    }
+
+    private static boolean isControl(ByteBuffer frame) {
+        return (frame.get(frame.position()) & 0x08) != 0;
+    }
+
+    /**
+     * Hands the queued frames to the channel in one gathering write, or ends the writing if there
+     * are none left.
+     */
+    private void writeNext() {
+        ByteBuffer[] batch;
+        Runnable flushed = null;
+        lock.lock();
+        try {
+            int count = Math.min(frames.size(), MAX_GATHERED_FRAMES);
+            if (count == 0) {
+                writing = false;
+                if (closed) {
+                    flushed = onFlushed;
+                    onFlushed = null;
+                }
+                batch = null;
+            } else {
+                batch = new ByteBuffer[count];
+                for (int i = 0; i < count; i++) {
+                    batch[i] = frames.poll();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (batch != null) {
+            write(batch, 0);
+        } else if (flushed != null) {
+            flushed.run();
+        }
+    }
+
+    private void write(ByteBuffer[] batch, int offset) {
+        channel.write(batch, offset, batch.length - offset, 0L, TimeUnit.MILLISECONDS, null,
+                new CompletionHandler<Long, Void>() {
+                    @Override
+                    public void completed(Long written, Void attachment) {
+                        lock.lock();
+                        try {
+                            queuedBytes -= written;
+                            notFull.signalAll();
+                        } finally {
+                            lock.unlock();
+                        }
+                        int next = offset;
+                        while (next < batch.length && !batch[next].hasRemaining()) {
+                            next++;
+                        }
+                        if (next < batch.length) {
+                            write(batch, next);
+                        } else {
+                            writeNext();
+                        }
+                    }
+
+                    @Override
+                    public void failed(Throwable exc, Void attachment) {
+                        FlashLogger.getLogger().error("Failed to send WebSocket frames", exc);
+                        lock.lock();
+                        try {
+                            closed = true;
+                            writing = false;
+                            frames.clear();
+                            queuedBytes = 0;
+                            notFull.signalAll();
+                        } finally {
+                            lock.unlock();
+                        }
+                        // The reader sees the closed channel and releases the session
+                        FlashServer.closeSocket(channel);
+                    }
+                });
+    }
+}
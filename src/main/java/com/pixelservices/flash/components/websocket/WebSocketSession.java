@@ -6,21 +6,46 @@ import com.pixelservices.flash.utils.FlashLogger;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousSocketChannel;
-import java.nio.channels.CompletionHandler;
 import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class WebSocketSession {
+    /**
+     * The default limit of the bytes queued for a client but not yet written.
+     */
+    public static final int DEFAULT_SEND_QUEUE_LIMIT = 1024 * 1024;
+    /**
+     * The default time a sender waits for room in a full queue under {@link WebSocketOverflowPolicy#BLOCK}.
+     */
+    public static final long DEFAULT_SEND_TIMEOUT_MS = 10_000;
 
-public class WebSocketSession {
     private final AsynchronousSocketChannel channel;
     private final RequestInfo requestInfo;
     private String id;
     private final String path;
     private ByteBuffer buffer = ByteBuffer.allocate(1024);
+    private WebSocketFrameDecoder decoder;
+    private final WebSocketSendQueue sendQueue;
+    private final PerMessageDeflateCodec deflate;
+    private final Set<String> topics = ConcurrentHashMap.newKeySet();
 
     public WebSocketSession(AsynchronousSocketChannel channel, RequestInfo requestInfo, String path) {
+        this(channel, requestInfo, path, DEFAULT_SEND_QUEUE_LIMIT, WebSocketOverflowPolicy.CLOSE,
+                DEFAULT_SEND_TIMEOUT_MS, new LongAdder(), null);
+    }
+
+    WebSocketSession(AsynchronousSocketChannel channel, RequestInfo requestInfo, String path, int sendQueueLimit,
+                     WebSocketOverflowPolicy overflowPolicy, long sendTimeoutMillis, LongAdder overflowCounter,
+                     PerMessageDeflateCodec deflate) {
         this.channel = channel;
+        this.deflate = deflate;
         this.requestInfo = requestInfo;
         this.path = path;
         this.id = "";
+        this.sendQueue = new WebSocketSendQueue(channel, sendQueueLimit, overflowPolicy, sendTimeoutMillis,
+                overflowCounter, () -> close(1008, "Send queue full"));
     }
 
     /**
@@ -63,123 +88,163 @@ public class WebSocketSession {
         this.buffer = buffer;
     }
 
-    public void sendMessage(String message) {
-        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
-        int messageLength = messageBytes.length;
-
-        ByteBuffer buffer;
-        if (messageLength <= 125) {
-            buffer = ByteBuffer.allocate(2 + messageLength);
-            buffer.put((byte) 0x81);
-            buffer.put((byte) messageLength);
-        } else if (messageLength <= 65535) {
-            buffer = ByteBuffer.allocate(4 + messageLength);
-            buffer.put((byte) 0x81);
-            buffer.put((byte) 126);
-            buffer.putShort((short) messageLength);
-        } else {
-            buffer = ByteBuffer.allocate(10 + messageLength);
-            buffer.put((byte) 0x81);
-            buffer.put((byte) 127);
-            buffer.putLong(messageLength);
-        }
+    /**
+     * Get the decoder holding the state of the frames received so far
+     * @return The decoder
+     */
+    WebSocketFrameDecoder getDecoder() {
+        return decoder;
+    }
 
-        buffer.put(messageBytes);
-        buffer.flip();
+    void setDecoder(WebSocketFrameDecoder decoder) {
+        this.decoder = decoder;
+    }
 
-        channel.write(buffer, buffer, new CompletionHandler<>() {
-            @Override
-            public void completed(Integer result, ByteBuffer buf) {
-                if (buf.hasRemaining()) {
-                    channel.write(buf, buf, this);
-                }
-            }
+    /**
+     * Queues a text message. Messages are written in the order they were sent, from any thread.
+     *
+     * @param message the message
+     * @return true if the message was queued, false if it was dropped or the session is closing
+     */
+    public boolean sendMessage(String message) {
+        return sendData(0x1, message.getBytes(StandardCharsets.UTF_8), true);
+    }
 
-            @Override
-            public void failed(Throwable exc, ByteBuffer buf) {
-                FlashLogger.getLogger().error("Failed to send WebSocket message", exc);
-            }
-        });
+    /**
+     * Queues a binary message. Messages are written in the order they were sent, from any thread.
+     *
+     * @param data the message
+     * @return true if the message was queued, false if it was dropped or the session is closing
+     */
+    public boolean sendBinaryMessage(byte[] data) {
+        return sendData(0x2, data, true);
     }
 
-    public void sendBinaryMessage(byte[] data) {
-        int dataLength = data.length;
-        ByteBuffer buffer;
-        if (dataLength <= 125) {
-            buffer = ByteBuffer.allocate(2 + dataLength);
-            buffer.put((byte) 0x82); // FIN + binary opcode
-            buffer.put((byte) dataLength);
-        } else if (dataLength <= 65535) {
-            buffer = ByteBuffer.allocate(4 + dataLength);
-            buffer.put((byte) 0x82);
-            buffer.put((byte) 126);
-            buffer.putShort((short) dataLength);
-        } else {
-            buffer = ByteBuffer.allocate(10 + dataLength);
-            buffer.put((byte) 0x82);
-            buffer.put((byte) 127);
-            buffer.putLong(dataLength);
-        }
-        buffer.put(data);
-        buffer.flip();
-        channel.write(buffer, buffer, new CompletionHandler<>() {
-            @Override
-            public void completed(Integer result, ByteBuffer buf) {
-                if (buf.hasRemaining()) {
-                    channel.write(buf, buf, this);
-                }
-            }
-            @Override
-            public void failed(Throwable exc, ByteBuffer buf) {
-                FlashLogger.getLogger().error("Failed to send WebSocket binary message", exc);
+    /**
+     * Frames a data message, compressed if the session negotiated permessage-deflate.
+     *
+     * @param mayWait false to close the session instead of waiting for room in a full queue
+     */
+    boolean sendData(int opcode, byte[] payload, boolean mayWait) {
+        if (deflate != null && payload.length >= deflate.getOptions().getMinMessageSize()) {
+            // FIN + RSV1 for a compressed message
+            if (deflate.acceptsSharedMessages()) {
+                return sendQueue.offer(encodeFrame(0xC0 | opcode, deflate.getOptions().compress(payload)), mayWait);
             }
-        });
+            // The client decompresses in queue order, so the queue compresses as it takes the message
+            return sendQueue.offerEncoded(payload.length, () -> {
+                byte[] compressed = deflate.compressWithContext(payload);
+                return compressed != null ? encodeFrame(0xC0 | opcode, compressed) : null;
+            }, mayWait);
+        }
+        return sendQueue.offer(encodeFrame(0x80 | opcode, payload), mayWait);
     }
 
     /**
-     * Closes the WebSocket connection with the specified status code and reason
-     *
-     * @param statusCode WebSocket close status code (1000 = normal, 1001 = going away, etc.)
-     * @param reason Reason for closing the connection (optional)
+     * Queues an encoded frame that other sessions may share, the buffer must not be modified.
+     * Never waits for room, a full queue closes the session under {@link WebSocketOverflowPolicy#BLOCK}.
      */
-    public void close(int statusCode, String reason) {
-        byte[] reasonBytes = reason != null ? reason.getBytes(StandardCharsets.UTF_8) : new byte[0];
+    boolean sendFrame(ByteBuffer frame) {
+        return sendQueue.offer(frame, false);
+    }
 
-        int frameSize = 2 + reasonBytes.length;
+    void sendPong(byte[] payload) {
+        sendQueue.offer(encodeFrame(0x8A, payload));
+    }
 
-        ByteBuffer closeFrame = ByteBuffer.allocate(frameSize + 2);
-        closeFrame.put((byte) 0x88);
-        closeFrame.put((byte) frameSize);
+    /**
+     * Get the permessage-deflate state of the session
+     * @return The state, null if the extension was not negotiated
+     */
+    PerMessageDeflateCodec getDeflate() {
+        return deflate;
+    }
 
-        closeFrame.putShort((short) statusCode);
+    /**
+     * Get the topics of the server's broadcaster this session is subscribed to
+     * @return The topics
+     */
+    Set<String> getTopics() {
+        return topics;
+    }
 
-        if (reasonBytes.length > 0) {
-            closeFrame.put(reasonBytes);
-        }
+    /**
+     * Get the bytes queued for this session but not yet written to the client
+     * @return The queued bytes
+     */
+    public long getQueuedBytes() {
+        return sendQueue.getQueuedBytes();
+    }
 
-        closeFrame.flip();
-
-        // Send the close frame
-        channel.write(closeFrame, null, new CompletionHandler<Integer, Void>() {
-            @Override
-            public void completed(Integer result, Void attachment) {
-                try {
-                    Thread.sleep(100);
-                    channel.close();
-                } catch (InterruptedException | IOException e) {
-                    FlashLogger.getLogger().error("Error while closing WebSocket session", e);
-                }
-            }
+    /**
+     * Get how often a message found the send queue full, a growing count marks a slow consumer
+     * @return The overflow count
+     */
+    public long getOverflowCount() {
+        return sendQueue.getOverflowCount();
+    }
+
+    /**
+     * Get how many messages were dropped to keep the send queue within its limit
+     * @return The dropped message count
+     */
+    public long getDroppedCount() {
+        return sendQueue.getDroppedCount();
+    }
 
-            @Override
-            public void failed(Throwable exc, Void attachment) {
-                FlashLogger.getLogger().error("Failed to send WebSocket close frame", exc);
-                try {
-                    channel.close();
-                } catch (IOException e) {
-                    FlashLogger.getLogger().error("Failed to close WebSocket channel", exc);
-                }
+    /**
+     * Closes the WebSocket connection with the specified status code and reason. Messages queued
+     * before are still written, the close frame is the last frame of the session.
+     *
+     * @param statusCode WebSocket close status code (1000 = normal, 1001 = going away, etc.)
+     * @param reason Reason for closing the connection (optional)
+     */
+    public void close(int statusCode, String reason) {
+        byte[] reasonBytes = reason != null ? reason.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        // Control frames carry at most 125 bytes
+        int reasonLength = Math.min(reasonBytes.length, 123);
+
+        ByteBuffer payload = ByteBuffer.allocate(2 + reasonLength);
+        payload.putShort((short) statusCode);
+        payload.put(reasonBytes, 0, reasonLength);
+
+        sendQueue.close(encodeFrame(0x88, payload.array()), () -> {
+            try {
+                Thread.sleep(100);
+                channel.close();
+            } catch (InterruptedException | IOException e) {
+                FlashLogger.getLogger().error("Error while closing WebSocket session", e);
             }
         });
     }
-}
\ No newline at end of file
+
+    /**
+     * Encodes an unmasked frame as servers send them.
+     *
+     * @param firstByte the FIN bit, the RSV bits and the opcode
+     * @param payload   the payload
+     * @return the frame, ready to be written
+     */
+    static ByteBuffer encodeFrame(int firstByte, byte[] payload) {
+        int length = payload.length;
+        ByteBuffer buffer;
+        if (length <= 125) {
+            buffer = ByteBuffer.allocate(2 + length);
+            buffer.put((byte) firstByte);
+            buffer.put((byte) length);
+        } else if (length <= 65535) {
+            buffer = ByteBuffer.allocate(4 + length);
+            buffer.put((byte) firstByte);
+            buffer.put((byte) 126);
+            buffer.putShort((short) length);
+        } else {
+            buffer = ByteBuffer.allocate(10 + length);
+            buffer.put((byte) firstByte);
+            buffer.put((byte) 127);
+            buffer.putLong(length);
+        }
+        buffer.put(payload);
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,13 @@
+package com.pixelservices.flash.exceptions;
+
+/**
+ * Thrown when no handler instance became available within the acquire timeout of its pool.
+ * Answered with 503 Service Unavailable.
+ */
+public class HandlerUnavailableException extends java.lang.RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public HandlerUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -23,34 +23,50 @@ public class RequestExceptionHandler {
      * Handles the exception by sending an appropriate error response to the client.
      */
     public void handle() {
-        switch (exception) {
+        Response errorResponse = toResponse();
+        errorResponse.header("Connection", "close");
+        try {
+            ByteBuffer responseBuffer = errorResponse.getSerialized();
+            clientChannel.write(responseBuffer).get();
+        } catch (Exception ignored) {}
+
+        finally {
+            closeSocket();
+        }
+    }
+
+    /**
+     * Builds the error response for the exception without writing it, for callers that
+     * have to order it behind other responses on the same connection.
+     *
+     * @return the error response, the caller decides whether the connection stays open
+     */
+    public Response toResponse() {
+        return switch (exception) {
+            case RequestFramingException framingException ->
+                    errorResponse(framingException.getStatusCode(), framingException.getMessage());
             case IllegalArgumentException illegalArgumentException ->
-                    sendErrorResponse(400, "Validation error: " + exception.getMessage());
+                    errorResponse(400, "Validation error: " + exception.getMessage());
             case UnsupportedOperationException unsupportedOperationException ->
-                    sendErrorResponse(415, "Unsupported operation: " + exception.getMessage());
+                    errorResponse(415, "Unsupported operation: " + exception.getMessage());
             case UnmatchedMethodException unmatchedMethodException ->
-                    sendErrorResponse(405, "Method not allowed: " + exception.getMessage());
-            default -> sendErrorResponse(500, "Internal server error: " + exception.getMessage());
-        }
+                    errorResponse(405, "Method not allowed: " + exception.getMessage());
+            case HandlerUnavailableException handlerUnavailableException ->
+                    errorResponse(503, "Service unavailable: " + exception.getMessage());
+            default -> errorResponse(500, "Internal server error: " + exception.getMessage());
+        };
     }
 
     /**
-     * Sends an error response with the given status code and message to the client.
+     * Builds an error response with the given status code and message.
      *
      * @param statusCode the HTTP status code of the error response
      * @param message    the error message to include in the response
      */
-    private void sendErrorResponse(int statusCode, String message) {
+    private Response errorResponse(int statusCode, String message) {
         Response errorResponse = new Response();
         errorResponse.status(statusCode).body(message).type("text/plain");
-        try {
-            ByteBuffer responseBuffer = errorResponse.getSerialized();
-            clientChannel.write(responseBuffer).get();
-        } catch (Exception ignored) {}
-
-        finally {
-            closeSocket();
-        }
+        return errorResponse;
     }
 
     /**
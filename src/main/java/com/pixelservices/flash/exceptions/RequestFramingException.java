@@ -0,0 +1,24 @@
+package com.pixelservices.flash.exceptions;
+
+/**
+ * Thrown when the bytes of a connection cannot be split into requests safely, for instance a
+ * head or body beyond the configured limits or a body length the server cannot determine.
+ * Answered with the carried status code, and the connection is closed afterwards.
+ */
+public class RequestFramingException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    public RequestFramingException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * @return the status code of the error response
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
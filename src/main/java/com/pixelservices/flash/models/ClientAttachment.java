@@ -1,15 +1,53 @@
 package com.pixelservices.flash.models;
 
+import com.pixelservices.flash.components.http.connection.RawRequest;
+import com.pixelservices.flash.components.http.connection.RequestFramer;
+import com.pixelservices.flash.components.http.connection.ResponseQueue;
+
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousSocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
-public class ClientAttachment {
+public final class ClientAttachment {
     public final ByteBuffer buffer;
-    public final StringBuilder requestData = new StringBuilder();
     public final AsynchronousSocketChannel channel;
+    public final RequestFramer framer;
+    public final ResponseQueue responses;
     public boolean isWebSocket = false;
-    public ClientAttachment(ByteBuffer buffer, AsynchronousSocketChannel channel) {
+    public int requestCount = 0;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    /**
+     * @param buffer             the pooled buffer the connection reads into
+     * @param channel            the client channel
+     * @param onResponsesDrained invoked with the keep-alive decision once every pending response has been written
+     * @param streamsBody        decides whether the body of a request is streamed to its handler
+     * @param onBodyDemand       invoked when a paused streamed body is ready to receive more bytes
+     * @param maxHeadSize        the limit of a request head in bytes
+     * @param maxBodySize        the limit of a buffered request body in bytes
+     */
+    public ClientAttachment(ByteBuffer buffer, AsynchronousSocketChannel channel,
+                            BiConsumer<ClientAttachment, Boolean> onResponsesDrained, Predicate<RawRequest> streamsBody,
+                            Consumer<ClientAttachment> onBodyDemand, int maxHeadSize, int maxBodySize) {
         this.buffer = buffer;
         this.channel = channel;
+        this.framer = new RequestFramer(buffer, streamsBody, () -> onBodyDemand.accept(this), maxHeadSize, maxBodySize);
+        this.responses = new ResponseQueue(keepAlive -> onResponsesDrained.accept(this, keepAlive));
+    }
+
+    /**
+     * Marks the connection as closed.
+     *
+     * @return true if this call closed the connection, false if it was already closed
+     */
+    public boolean markClosed() {
+        return closed.compareAndSet(false, true);
+    }
+
+    public boolean isClosed() {
+        return closed.get();
     }
 }
@@ -1,12 +1,38 @@
 package com.pixelservices.flash.models;
 
+import com.pixelservices.flash.components.MultipartParser;
 import com.pixelservices.flash.components.http.HandlerType;
+import com.pixelservices.flash.components.http.connection.RequestFramer;
+import com.pixelservices.flash.components.http.pool.HandlerPool;
+import com.pixelservices.flash.components.http.routing.RouteRegistry;
+import com.pixelservices.flash.components.websocket.WebSocketFrameDecoder;
+import com.pixelservices.flash.components.websocket.WebSocketOverflowPolicy;
+import com.pixelservices.flash.components.websocket.WebSocketSession;
 
+import java.util.Collections;
 import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class FlashConfiguration {
     private final Map<HandlerType, Boolean> loggingPreferences;
+    private long keepAliveTimeoutMillis = 5000;
+    private int maxKeepAliveRequests = 1000;
+    private int maxPipelinedRequests = 32;
+    private int maxRequestHeadSize = RequestFramer.DEFAULT_MAX_HEAD_SIZE;
+    private int maxRequestBodySize = RequestFramer.DEFAULT_MAX_BODY_SIZE;
+    private long multipartSpillThreshold = MultipartParser.DEFAULT_SPILL_THRESHOLD;
+    private boolean routingInstrumentation = false;
+    private int routeCacheSize = RouteRegistry.DEFAULT_CACHE_SIZE;
+    private int handlerPoolStripes = HandlerPool.DEFAULT_STRIPES;
+    private long handlerAcquireTimeoutMillis = HandlerPool.DEFAULT_ACQUIRE_TIMEOUT_MS;
+    private final Map<String, String> defaultHeaders = new LinkedHashMap<>();
+    private boolean dateHeader = true;
+    private int webSocketMaxMessageSize = WebSocketFrameDecoder.DEFAULT_MAX_MESSAGE_SIZE;
+    private int webSocketSendQueueLimit = WebSocketSession.DEFAULT_SEND_QUEUE_LIMIT;
+    private WebSocketOverflowPolicy webSocketOverflowPolicy = WebSocketOverflowPolicy.CLOSE;
+    private long webSocketSendTimeoutMillis = WebSocketSession.DEFAULT_SEND_TIMEOUT_MS;
 
     public FlashConfiguration() {
         loggingPreferences = new EnumMap<>(HandlerType.class);
@@ -23,4 +49,307 @@ public class FlashConfiguration {
     public boolean shouldLog(HandlerType type) {
         return loggingPreferences.getOrDefault(type, true);
     }
+
+    /**
+     * Sets how long a persistent connection may stay idle while waiting for its next request.
+     *
+     * @param timeout the idle timeout
+     * @param unit    the unit of the timeout
+     * @return the updated FlashConfiguration object
+     */
+    public FlashConfiguration setKeepAliveTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Keep-alive timeout must be positive");
+        }
+        this.keepAliveTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of requests served over a single connection before it is closed.
+     * A value of 1 disables persistent connections.
+     *
+     * @param maxRequests the maximum number of requests per connection
+     * @return the updated FlashConfiguration object
+     */
+    public FlashConfiguration setMaxKeepAliveRequests(int maxRequests) {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("Max keep-alive requests must be at least 1");
+        }
+        this.maxKeepAliveRequests = maxRequests;
+        return this;
+    }
+
+    /**
+     * Sets how many pipelined requests of one connection are dispatched concurrently.
+     * Further requests stay buffered until the responses of the current batch have been written.
+     *
+     * @param maxRequests the maximum number of requests dispatched per batch
+     * @return the updated FlashConfiguration object
+     */
+    public FlashConfiguration setMaxPipelinedRequests(int maxRequests) {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("Max pipelined requests must be at least 1");
+        }
+        this.maxPipelinedRequests = maxRequests;
+        return this;
+    }
+
+    /**
+     * Sets the largest request head, request line and headers included, the server accepts.
+     * Larger heads are answered with 431 and the connection is closed.
+     *
+     * @param bytes the limit in bytes
+     * @return the updated FlashConfiguration object
+     */
+    public FlashConfiguration setMaxRequestHeadSize(int bytes) {
+        if (bytes < 1) {
+            throw new IllegalArgumentException("Max request head size must be positive");
+        }
+        this.maxRequestHeadSize = bytes;
+        return this;
+    }
+
+    /**
+     * Sets the largest request body the server buffers in memory. Larger bodies are answered with
+     * 413 and the connection is closed. Bodies streamed to their handler are not held in memory
+     * and not limited.
+     *
+     * @param bytes the limit in bytes
+     * @return the updated FlashConfiguration object
+     */
+    public FlashConfiguration setMaxRequestBodySize(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Max request body size must not be negative");
+        }
+        this.maxRequestBodySize = bytes;
+        return this;
+    }
+
+    /**
+     * Sets the size above which a part of a multipart/form-data body is written to a temporary
+     * file instead of being held in memory.
+     *
+     * @param bytes the threshold in bytes
+     * @return the updated FlashConfiguration object
+     */
+    public FlashConfiguration setMultipartSpillThreshold(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Multipart spill threshold must not be negative");
+        }
+        this.multipartSpillThreshold = bytes;
+        return this;
+    }
+
+    /**
+     * Enables per-route lookup counters and latency histograms, served by the devtools API at
+     * /_flash/devtools/api/routing. Disabled by default, in which case routing records nothing.
+     *
+     * @param enabled whether route lookups are instrumented
+     * @return the updated FlashConfiguration object
+     */
+    public FlashConfiguration setRoutingInstrumentation(boolean enabled) {
+        this.routingInstrumentation = enabled;
+        return this;
+    }
+
+    /**
+     * Sets the number of slots of the cache that remembers parameterized, dynamic and unmatched
+     * route resolutions by method and path. The cache is emptied whenever the routes change.
+     *
+     * @param size the number of cached resolutions, 0 disables the cache
+     * @return the updated FlashConfiguration object
+     */
+    public FlashConfiguration setRouteCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Route cache size must not be negative");
+        }
+        this.routeCacheSize = size;
+        return this;
+    }
+
+    /**
+     * Sets the number of stripes each handler pool spreads its idle handlers over. Threads start
+     * at their own stripe, so more stripes mean less contention between concurrent requests.
+     *
+     * @param stripes the number of stripes, rounded up to a power of two, 1 for a single shared stripe
+     * @return the updated FlashConfiguration object
+     */
+    public FlashConfiguration setHandlerPoolStripes(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("Handler pools need at least one stripe");
+        }
+        this.handlerPoolStripes = stripes;
+        return this;
+    }
+
+    /**
+     * Sets how long a request waits for a handler instance once its pool is exhausted. Requests
+     * that waited longer are answered with 503 Service Unavailable.
+     *
+     * @param timeout the acquire timeout, 0 to wait indefinitely
+     * @param unit    the unit of the timeout
+     * @return the updated FlashConfiguration object
+     */
+    public FlashConfiguration setHandlerAcquireTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Handler acquire timeout must not be negative");
+        }
+        this.handlerAcquireTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Adds a header to every response, unless the response sets the same header itself. Default
+     * headers are encoded once when the server is created.
+     *
+     * @param name  the header name
+     * @param value the header value, null to remove a default header
+     * @return the updated FlashConfiguration object
+     */
+    public FlashConfiguration setDefaultHeader(String name, String value) {
+        if (value == null) {
+            defaultHeaders.remove(name);
+        } else {
+            defaultHeaders.put(name, value);
+        }
+        return this;
+    }
+
+    /**
+     * Sets whether every response carries a {@code Date} header. The date is formatted once per
+     * second and shared by all responses. Enabled by default.
+     *
+     * @param enabled whether to send the Date header
+     * @return the updated FlashConfiguration object
+     */
+    public FlashConfiguration setDateHeader(boolean enabled) {
+        this.dateHeader = enabled;
+        return this;
+    }
+
+    /**
+     * Sets the largest WebSocket message a client may send, fragmented messages count with all
+     * their frames. Larger messages close the connection with 1009 Message Too Big.
+     *
+     * @param bytes the maximum message size in bytes
+     * @return the updated FlashConfiguration object
+     */
+    public FlashConfiguration setWebSocketMaxMessageSize(int bytes) {
+        if (bytes < 1) {
+            throw new IllegalArgumentException("WebSocket max message size must be positive");
+        }
+        this.webSocketMaxMessageSize = bytes;
+        return this;
+    }
+
+    /**
+     * Sets how many bytes may be queued for a WebSocket client but not yet written. Messages sent
+     * to a full queue are handled by the overflow policy.
+     *
+     * @param bytes the send queue limit in bytes
+     * @return the updated FlashConfiguration object
+     */
+    public FlashConfiguration setWebSocketSendQueueLimit(int bytes) {
+        if (bytes < 1) {
+            throw new IllegalArgumentException("WebSocket send queue limit must be positive");
+        }
+        this.webSocketSendQueueLimit = bytes;
+        return this;
+    }
+
+    /**
+     * Sets what happens to messages sent to a WebSocket client whose send queue is full.
+     * {@link WebSocketOverflowPolicy#CLOSE} by default.
+     *
+     * @param policy the overflow policy
+     * @return the updated FlashConfiguration object
+     */
+    public FlashConfiguration setWebSocketOverflowPolicy(WebSocketOverflowPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("WebSocket overflow policy must not be null");
+        }
+        this.webSocketOverflowPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Sets how long a sender waits for room in a full WebSocket send queue under
+     * {@link WebSocketOverflowPolicy#BLOCK} before the client is closed.
+     *
+     * @param timeout the send timeout
+     * @param unit    the unit of the timeout
+     * @return the updated FlashConfiguration object
+     */
+    public FlashConfiguration setWebSocketSendTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("WebSocket send timeout must be positive");
+        }
+        this.webSocketSendTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    public long getKeepAliveTimeoutMillis() {
+        return keepAliveTimeoutMillis;
+    }
+
+    public int getMaxKeepAliveRequests() {
+        return maxKeepAliveRequests;
+    }
+
+    public int getMaxPipelinedRequests() {
+        return maxPipelinedRequests;
+    }
+
+    public int getMaxRequestHeadSize() {
+        return maxRequestHeadSize;
+    }
+
+    public int getMaxRequestBodySize() {
+        return maxRequestBodySize;
+    }
+
+    public long getMultipartSpillThreshold() {
+        return multipartSpillThreshold;
+    }
+
+    public int getRouteCacheSize() {
+        return routeCacheSize;
+    }
+
+    public int getHandlerPoolStripes() {
+        return handlerPoolStripes;
+    }
+
+    public long getHandlerAcquireTimeoutMillis() {
+        return handlerAcquireTimeoutMillis;
+    }
+
+    public Map<String, String> getDefaultHeaders() {
+        return Collections.unmodifiableMap(defaultHeaders);
+    }
+
+    public int getWebSocketMaxMessageSize() {
+        return webSocketMaxMessageSize;
+    }
+
+    public int getWebSocketSendQueueLimit() {
+        return webSocketSendQueueLimit;
+    }
+
+    public WebSocketOverflowPolicy getWebSocketOverflowPolicy() {
+        return webSocketOverflowPolicy;
+    }
+
+    public long getWebSocketSendTimeoutMillis() {
+        return webSocketSendTimeoutMillis;
+    }
+
+    public boolean isDateHeaderEnabled() {
+        return dateHeader;
+    }
+
+    public boolean isRoutingInstrumentationEnabled() {
+        return routingInstrumentation;
+    }
 }
@@ -1,30 +1,57 @@
 package com.pixelervices.flash;
 
+import com.pixelervices.flash.handlers.BinaryFileHandler;
 import com.pixelervices.flash.handlers.FileHandler;
+import com.pixelervices.flash.handlers.PooledTestHandler;
 import com.pixelervices.flash.handlers.ReqBodyTestHandler;
 import com.pixelervices.flash.handlers.ReqParamTestHandler;
+import com.pixelervices.flash.handlers.StatelessTestHandler;
+import com.pixelervices.flash.handlers.StreamBodyTestHandler;
 import com.pixelervices.flash.handlers.TestHandler;
 import com.pixelservices.flash.components.FlashServer;
+import com.pixelservices.flash.components.http.lifecycle.FileBody;
+import com.pixelservices.flash.components.websocket.PerMessageDeflate;
 import com.pixelservices.flash.components.websocket.WebSocketHandler;
+import com.pixelservices.flash.components.websocket.WebSocketOverflowPolicy;
 import com.pixelservices.flash.components.websocket.WebSocketSession;
+import com.pixelservices.flash.models.FlashConfiguration;
 import com.pixelservices.flash.swagger.OpenAPIConfiguration;
 import com.pixelservices.flash.swagger.OpenAPIUITemplate;
 import org.junit.BeforeClass;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 
 public abstract class BaseTest {
     protected static FlashServer server;
+    protected static final int LARGE_FILE_SIZE = 20 * 1024 * 1024 + 5;
+    protected static Path largeFile;
+    protected static final int WS_MAX_MESSAGE_SIZE = 256 * 1024;
+    protected static final int WS_SEND_QUEUE_LIMIT = 64 * 1024;
 
     @BeforeClass
     public static void setUp() {
         if (server == null) {
-            server = new FlashServer(8080);
+            largeFile = createLargeFile();
+            server = new FlashServer(8080, new FlashConfiguration()
+                    .setRoutingInstrumentation(true)
+                    .setDefaultHeader("Server", "Flash")
+                    .setWebSocketMaxMessageSize(WS_MAX_MESSAGE_SIZE)
+                    .setWebSocketSendQueueLimit(WS_SEND_QUEUE_LIMIT)
+                    .setWebSocketOverflowPolicy(WebSocketOverflowPolicy.BLOCK));
             server.route("/test")
                     .register(TestHandler.class)
                     .register(FileHandler.class)
                     .register(ReqParamTestHandler.class)
-                    .register(ReqBodyTestHandler.class);
+                    .register(ReqBodyTestHandler.class)
+                    .register(StreamBodyTestHandler.class)
+                    .register(BinaryFileHandler.class)
+                    .register(PooledTestHandler.class)
+                    .register(StatelessTestHandler.class);
 
             server.openapi("/docs", new OpenAPIConfiguration(
                     "Flash Server",
@@ -34,6 +61,28 @@ public abstract class BaseTest {
             ), OpenAPIUITemplate.SWAGGER_UI);
 
             server.get("/test/param/:name", (req, res) -> "Hello, " + req.getRouteParam("name"));
+            server.get("/test/param/:name/greeting/:greeting", (req, res) -> req.getRouteParam("greeting") + ", " + req.getRouteParam("name"));
+            server.get("/test/param/admin/greeting/:greeting", (req, res) -> req.getRouteParam("greeting") + ", admin");
+            server.get("/test/assets/*", (req, res) -> "Asset " + req.getRouteParam("path"));
+            server.get("/test/assets/images/*", (req, res) -> "Image " + req.getRouteParam("path"));
+            server.get("/test/large", (req, res) -> {
+                byte[] body = new byte[3 * 1024 * 1024 + 17];
+                for (int i = 0; i < body.length; i++) {
+                    body[i] = (byte) (i % 251);
+                }
+                return body;
+            });
+            server.get("/test/largehead", (req, res) -> {
+                res.header("X-Large", "x".repeat(20000));
+                return "Large head";
+            });
+            server.get("/test/file", (req, res) -> FileBody.of(largeFile));
+            server.get("/test/fileregion", (req, res) -> FileBody.of(largeFile, 1000, 100));
+            server.get("/test/filegone", (req, res) -> FileBody.of(largeFile.resolveSibling(largeFile.getFileName() + ".gone"), 0, 100));
+            server.get("/test/ownserver", (req, res) -> {
+                res.header("Server", "Custom");
+                return "Own server";
+            });
 
             server.ws("/ws", new WebSocketHandler() {
                 @Override
@@ -69,6 +118,92 @@ public abstract class BaseTest {
                 }
             });
 
+            // "threads:count:size" makes each of the threads send count messages of size bytes at once,
+            // with 0 threads the callback sends them itself
+            server.ws("/ws/burst", new WebSocketHandler() {
+                @Override
+                public void onOpen(WebSocketSession session) {
+                }
+
+                @Override
+                public void onClose(WebSocketSession session, int statusCode, String reason) {
+                }
+
+                @Override
+                public void onMessage(WebSocketSession session, String message) {
+                    String[] params = message.split(":");
+                    int count = Integer.parseInt(params[1]);
+                    String padding = "x".repeat(Integer.parseInt(params[2]));
+                    if (params[0].equals("0")) {
+                        for (int i = 0; i < count; i++) {
+                            session.sendMessage("0:" + i + ":" + padding);
+                        }
+                    }
+                    for (int t = 0; t < Integer.parseInt(params[0]); t++) {
+                        int thread = t;
+                        Thread.startVirtualThread(() -> {
+                            for (int i = 0; i < count; i++) {
+                                session.sendMessage(thread + ":" + i + ":" + padding);
+                            }
+                        });
+                    }
+                }
+
+                @Override
+                public void onError(WebSocketSession session, Throwable error) {
+                }
+            });
+
+            // "sub:topic" and "unsub:topic" manage the subscriptions of the session
+            server.ws("/ws/topics", new WebSocketHandler() {
+                @Override
+                public void onOpen(WebSocketSession session) {
+                }
+
+                @Override
+                public void onClose(WebSocketSession session, int statusCode, String reason) {
+                }
+
+                @Override
+                public void onMessage(WebSocketSession session, String message) {
+                    String topic = message.substring(message.indexOf(':') + 1);
+                    if (message.startsWith("sub:")) {
+                        server.subscribe(topic, session);
+                    } else {
+                        server.unsubscribe(topic, session);
+                    }
+                    session.sendMessage("ok " + message);
+                }
+
+                @Override
+                public void onError(WebSocketSession session, Throwable error) {
+                }
+            });
+
+            // Echoes text reversed, once keeping a compression context and once without
+            WebSocketHandler reverser = new WebSocketHandler() {
+                @Override
+                public void onOpen(WebSocketSession session) {
+                }
+
+                @Override
+                public void onClose(WebSocketSession session, int statusCode, String reason) {
+                }
+
+                @Override
+                public void onMessage(WebSocketSession session, String message) {
+                    session.sendMessage(new StringBuilder(message).reverse().toString());
+                }
+
+                @Override
+                public void onError(WebSocketSession session, Throwable error) {
+                }
+            };
+            server.ws("/ws/deflate", reverser, new PerMessageDeflate().setMinMessageSize(16));
+            server.ws("/ws/deflate/nocontext", reverser, new PerMessageDeflate()
+                    .setMinMessageSize(16)
+                    .setServerContextTakeover(false));
+
             Thread serverThread = new Thread(() -> {
                 try {
                     server.start();
@@ -80,4 +215,26 @@ public abstract class BaseTest {
             serverThread.start();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Writes a file larger than the windows file bodies are mapped in, filled with i % 251.
+     */
+    private static Path createLargeFile() {
+        try {
+            Path file = Files.createTempFile("flash-large", ".bin");
+            file.toFile().deleteOnExit();
+            byte[] block = new byte[251 * 4096];
+            for (int i = 0; i < block.length; i++) {
+                block[i] = (byte) (i % 251);
+            }
+            try (OutputStream out = Files.newOutputStream(file)) {
+                for (int written = 0; written < LARGE_FILE_SIZE; written += block.length) {
+                    out.write(block, 0, Math.min(block.length, LARGE_FILE_SIZE - written));
+                }
+            }
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.pixelervices.flash.handlers;
+
+import com.pixelservices.flash.components.http.expected.ExpectedBodyField;
+import com.pixelservices.flash.components.http.expected.ExpectedBodyFile;
+import com.pixelservices.flash.components.http.RequestHandler;
+import com.pixelservices.flash.components.http.lifecycle.Request;
+import com.pixelservices.flash.components.http.lifecycle.Response;
+import com.pixelservices.flash.components.http.HttpMethod;
+import com.pixelservices.flash.components.http.routing.models.RouteInfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+@RouteInfo(method = HttpMethod.POST, endpoint = "/file/binary")
+public class BinaryFileHandler extends RequestHandler {
+    private final ExpectedBodyFile expectedBodyFile;
+    private final ExpectedBodyField label;
+
+    public BinaryFileHandler(Request req, Response res) {
+        super(req, res);
+        expectedBodyFile = expectedBodyFile("file", "Expected binary file");
+        label = expectedBodyField("label", "Expected label");
+    }
+
+    @Override
+    public Object handle() {
+        try (InputStream in = expectedBodyFile.getInputStream()) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] chunk = new byte[8192];
+            long size = 0;
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                digest.update(chunk, 0, n);
+                size += n;
+            }
+            return label.getString() + ":" + size + ":" + HexFormat.of().formatHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            res.status(500);
+            return "Error";
+        }
+    }
+}
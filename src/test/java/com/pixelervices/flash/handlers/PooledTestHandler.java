@@ -0,0 +1,30 @@
+package com.pixelervices.flash.handlers;
+
+import com.pixelservices.flash.components.http.expected.ExpectedRequestParameter;
+import com.pixelservices.flash.components.http.RequestHandler;
+import com.pixelservices.flash.components.http.lifecycle.Request;
+import com.pixelservices.flash.components.http.lifecycle.Response;
+import com.pixelservices.flash.components.http.HttpMethod;
+import com.pixelservices.flash.components.http.routing.models.RouteInfo;
+
+@RouteInfo(method = HttpMethod.GET, endpoint = "/pooled")
+public class PooledTestHandler extends RequestHandler {
+    private final ExpectedRequestParameter id;
+
+    public PooledTestHandler(Request req, Response res) {
+        super(req, res);
+        id = expectedRequestParameter("id", "Identifies the request");
+    }
+
+    @Override
+    public Object handle() {
+        String first = id.getString();
+        try {
+            // Give concurrent requests the chance to overwrite a shared instance
+            Thread.sleep(20);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "Pooled " + first + " " + id.getString();
+    }
+}
@@ -0,0 +1,23 @@
+package com.pixelervices.flash.handlers;
+
+import com.pixelservices.flash.components.http.StatelessRequestHandler;
+import com.pixelservices.flash.components.http.lifecycle.Request;
+import com.pixelservices.flash.components.http.lifecycle.Response;
+import com.pixelservices.flash.components.http.HttpMethod;
+import com.pixelservices.flash.components.http.routing.models.RouteInfo;
+
+@RouteInfo(method = HttpMethod.GET, endpoint = "/stateless/:id")
+public class StatelessTestHandler extends StatelessRequestHandler {
+
+    @Override
+    public Object handle(Request req, Response res) {
+        String first = req.getRouteParam("id");
+        try {
+            // Concurrent requests share this instance, the arguments must still be their own
+            Thread.sleep(20);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "Stateless " + first + " " + req.getRouteParam("id");
+    }
+}
@@ -0,0 +1,38 @@
+package com.pixelervices.flash.handlers;
+
+import com.pixelservices.flash.components.http.RequestHandler;
+import com.pixelservices.flash.components.http.lifecycle.Request;
+import com.pixelservices.flash.components.http.lifecycle.Response;
+import com.pixelservices.flash.components.http.HttpMethod;
+import com.pixelservices.flash.components.http.routing.models.RouteInfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+@RouteInfo(method = HttpMethod.POST, endpoint = "/stream", streamBody = true)
+public class StreamBodyTestHandler extends RequestHandler {
+
+    public StreamBodyTestHandler(Request req, Response res) {
+        super(req, res);
+    }
+
+    @Override
+    public Object handle() {
+        long total = 0;
+        long checksum = 0;
+        byte[] chunk = new byte[8192];
+        try (InputStream in = req.bodyStream()) {
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                for (int i = 0; i < n; i++) {
+                    checksum += chunk[i] & 0xFF;
+                }
+                total += n;
+            }
+        } catch (IOException e) {
+            res.status(500);
+            return "Error: " + e.getMessage();
+        }
+        return "Received: " + total + " bytes, checksum " + checksum;
+    }
+}
@@ -0,0 +1,174 @@
+package com.pixelervices.flash.tests;
+
+import com.pixelervices.flash.BaseTest;
+import com.pixelervices.flash.utils.RequestPerformer;
+import com.pixelservices.flash.components.fileserver.AssetCache;
+import com.pixelservices.flash.components.fileserver.SourceType;
+import com.pixelservices.flash.components.fileserver.StaticFileServerConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class AssetCacheTest extends BaseTest {
+    private static final String BASE_URL = "http://localhost:8080";
+
+    @Before
+    public void awaitServer() throws InterruptedException {
+        for (int attempt = 0; RequestPerformer.sendGetRequest(BASE_URL + "/test/helloworld") == null; attempt++) {
+            if (attempt == 50) throw new AssertionError("Server did not start");
+            Thread.sleep(100);
+        }
+    }
+
+    @Test
+    public void testBudgetIsKept() {
+        AssetCache cache = new AssetCache(10_000);
+        for (int i = 0; i < 10; i++) {
+            String key = "/asset" + i;
+            // Each asset is requested more often than the previous one, so it wins admission
+            for (int miss = 0; miss <= i; miss++) {
+                assertNull(cache.get(key));
+            }
+            cache.put(key, new byte[3000]);
+            assertTrue(cache.contains(key));
+            assertTrue(cache.getSize() <= 10_000);
+        }
+        assertTrue(cache.getEvictionCount() > 0);
+        cache.put("/huge", new byte[20_000]);
+        assertFalse(cache.contains("/huge"));
+        assertEquals(1, cache.getRejectionCount());
+    }
+
+    @Test
+    public void testRejectedAssetsAreNotLoadedAgain() throws Exception {
+        AssetCache cache = new AssetCache(16_000);
+        for (int i = 0; i < 5; i++) {
+            String key = "/hot" + i;
+            cache.put(key, new byte[3200]);
+            for (int hit = 0; hit < 50; hit++) {
+                assertNotNull(cache.get(key));
+            }
+        }
+        int[] loads = new int[1];
+        AssetCache.Loader loader = () -> {
+            loads[0]++;
+            return new byte[1000];
+        };
+        AssetCache.Asset first = cache.getAsset("/cold", loader);
+        assertFalse(cache.contains("/cold"));
+        for (int request = 0; request < 10; request++) {
+            assertSame(first, cache.getAsset("/cold", loader));
+        }
+        assertEquals(1, loads[0]);
+
+        cache.remove("/cold");
+        assertNotSame(first, cache.getAsset("/cold", loader));
+        assertEquals(2, loads[0]);
+    }
+
+    @Test
+    public void testHotAssetsSurviveScan() throws Exception {
+        AssetCache cache = new AssetCache(10_000);
+        for (int i = 0; i < 3; i++) {
+            String key = "/hot" + i;
+            cache.put(key, new byte[3000]);
+            for (int hit = 0; hit < 200; hit++) {
+                assertNotNull(cache.get(key));
+            }
+        }
+        for (int i = 0; i < 100; i++) {
+            String key = "/cold" + i;
+            assertEquals(3000, cache.get(key, () -> new byte[3000]).length);
+        }
+        for (int i = 0; i < 3; i++) {
+            assertTrue(cache.contains("/hot" + i));
+        }
+        assertTrue(cache.getRejectionCount() > 0);
+    }
+
+    @Test
+    public void testStaticFilesLoadLazily() throws Exception {
+        Path root = Files.createTempDirectory("flash-assets");
+        for (int i = 0; i < 5; i++) {
+            byte[] content = new byte[4000];
+            Arrays.fill(content, (byte) ('a' + i));
+            Files.write(root.resolve("file" + i + ".txt"), content);
+        }
+        AssetCache cache = server.serveStatic("/cached",
+                new StaticFileServerConfiguration(false, false, root.toString(), SourceType.FILESYSTEM)
+                        .setCacheMaxBytes(10_000));
+        assertEquals(0, cache.getEntryCount());
+
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 5; i++) {
+                HttpURLConnection conn = (HttpURLConnection) new URL(BASE_URL + "/cached/file" + i + ".txt").openConnection();
+                assertEquals(200, conn.getResponseCode());
+                byte[] body;
+                try (InputStream in = conn.getInputStream()) {
+                    body = in.readAllBytes();
+                }
+                assertEquals(4000, body.length);
+                assertEquals((byte) ('a' + i), body[0]);
+            }
+        }
+        assertTrue(cache.getSize() <= 10_000);
+        assertTrue(cache.getEntryCount() > 0);
+        assertTrue(cache.getMissCount() >= 5);
+    }
+
+    @Test
+    public void testOffHeapAssetsAreSharedViews() throws Exception {
+        AssetCache cache = new AssetCache(10_000, true);
+        ByteBuffer loaded = cache.getBuffer("/asset", () -> new byte[]{1, 2, 3});
+        assertTrue(loaded.isDirect());
+        assertTrue(loaded.isReadOnly());
+        assertEquals(3, loaded.remaining());
+
+        ByteBuffer cached = cache.getBuffer("/asset");
+        assertNotNull(cached);
+        assertEquals(loaded, cached);
+        cached.position(3);
+        assertEquals(3, cache.getBuffer("/asset").remaining());
+        assertArrayEquals(new byte[]{1, 2, 3}, cache.get("/asset"));
+    }
+
+    @Test
+    public void testOffHeapStaticFiles() throws Exception {
+        Path root = Files.createTempDirectory("flash-offheap");
+        Files.writeString(root.resolve("page.html"), "<html>Off heap</html>");
+        AssetCache cache = server.serveStatic("/offheap",
+                new StaticFileServerConfiguration(false, false, root.toString(), SourceType.FILESYSTEM)
+                        .setCacheOffHeap(true));
+        assertTrue(cache.isOffHeap());
+
+        for (int i = 0; i < 2; i++) {
+            assertEquals("<html>Off heap</html>", RequestPerformer.sendGetRequest(BASE_URL + "/offheap/page.html"));
+        }
+        assertEquals(1, cache.getHitCount());
+
+        HttpURLConnection conn = (HttpURLConnection) new URL(BASE_URL + "/offheap/page.html").openConnection();
+        conn.setRequestProperty("Range", "bytes=6-13");
+        assertEquals(206, conn.getResponseCode());
+        assertEquals("bytes 6-13/21", conn.getHeaderField("Content-Range"));
+        try (InputStream in = conn.getInputStream()) {
+            assertEquals("Off heap", new String(in.readAllBytes()));
+        }
+
+        for (String range : new String[]{"bytes=21-", "bytes=30-40", "bytes=9-4"}) {
+            conn = (HttpURLConnection) new URL(BASE_URL + "/offheap/page.html").openConnection();
+            conn.setRequestProperty("Range", range);
+            assertEquals(416, conn.getResponseCode());
+            assertEquals("HTTP/1.1 416 Range Not Satisfiable", conn.getHeaderField(0));
+            assertEquals("bytes */21", conn.getHeaderField("Content-Range"));
+        }
+    }
+}
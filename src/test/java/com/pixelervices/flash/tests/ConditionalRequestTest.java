@@ -0,0 +1,134 @@
+package com.pixelervices.flash.tests;
+
+import com.pixelervices.flash.BaseTest;
+import com.pixelervices.flash.utils.RequestPerformer;
+import com.pixelservices.flash.components.fileserver.DynamicFileServerConfiguration;
+import com.pixelservices.flash.components.fileserver.SourceType;
+import com.pixelservices.flash.components.fileserver.StaticFileServerConfiguration;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class ConditionalRequestTest extends BaseTest {
+    private static final String BASE_URL = "http://localhost:8080";
+    private static boolean served;
+
+    @BeforeClass
+    public static void serveFiles() throws IOException {
+        if (served) return;
+        served = true;
+        Path root = Files.createTempDirectory("flash-conditional");
+        Files.writeString(root.resolve("page.html"), "<p>revalidate me</p>\n".repeat(50));
+        server.serveStatic("/conditional", new StaticFileServerConfiguration(false, false, root.toString(), SourceType.FILESYSTEM));
+
+        Path app = Files.createTempDirectory("flash-conditional-app");
+        Files.writeString(app.resolve("index.html"), "<p>app</p>");
+        Files.writeString(app.resolve("data.txt"), "0123456789");
+        server.serveDynamic("/conditional-app", new DynamicFileServerConfiguration(false, app.toString(), "index.html", SourceType.FILESYSTEM));
+    }
+
+    @Before
+    public void awaitServer() throws InterruptedException {
+        for (int attempt = 0; RequestPerformer.sendGetRequest(BASE_URL + "/test/helloworld") == null; attempt++) {
+            if (attempt == 50) throw new AssertionError("Server did not start");
+            Thread.sleep(100);
+        }
+    }
+
+    @Test
+    public void testValidators() throws Exception {
+        HttpURLConnection conn = request(null, null);
+        assertEquals(200, conn.getResponseCode());
+        String etag = conn.getHeaderField("ETag");
+        assertNotNull(etag);
+        assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+        assertNotNull(conn.getHeaderField("Last-Modified"));
+        assertEquals(etag, request(null, null).getHeaderField("ETag"));
+    }
+
+    @Test
+    public void testIfNoneMatch() throws Exception {
+        String etag = request(null, null).getHeaderField("ETag");
+
+        HttpURLConnection conn = request("If-None-Match", etag);
+        assertEquals(304, conn.getResponseCode());
+        assertEquals(etag, conn.getHeaderField("ETag"));
+        assertNull(conn.getHeaderField("Content-Length"));
+
+        assertEquals(304, request("If-None-Match", "\"other\", W/" + etag).getResponseCode());
+        assertEquals(304, request("If-None-Match", "*").getResponseCode());
+
+        conn = request("If-None-Match", "\"other\"");
+        assertEquals(200, conn.getResponseCode());
+        try (InputStream in = conn.getInputStream()) {
+            assertTrue(in.readAllBytes().length > 0);
+        }
+    }
+
+    @Test
+    public void testIfModifiedSince() throws Exception {
+        String lastModified = request(null, null).getHeaderField("Last-Modified");
+
+        assertEquals(304, request("If-Modified-Since", lastModified).getResponseCode());
+        assertEquals(200, request("If-Modified-Since", "Thu, 01 Jan 1970 00:00:00 GMT").getResponseCode());
+        assertEquals(200, request("If-Modified-Since", "yesterday").getResponseCode());
+    }
+
+    @Test
+    public void testEncodingsHaveTheirOwnETag() throws Exception {
+        String identity = request(null, null).getHeaderField("ETag");
+
+        HttpURLConnection conn = (HttpURLConnection) new URL(BASE_URL + "/conditional/page.html").openConnection();
+        conn.setRequestProperty("Accept-Encoding", "gzip");
+        assertEquals("gzip", conn.getHeaderField("Content-Encoding"));
+        String gzip = conn.getHeaderField("ETag");
+        assertNotNull(gzip);
+        assertNotEquals(identity, gzip);
+
+        conn = (HttpURLConnection) new URL(BASE_URL + "/conditional/page.html").openConnection();
+        conn.setRequestProperty("Accept-Encoding", "gzip");
+        conn.setRequestProperty("If-None-Match", identity);
+        assertEquals(200, conn.getResponseCode());
+    }
+
+    @Test
+    public void testDynamicFilesMatchStaticFiles() throws Exception {
+        URL url = new URL(BASE_URL + "/conditional-app/data.txt");
+        String lastModified = ((HttpURLConnection) url.openConnection()).getHeaderField("Last-Modified");
+        assertNotNull(lastModified);
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestProperty("If-Modified-Since", lastModified);
+        assertEquals(304, conn.getResponseCode());
+
+        conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestProperty("Range", "bytes=2-4");
+        assertEquals(206, conn.getResponseCode());
+        assertEquals("bytes 2-4/10", conn.getHeaderField("Content-Range"));
+
+        for (String range : new String[]{"bytes=10-", "bytes=7-3"}) {
+            conn = (HttpURLConnection) url.openConnection();
+            conn.setRequestProperty("Range", range);
+            assertEquals(416, conn.getResponseCode());
+            assertEquals("bytes */10", conn.getHeaderField("Content-Range"));
+        }
+    }
+
+    private static HttpURLConnection request(String header, String value) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(BASE_URL + "/conditional/page.html").openConnection();
+        // Validate the identity representation, encodings carry ETags of their own
+        conn.setRequestProperty("Accept-Encoding", "identity");
+        if (header != null) {
+            conn.setRequestProperty(header, value);
+        }
+        return conn;
+    }
+}
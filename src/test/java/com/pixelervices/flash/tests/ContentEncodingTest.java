@@ -0,0 +1,113 @@
+package com.pixelervices.flash.tests;
+
+import com.pixelervices.flash.BaseTest;
+import com.pixelervices.flash.utils.RequestPerformer;
+import com.pixelservices.flash.components.fileserver.ContentEncoding;
+import com.pixelservices.flash.components.fileserver.SourceType;
+import com.pixelservices.flash.components.fileserver.StaticFileServerConfiguration;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+public class ContentEncodingTest extends BaseTest {
+    private static final String BASE_URL = "http://localhost:8080";
+    private static final String SCRIPT = "console.log('compress me');\n".repeat(100);
+    private static boolean served;
+
+    @BeforeClass
+    public static void serveFiles() throws IOException {
+        if (served) return;
+        served = true;
+        Path root = Files.createTempDirectory("flash-encoding");
+        Files.writeString(root.resolve("app.js"), SCRIPT);
+        Files.writeString(root.resolve("tiny.css"), "body{}");
+        Files.writeString(root.resolve("style.css"), "p { color: red; }\n".repeat(100));
+        // A precompressed sibling whose content differs, to tell it apart from on-the-fly compression
+        Files.write(root.resolve("style.css.gz"), ContentEncoding.GZIP.encode("/* precompressed */".getBytes(StandardCharsets.UTF_8)));
+        server.serveStatic("/encoded", new StaticFileServerConfiguration(false, false, root.toString(), SourceType.FILESYSTEM));
+    }
+
+    @Before
+    public void awaitServer() throws InterruptedException {
+        for (int attempt = 0; RequestPerformer.sendGetRequest(BASE_URL + "/test/helloworld") == null; attempt++) {
+            if (attempt == 50) throw new AssertionError("Server did not start");
+            Thread.sleep(100);
+        }
+    }
+
+    @Test
+    public void testNegotiation() {
+        assertNull(ContentEncoding.negotiate(null));
+        assertNull(ContentEncoding.negotiate("identity"));
+        assertNull(ContentEncoding.negotiate("gzip;q=0, deflate;q=0"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("deflate, gzip, br"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0.5, deflate"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0, *"));
+        assertTrue(ContentEncoding.isCompressible("/app/main.js"));
+        assertFalse(ContentEncoding.isCompressible("/media/clip.mp4"));
+    }
+
+    @Test
+    public void testGzip() throws Exception {
+        HttpURLConnection conn = request("/encoded/app.js", "gzip, deflate");
+        assertEquals("gzip", conn.getHeaderField("Content-Encoding"));
+        assertEquals("Accept-Encoding", conn.getHeaderField("Vary"));
+        assertTrue(conn.getContentLength() < SCRIPT.length());
+        try (InputStream in = new GZIPInputStream(conn.getInputStream())) {
+            assertEquals(SCRIPT, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testDeflate() throws Exception {
+        HttpURLConnection conn = request("/encoded/app.js", "deflate");
+        assertEquals("deflate", conn.getHeaderField("Content-Encoding"));
+        try (InputStream in = new InflaterInputStream(conn.getInputStream())) {
+            assertEquals(SCRIPT, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testIdentity() throws Exception {
+        HttpURLConnection conn = request("/encoded/app.js", null);
+        assertNull(conn.getHeaderField("Content-Encoding"));
+        assertEquals("Accept-Encoding", conn.getHeaderField("Vary"));
+        try (InputStream in = conn.getInputStream()) {
+            assertEquals(SCRIPT, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        conn = request("/encoded/tiny.css", "gzip");
+        assertNull(conn.getHeaderField("Content-Encoding"));
+    }
+
+    @Test
+    public void testGzipSibling() throws Exception {
+        HttpURLConnection conn = request("/encoded/style.css", "gzip");
+        assertEquals("gzip", conn.getHeaderField("Content-Encoding"));
+        assertEquals("text/css", conn.getHeaderField("Content-Type"));
+        try (InputStream in = new GZIPInputStream(conn.getInputStream())) {
+            assertEquals("/* precompressed */", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static HttpURLConnection request(String path, String acceptEncoding) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(BASE_URL + path).openConnection();
+        if (acceptEncoding != null) {
+            conn.setRequestProperty("Accept-Encoding", acceptEncoding);
+        }
+        assertEquals(200, conn.getResponseCode());
+        return conn;
+    }
+}
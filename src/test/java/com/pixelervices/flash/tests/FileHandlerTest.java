@@ -7,6 +7,9 @@ import org.junit.Test;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -23,6 +26,20 @@ public class FileHandlerTest extends BaseTest {
         }
     }
 
+    @Test
+    public void testBinaryFileIsKeptByteForByte() throws Exception {
+        // Larger than the default spill threshold, with CR, LF and dashes all over the place
+        byte[] content = new byte[3 * 1024 * 1024 + 17];
+        new Random(42).nextBytes(content);
+        for (int i = 0; i < content.length; i += 997) {
+            content[i] = '\r';
+            if (i + 1 < content.length) content[i + 1] = '\n';
+            if (i + 3 < content.length) content[i + 2] = content[i + 3] = '-';
+        }
+        String expected = "upload:" + content.length + ":" + HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        assertEquals(expected, FileUploader.uploadBinaryFile("http://localhost:8080/test/file/binary", content, "upload"));
+    }
+
     private File createInMemoryFile(String content) {
         try {
             File file = File.createTempFile("test", ".txt");
@@ -0,0 +1,177 @@
+package com.pixelervices.flash.tests;
+
+import com.pixelervices.flash.BaseTest;
+import com.pixelervices.flash.handlers.PooledTestHandler;
+import com.pixelervices.flash.handlers.StatelessTestHandler;
+import com.pixelervices.flash.utils.RequestPerformer;
+import com.pixelservices.flash.components.http.RequestHandler;
+import com.pixelservices.flash.components.http.pool.HandlerFactory;
+import com.pixelservices.flash.components.http.pool.HandlerPool;
+import com.pixelservices.flash.exceptions.HandlerUnavailableException;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class HandlerPoolTest extends BaseTest {
+    private static final String BASE_URL = "http://localhost:8080";
+
+    @Before
+    public void awaitServer() throws InterruptedException {
+        for (int attempt = 0; RequestPerformer.sendGetRequest(BASE_URL + "/test/helloworld") == null; attempt++) {
+            if (attempt == 50) throw new AssertionError("Server did not start");
+            Thread.sleep(100);
+        }
+    }
+
+    @Test
+    public void testConcurrentRequestsGetTheirOwnHandler() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<String>> responses = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                String id = String.valueOf(i);
+                responses.add(executor.submit(() -> RequestPerformer.sendGetRequest(BASE_URL + "/test/pooled?id=" + id)));
+            }
+            for (int i = 0; i < responses.size(); i++) {
+                assertEquals("Pooled " + i + " " + i, responses.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPoolStatisticsAreReported() {
+        assertNotNull(RequestPerformer.sendGetRequest(BASE_URL + "/test/pooled?id=0"));
+
+        JSONObject info = new JSONObject(RequestPerformer.sendGetRequest(BASE_URL + "/_flash/devtools/api/handlerpool"));
+        JSONArray pools = info.getJSONArray("pools");
+        JSONObject pool = null;
+        for (int i = 0; i < pools.length(); i++) {
+            if (pools.getJSONObject(i).getString("handlerName").equals("PooledTestHandler")) {
+                pool = pools.getJSONObject(i);
+            }
+        }
+        assertNotNull(pool);
+        assertTrue(pool.getInt("totalSize") >= 1);
+        assertTrue(pool.getInt("availableHandlers") <= pool.getInt("totalSize"));
+        assertTrue(pool.getInt("stripes") >= 1);
+    }
+
+    @Test
+    public void testExhaustedPoolTimesOut() {
+        HandlerPool<PooledTestHandler> pool = new HandlerPool<>(PooledTestHandler.class, 1, 1, 1, 1);
+        pool.setAcquireTimeout(50, TimeUnit.MILLISECONDS);
+
+        PooledTestHandler handler = pool.acquire(null, null);
+        assertThrows(HandlerUnavailableException.class, () -> pool.acquire(null, null));
+        assertEquals(1, pool.getTimeoutCount());
+        assertEquals(0, pool.getWaitingCount());
+
+        pool.release(handler);
+        assertSame(handler, pool.acquire(null, null));
+    }
+
+    @Test
+    public void testTryAcquireNeverWaits() {
+        HandlerPool<PooledTestHandler> pool = new HandlerPool<>(PooledTestHandler.class, 1, 1, 1, 1);
+        pool.setAcquireTimeout(0, TimeUnit.MILLISECONDS);
+
+        PooledTestHandler handler = pool.tryAcquire(null, null);
+        assertNotNull(handler);
+        assertNull(pool.tryAcquire(null, null));
+        assertEquals(0, pool.getPeakWaitingCount());
+
+        pool.release(handler);
+        assertSame(handler, pool.tryAcquire(null, null));
+    }
+
+    @Test
+    public void testRaisedMaximumKeepsReleasedHandlers() {
+        HandlerPool<PooledTestHandler> pool = new HandlerPool<>(PooledTestHandler.class, 0, 1, 2, 2);
+        pool.updatePoolSizeConstraints(1, 100);
+
+        List<PooledTestHandler> handlers = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            handlers.add(pool.tryAcquire(null, null));
+        }
+        assertNull(pool.tryAcquire(null, null));
+        handlers.forEach(pool::release);
+        assertEquals(100, pool.getTotalSize());
+        assertEquals(100, pool.getAvailableHandlers());
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(handlers.contains(pool.tryAcquire(null, null)));
+        }
+    }
+
+    @Test
+    public void testWaitersAreServedInOrder() throws Exception {
+        HandlerPool<PooledTestHandler> pool = new HandlerPool<>(PooledTestHandler.class, 1, 1, 1, 1);
+        pool.setAcquireTimeout(0, TimeUnit.MILLISECONDS);
+        PooledTestHandler handler = pool.acquire(null, null);
+
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> waiters = new ArrayList<>();
+        for (String name : List.of("first", "second", "third")) {
+            Thread waiter = Thread.ofVirtual().start(() -> {
+                PooledTestHandler acquired = pool.acquire(null, null);
+                order.add(name);
+                pool.release(acquired);
+            });
+            waiters.add(waiter);
+            awaitWaiting(pool, waiters.size());
+        }
+        assertEquals(3, pool.getPeakWaitingCount());
+
+        pool.release(handler);
+        for (Thread waiter : waiters) {
+            waiter.join(5000);
+        }
+        assertEquals(List.of("first", "second", "third"), order);
+        assertEquals(0, pool.getWaitingCount());
+    }
+
+    @Test
+    public void testFactoryIsResolvedOncePerClass() {
+        Supplier<PooledTestHandler> factory = HandlerFactory.of(PooledTestHandler.class);
+        assertSame(factory, HandlerFactory.of(PooledTestHandler.class));
+        assertTrue(HandlerFactory.of(StatelessTestHandler.class).getClass().isHidden());
+        assertNotSame(factory.get(), factory.get());
+        assertNotNull(HandlerFactory.of(StatelessTestHandler.class).get());
+        assertThrows(IllegalArgumentException.class, () -> HandlerFactory.of(UnconstructibleHandler.class));
+
+        HandlerPool<PooledTestHandler> pool = new HandlerPool<>(PooledTestHandler.class, 1, 1, 1, 1);
+        assertEquals("PooledTestHandler", pool.getHandlerName());
+    }
+
+    private static void awaitWaiting(HandlerPool<?> pool, int expected) throws InterruptedException {
+        for (int attempt = 0; pool.getWaitingCount() < expected; attempt++) {
+            if (attempt == 500) throw new AssertionError("Waiter did not queue up");
+            Thread.sleep(10);
+        }
+    }
+
+    public static class UnconstructibleHandler extends RequestHandler {
+        public UnconstructibleHandler(String unused) {
+            super(null, null);
+        }
+
+        @Override
+        public Object handle() {
+            return null;
+        }
+    }
+}
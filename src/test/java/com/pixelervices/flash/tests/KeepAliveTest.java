@@ -0,0 +1,196 @@
+package com.pixelervices.flash.tests;
+
+import com.pixelervices.flash.BaseTest;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class KeepAliveTest extends BaseTest {
+
+    @Test
+    public void testConnectionIsReused() throws Exception {
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+
+            out.write("GET /test/helloworld HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            assertTrue(readResponse(in).endsWith("Hello, World!"));
+
+            out.write("GET /test/helloworld HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            String second = readResponse(in);
+            assertTrue(second.contains("Connection: close"));
+            assertTrue(second.endsWith("Hello, World!"));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void testPipelinedResponsesKeepRequestOrder() throws Exception {
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+
+            StringBuilder pipeline = new StringBuilder();
+            for (int i = 0; i < 5; i++) {
+                pipeline.append("GET /test/param/req").append(i).append(" HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            }
+            pipeline.append("GET /test/helloworld HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+            out.write(pipeline.toString().getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            for (int i = 0; i < 5; i++) {
+                assertTrue(readResponse(in).endsWith("Hello, req" + i));
+            }
+            assertTrue(readResponse(in).endsWith("Hello, World!"));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void testRequestSplitAcrossWrites() throws Exception {
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+
+            String[] fragments = {"GET /test/req", "param?testParam=John HTTP/1.1\r\nHo", "st: localhost\r\ncOnNeCtIoN: close\r", "\n\r\n"};
+            for (String fragment : fragments) {
+                out.write(fragment.getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                Thread.sleep(50);
+            }
+            assertTrue(readResponse(in).endsWith("Test param: John"));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void testHttp10ClosesByDefault() throws Exception {
+        try (Socket socket = connect()) {
+            socket.getOutputStream().write("GET /test/helloworld HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            InputStream in = socket.getInputStream();
+            assertTrue(readResponse(in).endsWith("Hello, World!"));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void testErrorResponsesKeepConnection() throws Exception {
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+
+            out.write(("GET /test/missing HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+                    "GET /test/helloworld HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            String error = readResponse(in);
+            assertFalse(error.startsWith("HTTP/1.1 2"));
+            assertFalse(error.contains("Connection: close"));
+            assertTrue(readResponse(in).endsWith("Hello, World!"));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void testChunkedRequestIsRefusedAndNotSmuggled() throws Exception {
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+
+            // Read as an empty body, the chunk would frame a second request
+            out.write(("POST /test/helloworld HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n" +
+                    "2e\r\nGET /test/param/smuggled HTTP/1.1\r\nHost: x\r\n\r\n\r\n0\r\n\r\n" +
+                    "GET /test/helloworld HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            String response = readResponse(in);
+            assertTrue(response.startsWith("HTTP/1.1 501 Not Implemented\r\n"));
+            assertTrue(response.contains("Connection: close"));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void testAmbiguousBodyLengthIsRejected() throws Exception {
+        String[] heads = {
+                "Transfer-Encoding: chunked\r\nContent-Length: 3\r\n",
+                "Content-Length: 3\r\nContent-Length: 3\r\n",
+                "Content-Length: 3\r\ncontent-length: 40\r\n"
+        };
+        for (String headers : heads) {
+            try (Socket socket = connect()) {
+                socket.getOutputStream().write(("POST /test/helloworld HTTP/1.1\r\nHost: localhost\r\n" + headers + "\r\nabc" +
+                        "GET /test/helloworld HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                InputStream in = socket.getInputStream();
+                assertTrue(readResponse(in).startsWith("HTTP/1.1 400 Bad Request\r\n"));
+                assertEquals(-1, in.read());
+            }
+        }
+    }
+
+    @Test
+    public void testOversizedRequestsAreRejected() throws Exception {
+        try (Socket socket = connect()) {
+            String header = "X-Filler: " + "a".repeat(70 * 1024) + "\r\n";
+            socket.getOutputStream().write(("GET /test/helloworld HTTP/1.1\r\nHost: localhost\r\n" + header + "\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            InputStream in = socket.getInputStream();
+            assertTrue(readResponse(in).startsWith("HTTP/1.1 431 Request Header Fields Too Large\r\n"));
+            assertEquals(-1, in.read());
+        }
+        try (Socket socket = connect()) {
+            socket.getOutputStream().write("POST /test/helloworld HTTP/1.1\r\nHost: localhost\r\nContent-Length: 2000000000\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            InputStream in = socket.getInputStream();
+            assertTrue(readResponse(in).startsWith("HTTP/1.1 413 Content Too Large\r\n"));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    private Socket connect() throws InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                Socket socket = new Socket("localhost", 8080);
+                socket.setSoTimeout(5000);
+                return socket;
+            } catch (IOException e) {
+                if (attempt == 50) throw new AssertionError("Server did not start", e);
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    /**
+     * Reads a single Content-Length delimited response without consuming anything past its body.
+     */
+    private String readResponse(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            head.write(b);
+            byte[] bytes = head.toByteArray();
+            int n = bytes.length;
+            if (n >= 4 && bytes[n - 4] == '\r' && bytes[n - 3] == '\n' && bytes[n - 2] == '\r' && bytes[n - 1] == '\n') {
+                break;
+            }
+        }
+        String headers = head.toString(StandardCharsets.US_ASCII);
+        int contentLength = 0;
+        for (String line : headers.split("\r\n")) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                contentLength = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        byte[] body = in.readNBytes(contentLength);
+        return headers + new String(body, StandardCharsets.UTF_8);
+    }
+}
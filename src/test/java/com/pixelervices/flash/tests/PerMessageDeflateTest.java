@@ -0,0 +1,176 @@
+package com.pixelervices.flash.tests;
+
+import com.pixelervices.flash.BaseTest;
+import com.pixelervices.flash.utils.RequestPerformer;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.handshake.ServerHandshake;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static com.pixelervices.flash.utils.RawWebSocket.*;
+import static org.junit.Assert.*;
+
+public class PerMessageDeflateTest extends BaseTest {
+    private static final String QUOTE = "{\"symbol\":\"AAPL\",\"bid\":187.25,\"ask\":187.27,\"volume\":1250000}";
+    private static final byte[] TAIL = {0x00, 0x00, (byte) 0xFF, (byte) 0xFF};
+
+    @Before
+    public void awaitServer() throws InterruptedException {
+        for (int attempt = 0; RequestPerformer.sendGetRequest("http://localhost:8080/test/helloworld") == null; attempt++) {
+            if (attempt == 50) throw new AssertionError("Server did not start");
+            Thread.sleep(100);
+        }
+    }
+
+    @Test
+    public void testCompressedMessagesWithContextTakeover() throws Exception {
+        try (Socket socket = new Socket("localhost", 8080)) {
+            String head = handshake(socket, "/ws/deflate", "permessage-deflate; client_max_window_bits");
+            assertTrue(head.contains("Sec-WebSocket-Extensions: permessage-deflate\r\n"));
+
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            Inflater inflater = new Inflater(true);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            int[] sizes = new int[2];
+            for (int i = 0; i < 2; i++) {
+                String message = QUOTE.repeat(20);
+                socket.getOutputStream().write(frame(0xC1, compress(deflater, message.getBytes(StandardCharsets.UTF_8))));
+                byte[] compressed = readFrame(in, 0xC1);
+                sizes[i] = compressed.length;
+                assertTrue(compressed.length < message.length() / 4);
+                assertEquals(new StringBuilder(message).reverse().toString(), inflate(inflater, compressed));
+            }
+            // The second message refers back to the first one
+            assertTrue(sizes[1] < sizes[0]);
+
+            // Short messages and uncompressed messages of the client stay uncompressed
+            socket.getOutputStream().write(frame(0x81, text("tiny")));
+            assertEquals("ynit", new String(readFrame(in, 0x81), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testSharedMessagesWithoutContextTakeover() throws Exception {
+        try (Socket first = new Socket("localhost", 8080); Socket second = new Socket("localhost", 8080)) {
+            String head = handshake(first, "/ws/deflate/nocontext", "permessage-deflate; client_no_context_takeover");
+            assertTrue(head.contains("Sec-WebSocket-Extensions: permessage-deflate; server_no_context_takeover; client_no_context_takeover\r\n"));
+            handshake(second, "/ws/deflate/nocontext", "permessage-deflate");
+            // Sessions are registered once they answer
+            for (Socket socket : new Socket[]{first, second}) {
+                socket.getOutputStream().write(frame(0x81, text("ready")));
+                assertEquals("ydaer", new String(readFrame(new DataInputStream(socket.getInputStream()), 0x81), StandardCharsets.UTF_8));
+            }
+
+            String update = QUOTE.repeat(10);
+            server.broadcast(update);
+            byte[] compressed = readFrame(new DataInputStream(first.getInputStream()), 0xC1);
+            assertArrayEquals(compressed, readFrame(new DataInputStream(second.getInputStream()), 0xC1));
+            assertEquals(update, inflate(new Inflater(true), compressed));
+        }
+    }
+
+    @Test
+    public void testServerWindowBitsAreEchoed() throws Exception {
+        try (Socket socket = new Socket("localhost", 8080)) {
+            String head = handshake(socket, "/ws/deflate", "permessage-deflate; server_max_window_bits=15");
+            assertTrue(head.contains("Sec-WebSocket-Extensions: permessage-deflate; server_max_window_bits=15\r\n"));
+
+            String message = QUOTE.repeat(20);
+            socket.getOutputStream().write(frame(0xC1, compress(new Deflater(Deflater.DEFAULT_COMPRESSION, true), message.getBytes(StandardCharsets.UTF_8))));
+            byte[] compressed = readFrame(new DataInputStream(socket.getInputStream()), 0xC1);
+            assertEquals(new StringBuilder(message).reverse().toString(), inflate(new Inflater(true), compressed));
+        }
+    }
+
+    @Test
+    public void testUnsupportedOffersAreDeclined() throws Exception {
+        try (Socket socket = new Socket("localhost", 8080)) {
+            String head = handshake(socket, "/ws/deflate", "permessage-deflate; server_max_window_bits=10, x-webkit-deflate-frame");
+            assertFalse(head.contains("Sec-WebSocket-Extensions"));
+            // Without the extension, RSV1 is a protocol error
+            socket.getOutputStream().write(frame(0xC1, text("compressed?")));
+            assertEquals(1002, closeCode(readFrame(new DataInputStream(socket.getInputStream()), 0x88)));
+        }
+        try (Socket socket = new Socket("localhost", 8080)) {
+            assertFalse(handshake(socket, "/ws", "permessage-deflate").contains("Sec-WebSocket-Extensions"));
+        }
+    }
+
+    @Test
+    public void testClientLibraryInterop() throws Exception {
+        BlockingQueue<String> received = new ArrayBlockingQueue<>(4);
+        WebSocketClient client = new WebSocketClient(new URI("ws://localhost:8080/ws/deflate"),
+                new Draft_6455(new PerMessageDeflateExtension())) {
+            @Override
+            public void onOpen(ServerHandshake handshake) {
+                send(QUOTE.repeat(50));
+            }
+
+            @Override
+            public void onMessage(String message) {
+                received.add(message);
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+            }
+
+            @Override
+            public void onError(Exception ex) {
+            }
+        };
+        assertTrue(client.connectBlocking(5, TimeUnit.SECONDS));
+        try {
+            assertEquals(new StringBuilder(QUOTE.repeat(50)).reverse().toString(), received.poll(5, TimeUnit.SECONDS));
+        } finally {
+            client.closeBlocking();
+        }
+    }
+
+    private static String handshake(Socket socket, String path, String extensions) throws IOException {
+        socket.setSoTimeout(5000);
+        socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n" +
+                "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n" +
+                "Sec-WebSocket-Extensions: " + extensions + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        InputStream in = socket.getInputStream();
+        String head = readHandshake(in);
+        assertTrue(head.startsWith("HTTP/1.1 101"));
+        return head;
+    }
+
+    private static byte[] compress(Deflater deflater, byte[] payload) {
+        deflater.setInput(payload);
+        byte[] out = new byte[payload.length + 64];
+        int length = deflater.deflate(out, 0, out.length, Deflater.SYNC_FLUSH);
+        return Arrays.copyOf(out, length - TAIL.length);
+    }
+
+    private static String inflate(Inflater inflater, byte[] compressed) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] input = Arrays.copyOf(compressed, compressed.length + TAIL.length);
+        System.arraycopy(TAIL, 0, input, compressed.length, TAIL.length);
+        inflater.setInput(input);
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = inflater.inflate(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,153 @@
+package com.pixelervices.flash.tests;
+
+import com.pixelervices.flash.BaseTest;
+import com.pixelervices.flash.utils.RequestPerformer;
+import com.pixelservices.flash.components.http.lifecycle.FileBody;
+import com.pixelservices.flash.components.http.lifecycle.Response;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static org.junit.Assert.*;
+
+public class ResponseWriteTest extends BaseTest {
+    private static final String BASE_URL = "http://localhost:8080/test";
+
+    @Before
+    public void awaitServer() throws InterruptedException {
+        for (int attempt = 0; RequestPerformer.sendGetRequest(BASE_URL + "/helloworld") == null; attempt++) {
+            if (attempt == 50) throw new AssertionError("Server did not start");
+            Thread.sleep(100);
+        }
+    }
+
+    @Test
+    public void testLargeBodyIsChunked() throws Exception {
+        HttpURLConnection conn = (HttpURLConnection) new URL(BASE_URL + "/large").openConnection();
+        assertEquals(200, conn.getResponseCode());
+        assertEquals("chunked", conn.getHeaderField("Transfer-Encoding"));
+        assertNull(conn.getHeaderField("Content-Length"));
+
+        byte[] body;
+        try (InputStream in = conn.getInputStream()) {
+            body = in.readAllBytes();
+        }
+        assertEquals(3 * 1024 * 1024 + 17, body.length);
+        for (int i = 0; i < body.length; i++) {
+            if (body[i] != (byte) (i % 251)) fail("Body differs at byte " + i);
+        }
+    }
+
+    @Test
+    public void testHeadLargerThanPooledBuffer() throws Exception {
+        HttpURLConnection conn = (HttpURLConnection) new URL(BASE_URL + "/largehead").openConnection();
+        assertEquals(200, conn.getResponseCode());
+        assertEquals(20000, conn.getHeaderField("X-Large").length());
+        assertEquals("10", conn.getHeaderField("Content-Length"));
+    }
+
+    @Test
+    public void testStatusLineAndHead() throws Exception {
+        try (Socket socket = new Socket("localhost", 8080)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /test/helloworld HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+            assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+            assertTrue(response.contains("\r\nContent-Type: text/plain\r\n"));
+            assertTrue(response.contains("\r\nContent-Length: 13\r\n"));
+            assertTrue(response.endsWith("\r\n\r\nHello, World!"));
+        }
+    }
+
+    @Test
+    public void testDefaultHeaders() throws Exception {
+        HttpURLConnection conn = (HttpURLConnection) new URL(BASE_URL + "/helloworld").openConnection();
+        assertEquals(200, conn.getResponseCode());
+        assertEquals("Flash", conn.getHeaderField("Server"));
+
+        String date = conn.getHeaderField("Date");
+        assertNotNull(date);
+        assertTrue(date.endsWith(" GMT"));
+        ZonedDateTime sent = ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME);
+        long skew = Math.abs(sent.toInstant().toEpochMilli() - System.currentTimeMillis());
+        assertTrue("Date is off by " + skew + "ms", skew < 5000);
+    }
+
+    @Test
+    public void testResponseHeaderOverridesDefault() throws Exception {
+        HttpURLConnection conn = (HttpURLConnection) new URL(BASE_URL + "/ownserver").openConnection();
+        assertEquals(200, conn.getResponseCode());
+        assertEquals("Custom", conn.getHeaderField("Server"));
+    }
+
+    @Test
+    public void testFileBody() throws Exception {
+        HttpURLConnection conn = (HttpURLConnection) new URL(BASE_URL + "/file").openConnection();
+        assertEquals(200, conn.getResponseCode());
+        assertNull(conn.getHeaderField("Transfer-Encoding"));
+        assertEquals(String.valueOf(LARGE_FILE_SIZE), conn.getHeaderField("Content-Length"));
+
+        byte[] body;
+        try (InputStream in = conn.getInputStream()) {
+            body = in.readAllBytes();
+        }
+        assertEquals(LARGE_FILE_SIZE, body.length);
+        for (int i = 0; i < body.length; i++) {
+            if (body[i] != (byte) (i % 251)) fail("Body differs at byte " + i);
+        }
+    }
+
+    @Test
+    public void testFileBodyRegion() throws Exception {
+        HttpURLConnection conn = (HttpURLConnection) new URL(BASE_URL + "/fileregion").openConnection();
+        assertEquals(200, conn.getResponseCode());
+
+        byte[] body;
+        try (InputStream in = conn.getInputStream()) {
+            body = in.readAllBytes();
+        }
+        assertEquals(100, body.length);
+        for (int i = 0; i < body.length; i++) {
+            assertEquals((byte) ((1000 + i) % 251), body[i]);
+        }
+    }
+
+    @Test
+    public void testMissingFileIsAnswered() throws Exception {
+        try (Socket socket = new Socket("localhost", 8080)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write("GET /test/filegone HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+            assertTrue(response.startsWith("HTTP/1.1 404 Not Found\r\n"));
+            assertTrue(response.contains("\r\nConnection: close\r\n"));
+            assertTrue(response.endsWith("\r\n\r\nFile not found"));
+        }
+    }
+
+    @Test
+    public void testHeaderBytesDoNotReadTheBody() {
+        // The file does not exist, reading it would fail
+        Response response = new Response().body(FileBody.of(Path.of("missing.bin"), 0, 5000));
+        String head = new String(response.getHeaderBytes(), StandardCharsets.US_ASCII);
+        assertTrue(head.contains("\r\nContent-Length: 5000\r\n"));
+
+        response = new Response().body(ByteBuffer.allocateDirect(300));
+        assertTrue(new String(response.getHeaderBytes(), StandardCharsets.US_ASCII).contains("\r\nContent-Length: 300\r\n"));
+    }
+}
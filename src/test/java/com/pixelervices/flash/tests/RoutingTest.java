@@ -0,0 +1,121 @@
+package com.pixelervices.flash.tests;
+
+import com.pixelervices.flash.BaseTest;
+import com.pixelervices.flash.utils.RequestPerformer;
+import com.pixelservices.flash.components.http.HttpMethod;
+import com.pixelservices.flash.components.http.routing.RoutingInstrumentation;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RoutingTest extends BaseTest {
+    private static final String BASE_URL = "http://localhost:8080/test";
+
+    @Before
+    public void awaitServer() throws InterruptedException {
+        for (int attempt = 0; RequestPerformer.sendGetRequest(BASE_URL + "/helloworld") == null; attempt++) {
+            if (attempt == 50) throw new AssertionError("Server did not start");
+            Thread.sleep(100);
+        }
+    }
+
+    @Test
+    public void testParametersAcrossSegments() {
+        assertEquals("Hello, John", get("/param/John"));
+        assertEquals("Hi, John", get("/param/John/greeting/Hi"));
+        assertEquals("Hello, John", get("/param/John?unused=1"));
+    }
+
+    @Test
+    public void testLiteralSegmentWinsOverParameter() {
+        assertEquals("Hey, admin", get("/param/admin/greeting/Hey"));
+        assertEquals("Hello, admin", get("/param/admin"));
+    }
+
+    @Test
+    public void testDynamicRouteMatchesLongestPrefix() {
+        assertEquals("Asset /test/assets", get("/assets"));
+        assertEquals("Asset /test/assets/css/site.css", get("/assets/css/site.css"));
+        assertEquals("Image /test/assets/images/logo.png", get("/assets/images/logo.png"));
+    }
+
+    @Test
+    public void testUnknownRouteIsNotFound() {
+        assertNull(get("/param/John/unknown"));
+        assertNull(get("/asset"));
+    }
+
+    @Test
+    public void testCachedMissIsDroppedWhenRoutesChange() {
+        assertNull(get("/late/route"));
+        assertNull(get("/late/route"));
+        server.get("/test/late/:name", (req, res) -> "Late " + req.getRouteParam("name"));
+        assertEquals("Late route", get("/late/route"));
+    }
+
+    @Test
+    public void testUnregisteredRouteStopsResolving() {
+        server.get("/test/removable/:name", (req, res) -> "Removable " + req.getRouteParam("name"));
+        assertEquals("Removable one", get("/removable/one"));
+        server.unregisterRoute(HttpMethod.GET, "/test/removable/:name");
+        assertNull(get("/removable/one"));
+        assertEquals("Hello, John", get("/param/John"));
+    }
+
+    @Test
+    public void testBatchedRouteChanges() {
+        server.batchRoutes(() -> {
+            for (int i = 0; i < 64; i++) {
+                String body = "Bulk " + i;
+                server.get("/test/bulk/file" + i, (req, res) -> body);
+            }
+        });
+        assertEquals("Bulk 63", get("/bulk/file63"));
+
+        server.batchRoutes(() -> {
+            for (int i = 0; i < 64; i += 2) {
+                server.unregisterRoute(HttpMethod.GET, "/test/bulk/file" + i);
+            }
+        });
+        for (int i = 0; i < 64; i++) {
+            if (i % 2 == 0) {
+                assertNull(get("/bulk/file" + i));
+            } else {
+                assertEquals("Bulk " + i, get("/bulk/file" + i));
+            }
+        }
+    }
+
+    @Test
+    public void testRepeatedLookupsHitTheCache() {
+        RoutingInstrumentation instrumentation = server.getRouteRegistry().getInstrumentation();
+        long before = instrumentation.getCacheHitCount();
+        for (int i = 0; i < 5; i++) {
+            assertEquals("Hello, Cached", get("/param/Cached"));
+        }
+        assertTrue(instrumentation.getCacheHitCount() - before >= 4);
+    }
+
+    @Test
+    public void testLookupsAreInstrumented() {
+        get("/param/Jane");
+        get("/missing");
+        RoutingInstrumentation instrumentation = server.getRouteRegistry().getInstrumentation();
+        assertNotNull(instrumentation);
+        assertTrue(instrumentation.getMissCount() > 0);
+
+        JSONObject stats = new JSONObject(RequestPerformer.sendGetRequest("http://localhost:8080/_flash/devtools/api/routing"));
+        assertTrue(stats.getLong("lookups") > 0);
+        boolean found = false;
+        for (Object route : stats.getJSONArray("routes")) {
+            found |= ((JSONObject) route).getString("path").equals("/test/param/:name");
+        }
+        assertTrue(found);
+    }
+
+    private String get(String endpoint) {
+        return RequestPerformer.sendGetRequest(BASE_URL + endpoint);
+    }
+}
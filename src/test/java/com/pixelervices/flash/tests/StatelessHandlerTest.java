@@ -0,0 +1,63 @@
+package com.pixelervices.flash.tests;
+
+import com.pixelervices.flash.BaseTest;
+import com.pixelervices.flash.utils.RequestPerformer;
+import com.pixelservices.flash.components.http.HttpMethod;
+import com.pixelservices.flash.components.http.routing.models.RouteMatch;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class StatelessHandlerTest extends BaseTest {
+    private static final String BASE_URL = "http://localhost:8080";
+
+    @Before
+    public void awaitServer() throws InterruptedException {
+        for (int attempt = 0; RequestPerformer.sendGetRequest(BASE_URL + "/test/helloworld") == null; attempt++) {
+            if (attempt == 50) throw new AssertionError("Server did not start");
+            Thread.sleep(100);
+        }
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneStatelessHandler() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<String>> responses = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                String id = String.valueOf(i);
+                responses.add(executor.submit(() -> RequestPerformer.sendGetRequest(BASE_URL + "/test/stateless/" + id)));
+            }
+            for (int i = 0; i < responses.size(); i++) {
+                assertEquals("Stateless " + i + " " + i, responses.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testStatelessRoutesBypassPooling() {
+        RouteMatch match = server.getRouteRegistry().resolveRoute(HttpMethod.GET, "/test/stateless/1");
+        assertNotNull(match.entry().getStatelessHandler());
+        assertNull(match.entry().getHandlerPool());
+
+        RouteMatch lambda = server.getRouteRegistry().resolveRoute(HttpMethod.GET, "/test/param/John");
+        assertNotNull(lambda.entry().getStatelessHandler());
+
+        JSONArray pools = new JSONObject(RequestPerformer.sendGetRequest(BASE_URL + "/_flash/devtools/api/handlerpool"))
+                .getJSONArray("pools");
+        for (int i = 0; i < pools.length(); i++) {
+            assertNotEquals("StatelessTestHandler", pools.getJSONObject(i).getString("handlerName"));
+        }
+    }
+}
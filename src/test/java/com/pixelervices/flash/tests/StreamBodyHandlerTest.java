@@ -0,0 +1,20 @@
+package com.pixelervices.flash.tests;
+
+import com.pixelervices.flash.BaseTest;
+import com.pixelervices.flash.utils.RequestPerformer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class StreamBodyHandlerTest extends BaseTest {
+    @Test
+    public void testStreamedBodyLargerThanBuffer() throws Exception {
+        long size = 8L * 1024 * 1024;
+        long checksum = 0;
+        for (long i = 0; i < size; i++) {
+            checksum += i % 251;
+        }
+        String response = RequestPerformer.performStreamingPost("http://localhost:8080/test/stream", size);
+        assertEquals("Received: " + size + " bytes, checksum " + checksum, response);
+    }
+}
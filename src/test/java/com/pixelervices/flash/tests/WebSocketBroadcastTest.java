@@ -0,0 +1,118 @@
+package com.pixelervices.flash.tests;
+
+import com.pixelervices.flash.BaseTest;
+import com.pixelervices.flash.utils.RequestPerformer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static com.pixelervices.flash.utils.RawWebSocket.*;
+import static org.junit.Assert.*;
+
+public class WebSocketBroadcastTest extends BaseTest {
+
+    @Before
+    public void awaitServer() throws InterruptedException {
+        for (int attempt = 0; RequestPerformer.sendGetRequest("http://localhost:8080/test/helloworld") == null; attempt++) {
+            if (attempt == 50) throw new AssertionError("Server did not start");
+            Thread.sleep(100);
+        }
+    }
+
+    @Test
+    public void testPublishReachesSubscribersOnly() throws Exception {
+        try (Socket first = connect("/ws/topics"); Socket second = connect("/ws/topics"); Socket other = connect("/ws/topics")) {
+            send(first, "sub:ticker");
+            send(second, "sub:ticker");
+            send(other, "sub:news");
+            assertEquals(2, server.getWebSocketBroadcaster().getSubscriberCount("ticker"));
+
+            assertEquals(2, server.publish("ticker", "AAPL 187.5"));
+            assertEquals(1, server.publish("news", "closing bell"));
+            assertEquals(2, server.publish("ticker", new byte[]{1, 2, 3}));
+            for (Socket subscriber : new Socket[]{first, second}) {
+                DataInputStream in = new DataInputStream(subscriber.getInputStream());
+                assertEquals("AAPL 187.5", new String(readFrame(in, 0x81), StandardCharsets.UTF_8));
+                assertArrayEquals(new byte[]{1, 2, 3}, readFrame(in, 0x82));
+            }
+            // The news are the first thing the other session receives
+            assertEquals("closing bell", new String(readFrame(new DataInputStream(other.getInputStream()), 0x81), StandardCharsets.UTF_8));
+
+            send(second, "unsub:ticker");
+            assertEquals(1, server.publish("ticker", "AAPL 188.0"));
+            assertEquals(0, server.publish("nobody", "listens"));
+        }
+    }
+
+    @Test
+    public void testBroadcastReachesEverySession() throws Exception {
+        try (Socket first = connect("/ws/topics"); Socket second = connect("/ws/burst")) {
+            // Sessions are registered once they answer
+            send(first, "sub:all");
+            second.getOutputStream().write(frame(0x81, text("1:1:0")));
+            assertEquals("0:0:", new String(readFrame(new DataInputStream(second.getInputStream()), 0x81), StandardCharsets.UTF_8));
+            assertTrue(server.broadcast("to everyone") >= 2);
+            for (Socket socket : new Socket[]{first, second}) {
+                assertEquals("to everyone", new String(readFrame(new DataInputStream(socket.getInputStream()), 0x81), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void testSlowSubscriberDoesNotHoldUpOthers() throws Exception {
+        try (Socket fast = connect("/ws/topics"); Socket slow = connect("/ws/topics")) {
+            send(fast, "sub:quotes");
+            send(slow, "sub:quotes");
+            DataInputStream in = new DataInputStream(new BufferedInputStream(fast.getInputStream()));
+            String quote = "q".repeat(4000);
+            long slowest = 0;
+            // Far more than the send queue and the socket buffers of the slow session hold
+            for (int i = 0; i < 2000; i++) {
+                long start = System.nanoTime();
+                assertTrue(server.publish("quotes", i + ":" + quote) >= 1);
+                slowest = Math.max(slowest, System.nanoTime() - start);
+                assertEquals(i + ":" + quote, new String(readFrame(in, 0x81), StandardCharsets.UTF_8));
+            }
+            // Never waited for the send timeout, the slow session was closed instead
+            assertTrue(slowest < TimeUnit.SECONDS.toNanos(1));
+            BufferedInputStream buffered = new BufferedInputStream(slow.getInputStream());
+            DataInputStream slowIn = new DataInputStream(buffered);
+            while (true) {
+                buffered.mark(1);
+                int firstByte = slowIn.readUnsignedByte();
+                buffered.reset();
+                if (firstByte != 0x81) {
+                    break;
+                }
+                readFrame(slowIn, 0x81);
+            }
+            assertEquals(1008, closeCode(readFrame(slowIn, 0x88)));
+        }
+    }
+
+    @Test
+    public void testClosedSessionsAreUnsubscribed() throws Exception {
+        try (Socket socket = connect("/ws/topics")) {
+            send(socket, "sub:closing");
+            assertEquals(1, server.getWebSocketBroadcaster().getSubscriberCount("closing"));
+        }
+        for (int attempt = 0; server.getWebSocketBroadcaster().getSubscriberCount("closing") > 0; attempt++) {
+            if (attempt == 50) fail("Closed session is still subscribed");
+            Thread.sleep(100);
+        }
+    }
+
+    /**
+     * Sends a command and waits for its acknowledgement.
+     */
+    private static void send(Socket socket, String command) throws IOException {
+        socket.getOutputStream().write(frame(0x81, text(command)));
+        assertEquals("ok " + command, new String(readFrame(new DataInputStream(socket.getInputStream()), 0x81), StandardCharsets.UTF_8));
+    }
+}
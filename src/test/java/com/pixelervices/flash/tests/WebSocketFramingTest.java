@@ -0,0 +1,118 @@
+package com.pixelervices.flash.tests;
+
+import com.pixelervices.flash.BaseTest;
+import com.pixelervices.flash.utils.RequestPerformer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static com.pixelervices.flash.utils.RawWebSocket.*;
+import static org.junit.Assert.*;
+
+public class WebSocketFramingTest extends BaseTest {
+    @Before
+    public void awaitServer() throws InterruptedException {
+        for (int attempt = 0; RequestPerformer.sendGetRequest("http://localhost:8080/test/helloworld") == null; attempt++) {
+            if (attempt == 50) throw new AssertionError("Server did not start");
+            Thread.sleep(100);
+        }
+    }
+
+    @Test
+    public void testMultipleFramesInOneRead() throws Exception {
+        try (Socket socket = connect("/ws")) {
+            ByteArrayOutputStream frames = new ByteArrayOutputStream();
+            frames.write(frame(0x81, text("first")));
+            frames.write(frame(0x81, text("second")));
+            frames.write(frame(0x82, new byte[]{1, 2, 3}));
+            socket.getOutputStream().write(frames.toByteArray());
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            assertEquals("tsrif", new String(readFrame(in, 0x81), StandardCharsets.UTF_8));
+            assertEquals("dnoces", new String(readFrame(in, 0x81), StandardCharsets.UTF_8));
+            assertArrayEquals(new byte[]{3, 2, 1}, readFrame(in, 0x82));
+        }
+    }
+
+    @Test
+    public void testFrameSplitAcrossReads() throws Exception {
+        try (Socket socket = connect("/ws")) {
+            OutputStream out = socket.getOutputStream();
+            byte[] frame = frame(0x81, text("split"));
+            // One byte of the header, the rest of the header, then the payload in two parts
+            for (int[] part : new int[][]{{0, 1}, {1, 6}, {6, 8}, {8, frame.length}}) {
+                out.write(Arrays.copyOfRange(frame, part[0], part[1]));
+                out.flush();
+                Thread.sleep(50);
+            }
+            assertEquals("tilps", new String(readFrame(new DataInputStream(socket.getInputStream()), 0x81), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testFragmentedMessageWithControlFrame() throws Exception {
+        try (Socket socket = connect("/ws")) {
+            OutputStream out = socket.getOutputStream();
+            out.write(frame(0x01, text("frag")));
+            out.write(frame(0x89, text("ping")));
+            out.flush();
+            Thread.sleep(50);
+            out.write(frame(0x00, text("men")));
+            out.write(frame(0x80, text("ted")));
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            assertEquals("ping", new String(readFrame(in, 0x8A), StandardCharsets.UTF_8));
+            assertEquals("detnemgarf", new String(readFrame(in, 0x81), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testMessageLargerThanReadBuffer() throws Exception {
+        byte[] payload = new byte[200 * 1024];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (i % 251);
+        }
+        try (Socket socket = connect("/ws")) {
+            OutputStream out = socket.getOutputStream();
+            // Two fragments, the first one larger than the read buffer on its own
+            out.write(frame(0x02, Arrays.copyOfRange(payload, 0, 150 * 1024)));
+            out.write(frame(0x80, Arrays.copyOfRange(payload, 150 * 1024, payload.length)));
+            out.flush();
+
+            byte[] echoed = readFrame(new DataInputStream(socket.getInputStream()), 0x82);
+            assertEquals(payload.length, echoed.length);
+            for (int i = 0; i < payload.length; i++) {
+                assertEquals(payload[payload.length - 1 - i], echoed[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testMessageTooBig() throws Exception {
+        try (Socket socket = connect("/ws")) {
+            OutputStream out = socket.getOutputStream();
+            out.write(frame(0x02, new byte[WS_MAX_MESSAGE_SIZE / 2 + 1]));
+            out.write(frame(0x80, new byte[WS_MAX_MESSAGE_SIZE / 2]));
+            out.flush();
+
+            byte[] close = readFrame(new DataInputStream(socket.getInputStream()), 0x88);
+            assertEquals(1009, closeCode(close));
+        }
+    }
+
+    @Test
+    public void testUnexpectedContinuation() throws Exception {
+        try (Socket socket = connect("/ws")) {
+            socket.getOutputStream().write(frame(0x80, text("orphan")));
+            byte[] close = readFrame(new DataInputStream(socket.getInputStream()), 0x88);
+            assertEquals(1002, closeCode(close));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.pixelervices.flash.tests;
+
+import com.pixelervices.flash.BaseTest;
+import com.pixelervices.flash.utils.RequestPerformer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static com.pixelervices.flash.utils.RawWebSocket.*;
+import static org.junit.Assert.*;
+
+public class WebSocketSendQueueTest extends BaseTest {
+    private static final int THREADS = 8;
+
+    @Before
+    public void awaitServer() throws InterruptedException {
+        for (int attempt = 0; RequestPerformer.sendGetRequest("http://localhost:8080/test/helloworld") == null; attempt++) {
+            if (attempt == 50) throw new AssertionError("Server did not start");
+            Thread.sleep(100);
+        }
+    }
+
+    @Test
+    public void testConcurrentSendersKeepFramesIntact() throws Exception {
+        try (Socket socket = connect("/ws/burst")) {
+            socket.getOutputStream().write(frame(0x81, text(THREADS + ":500:20")));
+            assertAllReceived(new DataInputStream(socket.getInputStream()), 500, 20);
+        }
+    }
+
+    @Test
+    public void testSlowConsumerBlocksSenders() throws Exception {
+        long overflows = server.getWebSocketSendQueueOverflowCount();
+        try (Socket socket = connect("/ws/burst")) {
+            // Far more than the send queue and the socket buffers hold, while nobody reads
+            socket.getOutputStream().write(frame(0x81, text(THREADS + ":500:4000")));
+            for (int attempt = 0; server.getWebSocketSendQueueOverflowCount() == overflows; attempt++) {
+                if (attempt == 50) fail("The send queue never filled up");
+                Thread.sleep(100);
+            }
+            // Blocked senders resume once the client reads, nothing is lost
+            assertAllReceived(new DataInputStream(new BufferedInputStream(socket.getInputStream())), 500, 4000);
+        }
+    }
+
+    @Test
+    public void testCallbacksNeverWaitForSlowConsumers() throws Exception {
+        try (Socket socket = connect("/ws/burst")) {
+            // Sent by the read callback itself, on an I/O thread, while nobody reads
+            socket.getOutputStream().write(frame(0x81, text("0:500:4000")));
+            BufferedInputStream buffered = new BufferedInputStream(socket.getInputStream());
+            DataInputStream in = new DataInputStream(buffered);
+            int received = 0;
+            while (true) {
+                buffered.mark(1);
+                int firstByte = in.readUnsignedByte();
+                buffered.reset();
+                if (firstByte != 0x81) {
+                    break;
+                }
+                readFrame(in, 0x81);
+                received++;
+            }
+            // Closed instead of blocking, well before the send timeout
+            assertTrue(received < 500);
+            assertEquals(1008, closeCode(readFrame(in, 0x88)));
+        }
+    }
+
+    /**
+     * Reads the messages of all threads and checks that each thread's messages arrive in order.
+     */
+    private static void assertAllReceived(DataInputStream in, int count, int size) throws Exception {
+        int[] next = new int[THREADS];
+        for (int received = 0; received < THREADS * count; received++) {
+            String[] message = new String(readFrame(in, 0x81), StandardCharsets.UTF_8).split(":");
+            int thread = Integer.parseInt(message[0]);
+            assertEquals(next[thread]++, Integer.parseInt(message[1]));
+            assertEquals(size, message[2].length());
+        }
+        for (int thread = 0; thread < THREADS; thread++) {
+            assertEquals(count, next[thread]);
+        }
+    }
+}
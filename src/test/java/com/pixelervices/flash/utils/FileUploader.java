@@ -25,4 +25,24 @@ public class FileUploader {
             return response.body().string();
         }
     }
+
+    public static String uploadBinaryFile(String serverUrl, byte[] content, String label) throws IOException {
+        OkHttpClient client = new OkHttpClient();
+
+        RequestBody requestBody = new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart("label", label)
+                .addFormDataPart("file", "data.bin",
+                        RequestBody.create(content, MediaType.parse("application/octet-stream")))
+                .build();
+
+        Request request = new Request.Builder()
+                .url(serverUrl)
+                .post(requestBody)
+                .build();
+
+        try (Response response = client.newCall(request).execute()) {
+            return response.body().string();
+        }
+    }
 }
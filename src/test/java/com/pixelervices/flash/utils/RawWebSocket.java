@@ -0,0 +1,94 @@
+package com.pixelervices.flash.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Speaks the WebSocket protocol over a plain socket, so tests control exactly which bytes are sent.
+ */
+public class RawWebSocket {
+    private static final byte[] MASK = {0x11, 0x22, 0x33, 0x44};
+
+    public static Socket connect(String path) throws IOException {
+        return connect(path, "");
+    }
+
+    /**
+     * Opens a socket and completes the handshake.
+     *
+     * @param path         the WebSocket route
+     * @param extraHeaders further request headers, each ending with CRLF
+     * @return the socket, positioned after the handshake response
+     */
+    public static Socket connect(String path, String extraHeaders) throws IOException {
+        Socket socket = new Socket("localhost", 8080);
+        socket.setSoTimeout(5000);
+        socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n" +
+                "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n" + extraHeaders + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        String head = readHandshake(socket.getInputStream());
+        assertTrue(head.startsWith("HTTP/1.1 101"));
+        return socket;
+    }
+
+    public static String readHandshake(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        while (!head.toString().endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if (b == -1) throw new IOException("Connection closed during handshake");
+            head.append((char) b);
+        }
+        return head.toString();
+    }
+
+    public static byte[] text(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes a masked client frame.
+     */
+    public static byte[] frame(int firstByte, byte[] payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(firstByte);
+        if (payload.length <= 125) {
+            out.write(0x80 | payload.length);
+        } else if (payload.length <= 65535) {
+            out.write(0x80 | 126);
+            out.write(payload.length >> 8);
+            out.write(payload.length);
+        } else {
+            out.write(0x80 | 127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) ((long) payload.length >> shift));
+            }
+        }
+        out.writeBytes(MASK);
+        for (int i = 0; i < payload.length; i++) {
+            out.write(payload[i] ^ MASK[i % 4]);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads an unmasked server frame and checks its first byte.
+     */
+    public static byte[] readFrame(DataInputStream in, int expectedFirstByte) throws IOException {
+        assertEquals(expectedFirstByte, in.readUnsignedByte());
+        int length = in.readUnsignedByte();
+        long payloadLength = length == 126 ? in.readUnsignedShort() : length == 127 ? in.readLong() : length;
+        byte[] payload = new byte[(int) payloadLength];
+        in.readFully(payload);
+        return payload;
+    }
+
+    public static int closeCode(byte[] closePayload) {
+        return ((closePayload[0] & 0xFF) << 8) | (closePayload[1] & 0xFF);
+    }
+}
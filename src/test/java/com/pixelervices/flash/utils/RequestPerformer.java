@@ -1,6 +1,7 @@
 package com.pixelervices.flash.utils;
 
 import okhttp3.*;
+import okio.BufferedSink;
 import org.json.JSONObject;
 
 import java.io.File;
@@ -63,4 +64,45 @@ public class RequestPerformer {
             return response.body().string();
         }
     }
+
+    /**
+     * Posts a generated body of the given size, byte i being {@code i % 251}.
+     */
+    public static String performStreamingPost(String serverUrl, long size) throws IOException {
+        OkHttpClient client = new OkHttpClient();
+
+        RequestBody requestBody = new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return MediaType.parse("application/octet-stream");
+            }
+
+            @Override
+            public long contentLength() {
+                return size;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                byte[] chunk = new byte[8192];
+                for (long written = 0; written < size; ) {
+                    int n = (int) Math.min(chunk.length, size - written);
+                    for (int i = 0; i < n; i++) {
+                        chunk[i] = (byte) ((written + i) % 251);
+                    }
+                    sink.write(chunk, 0, n);
+                    written += n;
+                }
+            }
+        };
+
+        Request request = new Request.Builder()
+                .url(serverUrl)
+                .post(requestBody)
+                .build();
+
+        try (Response response = client.newCall(request).execute()) {
+            return response.body().string();
+        }
+    }
 }